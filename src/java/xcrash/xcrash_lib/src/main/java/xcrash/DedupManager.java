@@ -0,0 +1,196 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * Duplicate crash detection.
+ *
+ * <p>The state file is shared with the native crash dumper (xcd_dedup.c),
+ * so the two files must keep the same format.
+ */
+class DedupManager {
+
+    private static final int magic = 0x44444358; //"XCDD"
+    private static final int version = 1;
+    private static final int entries = 16;
+    private static final int entrySize = 32;
+    private static final int headSize = 8;
+    private static final int stateSize = headSize + entries * entrySize;
+
+    private static final long hashInit = 0xcbf29ce484222325L;
+    private static final long hashPrime = 0x100000001b3L;
+    private static final int signatureFrames = 8;
+
+    private String logDir = null;
+    private long windowUs = 0;
+    private static final DedupManager instance = new DedupManager();
+
+    private DedupManager() {
+    }
+
+    static DedupManager getInstance() {
+        return instance;
+    }
+
+    void initialize(String logDir, int windowSec) {
+        if (windowSec <= 0) {
+            return;
+        }
+
+        this.logDir = logDir;
+        this.windowUs = windowSec * 1000L * 1000L;
+    }
+
+    boolean isEnabled() {
+        return this.logDir != null;
+    }
+
+    /**
+     * Record a crash occurrence.
+     *
+     * @return The number of occurrences of this signature within the window (including this one).
+     * Return 1 if it's a new crash, or if anything goes wrong.
+     */
+    int check(long signature, long crashTimeUs) {
+        if (this.logDir == null) {
+            return 1;
+        }
+
+        if (!Util.checkAndCreateDir(logDir)) {
+            return 1;
+        }
+
+        RandomAccessFile raf = null;
+        FileLock lock = null;
+        try {
+            raf = new RandomAccessFile(logDir + "/" + Util.dedupFileName, "rw");
+            FileChannel fc = raf.getChannel();
+
+            //never wait for the lock, a full dump is better than no dump
+            lock = fc.tryLock();
+            if (lock == null) {
+                return 1;
+            }
+
+            //load state, reset it if it's a new or broken file
+            ByteBuffer state = ByteBuffer.allocate(stateSize).order(ByteOrder.LITTLE_ENDIAN);
+            while (state.hasRemaining() && fc.read(state, state.position()) > 0) {
+                //read until EOF
+            }
+            if (state.hasRemaining() || state.getInt(0) != magic || state.getInt(4) != version) {
+                state.clear();
+                while (state.hasRemaining()) {
+                    state.put((byte) 0);
+                }
+                state.putInt(0, magic);
+                state.putInt(4, version);
+            }
+
+            //find the entry with the same signature, or the least recently used one
+            int entry = -1;
+            boolean found = false;
+            for (int i = 0; i < entries; i++) {
+                int pos = headSize + i * entrySize;
+                if (state.getInt(pos + 24) > 0 && state.getLong(pos) == signature) {
+                    entry = pos;
+                    found = true;
+                    break;
+                }
+                if (entry < 0 || state.getLong(pos + 16) < state.getLong(entry + 16)) {
+                    entry = pos;
+                }
+            }
+
+            int count = 1;
+            long firstTime = state.getLong(entry + 8);
+            if (found && crashTimeUs >= firstTime && crashTimeUs - firstTime <= windowUs) {
+                //duplicate crash within the window
+                count = state.getInt(entry + 24) + 1;
+                state.putLong(entry + 16, crashTimeUs);
+                state.putInt(entry + 24, count);
+            } else {
+                //new crash, or the window has expired
+                state.putLong(entry, signature);
+                state.putLong(entry + 8, crashTimeUs);
+                state.putLong(entry + 16, crashTimeUs);
+                state.putInt(entry + 24, 1);
+            }
+
+            state.clear();
+            while (state.hasRemaining()) {
+                fc.write(state, state.position());
+            }
+
+            return count;
+        } catch (Exception e) {
+            XCrash.getLogger().w(Util.TAG, "DedupManager check failed", e);
+            return 1;
+        } finally {
+            if (lock != null) {
+                try {
+                    lock.release();
+                } catch (Exception ignored) {
+                }
+            }
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the signature of a Java exception, from the exception types and the top frames of each cause.
+     */
+    static long getSignature(Throwable throwable) {
+        long hash = hashInit;
+        int depth = 0;
+
+        for (Throwable t = throwable; t != null && depth < signatureFrames; t = t.getCause(), depth++) {
+            hash = hash(hash, t.getClass().getName());
+
+            StackTraceElement[] elements = t.getStackTrace();
+            for (int i = 0; i < elements.length && i < signatureFrames; i++) {
+                hash = hash(hash, elements[i].toString());
+            }
+        }
+
+        return hash;
+    }
+
+    //FNV-1a
+    private static long hash(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= hashPrime;
+        }
+        return hash;
+    }
+}
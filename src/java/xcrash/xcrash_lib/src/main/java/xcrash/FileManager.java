@@ -77,6 +77,7 @@ class FileManager {
 
             int javaLogCount = 0;
             int nativeLogCount = 0;
+            int minidumpCount = 0;
             int placeholderCleanCount = 0;
             int placeholderDirtyCount = 0;
             for (final File file : files) {
@@ -87,6 +88,8 @@ class FileManager {
                             javaLogCount++;
                         } else if (name.endsWith(Util.nativeLogSuffix)) {
                             nativeLogCount++;
+                        } else if (name.endsWith(Util.minidumpSuffix)) {
+                            minidumpCount++;
                         }
                     } else if (name.startsWith(placeholderPrefix + "_")) {
                         if (name.endsWith(placeholderCleanSuffix)) {
@@ -100,12 +103,14 @@ class FileManager {
 
             if (javaLogCount <= this.javaLogCountMax
                 && nativeLogCount <= this.nativeLogCountMax
+                && minidumpCount <= this.nativeLogCountMax
                 && placeholderCleanCount == this.placeholderCountMax
                 && placeholderDirtyCount == 0) {
                 //everything OK, need to do nothing
                 this.delayMs = -1;
             } else if (javaLogCount > this.javaLogCountMax + 10
                 || nativeLogCount > this.nativeLogCountMax + 10
+                || minidumpCount > this.nativeLogCountMax + 10
                 || placeholderCleanCount > this.placeholderCountMax + 10
                 || placeholderDirtyCount > 10) {
                 //too many unwanted files, clean up now
@@ -113,6 +118,7 @@ class FileManager {
                 this.delayMs = -1;
             } else if (javaLogCount > this.javaLogCountMax
                 || nativeLogCount > this.nativeLogCountMax
+                || minidumpCount > this.nativeLogCountMax
                 || placeholderCleanCount > this.placeholderCountMax
                 || placeholderDirtyCount > 0) {
                 //have some unwanted files, clean up as soon as possible
@@ -326,6 +332,12 @@ class FileManager {
                 return name.startsWith(Util.logPrefix + "_") && name.endsWith(Util.javaLogSuffix);
             }
         });
+        File[] minidumpFiles = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(Util.logPrefix + "_") && name.endsWith(Util.minidumpSuffix);
+            }
+        });
 
         //delete unwanted files
         if (nativeFiles != null && nativeFiles.length >= nativeLogCountMax) {
@@ -350,6 +362,17 @@ class FileManager {
                 recycleLogFile(javaFiles[i]);
             }
         }
+        if (minidumpFiles != null && minidumpFiles.length >= nativeLogCountMax) {
+            Arrays.sort(minidumpFiles, new Comparator<File>() {
+                @Override
+                public int compare(File f1, File f2) {
+                    return f1.getName().compareTo(f2.getName());
+                }
+            });
+            for (int i = 0; i < minidumpFiles.length - nativeLogCountMax; i++) {
+                recycleLogFile(minidumpFiles[i]);
+            }
+        }
     }
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
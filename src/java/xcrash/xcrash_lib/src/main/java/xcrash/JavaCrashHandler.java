@@ -37,6 +37,9 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 import android.annotation.SuppressLint;
@@ -48,8 +51,19 @@ class JavaCrashHandler implements UncaughtExceptionHandler {
 
     private static final JavaCrashHandler instance = new JavaCrashHandler();
 
+    //max time the other crashed threads wait for the first one
+    private static final long concurrentCrashWaitMs = 10000;
+
     private final Date startTime = new Date();
 
+    //the first crashed thread writes the tombstone, the others are appended to it
+    private final AtomicReference<Thread> crashedThread = new AtomicReference<Thread>();
+    private final CountDownLatch crashHandled = new CountDownLatch(1);
+    private final Object concurrentCrashesLock = new Object();
+    private final List<String> concurrentCrashesPending = new ArrayList<String>();
+    private RandomAccessFile concurrentCrashesRaf = null;
+    private boolean concurrentCrashesClosed = false;
+
     private Context ctx;
     private int pid;
     private String processName;
@@ -102,22 +116,102 @@ class JavaCrashHandler implements UncaughtExceptionHandler {
 
     @Override
     public void uncaughtException(Thread thread, Throwable throwable) {
+        boolean first = crashedThread.compareAndSet(null, thread);
+
         try {
-            handleException(thread, throwable);
+            if (first) {
+                handleException(thread, throwable);
+            } else {
+                handleConcurrentException(thread, throwable);
+            }
         } catch (Exception e) {
             XCrash.getLogger().e(Util.TAG, "JavaCrashHandler handleException failed", e);
         }
 
-        if (this.rethrow && defaultHandler != null) {
-            defaultHandler.uncaughtException(thread, throwable);
-        } else {
-            android.os.Process.killProcess(this.pid);
+        try {
+            if (this.rethrow && defaultHandler != null) {
+                defaultHandler.uncaughtException(thread, throwable);
+            } else {
+                android.os.Process.killProcess(this.pid);
+            }
+        } finally {
+            if (first) {
+                crashHandled.countDown();
+            }
+        }
+    }
+
+    private void handleConcurrentException(Thread thread, Throwable throwable) {
+        if (thread != crashedThread.get()) {
+            String concurrentCrash = getConcurrentCrash(thread, throwable);
+
+            synchronized (concurrentCrashesLock) {
+                if (concurrentCrashesRaf != null) {
+                    try {
+                        concurrentCrashesRaf.write(concurrentCrash.getBytes("UTF-8"));
+                    } catch (Exception e) {
+                        XCrash.getLogger().e(Util.TAG, "JavaCrashHandler write concurrent crash failed", e);
+                    }
+                } else if (!concurrentCrashesClosed) {
+                    concurrentCrashesPending.add(concurrentCrash);
+                } else {
+                    XCrash.getLogger().w(Util.TAG, "JavaCrashHandler concurrent crash not recorded, thread: " + thread.getName());
+                }
+            }
+        }
+
+        //the process will be killed after the first crash has been handled
+        try {
+            if (!crashHandled.await(concurrentCrashWaitMs, TimeUnit.MILLISECONDS)) {
+                XCrash.getLogger().w(Util.TAG, "JavaCrashHandler wait for the first crash timeout");
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void openConcurrentCrashes(RandomAccessFile raf) throws IOException {
+        synchronized (concurrentCrashesLock) {
+            if (concurrentCrashesClosed) return;
+
+            //the concurrent crashes before the log file is opened
+            for (String concurrentCrash : concurrentCrashesPending) {
+                raf.write(concurrentCrash.getBytes("UTF-8"));
+            }
+            concurrentCrashesPending.clear();
+            concurrentCrashesRaf = raf;
+        }
+    }
+
+    private void closeConcurrentCrashes() {
+        synchronized (concurrentCrashesLock) {
+            //the log file was not opened, do not lose them silently
+            for (String concurrentCrash : concurrentCrashesPending) {
+                XCrash.getLogger().w(Util.TAG, "JavaCrashHandler concurrent crash not recorded in the log file:\n" + concurrentCrash);
+            }
+            concurrentCrashesPending.clear();
+            concurrentCrashesRaf = null;
+            concurrentCrashesClosed = true;
+        }
+    }
+
+    private void writeLog(RandomAccessFile raf, String s) throws IOException {
+        //do not interleave with the concurrent crashes
+        synchronized (concurrentCrashesLock) {
+            raf.write(s.getBytes("UTF-8"));
         }
     }
 
     private void handleException(Thread thread, Throwable throwable) {
         Date crashTime = new Date();
 
+        //check if this is a duplicate of a recent crash
+        long signature = 0;
+        int dupCount = 1;
+        if (DedupManager.getInstance().isEnabled()) {
+            signature = DedupManager.getSignature(throwable);
+            dupCount = DedupManager.getInstance().check(signature, crashTime.getTime() * 1000);
+        }
+
         //create log file
         File logFile = null;
         try {
@@ -130,7 +224,7 @@ class JavaCrashHandler implements UncaughtExceptionHandler {
         //get emergency
         String emergency = null;
         try {
-            emergency = getEmergency(crashTime, thread, throwable);
+            emergency = getEmergency(crashTime, thread, throwable, dupCount, signature);
         } catch (Exception e) {
             XCrash.getLogger().e(Util.TAG, "JavaCrashHandler getEmergency failed", e);
         }
@@ -149,23 +243,28 @@ class JavaCrashHandler implements UncaughtExceptionHandler {
                 //If we wrote the emergency info successfully, we don't need to return it from callback again.
                 emergency = null;
 
-                //write logcat
-                if (logcatMainLines > 0 || logcatSystemLines > 0 || logcatEventsLines > 0) {
-                    raf.write(getLogcat(pid).getBytes("UTF-8"));
-                }
+                //write concurrent crashes (from now on, they are written by the crashed threads themselves)
+                openConcurrentCrashes(raf);
 
-                //write memory info
-                raf.write("memory info:\n".getBytes("UTF-8"));
-                raf.write(Util.getProcessMemoryInfo().getBytes("UTF-8"));
-                raf.write("\n".getBytes("UTF-8"));
+                //the first tombstone has been fully recorded, only record a reduced one for the duplicates
+                if (dupCount == 1) {
+                    //write logcat
+                    if (logcatMainLines > 0 || logcatSystemLines > 0 || logcatEventsLines > 0) {
+                        writeLog(raf, getLogcat(pid));
+                    }
+
+                    //write memory info
+                    writeLog(raf, "memory info:\n" + Util.getProcessMemoryInfo() + "\n");
 
-                //write other threads info
-                if (dumpAllThreads) {
-                    raf.write(getOtherThreadsInfo(thread).getBytes("UTF-8"));
+                    //write other threads info
+                    if (dumpAllThreads) {
+                        writeLog(raf, getOtherThreadsInfo(thread));
+                    }
                 }
             } catch (Exception e) {
                 XCrash.getLogger().e(Util.TAG, "JavaCrashHandler write log file failed", e);
             } finally {
+                closeConcurrentCrashes();
                 if (raf != null) {
                     try {
                         raf.close();
@@ -175,6 +274,8 @@ class JavaCrashHandler implements UncaughtExceptionHandler {
             }
         }
 
+        closeConcurrentCrashes();
+
         //callback
         if (callback != null) {
             try {
@@ -184,7 +285,7 @@ class JavaCrashHandler implements UncaughtExceptionHandler {
         }
     }
 
-    private String getEmergency(Date crashTime, Thread thread, Throwable throwable) {
+    private String getEmergency(Date crashTime, Thread thread, Throwable throwable, int dupCount, long signature) {
         //memory info
         Util.SystemMemoryInfo mi = Util.getSystemMemoryInfo(ctx);
 
@@ -217,6 +318,7 @@ class JavaCrashHandler implements UncaughtExceptionHandler {
                 + "Brand: '" + Build.BRAND + "'\n"
                 + "Model: '" + Build.MODEL + "'\n"
                 + "Build fingerprint: '" + Build.FINGERPRINT + "'\n"
+                + (dupCount > 1 ? String.format(Locale.US, "Duplicate crash: 'count %d, signature %016x'\n", dupCount, signature) : "")
                 + "pid: " + pid + ", tid: " + android.os.Process.myTid() + ", name: " + thread.getName() + "  >>> " + processName + " <<<\n"
                 + "\n"
                 + "java stacktrace:\n"
@@ -224,6 +326,24 @@ class JavaCrashHandler implements UncaughtExceptionHandler {
                 + "\n";
     }
 
+    private String getConcurrentCrash(Thread thread, Throwable throwable) {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        throwable.printStackTrace(pw);
+
+        //one section per thread, without empty lines
+        StringBuilder sb = new StringBuilder();
+        sb.append("concurrent crashes:\n");
+        sb.append("pid: ").append(pid).append(", tid: ").append(android.os.Process.myTid()).append(", name: ").append(thread.getName()).append("  >>> ").append(processName).append(" <<<\n");
+        for (String line : sw.toString().split("\n")) {
+            if (!line.trim().isEmpty()) {
+                sb.append(line).append("\n");
+            }
+        }
+        sb.append("\n");
+        return sb.toString();
+    }
+
     private String getLogcat(int pid) {
         StringBuilder sb = new StringBuilder();
 
@@ -25,12 +25,22 @@ package xcrash;
 import android.content.Context;
 import android.text.TextUtils;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Map;
 
 class NativeCrashHandler {
 
     private static final NativeCrashHandler instance = new NativeCrashHandler();
 
+    private static final String testStubLibName = "libxcrash_test_stub.so";
+    private static final String testLibsDirName = "xcrash_test_libs";
+
+    private Context ctx = null;
     private ICrashCallback callback = null;
 
     private NativeCrashHandler() {
@@ -42,8 +52,10 @@ class NativeCrashHandler {
 
     int initialize(Context ctx, String appId, String appVersion, String logDir, boolean rethrow,
                    int logcatSystemLines, int logcatEventsLines, int logcatMainLines,
-                   boolean dumpElfHash, boolean dumpMap, boolean dumpFds, boolean dumpAllThreads,
-                   int dumpAllThreadsCountMax, String[] dumpAllThreadsWhiteList,
+                   boolean dumpElfHash, boolean dumpElfHashFast, boolean dumpMap, boolean dumpFds, boolean memInfoRollup,
+                   boolean dumpAllThreads, int dumpAllThreadsCountMax, String[] dumpAllThreadsWhiteList, int dumpAllThreadsWorkers,
+                   boolean dumpAllThreadsCompact, boolean dumpMinidump, int dedupWindowSec, boolean standbyDumper, boolean warmUpDumper, boolean warmUpAppLibs,
+                   int dumpTimeoutMs, int sectionTimeoutMs, boolean unwindCache, boolean elfHashCache,
                    ICrashCallback callback, ILibLoader libLoader) {
         //load lib
         if (libLoader == null) {
@@ -62,6 +74,7 @@ class NativeCrashHandler {
             }
         }
 
+        this.ctx = ctx;
         this.callback = callback;
 
         //init native lib
@@ -75,24 +88,180 @@ class NativeCrashHandler {
                     logcatEventsLines,
                     logcatMainLines,
                     dumpElfHash,
+                    dumpElfHashFast,
                     dumpMap,
                     dumpFds,
+                    memInfoRollup,
                     dumpAllThreads,
                     dumpAllThreadsCountMax,
-                    dumpAllThreadsWhiteList);
+                    dumpAllThreadsWhiteList,
+                    dumpAllThreadsWorkers,
+                    dumpAllThreadsCompact,
+                    dumpMinidump,
+                    dedupWindowSec,
+                    standbyDumper,
+                    dumpTimeoutMs,
+                    sectionTimeoutMs,
+                    unwindCache,
+                    elfHashCache);
             if (r != 0) {
                 XCrash.getLogger().e(Util.TAG, "NativeCrashHandler init failed");
                 return Errno.INIT_LIBRARY_FAILED;
             }
-            return 0; //OK
         } catch (Throwable e) {
             XCrash.getLogger().e(Util.TAG, "NativeCrashHandler init failed", e);
             return Errno.INIT_LIBRARY_FAILED;
         }
+
+        //warm up the page cache in a background thread
+        if (warmUpDumper || warmUpAppLibs) {
+            startWarmUp(ctx.getApplicationInfo().nativeLibraryDir, warmUpDumper, warmUpAppLibs);
+        }
+
+        //build the unwind cache in a background process
+        if (unwindCache) {
+            startBuildUnwindCache();
+        }
+
+        //precompute the ELF hash in a background process
+        if (dumpElfHash && elfHashCache) {
+            startBuildElfHashCache();
+        }
+        return 0; //OK
+    }
+
+    private void startWarmUp(final String appLibDir, final boolean dumper, final boolean appLibs) {
+        Thread thd = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long startTime = System.currentTimeMillis();
+                    long size = NativeCrashHandler.warmUp(appLibDir, dumper, appLibs);
+                    //only the time to request the readahead, the pages are loaded asynchronously by the kernel
+                    XCrash.getLogger().i(Util.TAG, "NativeCrashHandler warm up requested for " + size + " bytes in "
+                        + (System.currentTimeMillis() - startTime) + " ms (loaded asynchronously)");
+                } catch (Throwable e) {
+                    XCrash.getLogger().w(Util.TAG, "NativeCrashHandler warm up failed", e);
+                }
+            }
+        }, "xcrash_warm_up");
+        thd.setPriority(Thread.MIN_PRIORITY);
+        thd.start();
     }
 
-    void testNativeCrash(boolean runInNewThread) {
-        NativeCrashHandler.test(runInNewThread ? 1 : 0);
+    private void startBuildUnwindCache() {
+        Thread thd = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long startTime = System.currentTimeMillis();
+                    int r = NativeCrashHandler.buildUnwindCache();
+                    if (r == 0) {
+                        XCrash.getLogger().i(Util.TAG, "NativeCrashHandler build unwind cache in "
+                            + (System.currentTimeMillis() - startTime) + " ms");
+                    } else {
+                        XCrash.getLogger().w(Util.TAG, "NativeCrashHandler build unwind cache failed, error " + r);
+                    }
+                } catch (Throwable e) {
+                    XCrash.getLogger().w(Util.TAG, "NativeCrashHandler build unwind cache failed", e);
+                }
+            }
+        }, "xcrash_unwind_cache");
+        thd.setPriority(Thread.MIN_PRIORITY);
+        thd.start();
+    }
+
+    private void startBuildElfHashCache() {
+        Thread thd = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long startTime = System.currentTimeMillis();
+                    int r = NativeCrashHandler.buildElfHashCache();
+                    if (r == 0) {
+                        XCrash.getLogger().i(Util.TAG, "NativeCrashHandler build ELF hash cache in "
+                            + (System.currentTimeMillis() - startTime) + " ms");
+                    } else {
+                        XCrash.getLogger().w(Util.TAG, "NativeCrashHandler build ELF hash cache failed, error " + r);
+                    }
+                } catch (Throwable e) {
+                    XCrash.getLogger().w(Util.TAG, "NativeCrashHandler build ELF hash cache failed", e);
+                }
+            }
+        }, "xcrash_elf_hash_cache");
+        thd.setPriority(Thread.MIN_PRIORITY);
+        thd.start();
+    }
+
+    void testNativeCrash(XCrash.TestNativeCrashParameters params) {
+        NativeCrashHandler.test(params.runInNewThread,
+            params.idleThreads,
+            params.recursionDepth,
+            params.mapsCount,
+            params.mapsSizeKb,
+            prepareTestLibs(params.libsCount),
+            params.inSignalHandler,
+            params.crashingThreads);
+    }
+
+    //copies of the stub library, they are loaded as different libraries
+    private String[] prepareTestLibs(int count) {
+        if (count <= 0 || ctx == null) {
+            return null;
+        }
+
+        File stub = new File(ctx.getApplicationInfo().nativeLibraryDir, testStubLibName);
+        File dir = new File(ctx.getCacheDir(), testLibsDirName);
+        if (!stub.isFile()) {
+            XCrash.getLogger().w(Util.TAG, "NativeCrashHandler prepare test libs failed, " + stub + " not found");
+            return null;
+        }
+        if (!Util.checkAndCreateDir(dir.getAbsolutePath())) {
+            XCrash.getLogger().w(Util.TAG, "NativeCrashHandler prepare test libs failed, create " + dir + " failed");
+            return null;
+        }
+
+        String[] libs = new String[count];
+        for (int i = 0; i < count; i++) {
+            File lib = new File(dir, "libxcrash_test_" + i + ".so");
+            if (lib.length() != stub.length() && !copyFile(stub, lib)) {
+                XCrash.getLogger().w(Util.TAG, "NativeCrashHandler prepare test libs failed, " + i + " copied");
+                return Arrays.copyOf(libs, i);
+            }
+            libs[i] = lib.getAbsolutePath();
+        }
+        return libs;
+    }
+
+    private static boolean copyFile(File src, File dst) {
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(src);
+            out = new FileOutputStream(dst);
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+            return true;
+        } catch (Exception e) {
+            XCrash.getLogger().w(Util.TAG, "NativeCrashHandler copyFile failed", e);
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (Exception ignored) {
+                }
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }
     }
 
     private static String getStacktraceByThreadName(boolean isMainThread, String threadName) {
@@ -150,11 +319,37 @@ class NativeCrashHandler {
             int logcatEventsLines,
             int logcatMainLines,
             boolean dumpElfHash,
+            boolean dumpElfHashFast,
             boolean dumpMap,
             boolean dumpFds,
+            boolean memInfoRollup,
             boolean dumpAllThreads,
             int dumpAllThreadsCountMax,
-            String[] dumpAllThreadsWhiteList);
+            String[] dumpAllThreadsWhiteList,
+            int dumpAllThreadsWorkers,
+            boolean dumpAllThreadsCompact,
+            boolean dumpMinidump,
+            int dedupWindowSec,
+            boolean standbyDumper,
+            int dumpTimeoutMs,
+            int sectionTimeoutMs,
+            boolean unwindCache,
+            boolean elfHashCache);
+
+    private static native void test(
+            boolean runInNewThread,
+            int idleThreads,
+            int recursionDepth,
+            int mapsCount,
+            int mapsSizeKb,
+            String[] libs,
+            boolean inSignalHandler,
+            int crashingThreads);
+
+    //return the size of the files requested to be loaded, not waiting for the page-in
+    private static native long warmUp(String appLibDir, boolean dumper, boolean appLibs);
+
+    private static native int buildUnwindCache();
 
-    private static native void test(int runInNewThread);
+    private static native int buildElfHashCache();
 }
@@ -0,0 +1,255 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash;
+
+import android.util.Base64;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Renderer of the compact "other threads" section.
+ *
+ * <p>The record stream is written by the native crash dumper (xcd_compact.c),
+ * so the two files must keep the same format.
+ */
+class TombstoneCompact {
+
+    static final String title = "compact other threads";
+
+    private static final int version = 1;
+
+    private static final int typeHeader = 1;
+    private static final int typeStr = 2;
+    private static final int typeText = 3;
+    private static final int typeThread = 4;
+    private static final int typeRegs = 5;
+    private static final int typeBacktrace = 6;
+    private static final int typeFrame = 7;
+    private static final int typeStack = 8;
+    private static final int typeStackWord = 9;
+    private static final int typeStackGap = 10;
+    private static final int typeSectionEnd = 11;
+
+    private final byte[] buf;
+    private int pos;
+    private int end;
+
+    private String addrFmt = "%016x";
+    private String[][] regsNames = null;
+    private final Map<Long, String> strs = new HashMap<Long, String>();
+
+    private TombstoneCompact(byte[] buf) {
+        this.buf = buf;
+        this.pos = 0;
+        this.end = buf.length;
+    }
+
+    /**
+     * Render the classic text of the "other threads" section from the base64 content of the compact section.
+     *
+     * @param content The base64 lines.
+     * @return The classic text, or null if the content is not a valid record stream.
+     */
+    static String render(String content) {
+        byte[] buf;
+        try {
+            buf = Base64.decode(content, Base64.DEFAULT);
+        } catch (Exception ignored) {
+            return null;
+        }
+        if (buf == null || buf.length == 0) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        try {
+            if (!new TombstoneCompact(buf).render(sb)) {
+                return null;
+            }
+        } catch (Exception ignored) {
+            //truncated record stream, keep the rendered part
+        }
+        return sb.toString();
+    }
+
+    private boolean render(StringBuilder sb) throws UnsupportedEncodingException {
+        boolean headerFound = false;
+
+        while (pos < end) {
+            int type = buf[pos++] & 0xFF;
+            int len = (int) readVarint();
+            if (len < 0 || len > end - pos) {
+                break;
+            }
+            int recordEnd = pos + len;
+            int outerEnd = end;
+            end = recordEnd;
+
+            switch (type) {
+                case typeHeader:
+                    if (readVarint() != version) {
+                        return false;
+                    }
+                    addrFmt = "%0" + (readVarint() * 2) + "x";
+                    String[] rows = new String(buf, pos, end - pos, "UTF-8").split("\n");
+                    regsNames = new String[rows.length][];
+                    for (int i = 0; i < rows.length; i++) {
+                        regsNames[i] = rows[i].split(" ");
+                    }
+                    headerFound = true;
+                    break;
+                case typeStr:
+                    long id = readVarint();
+                    strs.put(id, new String(buf, pos, end - pos, "UTF-8"));
+                    break;
+                case typeText:
+                    sb.append(new String(buf, pos, end - pos, "UTF-8"));
+                    break;
+                case typeThread:
+                    long pid = readVarint();
+                    long tid = readVarint();
+                    String tname = readStr();
+                    String pname = readStr();
+                    sb.append(String.format(Locale.US, "pid: %d, tid: %d, name: %s  >>> %s <<<\n", pid, tid, tname, pname));
+                    break;
+                case typeRegs:
+                    renderRegs(sb);
+                    break;
+                case typeBacktrace:
+                    sb.append("backtrace:\n");
+                    break;
+                case typeFrame:
+                    renderFrame(sb);
+                    break;
+                case typeStack:
+                    sb.append("stack:\n");
+                    break;
+                case typeStackWord:
+                    renderStackWord(sb);
+                    break;
+                case typeStackGap:
+                    sb.append("         ........  ........\n");
+                    break;
+                case typeSectionEnd:
+                    sb.append('\n');
+                    break;
+                default:
+                    //unknown record type, skip it
+                    break;
+            }
+
+            pos = recordEnd;
+            end = outerEnd;
+
+            if (!headerFound) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void renderRegs(StringBuilder sb) {
+        if (regsNames == null) {
+            return;
+        }
+        for (String[] row : regsNames) {
+            sb.append("   ");
+            for (int i = 0; i < row.length; i++) {
+                sb.append(i == 0 ? " " : "  ");
+                sb.append(String.format(Locale.US, "%-3s " + addrFmt, row[i], readVarint()));
+            }
+            sb.append('\n');
+        }
+        sb.append('\n');
+    }
+
+    private void renderFrame(StringBuilder sb) {
+        long num = readVarint();
+        long relPc = readVarint();
+        String name = readStr();
+        long elfStartOffset = readVarint();
+        String funcName = readStr();
+        long funcOffset = readVarint();
+
+        sb.append(String.format(Locale.US, "    #%02d pc " + addrFmt + "  %s", num, relPc, name));
+        if (elfStartOffset != 0) {
+            sb.append(String.format(Locale.US, " (offset 0x%x)", elfStartOffset));
+        }
+        appendFunc(sb, funcName, funcOffset);
+        sb.append('\n');
+    }
+
+    private void renderStackWord(StringBuilder sb) {
+        long label = readVarint();
+        long addr = readVarint();
+        long data = readVarint();
+        String name = readStr();
+        String funcName = readStr();
+        long funcOffset = readVarint();
+
+        if (label > 0) {
+            sb.append(String.format(Locale.US, "    #%02d  ", label - 1));
+        } else {
+            sb.append("         ");
+        }
+        sb.append(String.format(Locale.US, addrFmt + "  " + addrFmt, addr, data));
+        if (name != null) {
+            sb.append("  ").append(name);
+            appendFunc(sb, funcName, funcOffset);
+        }
+        sb.append('\n');
+    }
+
+    private static void appendFunc(StringBuilder sb, String funcName, long funcOffset) {
+        if (funcName == null) {
+            return;
+        }
+        if (funcOffset > 0) {
+            sb.append(" (").append(funcName).append('+').append(funcOffset).append(')');
+        } else {
+            sb.append(" (").append(funcName).append(')');
+        }
+    }
+
+    private String readStr() {
+        long id = readVarint();
+        return (id == 0 ? null : strs.get(id));
+    }
+
+    private long readVarint() {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= end) {
+                throw new IllegalStateException("truncated record");
+            }
+            int b = buf[pos++] & 0xFF;
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return v;
+    }
+}
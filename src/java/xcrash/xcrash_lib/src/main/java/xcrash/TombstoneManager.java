@@ -83,6 +83,35 @@ public class TombstoneManager {
         return log.getName().endsWith(Util.nativeLogSuffix);
     }
 
+    /**
+     * Determines if the current file is a minidump of a native crash.
+     *
+     * @param file Object of the file.
+     * @return Return true if YES, false otherwise.
+     */
+    @SuppressWarnings("unused")
+    public static boolean isMinidump(File file) {
+        return file.getName().endsWith(Util.minidumpSuffix);
+    }
+
+    /**
+     * Get the minidump file of a native crash log file.
+     *
+     * <p>Note: The minidump is written only when enabled by {@link XCrash.InitParameters#setNativeDumpMinidump(boolean)}.
+     *
+     * @param logPath Absolute path of the native crash log file.
+     * @return The File object of the minidump, or null if there is no minidump for the log file.
+     */
+    @SuppressWarnings("unused")
+    public static File getMinidump(String logPath) {
+        if (TextUtils.isEmpty(logPath) || !logPath.endsWith(Util.nativeLogSuffix)) {
+            return null;
+        }
+
+        File file = new File(logPath.substring(0, logPath.length() - Util.nativeLogSuffix.length()) + Util.minidumpSuffix);
+        return file.exists() ? file : null;
+    }
+
     /**
      * Get all Java exception log files.
      *
@@ -103,6 +132,16 @@ public class TombstoneManager {
         return getTombstones(new String[]{Util.nativeLogSuffix});
     }
 
+    /**
+     * Get all minidump files of the native crashes.
+     *
+     * @return An array of File objects of the minidump files.
+     */
+    @SuppressWarnings("unused")
+    public static File[] getMinidumps() {
+        return getTombstones(new String[]{Util.minidumpSuffix});
+    }
+
     /**
      * Get all Java exception and native crash log files.
      *
@@ -123,6 +162,12 @@ public class TombstoneManager {
      * @return Return true if successful, false otherwise.
      */
     public static boolean deleteTombstone(File file) {
+        if (file != null && isNativeCrash(file)) {
+            File minidump = getMinidump(file.getAbsolutePath());
+            if (minidump != null) {
+                FileManager.getInstance().recycleLogFile(minidump);
+            }
+        }
         return FileManager.getInstance().recycleLogFile(file);
     }
 
@@ -136,7 +181,7 @@ public class TombstoneManager {
      * @return Return true if successful, false otherwise.
      */
     public static boolean deleteTombstone(String path) {
-        return FileManager.getInstance().recycleLogFile(new File(path));
+        return deleteTombstone(new File(path));
     }
 
     /**
@@ -150,23 +195,33 @@ public class TombstoneManager {
     }
 
     /**
-     * Delete all native crash log files.
+     * Delete all native crash log files and minidump files.
      *
      * @return Return true if successful, false otherwise.
      */
     @SuppressWarnings("unused")
     public static boolean clearNativeTombstones() {
-        return clearTombstones(new String[]{Util.nativeLogSuffix});
+        return clearTombstones(new String[]{Util.nativeLogSuffix, Util.minidumpSuffix});
+    }
+
+    /**
+     * Delete all minidump files.
+     *
+     * @return Return true if successful, false otherwise.
+     */
+    @SuppressWarnings("unused")
+    public static boolean clearMinidumps() {
+        return clearTombstones(new String[]{Util.minidumpSuffix});
     }
 
     /**
-     * Delete all Java exception and native crash log files.
+     * Delete all Java exception and native crash log files, and the minidump files.
      *
      * @return Return true if successful, false otherwise.
      */
     @SuppressWarnings("unused")
     public static boolean clearAllTombstones() {
-        return clearTombstones(new String[]{Util.javaLogSuffix, Util.nativeLogSuffix});
+        return clearTombstones(new String[]{Util.javaLogSuffix, Util.nativeLogSuffix, Util.minidumpSuffix});
     }
 
     private static File[] getTombstones(final String[] logPrefixes) {
@@ -187,6 +187,18 @@ public class TombstoneParser {
     @SuppressWarnings("WeakerAccess")
     public static final String keyAbi = "ABI";
 
+    /**
+     * Occurrence count and signature of a duplicate crash. (Only in the reduced tombstones of duplicate crashes)
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final String keyDuplicateCrash = "Duplicate crash";
+
+    /**
+     * Time spent suspending all the threads of the crashed process. (Only in native crash)
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final String keyThreadsSuspendTime = "Threads suspend time";
+
     /**
      * Process ID.
      */
@@ -295,6 +307,12 @@ public class TombstoneParser {
     @SuppressWarnings("WeakerAccess")
     public static final String keyOtherThreads = "other threads";
 
+    /**
+     * Java crash uncaught exceptions thrown by other threads while the crash was being handled.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final String keyConcurrentCrashes = "concurrent crashes";
+
     /**
      * Native crash thread's Java stacktrace from JVM, or Java exception stacktrace.
      */
@@ -342,6 +360,8 @@ public class TombstoneParser {
         keyBuildFingerprint,
         keyRevision,
         keyAbi,
+        keyDuplicateCrash,
+        keyThreadsSuspendTime,
         keyAbortMessage
     ));
 
@@ -438,6 +458,50 @@ public class TombstoneParser {
         return map;
     }
 
+    /**
+     * Render a crash log file into the classic text format.
+     * The sections in compact format are rendered to the classic text, the others are kept as they are.
+     *
+     * <p>Note: The compact format is enabled by {@link xcrash.XCrash.InitParameters#setNativeDumpAllThreadsCompact(boolean)}.
+     *
+     * @param logPath Absolute path of the crash log file.
+     * @return The classic text of the crash log.
+     * @throws IOException If an I/O error occurs.
+     */
+    @SuppressWarnings("unused")
+    public static String render(String logPath) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder compact = null;
+        String line;
+
+        BufferedReader br = new BufferedReader(new FileReader(logPath));
+        try {
+            while ((line = readLineInBinary(br)) != null) {
+                if (compact == null) {
+                    if (line.equals(TombstoneCompact.title + ":")) {
+                        compact = new StringBuilder();
+                    } else {
+                        sb.append(line).append('\n');
+                    }
+                } else if (line.isEmpty()) {
+                    String text = TombstoneCompact.render(compact.toString());
+                    sb.append(text != null ? text : "").append('\n');
+                    compact = null;
+                } else {
+                    compact.append(line).append('\n');
+                }
+            }
+        } finally {
+            br.close();
+        }
+
+        if (compact != null) {
+            String text = TombstoneCompact.render(compact.toString());
+            sb.append(text != null ? text : "");
+        }
+        return sb.toString();
+    }
+
     private static void parseFromLogPath(Map<String, String> map, String logPath) {
         if (logPath == null) {
             return;
@@ -612,7 +676,7 @@ public class TombstoneParser {
                                 || sectionTitle.equals(keyJavaStacktrace)
                                 || sectionTitle.equals(keyXCrashErrorDebug));
                             sectionContentAppend = sectionTitle.equals(keyXCrashError);
-                        } else if (sectionTitle.equals(keyMemoryInfo)) {
+                        } else if (sectionTitle.equals(keyMemoryInfo) || sectionTitle.equals(keyConcurrentCrashes)) {
                             sectionContentOutdent = false;
                             sectionContentAppend = true;
                         } else if (sectionTitle.startsWith("memory near ")) {
@@ -673,7 +737,15 @@ public class TombstoneParser {
                     break;
                 case SECTION:
                     if (line.equals(sectionContentEnding) || last) {
-                        putKeyValue(map, sectionTitle, sectionContent.toString(), sectionContentAppend);
+                        if (sectionTitle.equals(TombstoneCompact.title)) {
+                            //render the classic "other threads" section
+                            String text = TombstoneCompact.render(sectionContent.toString());
+                            if (text != null) {
+                                parseFromReader(map, new BufferedReader(new StringReader(text)), false);
+                            }
+                        } else {
+                            putKeyValue(map, sectionTitle, sectionContent.toString(), sectionContentAppend);
+                        }
                         sectionContent.setLength(0);
                         status = Status.UNKNOWN;
                     } else {
@@ -61,6 +61,9 @@ class Util {
     static final String logPrefix = "tombstone";
     static final String javaLogSuffix = ".java.xcrash";
     static final String nativeLogSuffix = ".native.xcrash";
+    static final String minidumpSuffix = ".native.dmp";
+
+    static final String dedupFileName = "xcrash_dedup.dat";
 
     static String readFileLine(String path) {
         BufferedReader br = null;
@@ -116,6 +116,9 @@ public final class XCrash {
             params.placeholderSizeKb,
             params.logFileMaintainDelayMs);
 
+        //init duplicate crash detection
+        DedupManager.getInstance().initialize(params.logDir, params.dedupWindowSec);
+
         //init java crash handler
         if (params.enableJavaCrashHandler) {
             JavaCrashHandler.getInstance().initialize(
@@ -146,11 +149,24 @@ public final class XCrash {
                 params.nativeLogcatEventsLines,
                 params.nativeLogcatMainLines,
                 params.nativeDumpElfHash,
+                params.nativeDumpElfHashFast,
                 params.nativeDumpMap,
                 params.nativeDumpFds,
+                params.nativeMemInfoRollup,
                 params.nativeDumpAllThreads,
                 params.nativeDumpAllThreadsCountMax,
                 params.nativeDumpAllThreadsWhiteList,
+                params.nativeDumpAllThreadsWorkers,
+                params.nativeDumpAllThreadsCompact,
+                params.nativeDumpMinidump,
+                params.dedupWindowSec,
+                params.nativeStandbyDumper,
+                params.nativeWarmUpDumper,
+                params.nativeWarmUpAppLibs,
+                params.nativeDumpTimeoutMs,
+                params.nativeSectionTimeoutMs,
+                params.nativeUnwindCache,
+                params.nativeElfHashCache,
                 params.nativeCallback,
                 params.libLoader);
         }
@@ -169,6 +185,7 @@ public final class XCrash {
         String     appVersion             = null;
         String     logDir                 = null;
         int        logFileMaintainDelayMs = 5000;
+        int        dedupWindowSec         = 0;
         ILogger    logger                 = null;
         ILibLoader libLoader              = null;
 
@@ -210,6 +227,24 @@ public final class XCrash {
             return this;
         }
 
+        /**
+         * Set the time window in seconds for duplicate crash detection. (Default: 0)
+         *
+         * <p>If a crash has the same signature as another crash within this window, only a reduced
+         * tombstone will be recorded (without logcat, memory map, FD list, memory info and other threads),
+         * the first one is always fully recorded. This is useful to reduce I/O when the APP is in a crash loop.
+         *
+         * <p>Note: Set this value to 0 means disable the duplicate crash detection feature.
+         *
+         * @param windowSec The time window in seconds.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setDedupWindowSec(int windowSec) {
+            this.dedupWindowSec = (windowSec < 0 ? 0 : windowSec);
+            return this;
+        }
+
         /**
          * Set a logger implementation for xCrash to log message and exception.
          *
@@ -420,11 +455,23 @@ public final class XCrash {
         int            nativeLogcatEventsLines       = 50;
         int            nativeLogcatMainLines         = 200;
         boolean        nativeDumpElfHash             = true;
+        boolean        nativeDumpElfHashFast         = false;
         boolean        nativeDumpMap                 = true;
         boolean        nativeDumpFds                 = true;
+        boolean        nativeMemInfoRollup           = false;
         boolean        nativeDumpAllThreads          = true;
         int            nativeDumpAllThreadsCountMax  = 0;
         String[]       nativeDumpAllThreadsWhiteList = null;
+        int            nativeDumpAllThreadsWorkers   = 0;
+        boolean        nativeDumpAllThreadsCompact   = false;
+        boolean        nativeDumpMinidump            = false;
+        boolean        nativeStandbyDumper           = false;
+        boolean        nativeWarmUpDumper            = false;
+        boolean        nativeWarmUpAppLibs           = false;
+        int            nativeDumpTimeoutMs           = 0;
+        int            nativeSectionTimeoutMs        = 0;
+        boolean        nativeUnwindCache             = false;
+        boolean        nativeElfHashCache            = false;
         ICrashCallback nativeCallback                = null;
 
         /**
@@ -522,6 +569,23 @@ public final class XCrash {
             return this;
         }
 
+        /**
+         * Set if dumping ELF file's XXH64 hash instead of MD5 hash in Build-Id section when a native crash occurred. (Default: disable)
+         *
+         * <p>XXH64 is a non-cryptographic hash, which is many times faster than MD5 for large libraries.
+         * It is still good enough to detect modified .so files, but not against a deliberate collision.
+         *
+         * <p>Note: This option is only useful when "NativeDumpElfHash" is enabled by calling {@link InitParameters#setNativeDumpElfHash(boolean)}.
+         *
+         * @param flag True or false.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeDumpElfHashFast(boolean flag) {
+            this.nativeDumpElfHashFast = flag;
+            return this;
+        }
+
         /**
          * Set if dumping memory map when a native crash occurred. (Default: enable)
          *
@@ -546,6 +610,20 @@ public final class XCrash {
             return this;
         }
 
+        /**
+         * Set if only the process memory summary from /proc/PID/smaps_rollup is recorded when a native crash occurred,
+         * instead of the per-heap breakdown parsed from /proc/PID/smaps. It falls back to the per-heap breakdown if
+         * smaps_rollup is not supported by the kernel (Linux 4.14+). (Default: disable)
+         *
+         * @param flag True or false.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeMemInfoRollup(boolean flag) {
+            this.nativeMemInfoRollup = flag;
+            return this;
+        }
+
         /**
          * Set if dumping threads info (registers, backtrace and stack) for all threads (not just the thread that has crashed)
          * when a native crash occurred. (Default: enable)
@@ -593,6 +671,181 @@ public final class XCrash {
             return this;
         }
 
+        /**
+         * Set the number of threads used to unwind the other threads when a native crash occurred.
+         * "0" or "1" means unwinding them one by one in the dumper's main thread. (Default: 0)
+         *
+         * <p>The workers are limited by the number of online CPU cores. The backtraces are still
+         * written in the original thread order. This option has no effect if the dumper can not read
+         * the crashed process's memory by process_vm_readv() or /proc/PID/mem.
+         *
+         * <p>Note: This option is only useful when "NativeDumpAllThreads" is enabled by calling {@link InitParameters#setNativeDumpAllThreads(boolean)}.
+         *
+         * @param workers The number of unwinding threads.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeDumpAllThreadsWorkers(int workers) {
+            this.nativeDumpAllThreadsWorkers = (workers < 0 ? 0 : workers);
+            return this;
+        }
+
+        /**
+         * Set if the other threads (not the thread that has crashed) are recorded in the compact format when a native
+         * crash occurred. (Default: disable)
+         *
+         * <p>The dumper records the raw registers, PCs, stack words and references to the map and function names
+         * instead of the formatted text. This reduces the CPU time and the file size of the all-thread dumps a lot.
+         * The section is rendered back to the classic text by {@link TombstoneParser#parse(String)} (as the
+         * "other threads" value), and by {@link TombstoneParser#render(String)}.
+         *
+         * <p>Note: This option is only useful when "NativeDumpAllThreads" is enabled by calling {@link InitParameters#setNativeDumpAllThreads(boolean)}.
+         *
+         * @param flag True or false.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeDumpAllThreadsCompact(boolean flag) {
+            this.nativeDumpAllThreadsCompact = flag;
+            return this;
+        }
+
+        /**
+         * Set if writing a Breakpad/Crashpad compatible minidump for each native crash. (Default: disable)
+         *
+         * <p>The minidump contains the thread list, the thread contexts, the module list with build-IDs,
+         * the thread stacks and the exception. It is written next to the native crash log file,
+         * and can be retrieved by {@link xcrash.TombstoneManager#getMinidump(String)}.
+         *
+         * @param flag True or false.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeDumpMinidump(boolean flag) {
+            this.nativeDumpMinidump = flag;
+            return this;
+        }
+
+        /**
+         * Set if starting a standby dumper process when xCrash is initialized. (Default: disable)
+         *
+         * <p>The standby dumper process is blocked until a native crash occurred, so the time-consuming
+         * process creation and dynamic linking of the dumper are not needed when the APP is crashing.
+         * The cost is an additional idle process for each APP process which initialized xCrash.
+         *
+         * @param flag True or false.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeStandbyDumper(boolean flag) {
+            this.nativeStandbyDumper = flag;
+            return this;
+        }
+
+        /**
+         * Set if pre-loading the dumper into the page cache in a background thread when xCrash is initialized. (Default: disable)
+         *
+         * <p>This reduces the disk I/O when the dumper is started after a native crash occurred,
+         * especially when the system is under memory pressure. The readahead is only requested
+         * (MADV_WILLNEED), the pages are loaded asynchronously by the kernel.
+         *
+         * @param flag True or false.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeWarmUpDumper(boolean flag) {
+            this.nativeWarmUpDumper = flag;
+            return this;
+        }
+
+        /**
+         * Set if pre-loading all the APP's native libraries (including the dumper) into the page cache
+         * in a background thread when xCrash is initialized. (Default: disable)
+         *
+         * <p>The dumper reads the ELF files of the crashed process to unwind the stacks, so this makes
+         * the unwinding faster. The cost is additional disk I/O when xCrash is initialized. As with
+         * {@link #setNativeWarmUpDumper(boolean)}, the pages are loaded asynchronously.
+         *
+         * @param flag True or false.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeWarmUpAppLibs(boolean flag) {
+            this.nativeWarmUpAppLibs = flag;
+            return this;
+        }
+
+        /**
+         * Set the maximum time (in milliseconds) to wait for the dumper when a native crash occurred.
+         * "0" means no limit. (Default: 0)
+         *
+         * <p>When the deadline passed, the dumper will be killed, and a reduced tombstone will be
+         * recorded by the crashed process itself.
+         *
+         * <p>Note: Set this value to 0 means waiting for the dumper until it exits. A negative value is treated as 0.
+         *
+         * @param timeoutMs The maximum time in milliseconds.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeDumpTimeout(int timeoutMs) {
+            this.nativeDumpTimeoutMs = (timeoutMs < 0 ? 0 : timeoutMs);
+            return this;
+        }
+
+        /**
+         * Set the time budget (in milliseconds) of each time-consuming section in the dumper,
+         * such as logcat, FDs and other threads. "0" means no limit. (Default: 0)
+         *
+         * <p>The rest of a section will be skipped when its time budget is exceeded.
+         *
+         * <p>Note: Set this value to 0 means every section is recorded completely. A negative value is treated as 0.
+         *
+         * @param timeoutMs The time budget in milliseconds.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeSectionTimeout(int timeoutMs) {
+            this.nativeSectionTimeoutMs = (timeoutMs < 0 ? 0 : timeoutMs);
+            return this;
+        }
+
+        /**
+         * Set if caching the unwind tables of the APP's native libraries in the log directory. (Default: disable)
+         *
+         * <p>The sorted function symbols and FDE ranges of each library are built by the dumper
+         * in a background process when xCrash is initialized, and saved in a file named by the
+         * build-id. The dumper maps these files when a native crash occurred, instead of scanning
+         * the symbol tables and the .eh_frame / .debug_frame sections.
+         *
+         * @param flag True or false.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeUnwindCache(boolean flag) {
+            this.nativeUnwindCache = flag;
+            return this;
+        }
+
+        /**
+         * Set if caching the ELF hash of the APP's native libraries in the log directory. (Default: disable)
+         *
+         * <p>The hash of each library is calculated by the dumper in a background process when xCrash
+         * is initialized, keyed by the pathname, inode, size and last-modified time of the file. The dumper
+         * only looks up the value when a native crash occurred. The libraries not in the cache (for example,
+         * the system libraries) are still hashed at crash time.
+         *
+         * <p>Note: This option is only useful when "NativeDumpElfHash" is enabled by calling {@link InitParameters#setNativeDumpElfHash(boolean)}.
+         *
+         * @param flag True or false.
+         * @return The InitParameters object.
+         */
+        @SuppressWarnings("unused")
+        public InitParameters setNativeElfHashCache(boolean flag) {
+            this.nativeElfHashCache = flag;
+            return this;
+        }
+
         /**
          * Set a callback to be executed when a native crash occurred. (If not set, nothing will be happened.)
          *
@@ -655,6 +908,126 @@ public final class XCrash {
      */
     @SuppressWarnings("unused")
     public static void testNativeCrash(boolean runInNewThread) {
-        NativeCrashHandler.getInstance().testNativeCrash(runInNewThread);
+        testNativeCrash(new TestNativeCrashParameters().setRunInNewThread(runInNewThread));
+    }
+
+    /**
+     * Force a native crash in a test scenario.
+     *
+     * <p>The scenario is recorded in the "xcrash test" section of the tombstone, with the capture time
+     * (from the crash to the end of the native dump).
+     *
+     * <p>Warning: This method is for testing purposes only. Don't call it in a release version of your APP.
+     *
+     * @param params An instance of {@link xcrash.XCrash.TestNativeCrashParameters}.
+     */
+    @SuppressWarnings("unused")
+    public static void testNativeCrash(TestNativeCrashParameters params) {
+        NativeCrashHandler.getInstance().testNativeCrash(params);
+    }
+
+    /**
+     * A test scenario of the native crash, for measuring the capture time and the completeness of the tombstone
+     * in the worst cases.
+     */
+    public static class TestNativeCrashParameters {
+        boolean runInNewThread  = false;
+        int     idleThreads     = 0;
+        int     recursionDepth  = 0;
+        int     mapsCount       = 0;
+        int     mapsSizeKb      = 0;
+        int     libsCount       = 0;
+        boolean inSignalHandler = false;
+        int     crashingThreads = 1;
+
+        /**
+         * Set whether the crash is triggered in a new native thread. (Default: false)
+         *
+         * @param flag True or false.
+         * @return The TestNativeCrashParameters object.
+         */
+        @SuppressWarnings("unused")
+        public TestNativeCrashParameters setRunInNewThread(boolean flag) {
+            this.runInNewThread = flag;
+            return this;
+        }
+
+        /**
+         * Set the number of idle threads started before the crash. (Default: 0)
+         *
+         * @param count Number of the idle threads.
+         * @return The TestNativeCrashParameters object.
+         */
+        @SuppressWarnings("unused")
+        public TestNativeCrashParameters setIdleThreads(int count) {
+            this.idleThreads = Math.max(count, 0);
+            return this;
+        }
+
+        /**
+         * Set the number of additional frames of the crashing thread. (Default: 0)
+         *
+         * <p>Note: The stack of a new native thread is sized for the depth, the stack of the current thread is not.
+         *
+         * @param depth Depth of the recursion.
+         * @return The TestNativeCrashParameters object.
+         */
+        @SuppressWarnings("unused")
+        public TestNativeCrashParameters setRecursionDepth(int depth) {
+            this.recursionDepth = Math.max(depth, 0);
+            return this;
+        }
+
+        /**
+         * Set the additional memory regions mapped before the crash. (Default: 0)
+         *
+         * @param count Number of the regions.
+         * @param sizeKb Size of each region in KB. The regions are reserved, not touched.
+         * @return The TestNativeCrashParameters object.
+         */
+        @SuppressWarnings("unused")
+        public TestNativeCrashParameters setMappedRegions(int count, int sizeKb) {
+            this.mapsCount = Math.max(count, 0);
+            this.mapsSizeKb = Math.max(sizeKb, 4);
+            return this;
+        }
+
+        /**
+         * Set the number of small libraries loaded before the crash. (Default: 0)
+         *
+         * <p>Note: The libraries are copies of libxcrash_test_stub.so in the cache directory of the APP.
+         *
+         * @param count Number of the libraries.
+         * @return The TestNativeCrashParameters object.
+         */
+        @SuppressWarnings("unused")
+        public TestNativeCrashParameters setLibraries(int count) {
+            this.libsCount = Math.max(count, 0);
+            return this;
+        }
+
+        /**
+         * Set whether the crash is triggered in the handler of another signal. (Default: false)
+         *
+         * @param flag True or false.
+         * @return The TestNativeCrashParameters object.
+         */
+        @SuppressWarnings("unused")
+        public TestNativeCrashParameters setCrashInSignalHandler(boolean flag) {
+            this.inSignalHandler = flag;
+            return this;
+        }
+
+        /**
+         * Set the number of threads crashing at the same time. (Default: 1)
+         *
+         * @param count Number of the crashing threads.
+         * @return The TestNativeCrashParameters object.
+         */
+        @SuppressWarnings("unused")
+        public TestNativeCrashParameters setCrashingThreads(int count) {
+            this.crashingThreads = Math.max(count, 1);
+            return this;
+        }
     }
 }
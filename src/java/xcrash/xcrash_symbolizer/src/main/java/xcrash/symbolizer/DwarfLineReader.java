@@ -0,0 +1,423 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash.symbolizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader of the DWARF line number programs in the .debug_line section (DWARF 2 - 5).
+ *
+ * <p>The rows are flattened to address-sorted ranges: each row covers the addresses up to the next row,
+ * and the end of a sequence is a row with file -1.
+ */
+class DwarfLineReader {
+
+    private static final int DW_LNS_COPY = 1;
+    private static final int DW_LNS_ADVANCE_PC = 2;
+    private static final int DW_LNS_ADVANCE_LINE = 3;
+    private static final int DW_LNS_SET_FILE = 4;
+    private static final int DW_LNS_CONST_ADD_PC = 8;
+    private static final int DW_LNS_FIXED_ADVANCE_PC = 9;
+
+    private static final int DW_LNE_END_SEQUENCE = 1;
+    private static final int DW_LNE_SET_ADDRESS = 2;
+    private static final int DW_LNE_DEFINE_FILE = 3;
+
+    private static final int DW_LNCT_PATH = 1;
+    private static final int DW_LNCT_DIRECTORY_INDEX = 2;
+
+    private static final int DW_FORM_BLOCK2 = 0x03;
+    private static final int DW_FORM_BLOCK4 = 0x04;
+    private static final int DW_FORM_DATA2 = 0x05;
+    private static final int DW_FORM_DATA4 = 0x06;
+    private static final int DW_FORM_DATA8 = 0x07;
+    private static final int DW_FORM_STRING = 0x08;
+    private static final int DW_FORM_BLOCK = 0x09;
+    private static final int DW_FORM_BLOCK1 = 0x0a;
+    private static final int DW_FORM_DATA1 = 0x0b;
+    private static final int DW_FORM_SDATA = 0x0d;
+    private static final int DW_FORM_STRP = 0x0e;
+    private static final int DW_FORM_UDATA = 0x0f;
+    private static final int DW_FORM_DATA16 = 0x1e;
+    private static final int DW_FORM_LINE_STRP = 0x1f;
+
+    private final ByteBuffer debugLine;
+    private final ByteBuffer debugLineStr;
+    private final ByteBuffer debugStr;
+    private final Util.StringTable strings;
+    private final Util.LongArray addrs;
+    private final Util.IntArray files;
+    private final Util.IntArray lines;
+
+    //rows of the current sequence
+    private final Util.LongArray seqAddrs = new Util.LongArray();
+    private final Util.IntArray seqFiles = new Util.IntArray();
+    private final Util.IntArray seqLines = new Util.IntArray();
+
+    private int pos;
+
+    DwarfLineReader(ElfFile elf, Util.StringTable strings, Util.LongArray addrs, Util.IntArray files, Util.IntArray lines) throws IOException {
+        this.debugLine = getSectionData(elf, ".debug_line");
+        this.debugLineStr = getSectionData(elf, ".debug_line_str");
+        this.debugStr = getSectionData(elf, ".debug_str");
+        this.strings = strings;
+        this.addrs = addrs;
+        this.files = files;
+        this.lines = lines;
+    }
+
+    private static ByteBuffer getSectionData(ElfFile elf, String name) throws IOException {
+        ElfFile.Section s = elf.findSection(name);
+        if (s == null) {
+            s = elf.findSection(".z" + name.substring(1));
+        }
+        return (s == null ? null : elf.getData(s));
+    }
+
+    boolean hasLines() {
+        return debugLine != null;
+    }
+
+    void read() {
+        if (debugLine == null) {
+            return;
+        }
+
+        pos = 0;
+        while (pos + 4 <= debugLine.limit()) {
+            int unitStart = pos;
+            long unitLength = u32();
+            boolean dwarf64 = (unitLength == 0xffffffffL);
+            if (dwarf64) {
+                unitLength = u64();
+            }
+            long unitEnd = pos + unitLength;
+            if (unitLength <= 0 || unitEnd > debugLine.limit() || unitEnd <= unitStart) {
+                break;
+            }
+            try {
+                readUnit(dwarf64, (int) unitEnd);
+            } catch (RuntimeException ignored) {
+                //skip the broken unit
+                seqAddrs.size = 0;
+                seqFiles.size = 0;
+                seqLines.size = 0;
+            }
+            pos = (int) unitEnd;
+        }
+    }
+
+    private void readUnit(boolean dwarf64, int unitEnd) {
+        int version = u16();
+        if (version < 2 || version > 5) {
+            return;
+        }
+        if (version >= 5) {
+            pos += 2; //address_size, segment_selector_size
+        }
+        long headerLength = (dwarf64 ? u64() : u32());
+        int programStart = pos + (int) headerLength;
+        int minInstLength = u8();
+        if (version >= 4) {
+            pos += 1; //maximum_operations_per_instruction
+        }
+        pos += 1; //default_is_stmt
+        int lineBase = debugLine.get(pos++);
+        int lineRange = u8();
+        int opcodeBase = u8();
+        int[] opcodeLengths = new int[opcodeBase];
+        for (int i = 1; i < opcodeBase; i++) {
+            opcodeLengths[i] = u8();
+        }
+        if (lineRange == 0) {
+            return;
+        }
+
+        //directories and files
+        List<String> dirs = new ArrayList<String>();
+        List<String> fileNames = new ArrayList<String>();
+        if (version >= 5) {
+            readEntries(dwarf64, dirs, null);
+            readEntries(dwarf64, fileNames, dirs);
+        } else {
+            //the compilation directory is not known here
+            dirs.add("");
+            for (String dir = cstr(); dir.length() > 0; dir = cstr()) {
+                dirs.add(dir);
+            }
+            //file index starts from 1
+            fileNames.add("");
+            for (String name = cstr(); name.length() > 0; name = cstr()) {
+                fileNames.add(joinPath(dirs, (int) uleb(), name));
+                uleb(); //mtime
+                uleb(); //length
+            }
+        }
+        int[] fileIds = new int[fileNames.size()];
+        for (int i = 0; i < fileIds.length; i++) {
+            fileIds[i] = -2; //interned lazily
+        }
+
+        //line number program
+        pos = programStart;
+        long address = 0;
+        int file = 1;
+        int line = 1;
+        while (pos < unitEnd) {
+            int op = u8();
+            if (op >= opcodeBase) {
+                int adjusted = op - opcodeBase;
+                address += (long) minInstLength * (adjusted / lineRange);
+                line += lineBase + adjusted % lineRange;
+                addRow(address, getFileId(fileIds, fileNames, file), line);
+            } else if (op == 0) {
+                //extended opcodes
+                long len = uleb();
+                int end = pos + (int) len;
+                int eop = (len > 0 ? u8() : 0);
+                if (eop == DW_LNE_END_SEQUENCE) {
+                    addRow(address, -1, 0);
+                    endSequence();
+                    address = 0;
+                    file = 1;
+                    line = 1;
+                } else if (eop == DW_LNE_SET_ADDRESS) {
+                    address = uN(end - pos);
+                } else if (eop == DW_LNE_DEFINE_FILE) {
+                    String name = cstr();
+                    int dirIdx = (int) uleb();
+                    fileNames.add(joinPath(dirs, dirIdx, name));
+                    int[] newFileIds = new int[fileNames.size()];
+                    System.arraycopy(fileIds, 0, newFileIds, 0, fileIds.length);
+                    newFileIds[fileIds.length] = -2;
+                    fileIds = newFileIds;
+                }
+                pos = end;
+            } else if (op == DW_LNS_COPY) {
+                addRow(address, getFileId(fileIds, fileNames, file), line);
+            } else if (op == DW_LNS_ADVANCE_PC) {
+                address += (long) minInstLength * uleb();
+            } else if (op == DW_LNS_ADVANCE_LINE) {
+                line += (int) sleb();
+            } else if (op == DW_LNS_SET_FILE) {
+                file = (int) uleb();
+            } else if (op == DW_LNS_CONST_ADD_PC) {
+                address += (long) minInstLength * ((255 - opcodeBase) / lineRange);
+            } else if (op == DW_LNS_FIXED_ADVANCE_PC) {
+                address += u16();
+            } else {
+                //set_column, negate_stmt, set_basic_block, set_prologue_end, ... (only the operands matter)
+                for (int i = 0; i < opcodeLengths[op]; i++) {
+                    uleb();
+                }
+            }
+        }
+    }
+
+    //DWARF 5 directory or file name entries
+    private void readEntries(boolean dwarf64, List<String> out, List<String> dirs) {
+        int formatCount = u8();
+        long[] types = new long[formatCount];
+        int[] forms = new int[formatCount];
+        for (int i = 0; i < formatCount; i++) {
+            types[i] = uleb();
+            forms[i] = (int) uleb();
+        }
+
+        long count = uleb();
+        for (long n = 0; n < count; n++) {
+            String path = "";
+            int dirIdx = 0;
+            for (int i = 0; i < formatCount; i++) {
+                Object value = readForm(forms[i], dwarf64);
+                if (types[i] == DW_LNCT_PATH && value instanceof String) {
+                    path = (String) value;
+                } else if (types[i] == DW_LNCT_DIRECTORY_INDEX && value instanceof Long) {
+                    dirIdx = ((Long) value).intValue();
+                }
+            }
+            out.add(dirs == null ? path : joinPath(dirs, dirIdx, path));
+        }
+    }
+
+    private Object readForm(int form, boolean dwarf64) {
+        switch (form) {
+            case DW_FORM_STRING:
+                return cstr();
+            case DW_FORM_LINE_STRP:
+                return strp(debugLineStr, dwarf64 ? u64() : u32());
+            case DW_FORM_STRP:
+                return strp(debugStr, dwarf64 ? u64() : u32());
+            case DW_FORM_UDATA:
+                return uleb();
+            case DW_FORM_SDATA:
+                return sleb();
+            case DW_FORM_DATA1:
+                return (long) u8();
+            case DW_FORM_DATA2:
+                return (long) u16();
+            case DW_FORM_DATA4:
+                return u32();
+            case DW_FORM_DATA8:
+                return u64();
+            case DW_FORM_DATA16:
+                pos += 16;
+                return null;
+            case DW_FORM_BLOCK1:
+                pos += u8();
+                return null;
+            case DW_FORM_BLOCK2:
+                pos += u16();
+                return null;
+            case DW_FORM_BLOCK4:
+                pos += (int) u32();
+                return null;
+            case DW_FORM_BLOCK:
+                pos += (int) uleb();
+                return null;
+            default:
+                throw new IllegalStateException("unsupported form " + form);
+        }
+    }
+
+    private static String strp(ByteBuffer section, long offset) {
+        return (section == null || offset > Integer.MAX_VALUE ? "" : ElfFile.getString(section, (int) offset));
+    }
+
+    private static String joinPath(List<String> dirs, int dirIdx, String name) {
+        if (name.startsWith("/") || dirIdx < 0 || dirIdx >= dirs.size() || dirs.get(dirIdx).length() == 0) {
+            return name;
+        }
+        String dir = dirs.get(dirIdx);
+        return (dir.endsWith("/") ? dir + name : dir + "/" + name);
+    }
+
+    private int getFileId(int[] fileIds, List<String> fileNames, int file) {
+        if (file < 0 || file >= fileIds.length) {
+            return strings.intern("??");
+        }
+        if (fileIds[file] == -2) {
+            fileIds[file] = strings.intern(fileNames.get(file));
+        }
+        return fileIds[file];
+    }
+
+    private void addRow(long address, int file, int line) {
+        seqAddrs.add(address);
+        seqFiles.add(file);
+        seqLines.add(line);
+    }
+
+    private void endSequence() {
+        //sequences of the functions discarded by the linker start from address 0
+        if (seqAddrs.size > 0 && seqAddrs.values[0] != 0) {
+            for (int i = 0; i < seqAddrs.size; i++) {
+                addrs.add(seqAddrs.values[i]);
+                files.add(seqFiles.values[i]);
+                lines.add(seqLines.values[i]);
+            }
+        }
+        seqAddrs.size = 0;
+        seqFiles.size = 0;
+        seqLines.size = 0;
+    }
+
+    private int u8() {
+        return debugLine.get(pos++) & 0xff;
+    }
+
+    private int u16() {
+        int v = debugLine.getShort(pos) & 0xffff;
+        pos += 2;
+        return v;
+    }
+
+    private long u32() {
+        long v = debugLine.getInt(pos) & 0xffffffffL;
+        pos += 4;
+        return v;
+    }
+
+    private long u64() {
+        long v = debugLine.getLong(pos);
+        pos += 8;
+        return v;
+    }
+
+    private long uN(int size) {
+        switch (size) {
+            case 2:
+                return u16();
+            case 4:
+                return u32();
+            case 8:
+                return u64();
+            default:
+                pos += size;
+                return 0;
+        }
+    }
+
+    private long uleb() {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = u8();
+            if (shift < 64) {
+                result |= (long) (b & 0x7f) << shift;
+            }
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    private long sleb() {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = u8();
+            if (shift < 64) {
+                result |= (long) (b & 0x7f) << shift;
+            }
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (shift < 64 && (b & 0x40) != 0) {
+            result |= -1L << shift;
+        }
+        return result;
+    }
+
+    private String cstr() {
+        String s = ElfFile.getString(debugLine, pos);
+        int end = pos;
+        while (end < debugLine.limit() && debugLine.get(end) != 0) {
+            end++;
+        }
+        pos = end + 1;
+        return s;
+    }
+}
@@ -0,0 +1,272 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash.symbolizer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A read-only ELF file, the header and the sections are memory-mapped on demand.
+ */
+class ElfFile implements Closeable {
+
+    static final int SHT_SYMTAB = 2;
+    static final int SHT_NOTE = 7;
+    static final int SHT_NOBITS = 8;
+    static final int SHT_DYNSYM = 11;
+    static final int EM_ARM = 40;
+
+    private static final int EI_NIDENT = 16;
+    private static final int ELFCLASS64 = 2;
+    private static final int ELFDATA2MSB = 2;
+    private static final long SHF_COMPRESSED = 0x800;
+    private static final int ELFCOMPRESS_ZLIB = 1;
+    private static final int NT_GNU_BUILD_ID = 3;
+
+    static class Section {
+        int nameOffset;
+        String name;
+        int type;
+        long flags;
+        long addr;
+        long offset;
+        long size;
+        int link;
+        long entSize;
+    }
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Section[] sections;
+    final boolean is64;
+    final ByteOrder order;
+    final int machine;
+
+    private ElfFile(RandomAccessFile raf) throws IOException {
+        this.raf = raf;
+        this.channel = raf.getChannel();
+
+        //ELF header
+        ByteBuffer ident = map(0, EI_NIDENT);
+        if (ident.get(0) != 0x7f || ident.get(1) != 'E' || ident.get(2) != 'L' || ident.get(3) != 'F') {
+            throw new IOException("not an ELF file");
+        }
+        this.is64 = (ident.get(4) == ELFCLASS64);
+        this.order = (ident.get(5) == ELFDATA2MSB ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        ByteBuffer ehdr = map(0, is64 ? 64 : 52);
+        this.machine = ehdr.getShort(18) & 0xffff;
+        long shOff = (is64 ? ehdr.getLong(40) : ehdr.getInt(32) & 0xffffffffL);
+        int shEntSize = ehdr.getShort(is64 ? 58 : 46) & 0xffff;
+        int shNum = ehdr.getShort(is64 ? 60 : 48) & 0xffff;
+        int shStrNdx = ehdr.getShort(is64 ? 62 : 50) & 0xffff;
+        if (shOff == 0 || shNum == 0 || shEntSize < (is64 ? 64 : 40)) {
+            this.sections = new Section[0];
+            return;
+        }
+
+        //section headers
+        ByteBuffer shdrs = map(shOff, (long) shEntSize * shNum);
+        this.sections = new Section[shNum];
+        for (int i = 0; i < shNum; i++) {
+            int base = i * shEntSize;
+            Section s = new Section();
+            s.type = shdrs.getInt(base + 4);
+            if (is64) {
+                s.flags = shdrs.getLong(base + 8);
+                s.addr = shdrs.getLong(base + 16);
+                s.offset = shdrs.getLong(base + 24);
+                s.size = shdrs.getLong(base + 32);
+                s.link = shdrs.getInt(base + 40);
+                s.entSize = shdrs.getLong(base + 56);
+            } else {
+                s.flags = shdrs.getInt(base + 8) & 0xffffffffL;
+                s.addr = shdrs.getInt(base + 12) & 0xffffffffL;
+                s.offset = shdrs.getInt(base + 16) & 0xffffffffL;
+                s.size = shdrs.getInt(base + 20) & 0xffffffffL;
+                s.link = shdrs.getInt(base + 24);
+                s.entSize = shdrs.getInt(base + 36) & 0xffffffffL;
+            }
+            s.nameOffset = shdrs.getInt(base);
+            sections[i] = s;
+        }
+
+        //section names
+        ByteBuffer shStrTab = (shStrNdx < shNum ? getRawData(sections[shStrNdx]) : null);
+        for (Section s : sections) {
+            s.name = (shStrTab == null ? "" : getString(shStrTab, s.nameOffset));
+        }
+    }
+
+    static ElfFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new ElfFile(raf);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw new IOException("bad ELF file: " + e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    Section[] getSections() {
+        return sections;
+    }
+
+    Section findSection(String name) {
+        for (Section s : sections) {
+            if (s.name.equals(name)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the content of a section, the compressed debug sections (SHF_COMPRESSED or .zdebug_*) are inflated.
+     */
+    ByteBuffer getData(Section s) throws IOException {
+        ByteBuffer raw = getRawData(s);
+        try {
+            if ((s.flags & SHF_COMPRESSED) != 0) {
+                //Elf32_Chdr or Elf64_Chdr
+                int type = raw.getInt(0);
+                long size = (is64 ? raw.getLong(8) : raw.getInt(4) & 0xffffffffL);
+                if (type != ELFCOMPRESS_ZLIB) {
+                    throw new IOException("unsupported compression type " + type + " of " + s.name);
+                }
+                return inflate(raw, is64 ? 24 : 12, size);
+            } else if (s.name.startsWith(".zdebug_") && raw.limit() >= 12
+                && raw.get(0) == 'Z' && raw.get(1) == 'L' && raw.get(2) == 'I' && raw.get(3) == 'B') {
+                //"ZLIB" and a big-endian 8 bytes size
+                return inflate(raw, 12, raw.duplicate().order(ByteOrder.BIG_ENDIAN).getLong(4));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("inflate " + s.name + " failed: " + e);
+        }
+        return raw;
+    }
+
+    /**
+     * Get the GNU build-ID in lowercase hex, or null if there is none.
+     */
+    String getBuildId() throws IOException {
+        for (Section s : sections) {
+            if (s.type != SHT_NOTE) {
+                continue;
+            }
+            ByteBuffer notes = getRawData(s);
+            int pos = 0;
+            while (pos + 12 <= notes.limit()) {
+                int nameSize = notes.getInt(pos);
+                int descSize = notes.getInt(pos + 4);
+                int type = notes.getInt(pos + 8);
+                int namePos = pos + 12;
+                int descPos = namePos + ((nameSize + 3) & ~3);
+                if (nameSize < 0 || descSize < 0 || descPos + descSize > notes.limit()) {
+                    break;
+                }
+                if (type == NT_GNU_BUILD_ID && nameSize == 4
+                    && notes.get(namePos) == 'G' && notes.get(namePos + 1) == 'N' && notes.get(namePos + 2) == 'U') {
+                    StringBuilder sb = new StringBuilder(descSize * 2);
+                    for (int i = 0; i < descSize; i++) {
+                        sb.append(Character.forDigit((notes.get(descPos + i) >> 4) & 0xf, 16));
+                        sb.append(Character.forDigit(notes.get(descPos + i) & 0xf, 16));
+                    }
+                    return sb.toString();
+                }
+                pos = descPos + ((descSize + 3) & ~3);
+            }
+        }
+        return null;
+    }
+
+    static String getString(ByteBuffer buf, int offset) {
+        if (offset < 0 || offset >= buf.limit()) {
+            return "";
+        }
+        int end = offset;
+        while (end < buf.limit() && buf.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - offset];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(offset + i);
+        }
+        return Util.utf8(bytes);
+    }
+
+    private ByteBuffer getRawData(Section s) throws IOException {
+        if (s.type == SHT_NOBITS || s.size == 0) {
+            return ByteBuffer.allocate(0).order(order);
+        }
+        return map(s.offset, s.size);
+    }
+
+    private ByteBuffer map(long offset, long size) throws IOException {
+        if (offset < 0 || size < 0 || size > Integer.MAX_VALUE || offset + size > channel.size()) {
+            throw new IOException("bad range " + offset + "+" + size);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(order);
+    }
+
+    private ByteBuffer inflate(ByteBuffer raw, int skip, long size) throws IOException, DataFormatException {
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("bad inflated size " + size);
+        }
+        byte[] in = new byte[raw.limit() - skip];
+        ByteBuffer dup = raw.duplicate();
+        dup.position(skip);
+        dup.get(in);
+
+        byte[] out = new byte[(int) size];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(in);
+            int n = 0;
+            while (n < out.length && !inflater.finished()) {
+                int r = inflater.inflate(out, n, out.length - n);
+                if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += r;
+            }
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(out).order(order);
+    }
+}
@@ -0,0 +1,599 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash.symbolizer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The index of an R8/ProGuard mapping file: classes and methods with their line ranges.
+ *
+ * <p>The index is persisted as a file, and used through read-only memory-mapped buffers, so it can be shared
+ * by any number of threads, and only the touched pages are loaded. All the names are interned, the classes are
+ * sorted by the hash of the obfuscated name (and of the original name), the methods of each class are sorted
+ * by the hash of the obfuscated name, and the methods with the same obfuscated name keep the mapping file order
+ * (an inlining chain is a run of methods with the same obfuscated line range, the innermost first).
+ *
+ * <p>File format (big-endian): magic, version, class count, method count, string count, string bytes,
+ * class hashes (long), class original name hashes (long), class obfuscated names, class original names,
+ * class source files, class first methods, class method counts, classes of the original name hashes,
+ * method hashes, method obfuscated names, method original names, method original classes,
+ * method obfuscated start lines, method obfuscated end lines, method original start lines,
+ * method original end lines, string offsets (count + 1), string bytes.
+ */
+class MappingIndex {
+
+    static final String fileSuffix = ".xri";
+
+    private static final int MAGIC = 0x58435249; //"XCRI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private static final String arrow = " -> ";
+    private static final String mapIdPrefix = "# pg_map_id: ";
+    private static final String sourceFileId = "\"id\":\"sourceFile\"";
+    private static final String fileNameKey = "\"fileName\":\"";
+
+    static class Frame {
+        String className;
+        String methodName;
+        String sourceFile;
+        int line;
+    }
+
+    private final int classCount;
+    private final LongBuffer classHashes;
+    private final LongBuffer classOrigHashes;
+    private final IntBuffer classObfNames;
+    private final IntBuffer classOrigNames;
+    private final IntBuffer classFiles;
+    private final IntBuffer classMethodStarts;
+    private final IntBuffer classMethodCounts;
+    private final IntBuffer classOrigHashClasses;
+    private final IntBuffer methodHashes;
+    private final IntBuffer methodObfNames;
+    private final IntBuffer methodOrigNames;
+    private final IntBuffer methodOrigClasses;
+    private final IntBuffer methodObfStarts;
+    private final IntBuffer methodObfEnds;
+    private final IntBuffer methodOrigStarts;
+    private final IntBuffer methodOrigEnds;
+    private final Util.MappedStrings strings;
+
+    private MappingIndex(ByteBuffer buf) throws IOException {
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("bad index file");
+        }
+        classCount = buf.getInt(8);
+        int methodCount = buf.getInt(12);
+        int strCount = buf.getInt(16);
+        int strBytes = buf.getInt(20);
+        if (classCount < 0 || methodCount < 0 || strCount < 0 || strBytes < 0
+            || getFileSize(classCount, methodCount, strCount, strBytes) != buf.limit()) {
+            throw new IOException("bad index file size");
+        }
+
+        int pos = HEADER_SIZE;
+        classHashes = Util.slice(buf, pos, 8 * classCount).asLongBuffer();
+        pos += 8 * classCount;
+        classOrigHashes = Util.slice(buf, pos, 8 * classCount).asLongBuffer();
+        pos += 8 * classCount;
+        IntBuffer[] classInts = new IntBuffer[6];
+        for (int i = 0; i < classInts.length; i++) {
+            classInts[i] = Util.slice(buf, pos, 4 * classCount).asIntBuffer();
+            pos += 4 * classCount;
+        }
+        classObfNames = classInts[0];
+        classOrigNames = classInts[1];
+        classFiles = classInts[2];
+        classMethodStarts = classInts[3];
+        classMethodCounts = classInts[4];
+        classOrigHashClasses = classInts[5];
+        IntBuffer[] methodInts = new IntBuffer[8];
+        for (int i = 0; i < methodInts.length; i++) {
+            methodInts[i] = Util.slice(buf, pos, 4 * methodCount).asIntBuffer();
+            pos += 4 * methodCount;
+        }
+        methodHashes = methodInts[0];
+        methodObfNames = methodInts[1];
+        methodOrigNames = methodInts[2];
+        methodOrigClasses = methodInts[3];
+        methodObfStarts = methodInts[4];
+        methodObfEnds = methodInts[5];
+        methodOrigStarts = methodInts[6];
+        methodOrigEnds = methodInts[7];
+        IntBuffer strOffsets = Util.slice(buf, pos, 4 * (strCount + 1)).asIntBuffer();
+        pos += 4 * (strCount + 1);
+        strings = new Util.MappedStrings(strOffsets, Util.slice(buf, pos, strBytes));
+    }
+
+    private static long getFileSize(int classCount, int methodCount, int strCount, int strBytes) {
+        return HEADER_SIZE + 16L * classCount + 24L * classCount + 32L * methodCount + 4L * (strCount + 1) + strBytes;
+    }
+
+    static MappingIndex load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            //the mapping is still valid after closing the file
+            return new MappingIndex(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Get the ID of a mapping file: the "pg_map_id" written by R8, or the name, size and time of the file.
+     */
+    static String getMappingId(File mapping) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(mapping), "UTF-8"));
+        try {
+            String line;
+            while ((line = br.readLine()) != null && line.startsWith("#")) {
+                if (line.startsWith(mapIdPrefix)) {
+                    String id = line.substring(mapIdPrefix.length()).trim();
+                    if (id.matches("[0-9a-zA-Z]+")) {
+                        return id;
+                    }
+                }
+            }
+        } finally {
+            br.close();
+        }
+        return String.format("%s-%x-%x", mapping.getName().replaceAll("[^0-9a-zA-Z._-]", "_"),
+            mapping.length(), mapping.lastModified());
+    }
+
+    //FNV-1a
+    private static long hash(String str) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < str.length(); i++) {
+            h ^= str.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static int parseInt(String str, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9' || n > (Integer.MAX_VALUE - 9) / 10) {
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    /**
+     * Build the index of a mapping file, and write it to the index file atomically.
+     *
+     * @return Return false if the mapping file has no classes.
+     */
+    static boolean build(File mapping, File file) throws IOException {
+        Util.StringTable strings = new Util.StringTable();
+
+        //classes
+        Util.LongArray cHashes = new Util.LongArray();
+        Util.LongArray cOrigHashes = new Util.LongArray();
+        Util.IntArray cObfNames = new Util.IntArray();
+        Util.IntArray cOrigNames = new Util.IntArray();
+        Util.IntArray cFiles = new Util.IntArray();
+        Util.IntArray cStarts = new Util.IntArray();
+
+        //methods (in the mapping file order)
+        Util.IntArray mHashes = new Util.IntArray();
+        Util.IntArray mObfNames = new Util.IntArray();
+        Util.IntArray mOrigNames = new Util.IntArray();
+        Util.IntArray mOrigClasses = new Util.IntArray();
+        Util.IntArray mObfStarts = new Util.IntArray();
+        Util.IntArray mObfEnds = new Util.IntArray();
+        Util.IntArray mOrigStarts = new Util.IntArray();
+        Util.IntArray mOrigEnds = new Util.IntArray();
+
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(mapping), "UTF-8"), 1024 * 1024);
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                char c = line.charAt(0);
+
+                if (c == '#') {
+                    //R8 metadata of the current class: # {"id":"sourceFile","fileName":"Foo.kt"}
+                    if (cFiles.size > 0 && cStarts.values[cStarts.size - 1] == mHashes.size && line.contains(sourceFileId)) {
+                        int start = line.indexOf(fileNameKey);
+                        int end = (start < 0 ? -1 : line.indexOf('"', start + fileNameKey.length()));
+                        if (end > 0) {
+                            cFiles.values[cFiles.size - 1] = strings.intern(line.substring(start + fileNameKey.length(), end));
+                        }
+                    }
+                    continue;
+                }
+
+                int arrowPos = line.indexOf(arrow);
+                if (arrowPos <= 0) {
+                    continue;
+                }
+
+                if (c != ' ' && c != '\t') {
+                    //class: com.example.Foo -> a.b:
+                    String orig = line.substring(0, arrowPos).trim();
+                    String obf = line.substring(arrowPos + arrow.length()).trim();
+                    if (obf.endsWith(":")) {
+                        obf = obf.substring(0, obf.length() - 1);
+                    }
+                    cHashes.add(hash(obf));
+                    cOrigHashes.add(hash(orig));
+                    cObfNames.add(strings.intern(obf));
+                    cOrigNames.add(strings.intern(orig));
+                    cFiles.add(-1);
+                    cStarts.add(mHashes.size);
+                    continue;
+                }
+
+                //method: [a:b:]type [class.]name(args)[:c[:d]] -> obf
+                int paren = line.indexOf('(');
+                if (cObfNames.size == 0 || paren < 0 || paren > arrowPos) {
+                    continue; //field
+                }
+                int closeParen = line.lastIndexOf(')', arrowPos);
+                if (closeParen < paren) {
+                    continue;
+                }
+
+                int start = 0;
+                while (start < paren && (line.charAt(start) == ' ' || line.charAt(start) == '\t')) {
+                    start++;
+                }
+                int obfStart = -1;
+                int obfEnd = -1;
+                int colon1 = line.indexOf(':', start);
+                int colon2 = (colon1 < 0 ? -1 : line.indexOf(':', colon1 + 1));
+                if (colon2 > 0 && colon2 < paren) {
+                    obfStart = parseInt(line, start, colon1);
+                    obfEnd = parseInt(line, colon1 + 1, colon2);
+                    if (obfStart < 0 || obfEnd < obfStart) {
+                        obfStart = -1;
+                        obfEnd = -1;
+                    }
+                    start = colon2 + 1;
+                }
+
+                int origStart = -1;
+                int origEnd = -1;
+                if (closeParen + 1 < arrowPos && line.charAt(closeParen + 1) == ':') {
+                    int colon = line.indexOf(':', closeParen + 2);
+                    if (colon > 0 && colon < arrowPos) {
+                        origStart = parseInt(line, closeParen + 2, colon);
+                        origEnd = parseInt(line, colon + 1, arrowPos);
+                    } else {
+                        origStart = parseInt(line, closeParen + 2, arrowPos);
+                    }
+                }
+
+                int nameStart = line.lastIndexOf(' ', paren) + 1;
+                if (nameStart <= start) {
+                    continue;
+                }
+                String name = line.substring(nameStart, paren);
+                int origClass = -1;
+                int dot = name.lastIndexOf('.');
+                if (dot > 0) {
+                    origClass = strings.intern(name.substring(0, dot));
+                    name = name.substring(dot + 1);
+                }
+                String obf = line.substring(arrowPos + arrow.length()).trim();
+
+                mHashes.add((int) hash(obf));
+                mObfNames.add(strings.intern(obf));
+                mOrigNames.add(strings.intern(name));
+                mOrigClasses.add(origClass);
+                mObfStarts.add(obfStart);
+                mObfEnds.add(obfEnd);
+                mOrigStarts.add(origStart);
+                mOrigEnds.add(origEnd);
+            }
+        } finally {
+            br.close();
+        }
+
+        int classCount = cObfNames.size;
+        int methodCount = mHashes.size;
+        if (classCount == 0) {
+            return false;
+        }
+        if (getFileSize(classCount, methodCount, strings.size(), strings.bytesSize) > Integer.MAX_VALUE) {
+            throw new IOException("mapping file is too large");
+        }
+        cStarts.add(methodCount);
+
+        //sort the classes by hash
+        final long[] ch = cHashes.values;
+        int[] cOrder = Util.sort(classCount, new Util.IndexComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return ch[a] < ch[b] ? -1 : (ch[a] == ch[b] ? 0 : 1);
+            }
+        });
+        final long[] coh = cOrigHashes.values;
+        int[] cOrigOrder = Util.sort(classCount, new Util.IndexComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return coh[a] < coh[b] ? -1 : (coh[a] == coh[b] ? 0 : 1);
+            }
+        });
+        int[] cPositions = new int[classCount];
+        for (int i = 0; i < classCount; i++) {
+            cPositions[cOrder[i]] = i;
+        }
+
+        //sort the methods of each class by hash and name (stable, so an inlining chain is kept together and in order)
+        final int[] mh = mHashes.values;
+        final int[] mn = mObfNames.values;
+        int[] mOrder = new int[methodCount];
+        int[] cMethodStarts = new int[classCount];
+        int pos = 0;
+        for (int i : cOrder) {
+            final int base = cStarts.values[i];
+            int count = cStarts.values[i + 1] - base;
+            int[] order = Util.sort(count, new Util.IndexComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    a += base;
+                    b += base;
+                    return mh[a] != mh[b] ? (mh[a] < mh[b] ? -1 : 1) : (mn[a] < mn[b] ? -1 : (mn[a] == mn[b] ? 0 : 1));
+                }
+            });
+            cMethodStarts[i] = pos;
+            for (int j : order) {
+                mOrder[pos++] = base + j;
+            }
+        }
+
+        //write to a temporary file, then rename it
+        File tmp = Util.getTempFile(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 256 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(classCount);
+            out.writeInt(methodCount);
+            out.writeInt(strings.size());
+            out.writeInt(strings.bytesSize);
+            for (int i : cOrder) {
+                out.writeLong(ch[i]);
+            }
+            for (int i : cOrigOrder) {
+                out.writeLong(coh[i]);
+            }
+            for (int i : cOrder) {
+                out.writeInt(cObfNames.values[i]);
+            }
+            for (int i : cOrder) {
+                out.writeInt(cOrigNames.values[i]);
+            }
+            for (int i : cOrder) {
+                out.writeInt(cFiles.values[i]);
+            }
+            for (int i : cOrder) {
+                out.writeInt(cMethodStarts[i]);
+            }
+            for (int i : cOrder) {
+                out.writeInt(cStarts.values[i + 1] - cStarts.values[i]);
+            }
+            for (int i : cOrigOrder) {
+                out.writeInt(cPositions[i]);
+            }
+            Util.IntArray[] methodInts = new Util.IntArray[]{mHashes, mObfNames, mOrigNames, mOrigClasses,
+                mObfStarts, mObfEnds, mOrigStarts, mOrigEnds};
+            for (Util.IntArray values : methodInts) {
+                for (int i : mOrder) {
+                    out.writeInt(values.values[i]);
+                }
+            }
+            for (int i = 0; i < strings.size(); i++) {
+                out.writeInt(strings.offsets.values[i]);
+            }
+            out.writeInt(strings.bytesSize);
+            out.write(strings.bytes, 0, strings.bytesSize);
+        } finally {
+            out.close();
+        }
+        Util.renameTempFile(tmp, file);
+        return true;
+    }
+
+    //the first index of the hashes >= h
+    private static int lowerBound(LongBuffer hashes, int count, long h) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hashes.get(mid) < h) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Find a class by the obfuscated name.
+     *
+     * @return The class, or -1 if not found.
+     */
+    int findClass(String obfName) {
+        long h = hash(obfName);
+        for (int i = lowerBound(classHashes, classCount, h); i < classCount && classHashes.get(i) == h; i++) {
+            if (strings.equals(classObfNames.get(i), obfName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findClassByOriginalName(String origName) {
+        long h = hash(origName);
+        for (int i = lowerBound(classOrigHashes, classCount, h); i < classCount && classOrigHashes.get(i) == h; i++) {
+            int c = classOrigHashClasses.get(i);
+            if (strings.equals(classOrigNames.get(c), origName)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    String getClassName(int c) {
+        return strings.get(classOrigNames.get(c));
+    }
+
+    //the source file of a class from the R8 metadata, or the name of the outermost class
+    private String getSourceFile(int c, String className) {
+        if (c >= 0 && classFiles.get(c) >= 0) {
+            return strings.get(classFiles.get(c));
+        }
+        String name = className.substring(className.lastIndexOf('.') + 1);
+        int inner = name.indexOf('$');
+        return (inner > 0 ? name.substring(0, inner) : name) + ".java";
+    }
+
+    //the original line of an obfuscated line, or -1 if unknown
+    private int getOriginalLine(int m, int line) {
+        int obfStart = methodObfStarts.get(m);
+        int origStart = methodOrigStarts.get(m);
+        int origEnd = methodOrigEnds.get(m);
+        if (origStart < 0) {
+            //ProGuard: the lines are not changed
+            return line;
+        } else if (origEnd < 0 || origEnd == origStart) {
+            return origStart;
+        } else if (line < 0 || obfStart < 0) {
+            return -1;
+        } else if (origEnd - origStart == methodObfEnds.get(m) - obfStart) {
+            return origStart + (line - obfStart);
+        } else {
+            return origStart;
+        }
+    }
+
+    /**
+     * Look up the original frames of an obfuscated frame.
+     *
+     * @param c The class returned by findClass().
+     * @param obfMethod The obfuscated method name.
+     * @param line The obfuscated line number, or -1 if unknown.
+     * @return The candidates (more than one if the mapping is ambiguous), each is an inlining chain
+     * (the innermost frame first), or an empty list if the method is not found.
+     */
+    List<Frame[]> lookup(int c, String obfMethod, int line) {
+        List<Frame[]> candidates = new ArrayList<Frame[]>();
+
+        //the methods with the obfuscated name
+        int h = (int) hash(obfMethod);
+        int from = -1;
+        int to = -1;
+        for (int m = classMethodStarts.get(c), end = m + classMethodCounts.get(c); m < end; m++) {
+            if (methodHashes.get(m) == h && strings.equals(methodObfNames.get(m), obfMethod)) {
+                if (from < 0) {
+                    from = m;
+                }
+                to = m + 1;
+            } else if (from >= 0) {
+                break;
+            }
+        }
+        if (from < 0) {
+            return candidates;
+        }
+
+        //the methods with a matched line range, the methods without a line range, or all of them
+        boolean hasRange = false;
+        boolean hasNoRange = false;
+        for (int m = from; m < to; m++) {
+            int obfStart = methodObfStarts.get(m);
+            if (obfStart < 0) {
+                hasNoRange = true;
+            } else if (line >= 0 && line >= obfStart && line <= methodObfEnds.get(m)) {
+                hasRange = true;
+            }
+        }
+        if (!hasRange && !hasNoRange) {
+            line = -1;
+        }
+        boolean all = (!hasRange && (line < 0 || !hasNoRange));
+
+        String className = getClassName(c);
+        List<Frame> chain = new ArrayList<Frame>();
+        int prev = -1;
+        for (int m = from; m < to; m++) {
+            int obfStart = methodObfStarts.get(m);
+            int obfEnd = methodObfEnds.get(m);
+            if (hasRange ? (line < obfStart || line > obfEnd) : (!all && obfStart >= 0)) {
+                continue;
+            }
+
+            //a new candidate unless it is the next one of an inlining chain
+            if (!chain.isEmpty() && (obfStart < 0 || prev != m - 1 || methodObfStarts.get(prev) != obfStart
+                || methodObfEnds.get(prev) != obfEnd)) {
+                candidates.add(chain.toArray(new Frame[chain.size()]));
+                chain.clear();
+            }
+            prev = m;
+
+            Frame frame = new Frame();
+            int origClass = methodOrigClasses.get(m);
+            if (origClass >= 0) {
+                frame.className = strings.get(origClass);
+                frame.sourceFile = getSourceFile(findClassByOriginalName(frame.className), frame.className);
+            } else {
+                frame.className = className;
+                frame.sourceFile = getSourceFile(c, className);
+            }
+            frame.methodName = strings.get(methodOrigNames.get(m));
+            frame.line = getOriginalLine(m, line);
+            chain.add(frame);
+        }
+        if (!chain.isEmpty()) {
+            candidates.add(chain.toArray(new Frame[chain.size()]));
+        }
+        return candidates;
+    }
+}
@@ -0,0 +1,253 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash.symbolizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Offline retracer of the Java stacktraces in the tombstones, with an R8/ProGuard mapping file.
+ *
+ * <p>The "java stacktrace" and "other threads" sections of a tombstone (as returned by xcrash.TombstoneParser.parse())
+ * are deobfuscated: the class names of the exceptions, and the classes, methods, source files and lines of the frames
+ * (a frame of inlined methods is expanded to a frame per method, and the alternatives of an ambiguous frame are
+ * appended as "&lt;OR&gt; at ..."). The mapping index is built once, persisted in the index directory, and shared
+ * by all the threads.
+ */
+@SuppressWarnings("unused")
+public class Retracer {
+
+    /**
+     * Same as xcrash.TombstoneParser.keyJavaStacktrace.
+     */
+    public static final String keyJavaStacktrace = "java stacktrace";
+
+    /**
+     * Same as xcrash.TombstoneParser.keyOtherThreads.
+     */
+    public static final String keyOtherThreads = "other threads";
+
+    private static final Pattern patFrame = Pattern.compile("^(\\s*)(at )([^\\s(]+)\\.([^\\s.(]+)\\(([^)]*)\\)(.*)$");
+    private static final Pattern patException = Pattern.compile("^(\\s*(?:Caused by: |Suppressed: )?)([\\w$]+(?:\\.[\\w$]+)*)(:.*)?$");
+    private static final Pattern patLine = Pattern.compile("^(.*):(\\d+)$");
+
+    private final MappingIndex index;
+
+    private final AtomicLong framesCount = new AtomicLong();
+    private final AtomicLong framesRetraced = new AtomicLong();
+
+    /**
+     * Create a retracer of a mapping file, the index is built if it is not found in the index directory.
+     *
+     * @param mappingFile The R8/ProGuard mapping file (mapping.txt).
+     * @param indexDir The directory of the persistent mapping indexes (one file per mapping ID).
+     * @throws IOException If reading the mapping file or writing the index failed.
+     */
+    public Retracer(File mappingFile, File indexDir) throws IOException {
+        this(mappingFile, indexDir, null);
+    }
+
+    /**
+     * Create a retracer of a mapping file, which reports the errors of the persistent index to a callback.
+     *
+     * @param mappingFile The R8/ProGuard mapping file (mapping.txt).
+     * @param indexDir The directory of the persistent mapping indexes (one file per mapping ID).
+     * @param errorCallback The callback of the index errors (the index is rebuilt), or null.
+     * @throws IOException If reading the mapping file or writing the index failed.
+     */
+    public Retracer(File mappingFile, File indexDir, IErrorCallback errorCallback) throws IOException {
+        this.index = loadIndex(mappingFile, indexDir, errorCallback);
+    }
+
+    /**
+     * Create a retracer of a prebuilt mapping index.
+     *
+     * @param indexFile The mapping index file.
+     * @throws IOException If reading the index failed.
+     */
+    public Retracer(File indexFile) throws IOException {
+        this.index = MappingIndex.load(indexFile);
+    }
+
+    private static MappingIndex loadIndex(File mappingFile, File indexDir, IErrorCallback errorCallback) throws IOException {
+        File indexFile = new File(indexDir, MappingIndex.getMappingId(mappingFile) + MappingIndex.fileSuffix);
+
+        //persistent index
+        if (indexFile.isFile()) {
+            try {
+                return MappingIndex.load(indexFile);
+            } catch (IOException e) {
+                if (errorCallback != null) {
+                    errorCallback.onError("load " + indexFile + " failed, rebuild it", e);
+                }
+            }
+        }
+
+        //build from the mapping file
+        if (!MappingIndex.build(mappingFile, indexFile)) {
+            throw new IOException("no class in " + mappingFile);
+        }
+        return MappingIndex.load(indexFile);
+    }
+
+    long getFramesCount() {
+        return framesCount.get();
+    }
+
+    long getFramesRetraced() {
+        return framesRetraced.get();
+    }
+
+    /**
+     * Retrace the Java stacktraces of a tombstone.
+     *
+     * @param tombstone The map returned by xcrash.TombstoneParser.parse(), or any map with the
+     *                  "java stacktrace" and "other threads" sections.
+     * @return A copy of the map, with the retraced "java stacktrace" and "other threads" sections.
+     */
+    public Map<String, String> retrace(Map<String, String> tombstone) {
+        Map<String, String> map = new HashMap<String, String>(tombstone);
+        String stacktrace = tombstone.get(keyJavaStacktrace);
+        if (stacktrace != null) {
+            map.put(keyJavaStacktrace, retraceStacktrace(stacktrace));
+        }
+        String otherThreads = tombstone.get(keyOtherThreads);
+        if (otherThreads != null) {
+            map.put(keyOtherThreads, retraceThreads(otherThreads));
+        }
+        return map;
+    }
+
+    /**
+     * Retrace a Java stacktrace (as printed by Throwable.printStackTrace()), the exception classes and the frames.
+     *
+     * @param stacktrace Content of the "java stacktrace" section.
+     * @return The retraced stacktrace.
+     */
+    public String retraceStacktrace(String stacktrace) {
+        return retrace(stacktrace, true);
+    }
+
+    /**
+     * Retrace the Java stacktraces of the other threads, only the frames.
+     *
+     * @param threads Content of the "other threads" section.
+     * @return The retraced threads.
+     */
+    public String retraceThreads(String threads) {
+        return retrace(threads, false);
+    }
+
+    private String retrace(String text, boolean exceptions) {
+        StringBuilder sb = new StringBuilder(text.length() + text.length() / 2);
+        for (String line : text.split("\n")) {
+            Matcher m = patFrame.matcher(line);
+            if (m.find()) {
+                retraceFrame(sb, line, m);
+                continue;
+            }
+
+            if (exceptions) {
+                m = patException.matcher(line);
+                if (m.find()) {
+                    int c = index.findClass(m.group(2));
+                    if (c >= 0) {
+                        sb.append(m.group(1)).append(index.getClassName(c));
+                        if (m.group(3) != null) {
+                            sb.append(m.group(3));
+                        }
+                        sb.append('\n');
+                        continue;
+                    }
+                }
+            }
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void retraceFrame(StringBuilder sb, String line, Matcher m) {
+        framesCount.incrementAndGet();
+
+        int c = index.findClass(m.group(3));
+        if (c < 0) {
+            sb.append(line).append('\n');
+            return;
+        }
+
+        //source file and line
+        String source = m.group(5);
+        int lineNumber = -1;
+        Matcher ml = patLine.matcher(source);
+        if (ml.find()) {
+            try {
+                lineNumber = Integer.parseInt(ml.group(2));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        boolean isNative = source.equals("Native Method");
+
+        List<MappingIndex.Frame[]> candidates = index.lookup(c, m.group(4), lineNumber);
+        if (candidates.isEmpty()) {
+            //only the class is known
+            sb.append(m.group(1)).append(m.group(2)).append(index.getClassName(c)).append('.').append(m.group(4))
+                .append('(').append(source).append(')').append(m.group(6)).append('\n');
+            framesRetraced.incrementAndGet();
+            return;
+        }
+
+        //the same overloaded methods are printed once
+        Set<String> alternatives = new LinkedHashSet<String>();
+        for (MappingIndex.Frame[] chain : candidates) {
+            StringBuilder ab = new StringBuilder();
+            for (MappingIndex.Frame frame : chain) {
+                ab.append(m.group(2)).append(frame.className).append('.').append(frame.methodName).append('(');
+                if (isNative) {
+                    ab.append(source);
+                } else {
+                    ab.append(frame.sourceFile);
+                    if (frame.line >= 0) {
+                        ab.append(':').append(frame.line);
+                    }
+                }
+                ab.append(")\n");
+            }
+            alternatives.add(ab.toString());
+        }
+        String prefix = m.group(1);
+        for (String alternative : alternatives) {
+            for (String l : alternative.split("\n")) {
+                sb.append(prefix).append(l).append(m.group(6)).append('\n');
+            }
+            prefix = m.group(1) + "<OR> ";
+        }
+        framesRetraced.incrementAndGet();
+    }
+}
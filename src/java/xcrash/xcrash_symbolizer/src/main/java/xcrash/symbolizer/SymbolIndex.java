@@ -0,0 +1,274 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash.symbolizer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The address index of an ELF file: functions from the symbol table and source lines from .debug_line.
+ *
+ * <p>The index is persisted as a file per build-ID, and used through read-only memory-mapped buffers,
+ * so it can be shared by any number of threads, and only the touched pages are loaded.
+ *
+ * <p>File format (big-endian): magic, version, function count, line count, string count, string bytes,
+ * function addresses (long), line addresses (long), function sizes, function names, line files, line numbers,
+ * string offsets (count + 1), string bytes. All the addresses are sorted.
+ */
+class SymbolIndex {
+
+    static final String fileSuffix = ".xsi";
+
+    private static final int MAGIC = 0x58435349; //"XCSI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    static class Location {
+        String function;
+        long functionOffset;
+        String file;
+        int line;
+    }
+
+    private final int funcCount;
+    private final int lineCount;
+    private final LongBuffer funcAddrs;
+    private final LongBuffer lineAddrs;
+    private final IntBuffer funcSizes;
+    private final IntBuffer funcNames;
+    private final IntBuffer lineFiles;
+    private final IntBuffer lineNums;
+    private final Util.MappedStrings strings;
+
+    private SymbolIndex(ByteBuffer buf) throws IOException {
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("bad index file");
+        }
+        funcCount = buf.getInt(8);
+        lineCount = buf.getInt(12);
+        int strCount = buf.getInt(16);
+        int strBytes = buf.getInt(20);
+        long size = HEADER_SIZE + 8L * funcCount + 8L * lineCount + 8L * funcCount + 8L * lineCount + 4L * (strCount + 1) + strBytes;
+        if (funcCount < 0 || lineCount < 0 || strCount < 0 || strBytes < 0 || size != buf.limit()) {
+            throw new IOException("bad index file size");
+        }
+
+        int pos = HEADER_SIZE;
+        funcAddrs = Util.slice(buf, pos, 8 * funcCount).asLongBuffer();
+        pos += 8 * funcCount;
+        lineAddrs = Util.slice(buf, pos, 8 * lineCount).asLongBuffer();
+        pos += 8 * lineCount;
+        funcSizes = Util.slice(buf, pos, 4 * funcCount).asIntBuffer();
+        pos += 4 * funcCount;
+        funcNames = Util.slice(buf, pos, 4 * funcCount).asIntBuffer();
+        pos += 4 * funcCount;
+        lineFiles = Util.slice(buf, pos, 4 * lineCount).asIntBuffer();
+        pos += 4 * lineCount;
+        lineNums = Util.slice(buf, pos, 4 * lineCount).asIntBuffer();
+        pos += 4 * lineCount;
+        IntBuffer strOffsets = Util.slice(buf, pos, 4 * (strCount + 1)).asIntBuffer();
+        pos += 4 * (strCount + 1);
+        strings = new Util.MappedStrings(strOffsets, Util.slice(buf, pos, strBytes));
+    }
+
+    static SymbolIndex load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            //the mapping is still valid after closing the file
+            return new SymbolIndex(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Build the index of an ELF file, and write it to the index file atomically.
+     *
+     * @return Return false if the ELF file has no symbols and no lines.
+     */
+    static boolean build(ElfFile elf, File file) throws IOException {
+        Util.StringTable strings = new Util.StringTable();
+
+        //functions
+        Util.LongArray fAddrs = new Util.LongArray();
+        Util.IntArray fSizes = new Util.IntArray();
+        Util.IntArray fNames = new Util.IntArray();
+        readSymbols(elf, strings, fAddrs, fSizes, fNames);
+        final long[] fa = fAddrs.values;
+        final int[] fs = fSizes.values;
+        int[] fOrder = Util.sort(fAddrs.size, new Util.IndexComparator() {
+            @Override
+            public int compare(int a, int b) {
+                //the sized symbol wins for the same address
+                return fa[a] != fa[b] ? (fa[a] < fa[b] ? -1 : 1) : (fs[a] < fs[b] ? -1 : (fs[a] == fs[b] ? 0 : 1));
+            }
+        });
+
+        //lines
+        Util.LongArray lAddrs = new Util.LongArray();
+        Util.IntArray lFiles = new Util.IntArray();
+        Util.IntArray lNums = new Util.IntArray();
+        new DwarfLineReader(elf, strings, lAddrs, lFiles, lNums).read();
+        final long[] la = lAddrs.values;
+        final int[] lf = lFiles.values;
+        int[] lOrder = Util.sort(lAddrs.size, new Util.IndexComparator() {
+            @Override
+            public int compare(int a, int b) {
+                //the end of a sequence goes before the start of the next sequence at the same address
+                return la[a] != la[b] ? (la[a] < la[b] ? -1 : 1) : ((lf[a] == -1 ? 0 : 1) - (lf[b] == -1 ? 0 : 1));
+            }
+        });
+
+        if (fOrder.length == 0 && lOrder.length == 0) {
+            return false;
+        }
+
+        //write to a temporary file, then rename it
+        File tmp = Util.getTempFile(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 256 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(fOrder.length);
+            out.writeInt(lOrder.length);
+            out.writeInt(strings.size());
+            out.writeInt(strings.bytesSize);
+            for (int i : fOrder) {
+                out.writeLong(fa[i]);
+            }
+            for (int i : lOrder) {
+                out.writeLong(la[i]);
+            }
+            for (int i : fOrder) {
+                out.writeInt(fs[i]);
+            }
+            for (int i : fOrder) {
+                out.writeInt(fNames.values[i]);
+            }
+            for (int i : lOrder) {
+                out.writeInt(lf[i]);
+            }
+            for (int i : lOrder) {
+                out.writeInt(lNums.values[i]);
+            }
+            for (int i = 0; i < strings.size(); i++) {
+                out.writeInt(strings.offsets.values[i]);
+            }
+            out.writeInt(strings.bytesSize);
+            out.write(strings.bytes, 0, strings.bytesSize);
+        } finally {
+            out.close();
+        }
+        Util.renameTempFile(tmp, file);
+        return true;
+    }
+
+    private static void readSymbols(ElfFile elf, Util.StringTable strings,
+                                    Util.LongArray addrs, Util.IntArray sizes, Util.IntArray names) throws IOException {
+        //prefer the full symbol table of the unstripped file
+        ElfFile.Section symtab = null;
+        for (ElfFile.Section s : elf.getSections()) {
+            if (s.type == ElfFile.SHT_SYMTAB || (s.type == ElfFile.SHT_DYNSYM && symtab == null)) {
+                symtab = s;
+            }
+        }
+        ElfFile.Section[] sections = elf.getSections();
+        if (symtab == null || symtab.link <= 0 || symtab.link >= sections.length) {
+            return;
+        }
+
+        ByteBuffer syms = elf.getData(symtab);
+        ByteBuffer strtab = elf.getData(sections[symtab.link]);
+        int entSize = (elf.is64 ? 24 : 16);
+        for (int pos = entSize; pos + entSize <= syms.limit(); pos += entSize) {
+            int nameOffset = syms.getInt(pos);
+            int info = (elf.is64 ? syms.get(pos + 4) : syms.get(pos + 12)) & 0xff;
+            int shndx = (elf.is64 ? syms.getShort(pos + 6) : syms.getShort(pos + 14)) & 0xffff;
+            long value = (elf.is64 ? syms.getLong(pos + 8) : syms.getInt(pos + 4) & 0xffffffffL);
+            long size = (elf.is64 ? syms.getLong(pos + 16) : syms.getInt(pos + 8) & 0xffffffffL);
+            int type = info & 0xf;
+
+            //STT_FUNC or STT_GNU_IFUNC, defined
+            if ((type != 2 && type != 10) || shndx == 0 || value == 0) {
+                continue;
+            }
+            if (elf.machine == ElfFile.EM_ARM) {
+                value &= ~1L; //thumb
+            }
+            addrs.add(value);
+            sizes.add((int) Math.min(size, Integer.MAX_VALUE));
+            names.add(strings.intern(ElfFile.getString(strtab, nameOffset)));
+        }
+    }
+
+    //the last index of the addresses <= pc, or -1
+    private static int floor(LongBuffer addrs, int count, long pc) {
+        int lo = 0;
+        int hi = count - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (addrs.get(mid) <= pc) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Look up the function and the source line of a relative PC.
+     *
+     * @return The location, or null if nothing found.
+     */
+    Location lookup(long pc) {
+        Location loc = new Location();
+
+        int f = floor(funcAddrs, funcCount, pc);
+        if (f >= 0) {
+            long addr = funcAddrs.get(f);
+            int size = funcSizes.get(f);
+            if (size == 0 || pc < addr + size) {
+                loc.function = strings.get(funcNames.get(f));
+                loc.functionOffset = pc - addr;
+            }
+        }
+
+        int l = floor(lineAddrs, lineCount, pc);
+        if (l >= 0 && lineFiles.get(l) >= 0) {
+            loc.file = strings.get(lineFiles.get(l));
+            loc.line = lineNums.get(l);
+        }
+
+        return (loc.function == null && loc.file == null ? null : loc);
+    }
+}
@@ -0,0 +1,140 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash.symbolizer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Locate the ELF files by build-ID in a local symbol directory.
+ *
+ * <p>Supported layouts: ".build-id/xx/yyyy.debug" (as GDB), "BUILD_ID/any-name", and any other layout
+ * (the directory is scanned once, and the largest file of each build-ID is used, which is the unstripped one).
+ */
+class SymbolLocator {
+
+    private final File symbolDir;
+    private Map<String, File> scanned = null;
+
+    SymbolLocator(File symbolDir) {
+        this.symbolDir = symbolDir;
+    }
+
+    File find(String buildId) {
+        buildId = buildId.toLowerCase(Locale.US);
+
+        if (buildId.length() > 2) {
+            File dir = new File(new File(symbolDir, ".build-id"), buildId.substring(0, 2));
+            File f = new File(dir, buildId.substring(2) + ".debug");
+            if (f.isFile()) {
+                return f;
+            }
+            f = new File(dir, buildId.substring(2));
+            if (f.isFile()) {
+                return f;
+            }
+        }
+
+        File[] files = new File(symbolDir, buildId).listFiles();
+        if (files != null) {
+            File best = null;
+            for (File f : files) {
+                if (f.isFile() && buildId.equals(readBuildId(f)) && (best == null || f.length() > best.length())) {
+                    best = f;
+                }
+            }
+            if (best != null) {
+                return best;
+            }
+        }
+
+        return getScanned().get(buildId);
+    }
+
+    private synchronized Map<String, File> getScanned() {
+        if (scanned == null) {
+            scanned = new HashMap<String, File>();
+            scan(symbolDir, scanned);
+        }
+        return scanned;
+    }
+
+    private static void scan(File dir, Map<String, File> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                scan(f, result);
+            } else if (f.isFile() && isElf(f)) {
+                String buildId = readBuildId(f);
+                if (buildId != null) {
+                    File prev = result.get(buildId);
+                    if (prev == null || f.length() > prev.length()) {
+                        result.put(buildId, f);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isElf(File f) {
+        byte[] magic = new byte[4];
+        InputStream in = null;
+        try {
+            in = new FileInputStream(f);
+            return in.read(magic) == 4 && magic[0] == 0x7f && magic[1] == 'E' && magic[2] == 'L' && magic[3] == 'F';
+        } catch (IOException ignored) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static String readBuildId(File f) {
+        ElfFile elf = null;
+        try {
+            elf = ElfFile.open(f);
+            return elf.getBuildId();
+        } catch (IOException ignored) {
+            return null;
+        } finally {
+            if (elf != null) {
+                try {
+                    elf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
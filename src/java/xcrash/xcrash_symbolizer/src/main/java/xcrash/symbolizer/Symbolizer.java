@@ -0,0 +1,405 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash.symbolizer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Offline symbolizer of the native tombstones.
+ *
+ * <p>The "backtrace" and "build id" sections of a tombstone (as returned by xcrash.TombstoneParser.parse())
+ * are used to locate the unstripped ELF files by build-ID in a local symbol directory, and each rel_pc
+ * is resolved to function, file and line. The address index of each build-ID is built once, persisted
+ * in the index directory, and shared by all the threads.
+ *
+ * <p>The Java stacktraces can be retraced at the same time by a {@link Retracer}.
+ *
+ * <p>Command line: java -jar xcrash_symbolizer.jar [-m MAPPING_FILE] SYMBOL_DIR INDEX_DIR TOMBSTONE_FILE_OR_DIR...
+ * (each tombstone is written to TOMBSTONE.symbolized with the symbolized backtrace and the retraced Java stacktraces)
+ */
+@SuppressWarnings("unused")
+public class Symbolizer {
+
+    /**
+     * Same as xcrash.TombstoneParser.keyBacktrace.
+     */
+    public static final String keyBacktrace = "backtrace";
+
+    /**
+     * Same as xcrash.TombstoneParser.keyBuildId.
+     */
+    public static final String keyBuildId = "build id";
+
+    private static final String symbolizedSuffix = ".symbolized";
+
+    private static final Pattern patBuildId = Pattern.compile("^\\s*(\\S.*?) \\(BuildId: ([0-9a-fA-F]+)");
+    private static final Pattern patFrame = Pattern.compile("^(\\s*#\\d+ pc )([0-9a-fA-F]+)(\\s+)(\\S+)(.*)$");
+    private static final Pattern patOffset = Pattern.compile("^ \\(offset 0x[0-9a-fA-F]+\\)");
+
+    private final SymbolLocator locator;
+    private final File indexDir;
+    private final Retracer retracer;
+    private final IErrorCallback errorCallback;
+    private final ConcurrentHashMap<String, FutureTask<SymbolIndex>> indexes = new ConcurrentHashMap<String, FutureTask<SymbolIndex>>();
+
+    private final AtomicLong framesCount = new AtomicLong();
+    private final AtomicLong framesResolved = new AtomicLong();
+
+    /**
+     * Create a symbolizer.
+     *
+     * @param symbolDir The directory of the unstripped ELF files.
+     * @param indexDir The directory of the persistent address indexes (one file per build-ID).
+     */
+    public Symbolizer(File symbolDir, File indexDir) {
+        this(symbolDir, indexDir, null);
+    }
+
+    /**
+     * Create a symbolizer, which also retraces the Java stacktraces of the tombstone files.
+     *
+     * @param symbolDir The directory of the unstripped ELF files.
+     * @param indexDir The directory of the persistent address indexes (one file per build-ID).
+     * @param retracer The retracer used by {@link #symbolizeFile(File)}, or null.
+     */
+    public Symbolizer(File symbolDir, File indexDir, Retracer retracer) {
+        this(symbolDir, indexDir, retracer, null);
+    }
+
+    /**
+     * Create a symbolizer, which reports the errors of the indexes to a callback.
+     *
+     * @param symbolDir The directory of the unstripped ELF files.
+     * @param indexDir The directory of the persistent address indexes (one file per build-ID).
+     * @param retracer The retracer used by {@link #symbolizeFile(File)}, or null.
+     * @param errorCallback The callback of the index errors, or null.
+     */
+    public Symbolizer(File symbolDir, File indexDir, Retracer retracer, IErrorCallback errorCallback) {
+        this.locator = new SymbolLocator(symbolDir);
+        this.indexDir = indexDir;
+        this.retracer = retracer;
+        this.errorCallback = errorCallback;
+    }
+
+    /**
+     * Symbolize the backtrace of a tombstone.
+     *
+     * @param tombstone The map returned by xcrash.TombstoneParser.parse(), or any map with the
+     *                  "backtrace" and "build id" sections.
+     * @return The symbolized backtrace, or null if the tombstone has no backtrace.
+     */
+    public String symbolize(Map<String, String> tombstone) {
+        String backtrace = tombstone.get(keyBacktrace);
+        if (backtrace == null) {
+            return null;
+        }
+        return symbolize(backtrace, tombstone.get(keyBuildId));
+    }
+
+    /**
+     * Symbolize a backtrace, the frames are appended with " [FILE:LINE]", and the function
+     * is added if it is not present.
+     *
+     * @param backtrace Content of the "backtrace" section.
+     * @param buildIds Content of the "build id" section (the frames of the ELF files not listed here are kept as is).
+     * @return The symbolized backtrace.
+     */
+    public String symbolize(String backtrace, String buildIds) {
+        //ELF pathname -> build-ID
+        Map<String, String> ids = new HashMap<String, String>();
+        if (buildIds != null) {
+            for (String line : buildIds.split("\n")) {
+                Matcher m = patBuildId.matcher(line);
+                if (m.find()) {
+                    ids.put(m.group(1), m.group(2).toLowerCase(Locale.US));
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(backtrace.length() * 2);
+        for (String line : backtrace.split("\n")) {
+            sb.append(symbolizeFrame(line, ids)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String symbolizeFrame(String line, Map<String, String> ids) {
+        Matcher m = patFrame.matcher(line);
+        if (!m.find()) {
+            return line;
+        }
+        framesCount.incrementAndGet();
+
+        String buildId = ids.get(m.group(4));
+        if (buildId == null) {
+            return line;
+        }
+        SymbolIndex index = getIndex(buildId);
+        if (index == null) {
+            return line;
+        }
+        long pc;
+        try {
+            pc = Long.parseLong(m.group(2), 16);
+        } catch (NumberFormatException e) {
+            return line;
+        }
+        SymbolIndex.Location loc = index.lookup(pc);
+        if (loc == null) {
+            return line;
+        }
+        framesResolved.incrementAndGet();
+
+        StringBuilder sb = new StringBuilder(line);
+
+        //add the function if the dumper could not resolve it
+        String rest = m.group(5);
+        Matcher mo = patOffset.matcher(rest);
+        if (mo.find()) {
+            rest = rest.substring(mo.end());
+        }
+        if (rest.trim().length() == 0 && loc.function != null) {
+            sb.append(" (").append(loc.function);
+            if (loc.functionOffset > 0) {
+                sb.append('+').append(loc.functionOffset);
+            }
+            sb.append(')');
+        }
+
+        if (loc.file != null) {
+            sb.append(" [").append(loc.file).append(':').append(loc.line).append(']');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the address index of a build-ID, built on the first use, and shared by all the threads.
+     */
+    SymbolIndex getIndex(final String buildId) {
+        FutureTask<SymbolIndex> task = indexes.get(buildId);
+        if (task == null) {
+            FutureTask<SymbolIndex> newTask = new FutureTask<SymbolIndex>(new Callable<SymbolIndex>() {
+                @Override
+                public SymbolIndex call() {
+                    return loadIndex(buildId);
+                }
+            });
+            task = indexes.putIfAbsent(buildId, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private SymbolIndex loadIndex(String buildId) {
+        File indexFile = new File(indexDir, buildId + SymbolIndex.fileSuffix);
+
+        //persistent index
+        if (indexFile.isFile()) {
+            try {
+                return SymbolIndex.load(indexFile);
+            } catch (IOException e) {
+                if (errorCallback != null) {
+                    errorCallback.onError("load " + indexFile + " failed, rebuild it", e);
+                }
+            }
+        }
+
+        //build from the ELF file
+        File elfFile = locator.find(buildId);
+        if (elfFile == null) {
+            return null;
+        }
+        ElfFile elf = null;
+        try {
+            elf = ElfFile.open(elfFile);
+            if (!SymbolIndex.build(elf, indexFile)) {
+                return null;
+            }
+            return SymbolIndex.load(indexFile);
+        } catch (IOException e) {
+            if (errorCallback != null) {
+                errorCallback.onError("index " + elfFile + " failed", e);
+            }
+            return null;
+        } finally {
+            if (elf != null) {
+                try {
+                    elf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Symbolize a tombstone file (and retrace the Java stacktraces if there is a retracer), and write
+     * the result to TOMBSTONE.symbolized.
+     *
+     * @param file The tombstone file.
+     * @return Return true if the tombstone has a backtrace (or a Java stacktrace to retrace).
+     * @throws IOException If reading or writing failed.
+     */
+    public boolean symbolizeFile(File file) throws IOException {
+        String text = TombstoneSections.read(file);
+        Map<String, String> sections = TombstoneSections.parse(text, keyBacktrace, keyBuildId,
+            Retracer.keyJavaStacktrace, Retracer.keyOtherThreads);
+        boolean changed = false;
+
+        String backtrace = symbolize(sections);
+        if (backtrace != null) {
+            text = TombstoneSections.replace(text, keyBacktrace, backtrace);
+            changed = true;
+        }
+
+        if (retracer != null) {
+            String stacktrace = sections.get(Retracer.keyJavaStacktrace);
+            if (stacktrace != null) {
+                text = TombstoneSections.replace(text, Retracer.keyJavaStacktrace, retracer.retraceStacktrace(stacktrace));
+                changed = true;
+            }
+            String otherThreads = sections.get(Retracer.keyOtherThreads);
+            if (otherThreads != null) {
+                text = TombstoneSections.replace(text, Retracer.keyOtherThreads, retracer.retraceThreads(otherThreads));
+                changed = true;
+            }
+        }
+
+        if (!changed) {
+            return false;
+        }
+        OutputStream out = new FileOutputStream(file.getPath() + symbolizedSuffix);
+        try {
+            out.write(Util.utf8(text));
+        } finally {
+            out.close();
+        }
+        return true;
+    }
+
+    private static void collect(File file, List<File> files) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collect(child, files);
+                }
+            }
+        } else if (file.isFile() && !file.getName().endsWith(symbolizedSuffix)) {
+            files.add(file);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int argsStart = (args.length >= 2 && args[0].equals("-m") ? 2 : 0);
+        if (args.length < argsStart + 3) {
+            System.err.println("Usage: java -jar xcrash_symbolizer.jar [-m MAPPING_FILE] SYMBOL_DIR INDEX_DIR TOMBSTONE_FILE_OR_DIR...");
+            System.exit(1);
+        }
+
+        IErrorCallback errorCallback = new IErrorCallback() {
+            @Override
+            public void onError(String msg, Exception e) {
+                System.err.println("xcrash_symbolizer: " + msg + ". " + e);
+            }
+        };
+
+        File indexDir = new File(args[argsStart + 1]);
+        Retracer retracer = null;
+        if (argsStart > 0) {
+            long startTime = System.currentTimeMillis();
+            try {
+                retracer = new Retracer(new File(args[1]), indexDir, errorCallback);
+            } catch (IOException e) {
+                System.err.println("xcrash_symbolizer: load mapping " + args[1] + " failed. " + e);
+                System.exit(1);
+            }
+            System.out.println("xcrash_symbolizer: mapping loaded, " + (System.currentTimeMillis() - startTime) + " ms");
+        }
+
+        final Symbolizer symbolizer = new Symbolizer(new File(args[argsStart]), indexDir, retracer, errorCallback);
+        List<File> files = new ArrayList<File>();
+        for (int i = argsStart + 2; i < args.length; i++) {
+            collect(new File(args[i]), files);
+        }
+
+        long startTime = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (final File file : files) {
+            results.add(pool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    return symbolizer.symbolizeFile(file);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        int symbolized = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                if (results.get(i).get()) {
+                    symbolized++;
+                }
+            } catch (ExecutionException e) {
+                System.err.println("xcrash_symbolizer: " + files.get(i) + " failed. " + e.getCause());
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "xcrash_symbolizer: %d/%d tombstones, %d/%d frames resolved, %d ms",
+            symbolized, files.size(), symbolizer.framesResolved.get(), symbolizer.framesCount.get(),
+            System.currentTimeMillis() - startTime));
+        if (retracer != null) {
+            System.out.println(String.format(Locale.US, "xcrash_symbolizer: %d/%d java frames retraced",
+                retracer.getFramesRetraced(), retracer.getFramesCount()));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash.symbolizer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read the sections of a native tombstone file without the Android runtime.
+ *
+ * <p>This follows the section rules of xcrash.TombstoneParser ("title:" line, indented content, empty line,
+ * and the "other threads" section between the separator lines), and the content is outdented the same way,
+ * so the result can be used interchangeably with the map returned by TombstoneParser.parse().
+ */
+class TombstoneSections {
+
+    static final String otherThreads = "other threads";
+
+    private static final String indent = "    ";
+    private static final String sepOtherThreads = "--- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---";
+    private static final String sepOtherThreadsEnding = "+++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++";
+
+    private TombstoneSections() {
+    }
+
+    static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(file.length(), 64 * 1024 * 1024));
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return Util.utf8(out.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Get the first sections with the specified titles.
+     */
+    static Map<String, String> parse(String text, String... titles) {
+        Map<String, String> map = new HashMap<String, String>();
+        for (String title : titles) {
+            int[] range = find(text, title);
+            if (range != null && title.equals(otherThreads)) {
+                map.put(title, text.substring(range[0], range[1]));
+            } else if (range != null) {
+                StringBuilder sb = new StringBuilder();
+                for (String line : text.substring(range[0], range[1]).split("\n")) {
+                    sb.append(line.startsWith(indent) ? line.substring(indent.length()) : line).append('\n');
+                }
+                map.put(title, sb.toString());
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Replace the content of the first section with the specified title.
+     */
+    static String replace(String text, String title, String content) {
+        int[] range = find(text, title);
+        if (range == null) {
+            return text;
+        }
+
+        StringBuilder sb = new StringBuilder(text.length() + content.length());
+        sb.append(text, 0, range[0]);
+        if (title.equals(otherThreads)) {
+            sb.append(content);
+        } else {
+            //the content of the sections written by the JVM (such as the "java stacktrace" of a Java crash) is not indented
+            String prefix = (text.startsWith(indent, range[0]) ? indent : "");
+            for (String line : content.split("\n")) {
+                if (line.length() > 0) {
+                    sb.append(prefix).append(line).append('\n');
+                }
+            }
+        }
+        sb.append(text, range[1], text.length());
+        return sb.toString();
+    }
+
+    //the range of the section content (without the title line and the ending empty line)
+    private static int[] find(String text, String title) {
+        if (title.equals(otherThreads)) {
+            return findOtherThreads(text);
+        }
+
+        String head = title + ":\n";
+        int start = (text.startsWith(head) ? 0 : text.indexOf("\n" + head));
+        if (start < 0) {
+            return null;
+        }
+        start += (start == 0 ? head.length() : head.length() + 1);
+
+        if (text.startsWith("\n", start)) {
+            return new int[]{start, start};
+        }
+        int end = text.indexOf("\n\n", start);
+        end = (end < 0 ? text.length() : end + 1);
+        return new int[]{start, Math.max(start, end)};
+    }
+
+    //the range of the "other threads" section (with the separator lines)
+    private static int[] findOtherThreads(String text) {
+        int start = (text.startsWith(sepOtherThreads + "\n") ? 0 : text.indexOf("\n" + sepOtherThreads + "\n"));
+        if (start < 0) {
+            return null;
+        }
+        start += (start == 0 ? 0 : 1);
+
+        //truncated to the end of the file if the ending line is missing
+        int end = text.indexOf("\n" + sepOtherThreadsEnding, start);
+        if (end >= 0) {
+            end = text.indexOf('\n', end + 1);
+        }
+        return new int[]{start, end < 0 ? text.length() : end + 1};
+    }
+}
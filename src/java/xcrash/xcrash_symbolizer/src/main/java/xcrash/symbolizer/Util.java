@@ -0,0 +1,226 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash.symbolizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+class Util {
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+
+    private Util() {
+    }
+
+    static String utf8(byte[] bytes) {
+        return new String(bytes, utf8);
+    }
+
+    static byte[] utf8(String str) {
+        return str.getBytes(utf8);
+    }
+
+    /**
+     * Get a temporary file (in the same directory) for writing the specified file atomically.
+     */
+    static File getTempFile(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            throw new IOException("create " + dir + " failed");
+        }
+        return new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+    }
+
+    static void renameTempFile(File tmp, File file) throws IOException {
+        if (!tmp.renameTo(file)) {
+            //deleted or replaced by another builder
+            if (!file.exists()) {
+                tmp.delete();
+                throw new IOException("rename " + tmp + " failed");
+            }
+            tmp.delete();
+        }
+    }
+
+    /**
+     * A growable array of primitive long.
+     */
+    static class LongArray {
+        long[] values = new long[1024];
+        int size = 0;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * A growable array of primitive int.
+     */
+    static class IntArray {
+        int[] values = new int[1024];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * Interned strings, each string gets a sequential ID.
+     */
+    static class StringTable {
+        final Map<String, Integer> ids = new HashMap<String, Integer>();
+        final IntArray offsets = new IntArray();
+        byte[] bytes = new byte[64 * 1024];
+        int bytesSize = 0;
+
+        int intern(String str) {
+            Integer id = ids.get(str);
+            if (id != null) {
+                return id;
+            }
+
+            byte[] b = utf8(str);
+            while (bytesSize + b.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            System.arraycopy(b, 0, bytes, bytesSize, b.length);
+            offsets.add(bytesSize);
+            bytesSize += b.length;
+
+            id = ids.size();
+            ids.put(str, id);
+            return id;
+        }
+
+        int size() {
+            return ids.size();
+        }
+    }
+
+    /**
+     * Interned strings in a memory-mapped index file (string offsets with count + 1 entries, string bytes).
+     */
+    static class MappedStrings {
+        private final IntBuffer offsets;
+        private final ByteBuffer data;
+
+        MappedStrings(IntBuffer offsets, ByteBuffer data) {
+            this.offsets = offsets;
+            this.data = data;
+        }
+
+        String get(int id) {
+            int start = offsets.get(id);
+            int len = offsets.get(id + 1) - start;
+
+            //most of the names are ASCII
+            char[] chars = new char[len];
+            for (int i = 0; i < len; i++) {
+                byte b = data.get(start + i);
+                if (b < 0) {
+                    byte[] bytes = new byte[len];
+                    ByteBuffer dup = data.duplicate();
+                    dup.position(start);
+                    dup.get(bytes);
+                    return utf8(bytes);
+                }
+                chars[i] = (char) b;
+            }
+            return new String(chars);
+        }
+
+        boolean equals(int id, String str) {
+            int start = offsets.get(id);
+            int len = offsets.get(id + 1) - start;
+            if (len < str.length()) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                byte b = data.get(start + i);
+                if (b < 0) {
+                    return get(id).equals(str);
+                }
+                if (i >= str.length() || str.charAt(i) != b) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static ByteBuffer slice(ByteBuffer buf, int pos, int len) {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(pos);
+        dup.limit(pos + len);
+        return dup.slice();
+    }
+
+    interface IndexComparator {
+        int compare(int a, int b);
+    }
+
+    //merge sort of the indexes (stable)
+    static int[] sort(int n, IndexComparator c) {
+        int[] a = new int[n];
+        int[] tmp = new int[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i;
+        }
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n - width; lo += 2 * width) {
+                int mid = lo + width;
+                int hi = Math.min(lo + 2 * width, n);
+                if (c.compare(a[mid - 1], a[mid]) <= 0) {
+                    continue;
+                }
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi) {
+                    tmp[k++] = (c.compare(a[i], a[j]) <= 0 ? a[i++] : a[j++]);
+                }
+                while (i < mid) {
+                    tmp[k++] = a[i++];
+                }
+                while (j < hi) {
+                    tmp[k++] = a[j++];
+                }
+                System.arraycopy(tmp, lo, a, lo, hi - lo);
+            }
+        }
+        return a;
+    }
+}
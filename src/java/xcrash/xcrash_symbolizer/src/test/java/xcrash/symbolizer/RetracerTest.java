@@ -0,0 +1,223 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash.symbolizer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetracerTest {
+
+    //see mapping_test.txt
+    static final String mappingName = "mapping_test.txt";
+    static final String mappingId = "5e1a7b3";
+
+    static final String sep = "--- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---\n";
+    static final String sepEnding = "+++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++ +++\n";
+
+    static final String otherThreads = sep
+        + "pid: 1234, tid: 1240, name: Thread-2  >>> com.example.crash <<<\n"
+        + "\n"
+        + "java stacktrace:\n"
+        + "    at com.example.crash.b.a(SourceFile:1)\n"
+        + "    at com.example.crash.a.d(Unknown Source)\n"
+        + "    at java.lang.Thread.run(Thread.java:764)\n"
+        + "\n"
+        + sep
+        + "pid: 1234, tid: 1241, name: Thread-3  >>> com.example.crash <<<\n"
+        + "\n"
+        + "java stacktrace:\n"
+        + "    at com.example.crash.a.onCreate(SourceFile:1)\n"
+        + "\n"
+        + "total threads (exclude the crashed thread): 2\n"
+        + "dumped threads: 2\n"
+        + sepEnding;
+
+    static final String otherThreadsRetraced = sep
+        + "pid: 1234, tid: 1240, name: Thread-2  >>> com.example.crash <<<\n"
+        + "\n"
+        + "java stacktrace:\n"
+        + "    at com.example.crash.Worker.run(Worker.java:12)\n"
+        + "    at com.example.crash.MainActivity.first(MainActivity.kt)\n"
+        + "    <OR> at com.example.crash.MainActivity.second(MainActivity.kt)\n"
+        + "    at java.lang.Thread.run(Thread.java:764)\n"
+        + "\n"
+        + sep
+        + "pid: 1234, tid: 1241, name: Thread-3  >>> com.example.crash <<<\n"
+        + "\n"
+        + "java stacktrace:\n"
+        + "    at com.example.crash.MainActivity.onCreate(MainActivity.kt:25)\n"
+        + "\n"
+        + "total threads (exclude the crashed thread): 2\n"
+        + "dumped threads: 2\n"
+        + sepEnding;
+
+    static final String stacktrace = "com.example.crash.c: boom\n"
+        + "\tat com.example.crash.a.b(SourceFile:5)\n"
+        + "\tat com.example.crash.a.onCreate(SourceFile:1)\n"
+        + "\tat android.app.Activity.performCreate(Activity.java:7136)\n"
+        + "Caused by: com.example.crash.c\n"
+        + "\tat com.example.crash.a.b(SourceFile:3)\n"
+        + "\t... 2 more\n"
+        + "\tSuppressed: java.lang.IllegalStateException: com.example.crash.a\n"
+        + "\t\tat com.example.crash.a.e(SourceFile:9)\n";
+
+    static final String stacktraceRetraced = "com.example.crash.CrashException: boom\n"
+        + "\tat com.example.crash.Worker.run(Worker.java:12)\n"
+        + "\tat com.example.crash.MainActivity.crash(MainActivity.kt:44)\n"
+        + "\tat com.example.crash.MainActivity.onCreate(MainActivity.kt:25)\n"
+        + "\tat android.app.Activity.performCreate(Activity.java:7136)\n"
+        + "Caused by: com.example.crash.CrashException\n"
+        + "\tat com.example.crash.MainActivity.crash(MainActivity.kt:42)\n"
+        + "\t... 2 more\n"
+        + "\tSuppressed: java.lang.IllegalStateException: com.example.crash.a\n"
+        + "\t\tat com.example.crash.MainActivity.e(SourceFile:9)\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Retracer retracer;
+    private File indexDir;
+
+    @Before
+    public void setUp() throws Exception {
+        indexDir = tmp.newFolder("indexes");
+        retracer = new Retracer(SymbolizerTest.getResource(mappingName), indexDir);
+    }
+
+    @Test
+    public void testRetraceStacktrace() {
+        assertEquals(stacktraceRetraced, retracer.retraceStacktrace(stacktrace));
+        assertEquals(5, retracer.getFramesCount());
+        assertEquals(4, retracer.getFramesRetraced());
+    }
+
+    @Test
+    public void testRetraceThreads() {
+        assertEquals(otherThreadsRetraced, retracer.retraceThreads(otherThreads));
+
+        //only the frames are retraced in the other threads
+        assertEquals("com.example.crash.c: boom\n", retracer.retraceThreads("com.example.crash.c: boom\n"));
+
+        //truncated without the ending line
+        String truncated = otherThreads.substring(0, otherThreads.indexOf("\n\ntotal threads") + 1);
+        String truncatedRetraced = otherThreadsRetraced.substring(0, otherThreadsRetraced.indexOf("\n\ntotal threads") + 1);
+        assertEquals(truncatedRetraced, retracer.retraceThreads(truncated));
+    }
+
+    @Test
+    public void testRetraceTombstoneMap() {
+        Map<String, String> tombstone = new HashMap<String, String>();
+        tombstone.put(Retracer.keyJavaStacktrace, stacktrace);
+        tombstone.put(Retracer.keyOtherThreads, otherThreads);
+        tombstone.put("logcat", "at com.example.crash.a.b(SourceFile:5)\n");
+
+        Map<String, String> retraced = retracer.retrace(tombstone);
+        assertEquals(stacktraceRetraced, retraced.get(Retracer.keyJavaStacktrace));
+        assertEquals(otherThreadsRetraced, retraced.get(Retracer.keyOtherThreads));
+        assertEquals(tombstone.get("logcat"), retraced.get("logcat"));
+
+        //the original map is not changed
+        assertEquals(stacktrace, tombstone.get(Retracer.keyJavaStacktrace));
+    }
+
+    @Test
+    public void testPersistentIndex() throws Exception {
+        File indexFile = new File(indexDir, mappingId + MappingIndex.fileSuffix);
+        assertTrue(indexFile.isFile());
+        assertEquals(stacktraceRetraced, new Retracer(indexFile).retraceStacktrace(stacktrace));
+        assertFalse(new File(indexDir, mappingName + MappingIndex.fileSuffix).exists());
+    }
+
+    @Test
+    public void testBrokenIndex() throws Exception {
+        File brokenDir = tmp.newFolder("broken");
+        File indexFile = new File(brokenDir, mappingId + MappingIndex.fileSuffix);
+        SymbolizerTest.write(indexFile, "broken");
+
+        final List<String> errors = new ArrayList<String>();
+        Retracer rebuilt = new Retracer(SymbolizerTest.getResource(mappingName), brokenDir, new IErrorCallback() {
+            @Override
+            public void onError(String msg, Exception e) {
+                errors.add(msg);
+            }
+        });
+        assertEquals(stacktraceRetraced, rebuilt.retraceStacktrace(stacktrace));
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).startsWith("load " + indexFile));
+    }
+
+    @Test
+    public void testSymbolizeFile() throws Exception {
+        File symbolDir = tmp.newFolder("symbols");
+        SymbolizerTest.copy(SymbolizerTest.getResource(SymbolizerTest.libName), new File(symbolDir, SymbolizerTest.libName));
+        Symbolizer symbolizer = new Symbolizer(symbolDir, indexDir, retracer);
+
+        String tombstone = SymbolizerTest.head
+            + "backtrace:\n"
+            + "    " + SymbolizerTest.frame(0, "0000000000001037", "") + "\n"
+            + "\n"
+            + "build id:\n"
+            + "    " + SymbolizerTest.libPath + " (BuildId: " + SymbolizerTest.buildId + ")\n"
+            + "\n"
+            + "java stacktrace:\n"
+            + "    at com.example.crash.a.b(SourceFile:2)\n"
+            + "\n"
+            + otherThreads
+            + SymbolizerTest.tail;
+        String expected = SymbolizerTest.head
+            + "backtrace:\n"
+            + "    " + SymbolizerTest.frame(0, "0000000000001037", " (xcst_leaf+7) [src/libxcrash_symbolizer_test.c:11]") + "\n"
+            + "\n"
+            + "build id:\n"
+            + "    " + SymbolizerTest.libPath + " (BuildId: " + SymbolizerTest.buildId + ")\n"
+            + "\n"
+            + "java stacktrace:\n"
+            + "    at com.example.crash.MainActivity.crash(MainActivity.kt:41)\n"
+            + "\n"
+            + otherThreadsRetraced
+            + SymbolizerTest.tail;
+
+        File file = new File(tmp.getRoot(), "tombstone_00001567000000000000_1.0__com.example.crash.native.xcrash");
+        SymbolizerTest.write(file, tombstone);
+        assertTrue(symbolizer.symbolizeFile(file));
+        assertEquals(expected, TombstoneSections.read(new File(file.getPath() + ".symbolized")));
+
+        //only the Java stacktraces to retrace
+        File javaOnly = new File(tmp.getRoot(), "java_only.native.xcrash");
+        SymbolizerTest.write(javaOnly, SymbolizerTest.head + otherThreads + SymbolizerTest.tail);
+        assertTrue(symbolizer.symbolizeFile(javaOnly));
+        assertEquals(SymbolizerTest.head + otherThreadsRetraced + SymbolizerTest.tail,
+            TombstoneSections.read(new File(javaOnly.getPath() + ".symbolized")));
+    }
+}
@@ -0,0 +1,245 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+package xcrash.symbolizer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SymbolizerTest {
+
+    //see libxcrash_symbolizer_test.c
+    static final String libName = "libxcrash_symbolizer_test.so";
+    static final String libPath = "/data/app/com.example.crash-1/lib/x86_64/" + libName;
+    static final String buildId = "5bc11941c6c7740b7e2188ede87bfa5334957b62";
+
+    static final String buildIds = libPath + " (BuildId: " + buildId + ")\n"
+        + "/system/lib64/libc.so (BuildId: 0123456789abcdef0123456789abcdef)\n";
+
+    //the sections before and after the ones to symbolize
+    static final String head = "*** *** *** *** *** *** *** *** *** *** *** *** *** *** *** ***\n"
+        + "Crash type: 'native'\n"
+        + "pid: 1234, tid: 1234, name: main  >>> com.example.crash <<<\n"
+        + "\n";
+
+    static final String tail = "memory info:\n"
+        + " Process Summary (From: /proc/PID/smaps)\n"
+        + "\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File symbolDir;
+    private File indexDir;
+
+    @Before
+    public void setUp() throws IOException {
+        symbolDir = tmp.newFolder("symbols");
+        indexDir = tmp.newFolder("indexes");
+    }
+
+    static File getResource(String name) throws Exception {
+        return new File(SymbolizerTest.class.getResource("/" + name).toURI());
+    }
+
+    static void copy(File from, File to) throws IOException {
+        to.getParentFile().mkdirs();
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    static void write(File file, String text) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(Util.utf8(text));
+        } finally {
+            out.close();
+        }
+    }
+
+    static String frame(int i, String pc, String rest) {
+        return String.format("#%02d pc %s  %s%s", i, pc, libPath, rest);
+    }
+
+    @Test
+    public void testElfBuildId() throws Exception {
+        ElfFile elf = ElfFile.open(getResource(libName));
+        try {
+            assertEquals(buildId, elf.getBuildId());
+        } finally {
+            elf.close();
+        }
+    }
+
+    @Test
+    public void testSymbolize() throws Exception {
+        copy(getResource(libName), new File(symbolDir, libName));
+        Symbolizer symbolizer = new Symbolizer(symbolDir, indexDir);
+
+        String backtrace = frame(0, "0000000000001037", "") + "\n"
+            + frame(1, "000000000000105a", " (xcst_middle+21)") + "\n"
+            + frame(2, "0000000000001077", " (offset 0x1000)") + "\n"
+            + frame(3, "0000000000002000", "") + "\n"
+            + "#04 pc 0000000000011234  /system/lib64/libc.so (abort+164)\n";
+        String expected = frame(0, "0000000000001037", " (xcst_leaf+7) [src/libxcrash_symbolizer_test.c:11]") + "\n"
+            + frame(1, "000000000000105a", " (xcst_middle+21) [src/libxcrash_symbolizer_test.c:16]") + "\n"
+            + frame(2, "0000000000001077", " (offset 0x1000) (xcst_top+18) [src/libxcrash_symbolizer_test.c:22]") + "\n"
+            + frame(3, "0000000000002000", "") + "\n"
+            + "#04 pc 0000000000011234  /system/lib64/libc.so (abort+164)\n";
+        assertEquals(expected, symbolizer.symbolize(backtrace, buildIds));
+
+        //the frames of the unknown build-IDs are kept as is
+        assertEquals(backtrace, symbolizer.symbolize(backtrace, null));
+    }
+
+    @Test
+    public void testSymbolizeTombstoneMap() throws Exception {
+        copy(getResource(libName), new File(symbolDir, libName));
+        Symbolizer symbolizer = new Symbolizer(symbolDir, indexDir);
+
+        Map<String, String> tombstone = new HashMap<String, String>();
+        assertNull(symbolizer.symbolize(tombstone));
+
+        tombstone.put(Symbolizer.keyBacktrace, frame(0, "0000000000001030", "") + "\n");
+        tombstone.put(Symbolizer.keyBuildId, buildIds);
+        assertEquals(frame(0, "0000000000001030", " (xcst_leaf) [src/libxcrash_symbolizer_test.c:10]") + "\n",
+            symbolizer.symbolize(tombstone));
+    }
+
+    @Test
+    public void testBuildIdLayout() throws Exception {
+        //.build-id/xx/yyyy.debug, as GDB
+        copy(getResource(libName), new File(symbolDir, ".build-id/" + buildId.substring(0, 2) + "/" + buildId.substring(2) + ".debug"));
+        Symbolizer symbolizer = new Symbolizer(symbolDir, indexDir);
+
+        String backtrace = frame(0, "0000000000001050", "") + "\n";
+        assertEquals(frame(0, "0000000000001050", " (xcst_middle+11) [src/libxcrash_symbolizer_test.c:16]") + "\n",
+            symbolizer.symbolize(backtrace, buildIds));
+    }
+
+    @Test
+    public void testPersistentIndex() throws Exception {
+        copy(getResource(libName), new File(symbolDir, buildId + "/" + libName));
+        String backtrace = frame(0, "0000000000001070", "") + "\n";
+        String expected = frame(0, "0000000000001070", " (xcst_top+11) [src/libxcrash_symbolizer_test.c:22]") + "\n";
+
+        assertEquals(expected, new Symbolizer(symbolDir, indexDir).symbolize(backtrace, buildIds));
+        assertTrue(new File(indexDir, buildId + SymbolIndex.fileSuffix).isFile());
+
+        //the ELF file is not needed once the index is built
+        File emptyDir = tmp.newFolder("empty");
+        assertEquals(expected, new Symbolizer(emptyDir, indexDir).symbolize(backtrace, buildIds));
+        assertEquals(backtrace, new Symbolizer(emptyDir, tmp.newFolder("indexes2")).symbolize(backtrace, buildIds));
+    }
+
+    @Test
+    public void testBrokenIndex() throws Exception {
+        copy(getResource(libName), new File(symbolDir, libName));
+        File indexFile = new File(indexDir, buildId + SymbolIndex.fileSuffix);
+        write(indexFile, "broken");
+
+        final List<String> errors = new ArrayList<String>();
+        Symbolizer symbolizer = new Symbolizer(symbolDir, indexDir, null, new IErrorCallback() {
+            @Override
+            public void onError(String msg, Exception e) {
+                errors.add(msg);
+            }
+        });
+
+        //rebuilt from the ELF file
+        String backtrace = frame(0, "0000000000001070", "") + "\n";
+        assertEquals(frame(0, "0000000000001070", " (xcst_top+11) [src/libxcrash_symbolizer_test.c:22]") + "\n",
+            symbolizer.symbolize(backtrace, buildIds));
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).startsWith("load " + indexFile));
+    }
+
+    @Test
+    public void testSymbolizeFile() throws Exception {
+        copy(getResource(libName), new File(symbolDir, libName));
+        Symbolizer symbolizer = new Symbolizer(symbolDir, indexDir);
+
+        String tombstone = head
+            + "backtrace:\n"
+            + "    " + frame(0, "0000000000001037", "") + "\n"
+            + "\n"
+            + "build id:\n"
+            + "    " + libPath + " (BuildId: " + buildId + ")\n"
+            + "\n"
+            + "java stacktrace:\n"
+            + "    at com.example.crash.a.b(SourceFile:2)\n"
+            + "\n"
+            + tail;
+        String expected = head
+            + "backtrace:\n"
+            + "    " + frame(0, "0000000000001037", " (xcst_leaf+7) [src/libxcrash_symbolizer_test.c:11]") + "\n"
+            + "\n"
+            + "build id:\n"
+            + "    " + libPath + " (BuildId: " + buildId + ")\n"
+            + "\n"
+            + "java stacktrace:\n"
+            + "    at com.example.crash.a.b(SourceFile:2)\n" //kept as is without a retracer
+            + "\n"
+            + tail;
+
+        File file = new File(tmp.getRoot(), "tombstone_00001567000000000000_1.0__com.example.crash.native.xcrash");
+        write(file, tombstone);
+        assertTrue(symbolizer.symbolizeFile(file));
+        assertEquals(expected, TombstoneSections.read(new File(file.getPath() + ".symbolized")));
+
+        //nothing to symbolize
+        File other = new File(tmp.getRoot(), "other.native.xcrash");
+        write(other, head + tail);
+        assertFalse(symbolizer.symbolizeFile(other));
+        assertFalse(new File(other.getPath() + ".symbolized").exists());
+    }
+}
@@ -0,0 +1,23 @@
+// Source of libxcrash_symbolizer_test.so (x86_64, unstripped):
+//
+// gcc -g -O0 -fPIC -shared -nostdlib -fdebug-prefix-map=$PWD=src -Wl,--build-id=sha1 \
+//     -o libxcrash_symbolizer_test.so libxcrash_symbolizer_test.c
+//
+// The expected functions, files and lines in SymbolizerTest depend on the checked-in binary,
+// rebuilding it changes the build-ID and may change the addresses.
+
+int xcst_leaf(int v)
+{
+    return v * 3 + 1;
+}
+
+int xcst_middle(int v)
+{
+    int r = xcst_leaf(v);
+    return r + 2;
+}
+
+int xcst_top(int v)
+{
+    return xcst_middle(v) * 5;
+}
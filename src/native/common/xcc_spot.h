@@ -33,9 +33,27 @@
 extern "C" {
 #endif
 
+#define XCC_SPOT_CONCURRENT_CRASHES_MAX 8
+
 #pragma clang diagnostic push
 #pragma clang diagnostic ignored "-Wpadded"
 
+//a crash in another thread while the first one is being handled,
+//read by the dumper from the memory of the crashed process
+typedef struct
+{
+    int          ready; //set after all the other fields
+    pid_t        tid;
+    siginfo_t    siginfo;
+    ucontext_t   ucontext;
+} xcc_spot_crash_t;
+
+typedef struct
+{
+    size_t           count; //including the ones not recorded because all the slots are used
+    xcc_spot_crash_t crashes[XCC_SPOT_CONCURRENT_CRASHES_MAX];
+} xcc_spot_crashes_t;
+
 typedef struct
 {
     //set when crashed
@@ -53,8 +71,18 @@ typedef struct
     int          dump_elf_hash;
     int          dump_map;
     int          dump_fds;
+    int          meminfo_rollup;
     int          dump_all_threads;
     int          dump_all_threads_count_max;
+    int          dump_all_threads_workers;
+    int          dump_all_threads_compact;
+    int          dump_minidump;
+    unsigned int dedup_window_sec;
+    unsigned int dump_timeout_ms;
+    unsigned int section_timeout_ms;
+    int          unwind_cache;
+    int          elf_hash_cache;
+    uintptr_t    concurrent_crashes; //address of the xcc_spot_crashes_t in the crashed process
 
     //set when inited, content lenghts after this struct
     size_t       log_pathname_len;
@@ -29,6 +29,7 @@
 #include <stdlib.h>
 #include <string.h>
 #include <fcntl.h>
+#include <time.h>
 #include <sys/ptrace.h>
 #include <sys/types.h>
 #include <sys/stat.h>
@@ -238,14 +239,18 @@ char *xcc_util_trim(char *start)
     return start;
 }
 
-int xcc_util_write(int fd, const char *buf, size_t len)
+//output buffer (for only one FD at the same time)
+static int     xcc_util_write_buf_fd   = -1;
+static char   *xcc_util_write_buf      = NULL;
+static size_t  xcc_util_write_buf_size = 0;
+static size_t  xcc_util_write_buf_len  = 0;
+
+static int xcc_util_write_unbuffered(int fd, const char *buf, size_t len)
 {
     size_t      nleft;
     ssize_t     nwritten;
     const char *ptr;
 
-    if(fd < 0) return XCC_ERRNO_INVAL;
-
     ptr   = buf;
     nleft = len;
 
@@ -267,6 +272,60 @@ int xcc_util_write(int fd, const char *buf, size_t len)
     return 0;
 }
 
+void xcc_util_write_set_buffer(int fd, char *buf, size_t size)
+{
+    //flush the previous buffer
+    xcc_util_write_flush();
+
+    if(fd < 0 || NULL == buf || 0 == size)
+    {
+        xcc_util_write_buf_fd = -1;
+        xcc_util_write_buf = NULL;
+        xcc_util_write_buf_size = 0;
+    }
+    else
+    {
+        xcc_util_write_buf_fd = fd;
+        xcc_util_write_buf = buf;
+        xcc_util_write_buf_size = size;
+    }
+    xcc_util_write_buf_len = 0;
+}
+
+int xcc_util_write_flush(void)
+{
+    size_t len = xcc_util_write_buf_len;
+
+    if(xcc_util_write_buf_fd < 0 || 0 == len) return 0;
+
+    //reset the length first, so nothing will be written twice even if we are interrupted by a signal
+    xcc_util_write_buf_len = 0;
+    return xcc_util_write_unbuffered(xcc_util_write_buf_fd, xcc_util_write_buf, len);
+}
+
+int xcc_util_write(int fd, const char *buf, size_t len)
+{
+    int r;
+    
+    if(fd < 0) return XCC_ERRNO_INVAL;
+    if(0 == len) return 0;
+
+    //not buffered
+    if(fd != xcc_util_write_buf_fd) return xcc_util_write_unbuffered(fd, buf, len);
+
+    //flush if the buffer is full
+    if(len > xcc_util_write_buf_size - xcc_util_write_buf_len)
+        if(0 != (r = xcc_util_write_flush())) return r;
+
+    //too large for the buffer
+    if(len > xcc_util_write_buf_size) return xcc_util_write_unbuffered(fd, buf, len);
+
+    //append to the buffer
+    memcpy(xcc_util_write_buf + xcc_util_write_buf_len, buf, len);
+    xcc_util_write_buf_len += len;
+    return 0;
+}
+
 int xcc_util_write_str(int fd, const char *str)
 {
     const char *tmp = str;
@@ -580,5 +639,23 @@ int xcc_util_ends_with(const char *str, const char *suffix)
     return (0 == memcmp((const void *)(str + str_len - suffix_len), (const void *)suffix, suffix_len) ? 1 : 0);
 }
 
+uint64_t xcc_util_get_monotonic_ms(void)
+{
+    struct timespec ts;
+
+    //clock_gettime() is async-signal-safe
+    if(0 != clock_gettime(CLOCK_MONOTONIC, &ts)) return 0;
+    return (uint64_t)ts.tv_sec * 1000 + (uint64_t)ts.tv_nsec / 1000000;
+}
+
+uint64_t xcc_util_get_monotonic_us(void)
+{
+    struct timespec ts;
+
+    //clock_gettime() is async-signal-safe
+    if(0 != clock_gettime(CLOCK_MONOTONIC, &ts)) return 0;
+    return (uint64_t)ts.tv_sec * 1000 * 1000 + (uint64_t)ts.tv_nsec / 1000;
+}
+
 
 #pragma clang diagnostic pop
@@ -35,7 +35,20 @@ extern "C" {
 
 #define XCC_UTIL_XCRASH_DUMPER_FILENAME "libxcrash_dumper.so"
 
+#define XCC_UTIL_DEDUP_FILENAME "xcrash_dedup.dat"
+
+#define XCC_UTIL_UNWIND_CACHE_DIRNAME "xcrash_unwind_cache"
+#define XCC_UTIL_UNWIND_CACHE_ARG     "--unwind-cache"
+
+#define XCC_UTIL_ELF_HASH_NONE  0
+#define XCC_UTIL_ELF_HASH_MD5   1
+#define XCC_UTIL_ELF_HASH_XXH64 2
+
+#define XCC_UTIL_ELF_HASH_CACHE_FILENAME "xcrash_elf_hash_cache"
+#define XCC_UTIL_ELF_HASH_CACHE_ARG      "--elf-hash-cache"
+
 #define XCC_UTIL_CRASH_TYPE "native"
+#define XCC_UTIL_LOG_SUFFIX ".native.xcrash"
 
 #if defined(__LP64__)
 #define XCC_UTIL_FMT_ADDR "16"PRIxPTR
@@ -102,6 +115,8 @@ int xcc_util_signal_has_sender(const siginfo_t* si, pid_t caller_pid);
 char *xcc_util_trim(char *start);
 int xcc_util_atoi(const char *str, int *i);
 
+void xcc_util_write_set_buffer(int fd, char *buf, size_t size);
+int xcc_util_write_flush(void);
 int xcc_util_write(int fd, const char *buf, size_t len);
 int xcc_util_write_str(int fd, const char *str);
 int xcc_util_write_format(int fd, const char *format, ...);
@@ -117,6 +132,9 @@ void xcc_util_get_kernel_version(char *buf, size_t len);
 
 int xcc_util_ends_with(const char *str, const char *suffix);
 
+uint64_t xcc_util_get_monotonic_ms(void);
+uint64_t xcc_util_get_monotonic_us(void);
+
 #ifdef __cplusplus
 }
 #endif
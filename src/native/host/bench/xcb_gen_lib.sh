@@ -0,0 +1,35 @@
+#!/bin/sh
+#
+# Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+#
+# Generate the source of the benchmark library: a chain of FUNCTIONS static functions
+# with different frame sizes, so a stripped build of it can only be unwound by .eh_frame.
+#
+# usage: xcb_gen_lib.sh FUNCTIONS > xcb_lib.c
+#
+
+awk -v n="${1:-20000}" 'BEGIN {
+    print "//generated by xcb_gen_lib.sh, do not edit"
+    print ""
+    print "typedef int (*xcb_leaf_t)(void *arg);"
+    print ""
+    for(i = 0; i < n; i++)
+        printf("static int xcb_f%d(int depth, xcb_leaf_t leaf, void *arg);\n", i)
+    print ""
+    for(i = 0; i < n; i++)
+    {
+        printf("__attribute__((noinline)) static int xcb_f%d(int depth, xcb_leaf_t leaf, void *arg)\n", i)
+        print "{"
+        printf("    volatile int v[%d];\n", i % 8 + 1)
+        print "    v[0] = depth;"
+        print "    if(depth <= 0) return leaf(arg) + v[0];"
+        printf("    return xcb_f%d(depth - 1, leaf, arg) + v[0];\n", (i + 1) % n)
+        print "}"
+        print ""
+    }
+    print "__attribute__((visibility(\"default\"))) int xcb_lib_recurse(int depth, xcb_leaf_t leaf, void *arg);"
+    print "__attribute__((visibility(\"default\"))) int xcb_lib_recurse(int depth, xcb_leaf_t leaf, void *arg)"
+    print "{"
+    print "    return xcb_f0(depth, leaf, arg);"
+    print "}"
+}'
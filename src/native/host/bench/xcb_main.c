@@ -0,0 +1,603 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+//host benchmark of the native dumper: fork a synthetic victim process, crash it, run the dumper against it,
+//and measure the wall time, peak RSS and syscalls of each phase of the dumper
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <stdint.h>
+#include <inttypes.h>
+#include <string.h>
+#include <errno.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <getopt.h>
+#include <libgen.h>
+#include <dirent.h>
+#include <limits.h>
+#include <poll.h>
+#include <time.h>
+#include <signal.h>
+#include <sys/ptrace.h>
+#include <sys/resource.h>
+#include <sys/stat.h>
+#include <sys/time.h>
+#include <sys/wait.h>
+#include "xcc_spot.h"
+#include "xcd_bench.h"
+#include "xcb_victim.h"
+#include "xcb_trace.h"
+
+#define XCB_RUNS_MAX           32
+#define XCB_PHASES_MAX         XCB_TRACE_MARKERS_MAX
+#define XCB_PHASE_NAME_MAX     32
+#define XCB_CRASH_TIMEOUT_MS   (120 * 1000)
+#define XCB_MARKER_FD          100
+#define XCB_FRAMES_CHECK       128 //the dumper records 256 frames at most
+#define XCB_MIN(a, b)          ((a) < (b) ? (a) : (b))
+#define XCB_STR_(x)            #x
+#define XCB_STR(x)             XCB_STR_(x)
+#define XCB_DUMPER_NAME        "xcrash_dumper"
+#define XCB_LIB_NAME           "libxcb_eh.so"
+#define XCB_APP_ID             "xcrash.host.bench"
+#define XCB_APP_VERSION        "1.0"
+
+typedef struct
+{
+    xcb_victim_conf_t victim;
+    int               runs;
+    int               workers;
+    int               compact;
+    int               minidump;
+    int               meminfo_rollup;
+    int               meminfo_compare;
+    int               syscalls;
+    int               keep;
+    char              dumper[PATH_MAX];
+    char              lib[PATH_MAX];
+    char              dir[PATH_MAX];
+} xcb_conf_t;
+
+typedef struct
+{
+    char     name[XCB_PHASE_NAME_MAX];
+    uint64_t end_us;    //monotonic time at the marker
+    uint64_t time_us;
+    long     maxrss_kb; //peak RSS of the dumper at the marker
+    uint64_t syscalls;
+} xcb_phase_t;
+
+typedef struct
+{
+    int         status;
+    uint64_t    wall_us;
+    long        maxrss_kb;
+    uint64_t    syscalls;
+    xcb_phase_t phases[XCB_PHASES_MAX];
+    size_t      phases_cnt;
+    size_t      tombstone_size;
+    int         frames;
+    int         dumped_threads;
+} xcb_result_t;
+
+static xcb_conf_t xcb_conf;
+static char       xcb_lib_paths[XCB_VICTIM_LIBS_MAX][PATH_MAX];
+
+__attribute__((noreturn)) static void xcb_fail(const char *what)
+{
+    fprintf(stderr, "xcd_bench: %s failed, errno=%d (%s)\n", what, errno, strerror(errno));
+    exit(1);
+}
+
+static uint64_t xcb_get_monotonic_us(void)
+{
+    struct timespec ts;
+
+    //the same clock as xcc_util_get_monotonic_us() of the dumper
+    if(0 != clock_gettime(CLOCK_MONOTONIC, &ts)) return 0;
+    return (uint64_t)ts.tv_sec * 1000 * 1000 + (uint64_t)ts.tv_nsec / 1000;
+}
+
+static uint64_t xcb_get_realtime_us(void)
+{
+    struct timeval tv;
+
+    if(0 != gettimeofday(&tv, NULL)) return 0;
+    return (uint64_t)tv.tv_sec * 1000 * 1000 + (uint64_t)tv.tv_usec;
+}
+
+static void xcb_write_all(int fd, const void *buf, size_t len)
+{
+    ssize_t n;
+
+    while(len > 0)
+    {
+        if(0 > (n = write(fd, buf, len)))
+        {
+            if(EINTR == errno) continue;
+            xcb_fail("write");
+        }
+        buf = (const uint8_t *)buf + n;
+        len -= (size_t)n;
+    }
+}
+
+static int xcb_read_all(int fd, void *buf, size_t len, int timeout_ms)
+{
+    struct pollfd pfd = {.fd = fd, .events = POLLIN, .revents = 0};
+    ssize_t       n;
+
+    while(len > 0)
+    {
+        if(timeout_ms > 0 && 1 != poll(&pfd, 1, timeout_ms)) return -1;
+        if(0 > (n = read(fd, buf, len)))
+        {
+            if(EINTR == errno) continue;
+            return -1;
+        }
+        if(0 == n) return -1;
+        buf = (uint8_t *)buf + n;
+        len -= (size_t)n;
+    }
+    return 0;
+}
+
+static void xcb_copy_file(const char *src, const char *dst)
+{
+    char    buf[64 * 1024];
+    int     in;
+    int     out;
+    ssize_t n;
+
+    if(0 > (in = open(src, O_RDONLY | O_CLOEXEC))) xcb_fail(src);
+    if(0 > (out = open(dst, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0644))) xcb_fail(dst);
+    while(0 < (n = read(in, buf, sizeof(buf))))
+        xcb_write_all(out, buf, (size_t)n);
+    if(n < 0) xcb_fail("read");
+    close(in);
+    close(out);
+}
+
+static void xcb_prepare(void)
+{
+    char path[PATH_MAX];
+    char page[4096];
+    int  fd;
+    int  i;
+
+    if(NULL == mkdtemp(xcb_conf.dir)) xcb_fail("mkdtemp");
+
+    //each lib is a different file, mapped and unwound separately
+    for(i = 0; i < xcb_conf.victim.libs_cnt; i++)
+    {
+        snprintf(xcb_lib_paths[i], sizeof(xcb_lib_paths[i]), "%s/libxcb_eh_%d.so", xcb_conf.dir, i);
+        xcb_copy_file(xcb_conf.lib, xcb_lib_paths[i]);
+        xcb_conf.victim.libs[i] = xcb_lib_paths[i];
+    }
+
+    snprintf(path, sizeof(path), "%s/maps.dat", xcb_conf.dir);
+    memset(page, 0, sizeof(page));
+    if(0 > (fd = open(path, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0644))) xcb_fail(path);
+    xcb_write_all(fd, page, sizeof(page));
+    close(fd);
+    xcb_conf.victim.maps_file = strdup(path);
+}
+
+static void xcb_read_phases(int fd, xcb_result_t *result)
+{
+    char        buf[4096];
+    size_t      len = 0;
+    ssize_t     n;
+    char       *line;
+    char       *saveptr = NULL;
+    xcb_phase_t phase;
+
+    while(len < sizeof(buf) - 1 && 0 < (n = read(fd, buf + len, sizeof(buf) - 1 - len)))
+        len += (size_t)n;
+    buf[len] = '\0';
+
+    for(line = strtok_r(buf, "\n", &saveptr); NULL != line; line = strtok_r(NULL, "\n", &saveptr))
+    {
+        memset(&phase, 0, sizeof(phase));
+        if(3 != sscanf(line, "%31s %"SCNu64" %ld", phase.name, &(phase.end_us), &(phase.maxrss_kb))) continue;
+        if(result->phases_cnt < XCB_PHASES_MAX) result->phases[result->phases_cnt++] = phase;
+    }
+}
+
+//check the tombstone: the frames of the crashed thread and the number of the dumped other threads
+static void xcb_check_tombstone(const char *path, xcb_result_t *result)
+{
+    struct stat  st;
+    char        *buf;
+    char        *p;
+    char        *end;
+    int          fd;
+
+    result->frames = -1;
+    result->dumped_threads = -1;
+    if(0 != stat(path, &st) || NULL == (buf = calloc(1, (size_t)st.st_size + 1))) return;
+    if(0 > (fd = open(path, O_RDONLY | O_CLOEXEC)))
+    {
+        free(buf);
+        return;
+    }
+    if(0 != xcb_read_all(fd, buf, (size_t)st.st_size, 0)) buf[0] = '\0';
+    close(fd);
+    result->tombstone_size = (size_t)st.st_size;
+
+    if(NULL != (p = strstr(buf, "\nbacktrace:\n")))
+    {
+        result->frames = 0;
+        end = strstr(p + 1, "\n\n");
+        for(p = strstr(p + 1, "\n    #"); NULL != p && (NULL == end || p < end); p = strstr(p + 1, "\n    #"))
+            result->frames++;
+    }
+    if(NULL != (p = strstr(buf, "\ndumped threads: ")))
+        result->dumped_threads = atoi(p + strlen("\ndumped threads: "));
+
+    free(buf);
+}
+
+static void xcb_run(int idx, int traced, xcb_result_t *result)
+{
+    xcb_victim_crash_t crash;
+    xcc_spot_t         spot;
+    xcb_trace_t        trace;
+    struct rusage      ru;
+    char               log_path[PATH_MAX];
+    int                report_fds[2];
+    int                stdin_fds[2];
+    int                marker_fds[2];
+    pid_t              victim;
+    pid_t              dumper;
+    uint64_t           start_us;
+    size_t             i;
+    int                fd;
+
+    memset(result, 0, sizeof(xcb_result_t));
+
+    //an empty tombstone file, opened by the dumper
+    snprintf(log_path, sizeof(log_path), "%s/tombstone_%d%s.native.xcrash", xcb_conf.dir, idx, traced ? "_traced" : "");
+    if(0 > (fd = open(log_path, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0644))) xcb_fail(log_path);
+    close(fd);
+
+    //start the victim, and wait for the crash
+    if(0 != pipe2(report_fds, O_CLOEXEC)) xcb_fail("pipe2");
+    if(0 > (victim = fork())) xcb_fail("fork");
+    if(0 == victim)
+    {
+        close(report_fds[0]);
+        xcb_victim_run(&(xcb_conf.victim), report_fds[1]);
+    }
+    close(report_fds[1]);
+    if(0 != xcb_read_all(report_fds[0], &crash, sizeof(crash), XCB_CRASH_TIMEOUT_MS))
+    {
+        fprintf(stderr, "xcd_bench: the victim did not crash\n");
+        exit(1);
+    }
+    close(report_fds[0]);
+
+    //the same as xc_core_signal_handler()
+    memset(&spot, 0, sizeof(spot));
+    spot.crash_pid = victim;
+    spot.crash_tid = crash.tid;
+    memcpy(&(spot.siginfo), &(crash.siginfo), sizeof(siginfo_t));
+    memcpy(&(spot.ucontext), &(crash.ucontext), sizeof(ucontext_t));
+    spot.crash_time = xcb_get_realtime_us();
+    spot.start_time = spot.crash_time - 1000 * 1000;
+    spot.dump_elf_hash = 1;
+    spot.dump_map = 1;
+    spot.dump_fds = 1;
+    spot.meminfo_rollup = xcb_conf.meminfo_rollup;
+    spot.dump_all_threads = 1;
+    spot.dump_all_threads_workers = xcb_conf.workers;
+    spot.dump_all_threads_compact = xcb_conf.compact;
+    spot.dump_minidump = xcb_conf.minidump;
+    spot.log_pathname_len = strlen(log_path);
+    spot.app_id_len = strlen(XCB_APP_ID);
+    spot.app_version_len = strlen(XCB_APP_VERSION);
+
+    //start the dumper
+    if(0 != pipe2(stdin_fds, O_CLOEXEC)) xcb_fail("pipe2");
+    if(0 != pipe2(marker_fds, O_CLOEXEC)) xcb_fail("pipe2");
+    start_us = xcb_get_monotonic_us();
+    if(0 > (dumper = fork())) xcb_fail("fork");
+    if(0 == dumper)
+    {
+        if(0 > dup2(stdin_fds[0], STDIN_FILENO)) _exit(126);
+        if(0 > dup2(marker_fds[1], XCB_MARKER_FD)) _exit(126);
+        setenv(XCD_BENCH_FD_ENV, XCB_STR(XCB_MARKER_FD), 1);
+        if(traced)
+        {
+            if(0 != ptrace(PTRACE_TRACEME, 0, NULL, NULL)) _exit(126);
+            raise(SIGSTOP);
+        }
+        execl(xcb_conf.dumper, XCB_DUMPER_NAME, (char *)NULL);
+        _exit(127);
+    }
+    close(stdin_fds[0]);
+    close(marker_fds[1]);
+    xcb_write_all(stdin_fds[1], &spot, sizeof(spot));
+    xcb_write_all(stdin_fds[1], log_path, spot.log_pathname_len);
+    xcb_write_all(stdin_fds[1], XCB_APP_ID, spot.app_id_len);
+    xcb_write_all(stdin_fds[1], XCB_APP_VERSION, spot.app_version_len);
+    close(stdin_fds[1]);
+
+    if(traced)
+    {
+        if(0 != xcb_trace_run(dumper, XCB_MARKER_FD, &trace, &(result->status))) xcb_fail("trace");
+        result->syscalls = trace.syscalls;
+    }
+    else
+    {
+        while(dumper != wait4(dumper, &(result->status), 0, &ru))
+            if(EINTR != errno) xcb_fail("wait4");
+        result->maxrss_kb = ru.ru_maxrss;
+    }
+    result->wall_us = xcb_get_monotonic_us() - start_us;
+    xcb_read_phases(marker_fds[0], result);
+    close(marker_fds[0]);
+
+    //phases: from the end of the previous phase to the marker
+    for(i = 0; i < result->phases_cnt; i++)
+        result->phases[i].time_us = result->phases[i].end_us - (i > 0 ? result->phases[i - 1].end_us : start_us);
+    if(traced)
+        for(i = 0; i < result->phases_cnt && i < trace.markers_cnt; i++)
+            result->phases[i].syscalls = trace.markers[i] - (i > 0 ? trace.markers[i - 1] : 0);
+
+    kill(victim, SIGKILL);
+    waitpid(victim, NULL, 0);
+
+    xcb_check_tombstone(log_path, result);
+}
+
+static int xcb_compare_u64(const void *a, const void *b)
+{
+    uint64_t x = *(const uint64_t *)a;
+    uint64_t y = *(const uint64_t *)b;
+
+    return x < y ? -1 : (x > y ? 1 : 0);
+}
+
+static uint64_t xcb_median(uint64_t *values, size_t cnt)
+{
+    if(0 == cnt) return 0;
+    qsort(values, cnt, sizeof(uint64_t), xcb_compare_u64);
+    return values[cnt / 2];
+}
+
+static uint64_t xcb_phase_time(xcb_result_t *result, const char *name)
+{
+    size_t i;
+
+    for(i = 0; i < result->phases_cnt; i++)
+        if(0 == strcmp(result->phases[i].name, name)) return result->phases[i].time_us;
+    return 0;
+}
+
+//the memory info section with the full smaps parse and with smaps_rollup, for the same victim
+static void xcb_compare_meminfo(xcb_result_t *results)
+{
+    uint64_t meminfo_us[2];
+    uint64_t total_us[2];
+    uint64_t values[XCB_RUNS_MAX];
+    uint64_t meminfo_values[XCB_RUNS_MAX];
+    int      m;
+    int      r;
+
+    for(m = 0; m < 2; m++)
+    {
+        xcb_conf.meminfo_rollup = m;
+        for(r = 0; r < xcb_conf.runs; r++)
+        {
+            xcb_run(r, 0, &(results[r]));
+            values[r] = results[r].wall_us;
+            meminfo_values[r] = xcb_phase_time(&(results[r]), "memory_info");
+            printf("run %d (%s): memory_info %.2f ms, total %.1f ms\n", r + 1, m ? "smaps_rollup" : "smaps",
+                   (double)meminfo_values[r] / 1000, (double)results[r].wall_us / 1000);
+        }
+        meminfo_us[m] = xcb_median(meminfo_values, (size_t)xcb_conf.runs);
+        total_us[m] = xcb_median(values, (size_t)xcb_conf.runs);
+    }
+
+    //medians of the measured runs
+    printf("\n%-16s %18s %12s\n", "memory info", "memory_info (ms)", "total (ms)");
+    printf("%-16s %18.2f %12.1f\n", "smaps", (double)meminfo_us[0] / 1000, (double)total_us[0] / 1000);
+    printf("%-16s %18.2f %12.1f\n", "smaps_rollup", (double)meminfo_us[1] / 1000, (double)total_us[1] / 1000);
+    if(meminfo_us[1] > 0)
+        printf("%-16s %17.1fx\n", "speedup", (double)meminfo_us[0] / (double)meminfo_us[1]);
+}
+
+static void xcb_remove_dir(const char *dir)
+{
+    char           path[PATH_MAX];
+    DIR           *d;
+    struct dirent *ent;
+
+    if(NULL == (d = opendir(dir))) return;
+    while(NULL != (ent = readdir(d)))
+    {
+        if(0 == strcmp(ent->d_name, ".") || 0 == strcmp(ent->d_name, "..")) continue;
+        snprintf(path, sizeof(path), "%s/%s", dir, ent->d_name);
+        unlink(path);
+    }
+    closedir(d);
+    rmdir(dir);
+}
+
+static void xcb_usage(void)
+{
+    fprintf(stderr,
+            "usage: xcd_bench [options]\n"
+            "  -t THREADS       threads of the victim, including the crashing thread (default: 1000)\n"
+            "  -d DEPTH         frames of the crashing thread, through all the libs (default: 2000)\n"
+            "  -T DEPTH         frames of the other threads (default: 32)\n"
+            "  -m MAPS          additional mappings of the victim (default: 5000)\n"
+            "  -l LIBS          .eh_frame-only libs loaded by the victim (default: 4)\n"
+            "  -r RUNS          measured runs (default: 3)\n"
+            "  -w WORKERS       unwinding workers of the other threads (default: 1)\n"
+            "  -c               record the other threads in the compact format\n"
+            "  -x               record the minidump\n"
+            "  -R               record the memory info from /proc/PID/smaps_rollup\n"
+            "  -M               compare the memory info from /proc/PID/smaps and /proc/PID/smaps_rollup\n"
+            "  -n               no extra traced run for counting the syscalls\n"
+            "  -k               keep the tombstones (and the other temporary files)\n"
+            "  -p DUMPER        the dumper (default: " XCB_DUMPER_NAME " next to xcd_bench)\n"
+            "  -L LIB           the .eh_frame-only lib (default: " XCB_LIB_NAME " next to xcd_bench)\n");
+    exit(2);
+}
+
+static int xcb_parse_int(const char *str, int min, int max)
+{
+    char *end;
+    long  n = strtol(str, &end, 10);
+
+    if('\0' == str[0] || '\0' != *end || n < min || n > max) xcb_usage();
+    return (int)n;
+}
+
+int main(int argc, char **argv)
+{
+    xcb_result_t *results;
+    xcb_result_t  traced;
+    uint64_t      values[XCB_RUNS_MAX];
+    char          self[PATH_MAX];
+    char         *self_dir;
+    ssize_t       len;
+    size_t        i;
+    int           r;
+    int           opt;
+    int           failed = 0;
+
+    memset(&xcb_conf, 0, sizeof(xcb_conf));
+    xcb_conf.victim.threads = 1000;
+    xcb_conf.victim.depth = 2000;
+    xcb_conf.victim.thread_depth = 32;
+    xcb_conf.victim.maps = 5000;
+    xcb_conf.victim.libs_cnt = 4;
+    xcb_conf.runs = 3;
+    xcb_conf.workers = 1;
+    xcb_conf.syscalls = 1;
+    snprintf(xcb_conf.dir, sizeof(xcb_conf.dir), "/tmp/xcd_bench.XXXXXX");
+
+    //the dumper and the lib are next to us by default
+    if(0 > (len = readlink("/proc/self/exe", self, sizeof(self) - 1))) xcb_fail("readlink");
+    self[len] = '\0';
+    self_dir = dirname(self);
+    snprintf(xcb_conf.dumper, sizeof(xcb_conf.dumper), "%s/%s", self_dir, XCB_DUMPER_NAME);
+    snprintf(xcb_conf.lib, sizeof(xcb_conf.lib), "%s/%s", self_dir, XCB_LIB_NAME);
+
+    while(-1 != (opt = getopt(argc, argv, "t:d:T:m:l:r:w:cxRMnkp:L:")))
+    {
+        switch(opt)
+        {
+        case 't': xcb_conf.victim.threads = xcb_parse_int(optarg, 2, 32768); break;
+        case 'd': xcb_conf.victim.depth = xcb_parse_int(optarg, 0, 100000); break;
+        case 'T': xcb_conf.victim.thread_depth = xcb_parse_int(optarg, 0, 10000); break;
+        case 'm': xcb_conf.victim.maps = xcb_parse_int(optarg, 0, 60000); break;
+        case 'l': xcb_conf.victim.libs_cnt = xcb_parse_int(optarg, 1, XCB_VICTIM_LIBS_MAX); break;
+        case 'r': xcb_conf.runs = xcb_parse_int(optarg, 1, XCB_RUNS_MAX); break;
+        case 'w': xcb_conf.workers = xcb_parse_int(optarg, 1, 64); break;
+        case 'c': xcb_conf.compact = 1; break;
+        case 'x': xcb_conf.minidump = 1; break;
+        case 'R': xcb_conf.meminfo_rollup = 1; break;
+        case 'M': xcb_conf.meminfo_compare = 1; break;
+        case 'n': xcb_conf.syscalls = 0; break;
+        case 'k': xcb_conf.keep = 1; break;
+        case 'p': snprintf(xcb_conf.dumper, sizeof(xcb_conf.dumper), "%s", optarg); break;
+        case 'L': snprintf(xcb_conf.lib, sizeof(xcb_conf.lib), "%s", optarg); break;
+        default: xcb_usage();
+        }
+    }
+    if(optind != argc) xcb_usage();
+
+    if(NULL == (results = calloc((size_t)xcb_conf.runs, sizeof(xcb_result_t)))) xcb_fail("calloc");
+    xcb_prepare();
+
+    printf("xcd_bench: %d threads, %d frames, %d maps, %d libs, %d workers%s%s%s\n",
+           xcb_conf.victim.threads, xcb_conf.victim.depth, xcb_conf.victim.maps, xcb_conf.victim.libs_cnt,
+           xcb_conf.workers, xcb_conf.compact ? ", compact" : "", xcb_conf.minidump ? ", minidump" : "",
+           xcb_conf.meminfo_rollup ? ", smaps_rollup" : "");
+
+    if(xcb_conf.meminfo_compare)
+    {
+        xcb_compare_meminfo(results);
+        goto check;
+    }
+
+    //measured runs, and an extra traced run for the syscalls (ptrace slows down the dumper)
+    for(r = 0; r < xcb_conf.runs; r++)
+    {
+        xcb_run(r, 0, &(results[r]));
+        printf("run %d: %.1f ms, peak RSS %ld KB, tombstone %zu bytes, backtrace %d frames, dumped %d threads\n",
+               r + 1, (double)results[r].wall_us / 1000, results[r].maxrss_kb, results[r].tombstone_size,
+               results[r].frames, results[r].dumped_threads);
+    }
+    memset(&traced, 0, sizeof(traced));
+    if(xcb_conf.syscalls)
+    {
+        xcb_run(0, 1, &traced);
+        printf("traced run: %"PRIu64" syscalls\n", traced.syscalls);
+    }
+
+    //medians of the measured runs
+    printf("\n%-16s %12s %14s %12s\n", "phase", "time (ms)", "peak RSS (KB)", "syscalls");
+    for(i = 0; i < results[0].phases_cnt; i++)
+    {
+        for(r = 0; r < xcb_conf.runs; r++)
+            values[r] = (i < results[r].phases_cnt ? results[r].phases[i].time_us : 0);
+        printf("%-16s %12.1f %14ld %12"PRIu64"\n", results[0].phases[i].name, (double)xcb_median(values, (size_t)xcb_conf.runs) / 1000,
+               results[0].phases[i].maxrss_kb, i < traced.phases_cnt ? traced.phases[i].syscalls : 0);
+    }
+    for(r = 0; r < xcb_conf.runs; r++)
+        values[r] = results[r].wall_us;
+    printf("%-16s %12.1f %14ld %12"PRIu64"\n", "total", (double)xcb_median(values, (size_t)xcb_conf.runs) / 1000,
+           results[0].maxrss_kb, traced.syscalls);
+
+ check:
+    //regression checks: the dumper succeeded, the crashed thread is unwound through the libs, all the other threads are dumped
+    for(r = 0; r < xcb_conf.runs; r++)
+    {
+        if(!WIFEXITED(results[r].status) || 0 != WEXITSTATUS(results[r].status))
+        {
+            fprintf(stderr, "xcd_bench: run %d: the dumper failed, status 0x%x\n", r + 1, results[r].status);
+            failed = 1;
+        }
+        if(results[r].frames < XCB_MIN(xcb_conf.victim.depth, XCB_FRAMES_CHECK))
+        {
+            fprintf(stderr, "xcd_bench: run %d: only %d frames of the crashed thread\n", r + 1, results[r].frames);
+            failed = 1;
+        }
+        if(!xcb_conf.compact && results[r].dumped_threads != xcb_conf.victim.threads - 1)
+        {
+            fprintf(stderr, "xcd_bench: run %d: only %d other threads dumped\n", r + 1, results[r].dumped_threads);
+            failed = 1;
+        }
+    }
+
+    if(xcb_conf.keep)
+        printf("\nxcd_bench: the tombstones are kept in %s\n", xcb_conf.dir);
+    else
+        xcb_remove_dir(xcb_conf.dir);
+    free(results);
+    return failed;
+}
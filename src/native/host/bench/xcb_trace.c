@@ -0,0 +1,143 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#include <stdio.h>
+#include <string.h>
+#include <errno.h>
+#include <signal.h>
+#include <elf.h>
+#include <sys/ptrace.h>
+#include <sys/wait.h>
+#include <sys/uio.h>
+#include <sys/user.h>
+#include <sys/syscall.h>
+#include "xcb_trace.h"
+
+#define XCB_TRACE_THREADS_MAX 128
+
+typedef struct
+{
+    pid_t tid;
+    int   in_syscall;
+} xcb_trace_thread_t;
+
+//the syscall number and the first argument at a syscall-entry-stop
+static int xcb_trace_get_syscall(pid_t tid, long *nr, long *arg0)
+{
+    struct user_regs_struct regs;
+    struct iovec            iov = {.iov_base = &regs, .iov_len = sizeof(regs)};
+
+    if(0 != ptrace(PTRACE_GETREGSET, tid, (void *)NT_PRSTATUS, &iov)) return -1;
+
+#if defined(__x86_64__)
+    *nr = (long)regs.orig_rax;
+    *arg0 = (long)regs.rdi;
+#elif defined(__aarch64__)
+    *nr = (long)regs.regs[8];
+    *arg0 = (long)regs.regs[0];
+#else
+#error "unsupported host architecture"
+#endif
+    return 0;
+}
+
+static xcb_trace_thread_t *xcb_trace_get_thread(xcb_trace_thread_t *thds, size_t *thds_cnt, pid_t tid)
+{
+    size_t i;
+
+    for(i = 0; i < *thds_cnt; i++)
+        if(thds[i].tid == tid) return &(thds[i]);
+
+    if(*thds_cnt >= XCB_TRACE_THREADS_MAX) return NULL;
+    thds[*thds_cnt].tid = tid;
+    thds[*thds_cnt].in_syscall = 0;
+    return &(thds[(*thds_cnt)++]);
+}
+
+int xcb_trace_run(pid_t pid, int marker_fd, xcb_trace_t *trace, int *status)
+{
+    xcb_trace_thread_t  thds[XCB_TRACE_THREADS_MAX];
+    xcb_trace_thread_t *thd;
+    size_t              thds_cnt = 0;
+    int                 execed = 0;
+    int                 st;
+    int                 sig;
+    unsigned int        event;
+    pid_t               tid;
+    long                nr;
+    long                arg0;
+
+    memset(trace, 0, sizeof(xcb_trace_t));
+
+    //stopped by itself
+    if(pid != waitpid(pid, &st, __WALL) || !WIFSTOPPED(st)) return -1;
+    if(0 != ptrace(PTRACE_SETOPTIONS, pid, NULL,
+                   (void *)(PTRACE_O_TRACESYSGOOD | PTRACE_O_TRACECLONE | PTRACE_O_TRACEEXEC | PTRACE_O_EXITKILL))) return -1;
+    if(0 != ptrace(PTRACE_SYSCALL, pid, NULL, NULL)) return -1;
+
+    for(;;)
+    {
+        if(0 > (tid = waitpid(-1, &st, __WALL)))
+        {
+            if(EINTR == errno) continue;
+            return -1;
+        }
+
+        if(WIFEXITED(st) || WIFSIGNALED(st))
+        {
+            if(tid != pid) continue;
+            *status = st;
+            return 0;
+        }
+        if(!WIFSTOPPED(st)) continue;
+
+        sig = WSTOPSIG(st);
+        event = (unsigned int)st >> 16;
+        if((SIGTRAP | 0x80) == sig)
+        {
+            //syscall-entry-stop or syscall-exit-stop
+            if(NULL != (thd = xcb_trace_get_thread(thds, &thds_cnt, tid)))
+            {
+                if(!thd->in_syscall && execed)
+                {
+                    trace->syscalls++;
+                    if(0 == xcb_trace_get_syscall(tid, &nr, &arg0) && SYS_write == nr && marker_fd == arg0
+                       && trace->markers_cnt < XCB_TRACE_MARKERS_MAX)
+                        trace->markers[trace->markers_cnt++] = trace->syscalls;
+                }
+                thd->in_syscall = !thd->in_syscall;
+            }
+            sig = 0;
+        }
+        else if(PTRACE_EVENT_EXEC == event)
+        {
+            execed = 1;
+            sig = 0;
+        }
+        else if(0 != event || SIGTRAP == sig || SIGSTOP == sig)
+        {
+            //clone events, and the initial stop of the new threads
+            sig = 0;
+        }
+
+        ptrace(PTRACE_SYSCALL, tid, NULL, (void *)(long)sig);
+    }
+}
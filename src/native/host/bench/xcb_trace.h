@@ -0,0 +1,50 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#ifndef XCB_TRACE_H
+#define XCB_TRACE_H 1
+
+#include <stdint.h>
+#include <stddef.h>
+#include <sys/types.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+#define XCB_TRACE_MARKERS_MAX 32
+
+typedef struct
+{
+    uint64_t syscalls;                         //all the syscalls after exec
+    uint64_t markers[XCB_TRACE_MARKERS_MAX];   //the syscalls before each write() to the marker FD
+    size_t   markers_cnt;
+} xcb_trace_t;
+
+//count the syscalls of all the threads of a child, which has called PTRACE_TRACEME and stopped itself before exec
+//(return 0 and the wait status of the child after it exited)
+int xcb_trace_run(pid_t pid, int marker_fd, xcb_trace_t *trace, int *status);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
@@ -0,0 +1,215 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <stdint.h>
+#include <string.h>
+#include <errno.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <dlfcn.h>
+#include <pthread.h>
+#include <signal.h>
+#include <sys/mman.h>
+#include <sys/prctl.h>
+#include <sys/syscall.h>
+#include "xcb_victim.h"
+
+#define XCB_VICTIM_THREAD_STACK_SIZE (128 * 1024)
+#define XCB_VICTIM_CRASH_STACK_SIZE  (32 * 1024 * 1024)
+#define XCB_VICTIM_ALT_STACK_SIZE    (64 * 1024)
+
+typedef int (*xcb_victim_leaf_t)(void *arg);
+typedef int (*xcb_victim_recurse_t)(int depth, xcb_victim_leaf_t leaf, void *arg);
+
+typedef struct
+{
+    int lib;
+    int depth;
+} xcb_victim_chain_t;
+
+static const xcb_victim_conf_t *xcb_victim_conf         = NULL;
+static xcb_victim_recurse_t     xcb_victim_recurse[XCB_VICTIM_LIBS_MAX];
+static int                      xcb_victim_report_fd    = -1;
+static pthread_mutex_t          xcb_victim_ready_mutex  = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t           xcb_victim_ready_cond   = PTHREAD_COND_INITIALIZER;
+static int                      xcb_victim_ready_cnt    = 0;
+
+//not a constant, so the compiler can not know the store will crash
+static volatile uintptr_t       xcb_victim_bad_addr     = 16;
+
+__attribute__((noreturn)) static void xcb_victim_fail(const char *what)
+{
+    fprintf(stderr, "xcb_victim: %s failed, errno=%d\n", what, errno);
+    _exit(1);
+}
+
+static void xcb_victim_signal_handler(int sig, siginfo_t *si, void *uc)
+{
+    xcb_victim_crash_t crash;
+
+    (void)sig;
+
+    crash.tid = (pid_t)syscall(SYS_gettid);
+    memcpy(&(crash.siginfo), si, sizeof(siginfo_t));
+    memcpy(&(crash.ucontext), uc, sizeof(ucontext_t));
+
+    //less than PIPE_BUF, written atomically
+    if((ssize_t)sizeof(crash) != write(xcb_victim_report_fd, &crash, sizeof(crash))) _exit(2);
+
+    //blocked until killed, the stack of the crashing thread is kept as it is
+    for(;;) pause();
+}
+
+static int xcb_victim_block(void *arg)
+{
+    (void)arg;
+
+    pthread_mutex_lock(&xcb_victim_ready_mutex);
+    xcb_victim_ready_cnt++;
+    pthread_cond_signal(&xcb_victim_ready_cond);
+    pthread_mutex_unlock(&xcb_victim_ready_mutex);
+
+    for(;;) pause();
+    return 0;
+}
+
+static void *xcb_victim_thread(void *arg)
+{
+    int lib = (int)(intptr_t)arg;
+
+    if(lib < 0)
+        xcb_victim_block(NULL);
+    else
+        xcb_victim_recurse[lib](xcb_victim_conf->thread_depth, xcb_victim_block, NULL);
+    return NULL;
+}
+
+static int xcb_victim_crash(void *arg)
+{
+    xcb_victim_chain_t *chain = (xcb_victim_chain_t *)arg;
+
+    //continue the recursion in the next lib
+    if(++(chain->lib) < xcb_victim_conf->libs_cnt)
+        return xcb_victim_recurse[chain->lib](chain->depth, xcb_victim_crash, chain);
+
+    *((volatile int *)xcb_victim_bad_addr) = 0;
+    return 0;
+}
+
+static void *xcb_victim_crash_thread(void *arg)
+{
+    xcb_victim_chain_t chain;
+    stack_t            ss;
+
+    (void)arg;
+
+    if(NULL == (ss.ss_sp = malloc(XCB_VICTIM_ALT_STACK_SIZE))) xcb_victim_fail("malloc");
+    ss.ss_size = XCB_VICTIM_ALT_STACK_SIZE;
+    ss.ss_flags = 0;
+    if(0 != sigaltstack(&ss, NULL)) xcb_victim_fail("sigaltstack");
+
+    chain.lib = -1;
+    chain.depth = xcb_victim_conf->depth / (xcb_victim_conf->libs_cnt > 0 ? xcb_victim_conf->libs_cnt : 1);
+    xcb_victim_crash(&chain);
+    return NULL;
+}
+
+static void xcb_victim_load_libs(void)
+{
+    void *handle;
+    int   i;
+
+    for(i = 0; i < xcb_victim_conf->libs_cnt; i++)
+    {
+        if(NULL == (handle = dlopen(xcb_victim_conf->libs[i], RTLD_NOW | RTLD_LOCAL)))
+        {
+            fprintf(stderr, "xcb_victim: dlopen %s failed, %s\n", xcb_victim_conf->libs[i], dlerror());
+            _exit(1);
+        }
+        if(NULL == (*(void **)(&(xcb_victim_recurse[i])) = dlsym(handle, "xcb_lib_recurse"))) xcb_victim_fail("dlsym");
+    }
+}
+
+static void xcb_victim_map(void)
+{
+    size_t   page = (size_t)sysconf(_SC_PAGESIZE);
+    uint8_t *base;
+    int      fd;
+    int      i;
+
+    if(xcb_victim_conf->maps <= 0) return;
+
+    if(MAP_FAILED == (base = mmap(NULL, page * (size_t)xcb_victim_conf->maps, PROT_NONE, MAP_PRIVATE | MAP_ANONYMOUS, -1, 0)))
+        xcb_victim_fail("mmap");
+    if(0 > (fd = open(xcb_victim_conf->maps_file, O_RDONLY | O_CLOEXEC))) xcb_victim_fail("open");
+
+    //the file mappings and the reserved gaps alternate, so none of them can be merged
+    for(i = 0; i < xcb_victim_conf->maps; i += 2)
+        if(MAP_FAILED == mmap(base + page * (size_t)i, page, PROT_READ, MAP_PRIVATE | MAP_FIXED, fd, 0))
+            xcb_victim_fail("mmap");
+
+    close(fd);
+}
+
+void xcb_victim_run(const xcb_victim_conf_t *conf, int report_fd)
+{
+    struct sigaction act;
+    pthread_attr_t   attr;
+    pthread_t        thd;
+    int              others = conf->threads - 2;
+    int              i;
+
+    xcb_victim_conf = conf;
+    xcb_victim_report_fd = report_fd;
+
+    //the dumper is not our ancestor (ignored if there is no Yama LSM)
+    prctl(PR_SET_PTRACER, PR_SET_PTRACER_ANY, 0, 0, 0);
+
+    xcb_victim_load_libs();
+    xcb_victim_map();
+
+    memset(&act, 0, sizeof(act));
+    sigfillset(&act.sa_mask);
+    act.sa_sigaction = xcb_victim_signal_handler;
+    act.sa_flags = SA_SIGINFO | SA_ONSTACK;
+    if(0 != sigaction(SIGSEGV, &act, NULL)) xcb_victim_fail("sigaction");
+
+    //the other threads, blocked in the deepest frame
+    pthread_attr_init(&attr);
+    pthread_attr_setstacksize(&attr, XCB_VICTIM_THREAD_STACK_SIZE);
+    pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+    for(i = 0; i < others; i++)
+        if(0 != (errno = pthread_create(&thd, &attr, xcb_victim_thread, (void *)(intptr_t)(conf->libs_cnt > 0 ? i % conf->libs_cnt : -1))))
+            xcb_victim_fail("pthread_create");
+    pthread_mutex_lock(&xcb_victim_ready_mutex);
+    while(xcb_victim_ready_cnt < others)
+        pthread_cond_wait(&xcb_victim_ready_cond, &xcb_victim_ready_mutex);
+    pthread_mutex_unlock(&xcb_victim_ready_mutex);
+
+    //the crashing thread
+    pthread_attr_setstacksize(&attr, XCB_VICTIM_CRASH_STACK_SIZE);
+    pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_JOINABLE);
+    if(0 != (errno = pthread_create(&thd, &attr, xcb_victim_crash_thread, NULL))) xcb_victim_fail("pthread_create");
+    pthread_join(thd, NULL);
+    _exit(3);
+}
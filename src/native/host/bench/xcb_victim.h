@@ -0,0 +1,62 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#ifndef XCB_VICTIM_H
+#define XCB_VICTIM_H 1
+
+#include <sys/types.h>
+#include <ucontext.h>
+#include <signal.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+#define XCB_VICTIM_LIBS_MAX 64
+
+typedef struct
+{
+    int         threads;      //including the main thread and the crashing thread
+    int         depth;        //frames of the crashing thread, through all the libs
+    int         thread_depth; //frames of the other threads
+    int         maps;         //additional mappings
+    int         libs_cnt;
+    const char *libs[XCB_VICTIM_LIBS_MAX];
+    const char *maps_file;    //a file of one page, mapped by the half of the additional mappings
+} xcb_victim_conf_t;
+
+//sent by the signal handler of the crashing thread
+typedef struct
+{
+    pid_t      tid;
+    siginfo_t  siginfo;
+    ucontext_t ucontext;
+} xcb_victim_crash_t;
+
+//run in the forked child: set up the threads, mappings and libs, then crash, never return
+//(the crash info is written to report_fd, then the crashing thread is blocked until the process is killed)
+void xcb_victim_run(const xcb_victim_conf_t *conf, int report_fd) __attribute__((noreturn));
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
@@ -0,0 +1,81 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+//host build only: the Android functions used by the dumper, and the phase markers of the benchmark
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <stdarg.h>
+#include <string.h>
+#include <inttypes.h>
+#include <unistd.h>
+#include <sys/resource.h>
+#include <android/log.h>
+#include <sys/system_properties.h>
+#include "xcc_util.h"
+#include "xcd_bench.h"
+
+#define XCD_HOST_LOG_ENV "XCD_HOST_LOG"
+
+static int xcd_host_bench_fd = -2;
+
+int __android_log_print(int prio, const char *tag, const char *fmt, ...)
+{
+    va_list ap;
+    size_t  len;
+    int     r;
+
+    //the logs go to logcat on Android, they are printed to stderr only if asked
+    (void)prio;
+    if(NULL == getenv(XCD_HOST_LOG_ENV)) return 0;
+
+    fprintf(stderr, "%s: ", tag);
+    va_start(ap, fmt);
+    r = vfprintf(stderr, fmt, ap);
+    va_end(ap);
+    if(0 == (len = strlen(fmt)) || '\n' != fmt[len - 1]) fputc('\n', stderr);
+    return r;
+}
+
+int __system_property_get(const char *name, char *value)
+{
+    (void)name;
+
+    value[0] = '\0';
+    return 0;
+}
+
+void xcd_bench_phase(const char *name)
+{
+    char          buf[256];
+    struct rusage ru;
+    const char   *env;
+    int           len;
+
+    if(-2 == xcd_host_bench_fd)
+        xcd_host_bench_fd = (NULL != (env = getenv(XCD_BENCH_FD_ENV)) ? atoi(env) : -1);
+    if(xcd_host_bench_fd < 0) return;
+
+    //name, monotonic time (us), peak RSS (KB)
+    if(0 != getrusage(RUSAGE_SELF, &ru)) ru.ru_maxrss = 0;
+    len = snprintf(buf, sizeof(buf), "%s %"PRIu64" %ld\n", name, xcc_util_get_monotonic_us(), ru.ru_maxrss);
+    if(len > 0) xcc_util_write(xcd_host_bench_fd, buf, (size_t)len);
+}
@@ -12,6 +12,12 @@ cp -f ./libxcrash/libs/arm64-v8a/libxcrash.so   ../java/xcrash/xcrash_lib/libs/a
 cp -f ./libxcrash/libs/x86/libxcrash.so         ../java/xcrash/xcrash_lib/libs/x86/libxcrash.so
 cp -f ./libxcrash/libs/x86_64/libxcrash.so      ../java/xcrash/xcrash_lib/libs/x86_64/libxcrash.so
 
+cp -f ./libxcrash/libs/armeabi/libxcrash_test_stub.so     ../java/xcrash/xcrash_lib/libs/armeabi/libxcrash_test_stub.so
+cp -f ./libxcrash/libs/armeabi-v7a/libxcrash_test_stub.so ../java/xcrash/xcrash_lib/libs/armeabi-v7a/libxcrash_test_stub.so
+cp -f ./libxcrash/libs/arm64-v8a/libxcrash_test_stub.so   ../java/xcrash/xcrash_lib/libs/arm64-v8a/libxcrash_test_stub.so
+cp -f ./libxcrash/libs/x86/libxcrash_test_stub.so         ../java/xcrash/xcrash_lib/libs/x86/libxcrash_test_stub.so
+cp -f ./libxcrash/libs/x86_64/libxcrash_test_stub.so      ../java/xcrash/xcrash_lib/libs/x86_64/libxcrash_test_stub.so
+
 cp -f ./libxcrash_dumper/libs/armeabi/xcrash_dumper     ../java/xcrash/xcrash_lib/libs/armeabi/libxcrash_dumper.so
 cp -f ./libxcrash_dumper/libs/armeabi-v7a/xcrash_dumper ../java/xcrash/xcrash_lib/libs/armeabi-v7a/libxcrash_dumper.so
 cp -f ./libxcrash_dumper/libs/arm64-v8a/xcrash_dumper   ../java/xcrash/xcrash_lib/libs/arm64-v8a/libxcrash_dumper.so
@@ -7,6 +7,12 @@ LOCAL_C_INCLUDES       := $(LOCAL_PATH)
 LOCAL_SRC_FILES        := xc_test.c
 include $(BUILD_STATIC_LIBRARY)
 
+include $(CLEAR_VARS)
+LOCAL_MODULE           := xcrash_test_stub
+LOCAL_CFLAGS           := -std=c11 -Weverything -Werror -fvisibility=hidden
+LOCAL_SRC_FILES        := xc_test_stub.c
+include $(BUILD_SHARED_LIBRARY)
+
 include $(CLEAR_VARS)
 LOCAL_MODULE           := xcrash
 LOCAL_CFLAGS           := -std=c11 -Weverything -Werror -fvisibility=hidden
@@ -42,6 +42,7 @@
 #include <sys/wait.h>
 #include <sys/syscall.h>
 #include <sys/uio.h>
+#include <signal.h>
 #include <android/log.h>
 #include "xcc_errno.h"
 #include "xcc_spot.h"
@@ -54,12 +55,14 @@
 #include "xc_jni.h"
 #include "xc_recorder.h"
 #include "xc_fallback.h"
+#include "xc_test.h"
 
 #pragma clang diagnostic push
 #pragma clang diagnostic ignored "-Wgnu-statement-expression"
 
 #define XC_CORE_EMERGENCY_BUF_LEN (30 * 1024)
 #define XC_CORE_ERR_TITLE         "\n\nxcrash error:\n"
+#define XC_CORE_WAIT_INTERVAL_NS  (10 * 1000 * 1000)
 
 static pthread_mutex_t        xc_core_mutex   = PTHREAD_MUTEX_INITIALIZER;
 static int                    xc_core_handled = 0;
@@ -83,8 +86,19 @@ static void                  *xc_core_child_stack;
 static int                    xc_core_child_notifier[2];
 #endif
 
+//standby dumper process
+static pid_t                  xc_core_standby_pid = -1;
+static int                    xc_core_standby_fd  = -1;
+
+//unwind cache builder process
+static char                  *xc_core_app_lib_dir = NULL;
+static char                  *xc_core_unwind_cache_dir = NULL;
+static char                  *xc_core_elf_hash_cache_pathname = NULL;
+
 //info passed to the dumper process
 static xcc_spot_t             xc_core_spot;
+static xcc_spot_crashes_t     xc_core_concurrent_crashes;
+static pid_t                  xc_core_crash_tid = 0;
 static char                  *xc_core_log_pathname = NULL;
 static char                  *xc_core_app_id = "unknown";
 static char                  *xc_core_app_version = "unknown";
@@ -199,37 +213,211 @@ static int xc_core_exec_dumper(void *arg)
     return 100 + errno;
 }
 
+static int xc_core_exec_standby_dumper(int args_fd)
+{
+    int i;
+
+    //stdin: the read-side of the args-pipe, stdout and stderr: /dev/null
+    int devnull = XCC_UTIL_TEMP_FAILURE_RETRY(open("/dev/null", O_RDWR));
+    XCC_UTIL_TEMP_FAILURE_RETRY(dup2(args_fd, STDIN_FILENO));
+    if(devnull >= 0)
+    {
+        XCC_UTIL_TEMP_FAILURE_RETRY(dup2(devnull, STDOUT_FILENO));
+        XCC_UTIL_TEMP_FAILURE_RETRY(dup2(devnull, STDERR_FILENO));
+    }
+
+    //don't hold any FD of the APP
+    for(i = STDERR_FILENO + 1; i < 1024; i++)
+        syscall(SYS_close, i);
+
+    //the dumper will be blocked on reading args until a crash occurred
+    errno = 0;
+    execl(xc_core_dumper_pathname, XCC_UTIL_XCRASH_DUMPER_FILENAME, NULL);
+    return 100 + errno;
+}
+
+static int xc_core_start_standby_dumper()
+{
+    int   pipefd[2];
+    pid_t pid;
+
+    if(0 != pipe2(pipefd, O_CLOEXEC)) return XCC_ERRNO_SYS;
+
+    //make sure writing args to pipe will never block in the signal handler
+    int write_len = (int)(sizeof(xcc_spot_t) + xc_core_spot.log_pathname_len + xc_core_spot.app_id_len
+                          + xc_core_spot.app_version_len + xc_core_spot.dump_all_threads_whitelist_len);
+    if(fcntl(pipefd[1], F_SETPIPE_SZ, write_len) < write_len) goto err;
+
+    if(-1 == (pid = fork())) goto err;
+    if(0 == pid)
+    {
+        //child process ...
+        _exit(xc_core_exec_standby_dumper(pipefd[0]));
+    }
+
+    //parent process ...
+    close(pipefd[0]);
+    xc_core_standby_pid = pid;
+    xc_core_standby_fd = pipefd[1];
+    return 0;
+
+ err:
+    close(pipefd[0]);
+    close(pipefd[1]);
+    return XCC_ERRNO_SYS;
+}
+
+//arg3 can be NULL
+static int xc_core_exec_cache_builder(const char *arg, const char *arg1, const char *arg2, const char *arg3)
+{
+    int i;
+
+    //stdin, stdout and stderr: /dev/null
+    int devnull = XCC_UTIL_TEMP_FAILURE_RETRY(open("/dev/null", O_RDWR));
+    if(devnull >= 0)
+    {
+        XCC_UTIL_TEMP_FAILURE_RETRY(dup2(devnull, STDIN_FILENO));
+        XCC_UTIL_TEMP_FAILURE_RETRY(dup2(devnull, STDOUT_FILENO));
+        XCC_UTIL_TEMP_FAILURE_RETRY(dup2(devnull, STDERR_FILENO));
+    }
+
+    //don't hold any FD of the APP
+    for(i = STDERR_FILENO + 1; i < 1024; i++)
+        syscall(SYS_close, i);
+
+    errno = 0;
+    execl(xc_core_dumper_pathname, XCC_UTIL_XCRASH_DUMPER_FILENAME, arg, arg1, arg2, arg3, NULL);
+    return 100 + errno;
+}
+
+static pid_t xc_core_wake_standby_dumper()
+{
+    int status = 0;
+    
+    if(xc_core_standby_pid < 0) return -1;
+
+    //check if the standby dumper is still alive
+    if(0 != waitpid(xc_core_standby_pid, &status, WNOHANG | __WALL)) goto err;
+
+    //write args to pipe
+    struct iovec iovs[5] = {
+        {.iov_base = &xc_core_spot, .iov_len = sizeof(xcc_spot_t)},
+        {.iov_base = xc_core_log_pathname, .iov_len = xc_core_spot.log_pathname_len},
+        {.iov_base = xc_core_app_id, .iov_len = xc_core_spot.app_id_len},
+        {.iov_base = xc_core_app_version, .iov_len = xc_core_spot.app_version_len},
+        {.iov_base = xc_core_dump_all_threads_whitelist, .iov_len = xc_core_spot.dump_all_threads_whitelist_len}
+    };
+    int iovs_cnt = (0 == xc_core_spot.dump_all_threads_whitelist_len ? 4 : 5);
+    size_t write_len = sizeof(xcc_spot_t) + xc_core_spot.log_pathname_len + xc_core_spot.app_id_len
+        + xc_core_spot.app_version_len + xc_core_spot.dump_all_threads_whitelist_len;
+    if((ssize_t)write_len != XCC_UTIL_TEMP_FAILURE_RETRY(writev(xc_core_standby_fd, iovs, iovs_cnt)))
+    {
+        //the dumper may have read partial args, don't let it go on
+        kill(xc_core_standby_pid, SIGKILL);
+        XCC_UTIL_TEMP_FAILURE_RETRY(waitpid(xc_core_standby_pid, &status, __WALL));
+        goto err;
+    }
+
+    syscall(SYS_close, xc_core_standby_fd);
+    xc_core_standby_fd = -1;
+    return xc_core_standby_pid;
+
+ err:
+    syscall(SYS_close, xc_core_standby_fd);
+    xc_core_standby_fd = -1;
+    xc_core_standby_pid = -1;
+    return -1;
+}
+
+static pid_t xc_core_wait_dumper(pid_t dumper_pid, int *status, int *timedout)
+{
+    struct timespec ts = {.tv_sec = 0, .tv_nsec = XC_CORE_WAIT_INTERVAL_NS};
+    uint64_t        deadline;
+    pid_t           r;
+
+    *timedout = 0;
+    
+    //no deadline
+    if(0 == xc_core_spot.dump_timeout_ms)
+        return XCC_UTIL_TEMP_FAILURE_RETRY(waitpid(dumper_pid, status, __WALL));
+
+    //poll until the dumper terminated or the deadline passed
+    deadline = xcc_util_get_monotonic_ms() + xc_core_spot.dump_timeout_ms;
+    while(1)
+    {
+        r = XCC_UTIL_TEMP_FAILURE_RETRY(waitpid(dumper_pid, status, WNOHANG | __WALL));
+        if(0 != r) return r;
+        if(xcc_util_get_monotonic_ms() >= deadline) break;
+        nanosleep(&ts, NULL);
+    }
+
+    //kill the dumper and reap it
+    *timedout = 1;
+    kill(dumper_pid, SIGKILL);
+    r = XCC_UTIL_TEMP_FAILURE_RETRY(waitpid(dumper_pid, status, __WALL));
+
+    //the threads attached by the dumper may be left in group-stop
+    kill(getpid(), SIGCONT);
+    return r;
+}
+
+//Lock-free, so that it is recorded before the dumper suspends the threads,
+//while the first crash is being handled with the mutex held.
+static void xc_core_record_concurrent_crash(pid_t tid, siginfo_t *si, ucontext_t *uc)
+{
+    xcc_spot_crash_t *crash;
+    size_t            i;
+
+    i = __atomic_fetch_add(&(xc_core_concurrent_crashes.count), 1, __ATOMIC_RELAXED);
+    if(i >= XCC_SPOT_CONCURRENT_CRASHES_MAX) return;
+
+    crash = &(xc_core_concurrent_crashes.crashes[i]);
+    crash->tid = tid;
+    memcpy(&(crash->siginfo), si, sizeof(siginfo_t));
+    memcpy(&(crash->ucontext), uc, sizeof(ucontext_t));
+    __atomic_store_n(&(crash->ready), 1, __ATOMIC_RELEASE);
+}
+
 static void xc_core_signal_handler(int sig, siginfo_t *si, void *uc)
 {
     struct timespec crash_tp;
+    struct timespec capture_tp;
+    const char     *test_desc;
+    uint64_t        capture_time;
     int             restore_orig_ptracer = 0;
     int             restore_orig_dumpable = 0;
     int             orig_dumpable = 0;
     int             dump_ok = 0;
+    pid_t           tid = gettid();
+    pid_t           first_tid = 0;
 
     (void)sig;
 
+    //another thread is crashing at the same time, record it for the dumper of the first one
+    //(then it is blocked until the first one has been handled)
+    if(!__atomic_compare_exchange_n(&xc_core_crash_tid, &first_tid, tid, 0, __ATOMIC_ACQ_REL, __ATOMIC_ACQUIRE) && first_tid != tid)
+        xc_core_record_concurrent_crash(tid, si, (ucontext_t *)uc);
+
     pthread_mutex_lock(&xc_core_mutex);
 
     //only once
-    if(xc_core_handled) goto exit;
-    xc_core_handled = 1;
-
-    //restore the original/default signal handler
-    if(xc_core_restore_signal_handler)
-    {
-        if(0 != xcc_signal_unregister()) goto exit;
-    }
-    else
+    if(xc_core_handled)
     {
-        if(0 != xcc_signal_ignore()) goto exit;
+        //a concurrent crash, it will be triggered again after returning, with the restored signal handler
+        if(tid != xc_core_spot.crash_tid)
+        {
+            pthread_mutex_unlock(&xc_core_mutex);
+            return;
+        }
+        goto exit;
     }
+    xc_core_handled = 1;
 
     //save crash spot info
     clock_gettime(CLOCK_REALTIME, &crash_tp);
     xc_core_spot.crash_time = (uint64_t)(crash_tp.tv_sec) * 1000 * 1000 + (uint64_t)crash_tp.tv_nsec / 1000;
     xc_core_spot.crash_pid = getpid();
-    xc_core_spot.crash_tid = gettid();
+    xc_core_spot.crash_tid = tid;
     memcpy(&(xc_core_spot.siginfo), si, sizeof(siginfo_t));
     memcpy(&(xc_core_spot.ucontext), uc, sizeof(ucontext_t));
 
@@ -276,9 +464,10 @@ static void xc_core_signal_handler(int sig, siginfo_t *si, void *uc)
         restore_orig_ptracer = 1;
     }
 
-    //spawn crash dumper process
+    //wake up the standby dumper process, or spawn a new one
     errno = 0;
-    pid_t dumper_pid = xc_core_fork(xc_core_exec_dumper);
+    pid_t dumper_pid = xc_core_wake_standby_dumper();
+    if(-1 == dumper_pid) dumper_pid = xc_core_fork(xc_core_exec_dumper);
     if(-1 == dumper_pid)
     {
         xcc_util_write_format_safe(xc_core_log_fd, XC_CORE_ERR_TITLE"fork failed, errno=%d\n\n", errno);
@@ -290,7 +479,8 @@ static void xc_core_signal_handler(int sig, siginfo_t *si, void *uc)
     //wait the crash dumper process terminated
     errno = 0;
     int status = 0;
-    int r = XCC_UTIL_TEMP_FAILURE_RETRY(waitpid(dumper_pid, &status, __WALL));
+    int timedout = 0;
+    int r = xc_core_wait_dumper(dumper_pid, &status, &timedout);
 
     //the crash dumper process should have written a lot of logs,
     //so we need to seek to the end of log file
@@ -302,6 +492,13 @@ static void xc_core_signal_handler(int sig, siginfo_t *si, void *uc)
         goto end;
     }
 
+    //check timeout
+    if(timedout)
+    {
+        xcc_util_write_format_safe(xc_core_log_fd, XC_CORE_ERR_TITLE"dumper timeout (%u ms), killed\n\n", xc_core_spot.dump_timeout_ms);
+        goto end;
+    }
+
     //check child process state
     if(!(WIFEXITED(status)) || 0 != WEXITSTATUS(status))
     {
@@ -376,9 +573,28 @@ static void xc_core_signal_handler(int sig, siginfo_t *si, void *uc)
         }
     }
 
+    //capture time of the test scenario
+    if(xc_core_log_fd >= 0 && NULL != (test_desc = xc_test_get_description()))
+    {
+        clock_gettime(CLOCK_REALTIME, &capture_tp);
+        capture_time = (uint64_t)(capture_tp.tv_sec) * 1000 * 1000 + (uint64_t)capture_tp.tv_nsec / 1000 - xc_core_spot.crash_time;
+        xcc_util_write_format_safe(xc_core_log_fd, "xcrash test:\n%scapture time: %"PRIu64" ms\n\n", test_desc, capture_time / 1000);
+    }
+
     //we have written all the required information in the native layer, close the FD
     if(xc_core_log_fd >= 0) close(xc_core_log_fd);
 
+    //restore the original/default signal handler
+    //(it is kept until now for recording the concurrent crashes)
+    if(xc_core_restore_signal_handler)
+    {
+        if(0 != xcc_signal_unregister()) goto exit;
+    }
+    else
+    {
+        if(0 != xcc_signal_ignore()) goto exit;
+    }
+
     //jni callback
     xc_jni_callback(xc_core_log_pathname, '\0' == xc_core_emergency[0] ? NULL : xc_core_emergency);
 
@@ -463,10 +679,20 @@ int xc_core_init(int restore_signal_handler,
                  int dump_elf_hash,
                  int dump_map,
                  int dump_fds,
+                 int meminfo_rollup,
                  int dump_all_threads,
                  int dump_all_threads_count_max,
                  const char **dump_all_threads_whitelist,
-                 size_t dump_all_threads_whitelist_len)
+                 size_t dump_all_threads_whitelist_len,
+                 int dump_all_threads_workers,
+                 int dump_all_threads_compact,
+                 int dump_minidump,
+                 unsigned int dedup_window_sec,
+                 int standby_dumper,
+                 unsigned int dump_timeout_ms,
+                 unsigned int section_timeout_ms,
+                 int unwind_cache,
+                 int elf_hash_cache)
 {
     struct timeval  tv;
     struct tm       tm;
@@ -487,9 +713,19 @@ int xc_core_init(int restore_signal_handler,
                         "dump_elf_hash=%d, "
                         "dump_map=%d, "
                         "dump_fds=%d, "
+                        "meminfo_rollup=%d, "
                         "dump_all_threads=%d, "
                         "dump_all_threads_count_max=%d, "
-                        "dump_all_threads_whitelist_len=%zu",
+                        "dump_all_threads_whitelist_len=%zu, "
+                        "dump_all_threads_workers=%d, "
+                        "dump_all_threads_compact=%d, "
+                        "dump_minidump=%d, "
+                        "dedup_window_sec=%u, "
+                        "standby_dumper=%d, "
+                        "dump_timeout_ms=%u, "
+                        "section_timeout_ms=%u, "
+                        "unwind_cache=%d, "
+                        "elf_hash_cache=%d",
                         restore_signal_handler,
                         app_id,
                         app_version,
@@ -501,9 +737,19 @@ int xc_core_init(int restore_signal_handler,
                         dump_elf_hash,
                         dump_map,
                         dump_fds,
+                        meminfo_rollup,
                         dump_all_threads,
                         dump_all_threads_count_max,
-                        dump_all_threads_whitelist_len);
+                        dump_all_threads_whitelist_len,
+                        dump_all_threads_workers,
+                        dump_all_threads_compact,
+                        dump_minidump,
+                        dedup_window_sec,
+                        standby_dumper,
+                        dump_timeout_ms,
+                        section_timeout_ms,
+                        unwind_cache,
+                        elf_hash_cache);
 
     if(NULL != dump_all_threads_whitelist && dump_all_threads_whitelist_len > 0)
     {
@@ -561,8 +807,18 @@ int xc_core_init(int restore_signal_handler,
     xc_core_spot.dump_elf_hash = dump_elf_hash;
     xc_core_spot.dump_map = dump_map;
     xc_core_spot.dump_fds = dump_fds;
+    xc_core_spot.meminfo_rollup = meminfo_rollup;
     xc_core_spot.dump_all_threads = dump_all_threads;
     xc_core_spot.dump_all_threads_count_max = dump_all_threads_count_max;
+    xc_core_spot.dump_all_threads_workers = dump_all_threads_workers;
+    xc_core_spot.dump_all_threads_compact = dump_all_threads_compact;
+    xc_core_spot.dump_minidump = dump_minidump;
+    xc_core_spot.dedup_window_sec = dedup_window_sec;
+    xc_core_spot.dump_timeout_ms = dump_timeout_ms;
+    xc_core_spot.section_timeout_ms = section_timeout_ms;
+    xc_core_spot.unwind_cache = unwind_cache;
+    xc_core_spot.elf_hash_cache = elf_hash_cache;
+    xc_core_spot.concurrent_crashes = (uintptr_t)&xc_core_concurrent_crashes;
     xc_core_spot.log_pathname_len = strlen(xc_core_log_pathname);
     xc_core_spot.app_id_len = strlen(xc_core_app_id);
     xc_core_spot.app_version_len = strlen(xc_core_app_version);
@@ -581,6 +837,14 @@ int xc_core_init(int restore_signal_handler,
     if(NULL == (xc_core_emergency = calloc(XC_CORE_EMERGENCY_BUF_LEN, 1))) return XCC_ERRNO_NOMEM;
     if(NULL == (xc_core_dumper_pathname = xc_util_strdupcat(app_lib_dir, "/"XCC_UTIL_XCRASH_DUMPER_FILENAME))) return XCC_ERRNO_NOMEM;
 
+    //for building the unwind cache and the ELF hash cache in the background
+    if(unwind_cache || elf_hash_cache)
+        if(NULL == (xc_core_app_lib_dir = strdup(app_lib_dir))) return XCC_ERRNO_NOMEM;
+    if(unwind_cache)
+        if(NULL == (xc_core_unwind_cache_dir = xc_util_strdupcat(log_dir, "/"XCC_UTIL_UNWIND_CACHE_DIRNAME))) return XCC_ERRNO_NOMEM;
+    if(elf_hash_cache)
+        if(NULL == (xc_core_elf_hash_cache_pathname = xc_util_strdupcat(log_dir, "/"XCC_UTIL_ELF_HASH_CACHE_FILENAME))) return XCC_ERRNO_NOMEM;
+
     //for clone and fork
 #ifndef __i386__
     if(NULL == (xc_core_child_stack = calloc(XC_CORE_CHILD_STACK_LEN, 1))) return XCC_ERRNO_NOMEM;
@@ -589,10 +853,50 @@ int xc_core_init(int restore_signal_handler,
     if(0 != pipe2(xc_core_child_notifier, O_CLOEXEC)) return XCC_ERRNO_SYS;
 #endif
 
+    //start the standby dumper process, spawn the dumper when crashed if failed
+    if(standby_dumper) xc_core_start_standby_dumper();
+
     //register signal handler
     if(0 != (r = xcc_signal_register(xc_core_signal_handler))) return r;
     
     return 0;
 }
 
+static int xc_core_run_cache_builder(const char *arg, const char *arg1, const char *arg2, const char *arg3)
+{
+    pid_t pid;
+    int   status = 0;
+
+    //build in the dumper process, and wait for it
+    if(-1 == (pid = fork())) return XCC_ERRNO_SYS;
+    if(0 == pid)
+    {
+        //child process ...
+        _exit(xc_core_exec_cache_builder(arg, arg1, arg2, arg3));
+    }
+
+    //parent process ...
+    if(pid != XCC_UTIL_TEMP_FAILURE_RETRY(waitpid(pid, &status, __WALL))) return XCC_ERRNO_SYS;
+    if(!WIFEXITED(status) || 0 != WEXITSTATUS(status)) return XCC_ERRNO_UNKNOWN;
+    return 0;
+}
+
+int xc_core_build_unwind_cache(void)
+{
+    if(!xc_core_inited || NULL == xc_core_unwind_cache_dir) return XCC_ERRNO_STATE;
+
+    return xc_core_run_cache_builder(XCC_UTIL_UNWIND_CACHE_ARG, xc_core_unwind_cache_dir, xc_core_app_lib_dir, NULL);
+}
+
+int xc_core_build_elf_hash_cache(void)
+{
+    char mode[16];
+
+    if(!xc_core_inited || NULL == xc_core_elf_hash_cache_pathname) return XCC_ERRNO_STATE;
+    if(XCC_UTIL_ELF_HASH_NONE == xc_core_spot.dump_elf_hash) return XCC_ERRNO_STATE;
+
+    snprintf(mode, sizeof(mode), "%d", xc_core_spot.dump_elf_hash);
+    return xc_core_run_cache_builder(XCC_UTIL_ELF_HASH_CACHE_ARG, xc_core_elf_hash_cache_pathname, xc_core_app_lib_dir, mode);
+}
+
 #pragma clang diagnostic pop
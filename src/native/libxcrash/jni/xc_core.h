@@ -42,10 +42,23 @@ int xc_core_init(int restore_signal_handler,
                  int dump_elf_hash,
                  int dump_map,
                  int dump_fds,
+                 int meminfo_rollup,
                  int dump_all_threads,
                  int dump_all_threads_count_max,
                  const char **dump_all_threads_whitelist,
-                 size_t dump_all_threads_whitelist_len);
+                 size_t dump_all_threads_whitelist_len,
+                 int dump_all_threads_workers,
+                 int dump_all_threads_compact,
+                 int dump_minidump,
+                 unsigned int dedup_window_sec,
+                 int standby_dumper,
+                 unsigned int dump_timeout_ms,
+                 unsigned int section_timeout_ms,
+                 int unwind_cache,
+                 int elf_hash_cache);
+
+int xc_core_build_unwind_cache(void);
+int xc_core_build_elf_hash_cache(void);
 
 #ifdef __cplusplus
 }
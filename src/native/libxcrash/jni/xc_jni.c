@@ -158,11 +158,22 @@ static jint xc_jni_init(JNIEnv *env,
                         jint logcat_events_lines,
                         jint logcat_main_lines,
                         jboolean dump_elf_hash,
+                        jboolean dump_elf_hash_fast,
                         jboolean dump_map,
                         jboolean dump_fds,
+                        jboolean meminfo_rollup,
                         jboolean dump_all_threads,
                         jint dump_all_threads_count_max,
-                        jobjectArray dump_all_threads_whitelist)
+                        jobjectArray dump_all_threads_whitelist,
+                        jint dump_all_threads_workers,
+                        jboolean dump_all_threads_compact,
+                        jboolean dump_minidump,
+                        jint dedup_window_sec,
+                        jboolean standby_dumper,
+                        jint dump_timeout_ms,
+                        jint section_timeout_ms,
+                        jboolean unwind_cache,
+                        jboolean elf_hash_cache)
 {
     const char  *c_app_id                         = NULL;
     const char  *c_app_version                    = NULL;
@@ -179,7 +190,8 @@ static jint xc_jni_init(JNIEnv *env,
     (void)thiz;
 
     if(!env || !(*env) || !app_id || !app_version || !app_lib_dir || !log_dir ||
-       logcat_system_lines < 0 || logcat_events_lines < 0 || logcat_main_lines < 0) return XCC_ERRNO_INVAL;
+       logcat_system_lines < 0 || logcat_events_lines < 0 || logcat_main_lines < 0 ||
+       dedup_window_sec < 0 || dump_timeout_ms < 0 || section_timeout_ms < 0) return XCC_ERRNO_INVAL;
 
     if(NULL == (c_app_id      = (*env)->GetStringUTFChars(env, app_id,      0))) goto clean;
     if(NULL == (c_app_version = (*env)->GetStringUTFChars(env, app_version, 0))) goto clean;
@@ -225,13 +237,23 @@ static jint xc_jni_init(JNIEnv *env,
                      (unsigned int)logcat_system_lines,
                      (unsigned int)logcat_events_lines,
                      (unsigned int)logcat_main_lines,
-                     (int)dump_elf_hash,
+                     (int)(dump_elf_hash ? (dump_elf_hash_fast ? XCC_UTIL_ELF_HASH_XXH64 : XCC_UTIL_ELF_HASH_MD5) : XCC_UTIL_ELF_HASH_NONE),
                      (int)dump_map,
                      (int)dump_fds,
+                     (int)meminfo_rollup,
                      (int)dump_all_threads,
                      (int)dump_all_threads_count_max,
                      c_dump_all_threads_whitelist,
-                     c_dump_all_threads_whitelist_len);
+                     c_dump_all_threads_whitelist_len,
+                     (int)dump_all_threads_workers,
+                     (int)dump_all_threads_compact,
+                     (int)dump_minidump,
+                     (unsigned int)dedup_window_sec,
+                     (int)standby_dumper,
+                     (unsigned int)dump_timeout_ms,
+                     (unsigned int)section_timeout_ms,
+                     (int)unwind_cache,
+                     (int)elf_hash_cache);
 
  clean:
     if(app_id      && c_app_id)      (*env)->ReleaseStringUTFChars(env, app_id,      c_app_id);
@@ -253,12 +275,111 @@ static jint xc_jni_init(JNIEnv *env,
     return r;
 }
 
-static void xc_jni_test(JNIEnv *env, jobject thiz, jint run_in_new_thread)
+static void xc_jni_test(JNIEnv *env,
+                        jobject thiz,
+                        jboolean run_in_new_thread,
+                        jint idle_threads,
+                        jint recursion_depth,
+                        jint maps_count,
+                        jint maps_size_kb,
+                        jobjectArray libs,
+                        jboolean in_signal_handler,
+                        jint crashing_threads)
+{
+    xc_test_params_t params;
+    char           **c_libs = NULL;
+    size_t           c_libs_len = 0;
+    size_t           len, i;
+    jstring          tmp_str;
+    const char      *tmp_c_str;
+
+    (void)thiz;
+
+    if(!env || !(*env) || idle_threads < 0 || recursion_depth < 0 || maps_count < 0 || maps_size_kb < 0 ||
+       crashing_threads < 0) return;
+
+    //libraries (copied, there may be more than the local references allowed)
+    if(libs)
+    {
+        len = (size_t)(*env)->GetArrayLength(env, libs);
+        if(len > 0 && NULL != (c_libs = calloc(len, sizeof(char *))))
+        {
+            for(i = 0; i < len; i++)
+            {
+                if(NULL == (tmp_str = (jstring)((*env)->GetObjectArrayElement(env, libs, (jsize)i)))) continue;
+                if(NULL != (tmp_c_str = (*env)->GetStringUTFChars(env, tmp_str, 0)))
+                {
+                    if(NULL != (c_libs[c_libs_len] = strdup(tmp_c_str))) c_libs_len++;
+                    (*env)->ReleaseStringUTFChars(env, tmp_str, tmp_c_str);
+                }
+                (*env)->DeleteLocalRef(env, tmp_str);
+            }
+        }
+    }
+
+    memset(&params, 0, sizeof(params));
+    params.run_in_new_thread = (int)run_in_new_thread;
+    params.idle_threads = (unsigned int)idle_threads;
+    params.recursion_depth = (unsigned int)recursion_depth;
+    params.maps_count = (unsigned int)maps_count;
+    params.maps_size = (size_t)maps_size_kb * 1024;
+    params.libs = c_libs;
+    params.libs_count = c_libs_len;
+    params.in_signal_handler = (int)in_signal_handler;
+    params.crashing_threads = (unsigned int)crashing_threads;
+    xc_test_crash(&params);
+
+    //only reached if the crash happens in a new thread
+    if(NULL != c_libs)
+    {
+        for(i = 0; i < c_libs_len; i++) free(c_libs[i]);
+        free(c_libs);
+    }
+}
+
+static jlong xc_jni_warm_up(JNIEnv *env, jobject thiz, jstring app_lib_dir, jboolean dumper, jboolean app_libs)
+{
+    const char *c_app_lib_dir;
+    char       *dumper_pathname;
+    size_t      size = 0;
+
+    (void)thiz;
+
+    if(!app_lib_dir) return 0;
+    if(NULL == (c_app_lib_dir = (*env)->GetStringUTFChars(env, app_lib_dir, 0))) return 0;
+
+    if(app_libs)
+    {
+        //all the .so files in app_lib_dir, including the dumper
+        size = xc_util_warm_up_dir(c_app_lib_dir, ".so");
+    }
+    else if(dumper)
+    {
+        if(NULL != (dumper_pathname = xc_util_strdupcat(c_app_lib_dir, "/"XCC_UTIL_XCRASH_DUMPER_FILENAME)))
+        {
+            size = xc_util_warm_up(dumper_pathname);
+            free(dumper_pathname);
+        }
+    }
+
+    (*env)->ReleaseStringUTFChars(env, app_lib_dir, c_app_lib_dir);
+    return (jlong)size;
+}
+
+static jint xc_jni_build_unwind_cache(JNIEnv *env, jobject thiz)
+{
+    (void)env;
+    (void)thiz;
+
+    return xc_core_build_unwind_cache();
+}
+
+static jint xc_jni_build_elf_hash_cache(JNIEnv *env, jobject thiz)
 {
     (void)env;
     (void)thiz;
 
-    xc_test_crash(run_in_new_thread);
+    return xc_core_build_elf_hash_cache();
 }
 
 static JNINativeMethod xc_jni_methods[] = {
@@ -277,8 +398,19 @@ static JNINativeMethod xc_jni_methods[] = {
         "Z"
         "Z"
         "Z"
+        "Z"
+        "Z"
         "I"
         "[Ljava/lang/String;"
+        "I"
+        "Z"
+        "Z"
+        "I"
+        "Z"
+        "I"
+        "I"
+        "Z"
+        "Z"
         ")"
         "I",
         (void *)xc_jni_init
@@ -286,10 +418,41 @@ static JNINativeMethod xc_jni_methods[] = {
     {
         "test",
         "("
+        "Z"
+        "I"
+        "I"
+        "I"
+        "I"
+        "[Ljava/lang/String;"
+        "Z"
         "I"
         ")"
         "V",
         (void *)xc_jni_test
+    },
+    {
+        "warmUp",
+        "("
+        "Ljava/lang/String;"
+        "Z"
+        "Z"
+        ")"
+        "J",
+        (void *)xc_jni_warm_up
+    },
+    {
+        "buildUnwindCache",
+        "("
+        ")"
+        "I",
+        (void *)xc_jni_build_unwind_cache
+    },
+    {
+        "buildElfHashCache",
+        "("
+        ")"
+        "I",
+        (void *)xc_jni_build_elf_hash_cache
     }
 };
 
@@ -42,7 +42,6 @@
 // log filename format:
 // tombstone_01234567890123456789_version__pname.native.xcrash
 #define XCD_RECORDER_LOG_PREFIX "tombstone"
-#define XCD_RECORDER_LOG_SUFFIX ".native.xcrash"
 
 struct xc_recorder
 {
@@ -77,7 +76,7 @@ int xcd_recorder_create(xc_recorder_t **self, uint64_t start_time, const char *a
         strncpy(process_name, "unknown", sizeof(process_name));
     
     //save and return current log pathname
-    snprintf(buf, sizeof(buf), "%s/"XCD_RECORDER_LOG_PREFIX"_%020"PRIu64"_%s__%s"XCD_RECORDER_LOG_SUFFIX,
+    snprintf(buf, sizeof(buf), "%s/"XCD_RECORDER_LOG_PREFIX"_%020"PRIu64"_%s__%s"XCC_UTIL_LOG_SUFFIX,
              log_dir, start_time, app_version, process_name);
     if(NULL == ((*self)->log_pathname = strdup(buf)))
     {
@@ -22,10 +22,15 @@
 // Created by caikelun on 2019-03-07.
 
 #include <unistd.h>
+#include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
+#include <signal.h>
+#include <dlfcn.h>
 #include <pthread.h>
+#include <sched.h>
 #include <sys/types.h>
+#include <sys/mman.h>
 #include <android/log.h>
 #include "xc_test.h"
 
@@ -35,6 +40,16 @@
 
 #define XC_TEST_LOG(fmt, ...) __android_log_print(ANDROID_LOG_DEBUG, "xcrash", fmt, ##__VA_ARGS__)
 
+#define XC_TEST_IDLE_THREAD_STACK_SIZE (64 * 1024)
+#define XC_TEST_THREAD_STACK_SIZE      (1024 * 1024)
+#define XC_TEST_FRAME_SIZE             256
+#define XC_TEST_SIGNAL                 SIGUSR2
+
+static xc_test_params_t xc_test_params;
+static char             xc_test_desc[512] = "\0";
+static volatile int     xc_test_running = 0;
+static volatile int     xc_test_go = 0;
+
 int xc_test_call_4(int v)
 {
     int *a = NULL;
@@ -64,13 +79,108 @@ void xc_test_call_1(void)
     r = 0;
 }
 
+int xc_test_recurse(unsigned int depth, int v)
+{
+    volatile int buf[8];
+
+    if(0 == depth)
+    {
+        xc_test_call_1();
+        return v;
+    }
+
+    buf[depth % 8] = v;
+    return xc_test_recurse(depth - 1, v + 1) + buf[depth % 8];
+}
+
+static void xc_test_signal_handler(int sig)
+{
+    (void)sig;
+
+    xc_test_recurse(xc_test_params.recursion_depth, 0);
+}
+
+static void xc_test_call_0(void)
+{
+    struct sigaction act;
+
+    if(xc_test_params.in_signal_handler)
+    {
+        //crash in the handler of another signal
+        memset(&act, 0, sizeof(act));
+        sigemptyset(&act.sa_mask);
+        act.sa_handler = xc_test_signal_handler;
+        if(0 == sigaction(XC_TEST_SIGNAL, &act, NULL))
+        {
+            raise(XC_TEST_SIGNAL);
+            return;
+        }
+        XC_TEST_LOG("xcrash test: sigaction failed, crash without the signal handler");
+    }
+
+    xc_test_recurse(xc_test_params.recursion_depth, 0);
+}
+
+static int xc_test_create_thread(void *(*fn)(void *), size_t stack_size)
+{
+    pthread_attr_t attr;
+    pthread_t      tid;
+    int            r;
+
+    pthread_attr_init(&attr);
+    pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+    pthread_attr_setstacksize(&attr, stack_size);
+    r = pthread_create(&tid, &attr, fn, NULL);
+    pthread_attr_destroy(&attr);
+    return r;
+}
+
+static size_t xc_test_get_stack_size(void)
+{
+    return XC_TEST_THREAD_STACK_SIZE + (size_t)xc_test_params.recursion_depth * XC_TEST_FRAME_SIZE;
+}
+
+static void *xc_test_idle_thread(void *arg)
+{
+    (void)arg;
+    pthread_setname_np(pthread_self(), "xcrash_test_idl");
+
+    while(xc_test_running) pause();
+    return NULL;
+}
+
+static void *xc_test_crashing_thread(void *arg)
+{
+    (void)arg;
+    pthread_setname_np(pthread_self(), "xcrash_test_crs");
+
+    //crash at the same time as the others
+    while(!xc_test_go) sched_yield();
+    xc_test_call_0();
+    return NULL;
+}
+
+static void xc_test_run(void)
+{
+    unsigned int i;
+
+    //the other crashing threads
+    for(i = 1; i < xc_test_params.crashing_threads; i++)
+        if(0 != xc_test_create_thread(xc_test_crashing_thread, xc_test_get_stack_size()))
+            XC_TEST_LOG("xcrash test: create crashing thread failed, %u created", i - 1);
+    usleep(1000 * 10);
+
+    XC_TEST_LOG("xcrash test: crash now\n%s", xc_test_desc);
+    xc_test_go = 1;
+    xc_test_call_0();
+}
+
 static void *xc_test_new_thread(void *arg)
 {
     (void)arg;
-    pthread_detach(pthread_self());
     pthread_setname_np(pthread_self(), "xcrash_test_cal");
 
-    xc_test_call_1();
+    xc_test_run();
     
     return NULL;
 }
@@ -91,17 +201,85 @@ static void *xc_test_keep_logging(void *arg)
     return NULL;
 }
 
-void xc_test_crash(int run_in_new_thread)
+static void xc_test_prepare(void)
+{
+    unsigned int i;
+    size_t       j, libs = 0;
+    void        *p;
+
+    //idle threads
+    for(i = 0; i < xc_test_params.idle_threads; i++)
+    {
+        if(0 != xc_test_create_thread(xc_test_idle_thread, XC_TEST_IDLE_THREAD_STACK_SIZE))
+        {
+            XC_TEST_LOG("xcrash test: create idle thread failed, %u created", i);
+            break;
+        }
+    }
+
+    //mapped regions, with alternate protections so that the adjacent ones are not merged
+    for(i = 0; i < xc_test_params.maps_count; i++)
+    {
+        p = mmap(NULL, xc_test_params.maps_size, (i % 2 ? PROT_NONE : PROT_READ), MAP_PRIVATE | MAP_ANONYMOUS | MAP_NORESERVE, -1, 0);
+        if(MAP_FAILED == p)
+        {
+            XC_TEST_LOG("xcrash test: mmap failed, %u mapped", i);
+            break;
+        }
+    }
+
+    //libraries
+    for(j = 0; j < xc_test_params.libs_count; j++)
+    {
+        if(NULL == dlopen(xc_test_params.libs[j], RTLD_NOW | RTLD_LOCAL))
+            XC_TEST_LOG("xcrash test: dlopen %s failed, %s", xc_test_params.libs[j], dlerror());
+        else
+            libs++;
+    }
+
+    snprintf(xc_test_desc, sizeof(xc_test_desc),
+             "run in new thread: %s\n"
+             "idle threads: %u\n"
+             "recursion depth: %u\n"
+             "mapped regions: %u x %zu KB\n"
+             "libraries: %zu\n"
+             "crash in signal handler: %s\n"
+             "crashing threads: %u\n",
+             xc_test_params.run_in_new_thread ? "yes" : "no",
+             xc_test_params.idle_threads,
+             xc_test_params.recursion_depth,
+             xc_test_params.maps_count, xc_test_params.maps_size / 1024,
+             libs,
+             xc_test_params.in_signal_handler ? "yes" : "no",
+             xc_test_params.crashing_threads);
+}
+
+void xc_test_crash(const xc_test_params_t *params)
 {
     pthread_t tid;
-    
+
+    xc_test_params = *params;
+    if(0 == xc_test_params.crashing_threads) xc_test_params.crashing_threads = 1;
+    xc_test_running = 1;
+
     pthread_create(&tid, NULL, &xc_test_keep_logging, NULL);
+
+    xc_test_prepare();
+    xc_test_params.libs = NULL; //only valid in this call
     usleep(1000 * 10);
 
-    if(run_in_new_thread)
-        pthread_create(&tid, NULL, &xc_test_new_thread, NULL);
+    if(params->run_in_new_thread)
+    {
+        if(0 != xc_test_create_thread(xc_test_new_thread, xc_test_get_stack_size()))
+            XC_TEST_LOG("xcrash test: create thread failed");
+    }
     else
-        xc_test_call_1();
+        xc_test_run();
+}
+
+const char *xc_test_get_description(void)
+{
+    return xc_test_running ? xc_test_desc : NULL;
 }
 
 #pragma clang diagnostic pop
@@ -25,13 +25,30 @@
 #define XC_TEST_H 1
 
 #include <stdint.h>
+#include <stddef.h>
 #include <sys/types.h>
 
 #ifdef __cplusplus
 extern "C" {
 #endif
 
-void xc_test_crash(int run_in_new_thread);
+typedef struct
+{
+    int           run_in_new_thread; //crash in a new native thread
+    unsigned int  idle_threads;      //idle threads started before the crash
+    unsigned int  recursion_depth;   //additional frames of the crashing thread
+    unsigned int  maps_count;        //additional mapped regions
+    size_t        maps_size;         //size of each additional mapped region
+    char *const  *libs;              //libraries dlopened before the crash
+    size_t        libs_count;
+    int           in_signal_handler; //crash in a signal handler
+    unsigned int  crashing_threads;  //threads crashing at the same time
+} xc_test_params_t;
+
+void xc_test_crash(const xc_test_params_t *params);
+
+//the description of the running test scenario, or NULL
+const char *xc_test_get_description(void);
 
 #ifdef __cplusplus
 }
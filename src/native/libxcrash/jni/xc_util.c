@@ -33,6 +33,8 @@
 #include <signal.h>
 #include <sys/types.h>
 #include <sys/stat.h>
+#include <sys/mman.h>
+#include <dirent.h>
 #include <android/log.h>
 #include <sys/system_properties.h>
 #include "xcc_errno.h"
@@ -171,3 +173,44 @@ int xc_util_mkdirs(const char *dir)
     if(0 != mkdir(buf, S_IRWXU) && EEXIST != errno) return errno;
     return 0;
 }
+
+//request the kernel to load the whole file into the page cache, return the requested size
+//(MADV_WILLNEED only starts an asynchronous readahead, it does not wait for the page-in)
+//(posix_fadvise() is not available before API level 21, so we use madvise() on a read-only mapping)
+size_t xc_util_warm_up(const char *pathname)
+{
+    int          fd;
+    struct stat  st;
+    void        *p;
+    size_t       size = 0;
+
+    if(0 > (fd = open(pathname, O_RDONLY | O_CLOEXEC))) return 0;
+    if(0 != fstat(fd, &st) || !S_ISREG(st.st_mode) || st.st_size <= 0) goto end;
+    
+    if(MAP_FAILED == (p = mmap(NULL, (size_t)st.st_size, PROT_READ, MAP_PRIVATE, fd, 0))) goto end;
+    if(0 == madvise(p, (size_t)st.st_size, MADV_WILLNEED)) size = (size_t)st.st_size;
+    munmap(p, (size_t)st.st_size);
+
+ end:
+    close(fd);
+    return size;
+}
+
+size_t xc_util_warm_up_dir(const char *dir, const char *suffix)
+{
+    DIR           *d;
+    struct dirent *ent;
+    char           pathname[PATH_MAX];
+    size_t         size = 0;
+
+    if(NULL == (d = opendir(dir))) return 0;
+    while(NULL != (ent = readdir(d)))
+    {
+        if(!xcc_util_ends_with(ent->d_name, suffix)) continue;
+        snprintf(pathname, sizeof(pathname), "%s/%s", dir, ent->d_name);
+        size += xc_util_warm_up(pathname);
+    }
+    closedir(d);
+
+    return size;
+}
@@ -62,6 +62,8 @@ typedef struct
 struct tm *xca_util_time2tm(const time_t timev, long gmtoff, struct tm *result);
 char *xc_util_strdupcat(const char *s1, const char *s2);
 int xc_util_mkdirs(const char *dir);
+size_t xc_util_warm_up(const char *pathname);
+size_t xc_util_warm_up_dir(const char *dir, const char *suffix);
 
 #ifdef __cplusplus
 }
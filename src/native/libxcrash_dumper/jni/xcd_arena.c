@@ -0,0 +1,125 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#include <stdlib.h>
+#include <string.h>
+#include <stdint.h>
+#include <sys/types.h>
+#include "xcc_errno.h"
+#include "xcd_arena.h"
+
+#define XCD_ARENA_ALIGN 16
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wpadded"
+typedef struct xcd_arena_chunk
+{
+    struct xcd_arena_chunk *next;
+    size_t                  size;
+    size_t                  used;
+    uint8_t                *data;
+} xcd_arena_chunk_t;
+
+struct xcd_arena
+{
+    xcd_arena_chunk_t *chunks;
+    size_t             chunk_size;
+};
+#pragma clang diagnostic pop
+
+static xcd_arena_chunk_t *xcd_arena_add_chunk(xcd_arena_t *self, size_t size)
+{
+    xcd_arena_chunk_t *chunk;
+    size_t             header_size = (sizeof(xcd_arena_chunk_t) + XCD_ARENA_ALIGN - 1) & ~((size_t)XCD_ARENA_ALIGN - 1);
+
+    if(NULL == (chunk = malloc(header_size + size))) return NULL;
+    chunk->size = size;
+    chunk->used = 0;
+    chunk->data = (uint8_t *)chunk + header_size;
+
+    //the new chunk is always the first one
+    chunk->next = self->chunks;
+    self->chunks = chunk;
+    return chunk;
+}
+
+int xcd_arena_create(xcd_arena_t **self, size_t chunk_size)
+{
+    if(NULL == (*self = malloc(sizeof(xcd_arena_t)))) return XCC_ERRNO_NOMEM;
+    (*self)->chunks = NULL;
+    (*self)->chunk_size = chunk_size;
+    return 0;
+}
+
+void xcd_arena_destroy(xcd_arena_t **self)
+{
+    xcd_arena_chunk_t *chunk, *chunk_next;
+
+    if(NULL == *self) return;
+
+    for(chunk = (*self)->chunks; NULL != chunk; chunk = chunk_next)
+    {
+        chunk_next = chunk->next;
+        free(chunk);
+    }
+    free(*self);
+    *self = NULL;
+}
+
+void *xcd_arena_alloc(xcd_arena_t *self, size_t size)
+{
+    xcd_arena_chunk_t *chunk = self->chunks;
+    void              *ptr;
+
+    size = (size + XCD_ARENA_ALIGN - 1) & ~((size_t)XCD_ARENA_ALIGN - 1);
+
+    if(size > self->chunk_size / 4)
+    {
+        //large block in a dedicated chunk
+        if(NULL == (chunk = xcd_arena_add_chunk(self, size))) return NULL;
+        
+        //keep allocating from the previous chunk
+        if(NULL != chunk->next)
+        {
+            self->chunks = chunk->next;
+            chunk->next = self->chunks->next;
+            self->chunks->next = chunk;
+        }
+    }
+    else if(NULL == chunk || size > chunk->size - chunk->used)
+    {
+        if(NULL == (chunk = xcd_arena_add_chunk(self, self->chunk_size))) return NULL;
+    }
+
+    ptr = chunk->data + chunk->used;
+    chunk->used += size;
+    return ptr;
+}
+
+char *xcd_arena_strndup(xcd_arena_t *self, const char *str, size_t len)
+{
+    char *s;
+
+    if(NULL == (s = xcd_arena_alloc(self, len + 1))) return NULL;
+    memcpy(s, str, len);
+    s[len] = '\0';
+    return s;
+}
@@ -0,0 +1,45 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#ifndef XCD_BENCH_H
+#define XCD_BENCH_H 1
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+//phase markers for the host benchmark (src/native/host), compiled out in the Android build
+//(each marker ends a phase: the time, peak RSS and syscalls are accounted to the phase by the harness)
+
+#define XCD_BENCH_FD_ENV "XCD_BENCH_FD"
+
+#ifdef XCD_BENCH
+void xcd_bench_phase(const char *name);
+#define XCD_BENCH_PHASE(name) xcd_bench_phase(name)
+#else
+#define XCD_BENCH_PHASE(name) do{}while(0)
+#endif
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
@@ -0,0 +1,352 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#include <inttypes.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <errno.h>
+#include <dirent.h>
+#include <sys/types.h>
+#include <sys/stat.h>
+#include <sys/mman.h>
+#include "xcc_errno.h"
+#include "xcc_util.h"
+#include "xcd_cache.h"
+#include "xcd_elf.h"
+#include "xcd_memory.h"
+#include "xcd_log.h"
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wgnu-statement-expression"
+
+//
+// The unwind cache file is built by the dumper in the background (xcd_cache_build),
+// and mapped by the dumper when crashed (xcd_cache_attach). One file for each ELF,
+// named by the build-id. All the fields are in the native byte order and word size.
+//
+// +---------+---------+-----------+------------+-------------------------------+-------------+
+// | magic   | version | word_size | tables_num | tables[XCD_CACHE_TABLE_NUM]   | tables data |
+// | 4 bytes | 4 bytes | 4 bytes   | 4 bytes    | 24 bytes * XCD_CACHE_TABLE_NUM | ...         |
+// +---------+---------+-----------+------------+-------------------------------+-------------+
+//
+#define XCD_CACHE_MAGIC        0x43555358 //"XCUC"
+#define XCD_CACHE_VERSION      2
+#define XCD_CACHE_SUFFIX       ".unwind"
+#define XCD_CACHE_BUILD_ID_MAX 64
+#define XCD_CACHE_ALIGN        8
+
+typedef struct
+{
+    uint64_t offset;
+    uint64_t cnt;
+    uint64_t entry_size;
+} xcd_cache_table_header_t;
+
+typedef struct
+{
+    uint32_t                 magic;
+    uint32_t                 version;
+    uint32_t                 word_size;
+    uint32_t                 tables_num;
+    xcd_cache_table_header_t tables[XCD_CACHE_TABLE_NUM];
+} xcd_cache_header_t;
+
+static char *xcd_cache_dir = NULL;
+
+static int xcd_cache_get_filename(xcd_elf_t *elf, char *buf, size_t len)
+{
+    uint8_t build_id[XCD_CACHE_BUILD_ID_MAX];
+    size_t  build_id_len = 0;
+    size_t  i;
+    int     r;
+
+    if(0 != (r = xcd_elf_get_build_id(elf, build_id, sizeof(build_id), &build_id_len))) return r;
+    if(0 == build_id_len) return XCC_ERRNO_MISSING;
+    if(len < build_id_len * 2 + sizeof(XCD_CACHE_SUFFIX)) return XCC_ERRNO_NOSPACE;
+
+    for(i = 0; i < build_id_len; i++)
+        snprintf(buf + i * 2, 3, "%02"PRIx8, build_id[i]);
+    strncpy(buf + build_id_len * 2, XCD_CACHE_SUFFIX, sizeof(XCD_CACHE_SUFFIX));
+    return 0;
+}
+
+//////////////////////////////////////////////////////////////////////
+// build (in the background, after xCrash inited)
+
+static int xcd_cache_save(const char *pathname, xcd_cache_table_t *tables)
+{
+    xcd_cache_header_t header;
+    char               tmp_pathname[1024];
+    uint8_t            padding[XCD_CACHE_ALIGN];
+    uint64_t           offset = sizeof(xcd_cache_header_t);
+    size_t             size, padding_len;
+    size_t             i;
+    int                fd = -1;
+    int                r = 0;
+
+    //header
+    memset(&header, 0, sizeof(header));
+    header.magic = XCD_CACHE_MAGIC;
+    header.version = XCD_CACHE_VERSION;
+    header.word_size = (uint32_t)sizeof(uintptr_t);
+    header.tables_num = XCD_CACHE_TABLE_NUM;
+    for(i = 0; i < XCD_CACHE_TABLE_NUM; i++)
+    {
+        if(NULL == tables[i].data || 0 == tables[i].cnt) continue;
+        header.tables[i].offset = offset;
+        header.tables[i].cnt = tables[i].cnt;
+        header.tables[i].entry_size = tables[i].entry_size;
+        size = tables[i].cnt * tables[i].entry_size;
+        offset += (size + XCD_CACHE_ALIGN - 1) & ~((uint64_t)XCD_CACHE_ALIGN - 1);
+    }
+
+    //write to a temp file, then rename it, the dumper will never see a partial file
+    snprintf(tmp_pathname, sizeof(tmp_pathname), "%s.%d.tmp", pathname, getpid());
+    if(0 > (fd = XCC_UTIL_TEMP_FAILURE_RETRY(open(tmp_pathname, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0600)))) return XCC_ERRNO_SYS;
+    if(0 != (r = xcc_util_write(fd, (const char *)&header, sizeof(header)))) goto end;
+    memset(padding, 0, sizeof(padding));
+    for(i = 0; i < XCD_CACHE_TABLE_NUM; i++)
+    {
+        if(0 == header.tables[i].cnt) continue;
+        size = tables[i].cnt * tables[i].entry_size;
+        if(0 != (r = xcc_util_write(fd, (const char *)tables[i].data, size))) goto end;
+        if(0 != (padding_len = (XCD_CACHE_ALIGN - size % XCD_CACHE_ALIGN) % XCD_CACHE_ALIGN))
+            if(0 != (r = xcc_util_write(fd, (const char *)padding, padding_len))) goto end;
+    }
+    if(0 != fsync(fd))
+    {
+        r = XCC_ERRNO_SYS;
+        goto end;
+    }
+    close(fd);
+    fd = -1;
+    if(0 != rename(tmp_pathname, pathname)) r = XCC_ERRNO_SYS;
+
+ end:
+    if(fd >= 0) close(fd);
+    if(0 != r) unlink(tmp_pathname);
+    return r;
+}
+
+static int xcd_cache_build_file(const char *cache_dir, const char *lib_pathname, char *filename, size_t filename_len)
+{
+    xcd_cache_table_t  tables[XCD_CACHE_TABLE_NUM];
+    xcd_memory_t      *memory = NULL;
+    xcd_elf_t         *elf = NULL;
+    char               pathname[1024];
+    struct stat        st;
+    void              *buf = MAP_FAILED;
+    size_t             buf_len = 0;
+    int                fd = -1;
+    int                r;
+
+    //map the whole ELF file
+    if(0 > (fd = XCC_UTIL_TEMP_FAILURE_RETRY(open(lib_pathname, O_RDONLY | O_CLOEXEC)))) return XCC_ERRNO_SYS;
+    if(0 != fstat(fd, &st) || !S_ISREG(st.st_mode) || st.st_size <= 0)
+    {
+        r = XCC_ERRNO_INVAL;
+        goto end;
+    }
+    buf_len = (size_t)st.st_size;
+    if(MAP_FAILED == (buf = mmap(NULL, buf_len, PROT_READ, MAP_PRIVATE, fd, 0)))
+    {
+        r = XCC_ERRNO_SYS;
+        goto end;
+    }
+
+    //the memory and ELF objects are never destroyed, the builder is a short-lived process
+    if(0 != (r = xcd_memory_create_from_buf(&memory, (uint8_t *)buf, buf_len))) goto end;
+    if(!xcd_elf_is_valid(memory))
+    {
+        r = XCC_ERRNO_FORMAT;
+        goto end;
+    }
+    if(0 != (r = xcd_elf_create(&elf, getpid(), memory))) goto end;
+
+    //skip the ELF which has been cached
+    if(0 != (r = xcd_cache_get_filename(elf, filename, filename_len))) goto end;
+    snprintf(pathname, sizeof(pathname), "%s/%s", cache_dir, filename);
+    if(0 == access(pathname, F_OK)) goto end;
+
+    //build and save the tables
+    if(0 != (r = xcd_elf_get_cache_tables(elf, tables))) goto end;
+    r = xcd_cache_save(pathname, tables);
+
+ end:
+    if(MAP_FAILED != buf) munmap(buf, buf_len);
+    if(fd >= 0) close(fd);
+    return r;
+}
+
+static int xcd_cache_is_kept(const char *name, char **kept, size_t kept_cnt)
+{
+    size_t i;
+
+    for(i = 0; i < kept_cnt; i++)
+        if(0 == strcmp(name, kept[i])) return 1;
+    return 0;
+}
+
+int xcd_cache_build(const char *cache_dir, const char *lib_dir)
+{
+    DIR           *dir;
+    struct dirent *ent;
+    char           lib_pathname[1024];
+    char           filename[XCD_CACHE_BUILD_ID_MAX * 2 + sizeof(XCD_CACHE_SUFFIX)];
+    char         **kept = NULL, **tmp;
+    size_t         kept_cnt = 0, kept_cap = 0;
+    size_t         i;
+    int            r = 0;
+
+    if(0 != mkdir(cache_dir, 0700) && EEXIST != errno) return XCC_ERRNO_SYS;
+
+    //build the cache file for each .so file in the APP's lib dir
+    if(NULL == (dir = opendir(lib_dir))) return XCC_ERRNO_SYS;
+    while(NULL != (ent = readdir(dir)))
+    {
+        if(!xcc_util_ends_with(ent->d_name, ".so")) continue;
+        snprintf(lib_pathname, sizeof(lib_pathname), "%s/%s", lib_dir, ent->d_name);
+        if(0 != xcd_cache_build_file(cache_dir, lib_pathname, filename, sizeof(filename))) continue;
+
+        if(kept_cnt == kept_cap)
+        {
+            kept_cap = (0 == kept_cap ? 16 : kept_cap * 2);
+            if(NULL == (tmp = realloc(kept, sizeof(char *) * kept_cap)))
+            {
+                r = XCC_ERRNO_NOMEM;
+                goto end;
+            }
+            kept = tmp;
+        }
+        if(NULL == (kept[kept_cnt] = strdup(filename)))
+        {
+            r = XCC_ERRNO_NOMEM;
+            goto end;
+        }
+        kept_cnt++;
+    }
+    closedir(dir);
+
+    //remove the cache files of the old versions of the libs
+    if(NULL == (dir = opendir(cache_dir))) goto end;
+    while(NULL != (ent = readdir(dir)))
+    {
+        if('.' == ent->d_name[0]) continue;
+        if(xcd_cache_is_kept(ent->d_name, kept, kept_cnt)) continue;
+        snprintf(lib_pathname, sizeof(lib_pathname), "%s/%s", cache_dir, ent->d_name);
+        unlink(lib_pathname);
+    }
+
+ end:
+    if(NULL != dir) closedir(dir);
+    if(NULL != kept)
+    {
+        for(i = 0; i < kept_cnt; i++) free(kept[i]);
+        free(kept);
+    }
+    return r;
+}
+
+//////////////////////////////////////////////////////////////////////
+// attach (in the dumper, when crashed)
+
+void xcd_cache_init(const char *log_pathname)
+{
+    char        path[512];
+    const char *p;
+
+    //the cache dir is in the log dir
+    if(NULL == (p = strrchr(log_pathname, '/'))) return;
+    snprintf(path, sizeof(path), "%.*s/%s", (int)(p - log_pathname), log_pathname, XCC_UTIL_UNWIND_CACHE_DIRNAME);
+    if(0 != access(path, F_OK)) return;
+
+    xcd_cache_dir = strdup(path);
+}
+
+void xcd_cache_attach(void *elf_obj)
+{
+    xcd_elf_t          *elf = (xcd_elf_t *)elf_obj;
+    xcd_cache_table_t   tables[XCD_CACHE_TABLE_NUM];
+    xcd_cache_header_t *header;
+    char                filename[XCD_CACHE_BUILD_ID_MAX * 2 + sizeof(XCD_CACHE_SUFFIX)];
+    char                pathname[1024];
+    struct stat         st;
+    void               *buf;
+    size_t              buf_len;
+    uint64_t            size;
+    size_t              i;
+    int                 fd;
+
+    if(NULL == xcd_cache_dir) return;
+
+    //open the cache file named by the build-id
+    if(0 != xcd_cache_get_filename(elf, filename, sizeof(filename))) return;
+    snprintf(pathname, sizeof(pathname), "%s/%s", xcd_cache_dir, filename);
+    if(0 > (fd = XCC_UTIL_TEMP_FAILURE_RETRY(open(pathname, O_RDONLY | O_CLOEXEC)))) return;
+    if(0 != fstat(fd, &st) || st.st_size < (off_t)sizeof(xcd_cache_header_t))
+    {
+        close(fd);
+        return;
+    }
+
+    //the mapping is kept until the dumper exits
+    buf_len = (size_t)st.st_size;
+    buf = mmap(NULL, buf_len, PROT_READ, MAP_PRIVATE, fd, 0);
+    close(fd);
+    if(MAP_FAILED == buf) return;
+
+    //check header
+    header = (xcd_cache_header_t *)buf;
+    if(XCD_CACHE_MAGIC != header->magic || XCD_CACHE_VERSION != header->version ||
+       sizeof(uintptr_t) != header->word_size || XCD_CACHE_TABLE_NUM != header->tables_num) goto err;
+
+    //check and attach the tables
+    for(i = 0; i < XCD_CACHE_TABLE_NUM; i++)
+    {
+        tables[i].data = NULL;
+        tables[i].cnt = 0;
+        tables[i].entry_size = 0;
+        if(0 == header->tables[i].cnt) continue;
+
+        if(0 == header->tables[i].entry_size || 0 != header->tables[i].offset % XCD_CACHE_ALIGN) goto err;
+        if(header->tables[i].cnt > (uint64_t)buf_len / header->tables[i].entry_size) goto err;
+        size = header->tables[i].cnt * header->tables[i].entry_size;
+        if(header->tables[i].offset > (uint64_t)buf_len || size > (uint64_t)buf_len - header->tables[i].offset) goto err;
+
+        tables[i].data = (uint8_t *)buf + (size_t)header->tables[i].offset;
+        tables[i].cnt = (size_t)header->tables[i].cnt;
+        tables[i].entry_size = (size_t)header->tables[i].entry_size;
+    }
+    xcd_elf_set_cache_tables(elf, tables);
+
+#if XCD_CACHE_DEBUG
+    XCD_LOG_DEBUG("CACHE: attached %s", pathname);
+#endif
+    return;
+
+ err:
+    munmap(buf, buf_len);
+}
+
+#pragma clang diagnostic pop
@@ -0,0 +1,54 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#ifndef XCD_CACHE_H
+#define XCD_CACHE_H 1
+
+#include <stdint.h>
+#include <sys/types.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+//tables saved in the unwind cache file
+#define XCD_CACHE_TABLE_FUNCS       0
+#define XCD_CACHE_TABLE_EH_FRAME    1
+#define XCD_CACHE_TABLE_DEBUG_FRAME 2
+#define XCD_CACHE_TABLE_NUM         3
+
+typedef struct
+{
+    void   *data;
+    size_t  cnt;
+    size_t  entry_size;
+} xcd_cache_table_t;
+
+int xcd_cache_build(const char *cache_dir, const char *lib_dir);
+
+void xcd_cache_init(const char *log_pathname);
+void xcd_cache_attach(void *elf_obj);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
@@ -0,0 +1,334 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/types.h>
+#include "xcc_errno.h"
+#include "xcc_b64.h"
+#include "xcc_util.h"
+#include "xcd_compact.h"
+#include "xcd_util.h"
+
+#define XCD_COMPACT_B64_LINE_LEN 76
+#define XCD_COMPACT_B64_IN_LEN   (XCD_COMPACT_B64_LINE_LEN / 4 * 3 * 64) //encoded 64 lines at once
+#define XCD_COMPACT_STRS_CAP_MIN 1024
+#define XCD_COMPACT_RECORD_MAX   512
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wpadded"
+typedef struct
+{
+    uint64_t  hash;
+    char     *str;
+    uint64_t  id;
+} xcd_compact_str_t;
+
+struct xcd_compact
+{
+    int                log_fd;
+    uint8_t            b64_in[XCD_COMPACT_B64_IN_LEN];
+    size_t             b64_in_len;
+    xcd_compact_str_t *strs;
+    size_t             strs_cap;
+    size_t             strs_cnt;
+};
+#pragma clang diagnostic pop
+
+static int xcd_compact_b64_flush(xcd_compact_t *self)
+{
+    char   *out;
+    size_t  out_len, i, n;
+    int     r = 0;
+
+    if(0 == self->b64_in_len) return 0;
+
+    if(NULL == (out = xcc_b64_encode(self->b64_in, self->b64_in_len, &out_len))) return XCC_ERRNO_NOMEM;
+    self->b64_in_len = 0;
+    
+    for(i = 0; i < out_len; i += n)
+    {
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wgnu-statement-expression"
+        n = XCC_UTIL_MIN(out_len - i, (size_t)XCD_COMPACT_B64_LINE_LEN);
+#pragma clang diagnostic pop
+        if(0 != (r = xcc_util_write(self->log_fd, out + i, n))) break;
+        if(0 != (r = xcc_util_write_str(self->log_fd, "\n"))) break;
+    }
+    free(out);
+    return r;
+}
+
+static int xcd_compact_out(xcd_compact_t *self, const void *buf, size_t len)
+{
+    const uint8_t *p = (const uint8_t *)buf;
+    size_t         n;
+    int            r;
+
+    while(len > 0)
+    {
+        n = XCD_COMPACT_B64_IN_LEN - self->b64_in_len;
+        if(n > len) n = len;
+        memcpy(self->b64_in + self->b64_in_len, p, n);
+        self->b64_in_len += n;
+        p += n;
+        len -= n;
+
+        if(XCD_COMPACT_B64_IN_LEN == self->b64_in_len)
+            if(0 != (r = xcd_compact_b64_flush(self))) return r;
+    }
+    return 0;
+}
+
+static size_t xcd_compact_put_varint(uint8_t *buf, uint64_t v)
+{
+    size_t n = 0;
+
+    while(v >= 0x80)
+    {
+        buf[n++] = (uint8_t)(v | 0x80);
+        v >>= 7;
+    }
+    buf[n++] = (uint8_t)v;
+    return n;
+}
+
+static int xcd_compact_out_record(xcd_compact_t *self, uint8_t type, const void *payload, size_t len)
+{
+    uint8_t head[11];
+    size_t  n;
+    int     r;
+
+    head[0] = type;
+    n = 1 + xcd_compact_put_varint(head + 1, len);
+    if(0 != (r = xcd_compact_out(self, head, n))) return r;
+    return xcd_compact_out(self, payload, len);
+}
+
+static int xcd_compact_strs_grow(xcd_compact_t *self)
+{
+    xcd_compact_str_t *strs;
+    size_t             cap = (0 == self->strs_cap ? XCD_COMPACT_STRS_CAP_MIN : self->strs_cap * 2);
+    size_t             i, j;
+
+    if(NULL == (strs = calloc(cap, sizeof(xcd_compact_str_t)))) return XCC_ERRNO_NOMEM;
+    for(i = 0; i < self->strs_cap; i++)
+    {
+        if(NULL == self->strs[i].str) continue;
+        for(j = (size_t)self->strs[i].hash & (cap - 1); NULL != strs[j].str; j = (j + 1) & (cap - 1));
+        strs[j] = self->strs[i];
+    }
+    free(self->strs);
+    self->strs = strs;
+    self->strs_cap = cap;
+    return 0;
+}
+
+//each string is written only once, the records refer to it by ID
+static int xcd_compact_get_str_id(xcd_compact_t *self, const char *str, uint64_t *id)
+{
+    uint8_t  buf[24];
+    size_t   len, n, i;
+    uint64_t hash;
+    int      r;
+
+    *id = 0;
+    if(NULL == str) return 0;
+
+    len = strlen(str);
+    hash = xcd_util_hash(XCD_UTIL_HASH_INIT, str, len);
+    if(self->strs_cnt * 2 >= self->strs_cap)
+        if(0 != (r = xcd_compact_strs_grow(self))) return r;
+
+    for(i = (size_t)hash & (self->strs_cap - 1); NULL != self->strs[i].str; i = (i + 1) & (self->strs_cap - 1))
+    {
+        if(self->strs[i].hash == hash && 0 == strcmp(self->strs[i].str, str))
+        {
+            *id = self->strs[i].id;
+            return 0;
+        }
+    }
+
+    if(NULL == (self->strs[i].str = strdup(str))) return XCC_ERRNO_NOMEM;
+    self->strs[i].hash = hash;
+    self->strs[i].id = ++(self->strs_cnt);
+    *id = self->strs[i].id;
+
+    //STR record: id, bytes
+    n = xcd_compact_put_varint(buf, *id);
+    buf[n] = XCD_COMPACT_T_STR;
+    i = n + 1 + xcd_compact_put_varint(buf + n + 1, n + len);
+    if(0 != (r = xcd_compact_out(self, buf + n, i - n))) return r;
+    if(0 != (r = xcd_compact_out(self, buf, n))) return r;
+    return xcd_compact_out(self, str, len);
+}
+
+static void xcd_compact_free(xcd_compact_t **self)
+{
+    size_t i;
+
+    for(i = 0; i < (*self)->strs_cap; i++)
+        if(NULL != (*self)->strs[i].str) free((*self)->strs[i].str);
+    free((*self)->strs);
+    free(*self);
+    *self = NULL;
+}
+
+//nothing is written to the log file if failed, so the caller can fall back to the formatted text
+int xcd_compact_create(xcd_compact_t **self, int log_fd)
+{
+    uint8_t           buf[XCD_COMPACT_RECORD_MAX];
+    size_t            n = 0;
+    xcd_regs_label_t *labels;
+    size_t            labels_count;
+    size_t           *rows;
+    size_t            rows_count;
+    size_t            i, j, k = 0, len;
+    int               r;
+
+    if(NULL == (*self = calloc(1, sizeof(xcd_compact_t)))) return XCC_ERRNO_NOMEM;
+    (*self)->log_fd = log_fd;
+
+    //HEADER record (buffered, it is written after the title)
+    xcd_regs_get_labels(&labels, &labels_count);
+    xcd_regs_get_record_rows(&rows, &rows_count);
+    n += xcd_compact_put_varint(buf + n, XCD_COMPACT_VERSION);
+    n += xcd_compact_put_varint(buf + n, sizeof(uintptr_t));
+    for(i = 0; i < rows_count; i++)
+    {
+        for(j = 0; j < rows[i] && k < labels_count; j++, k++)
+        {
+            len = strlen(labels[k].name);
+            if(n + len + 1 > sizeof(buf))
+            {
+                xcd_compact_free(self);
+                return XCC_ERRNO_NOSPACE;
+            }
+            memcpy(buf + n, labels[k].name, len);
+            n += len;
+            buf[n++] = (uint8_t)(j + 1 < rows[i] ? ' ' : '\n');
+        }
+    }
+    if(0 != (r = xcd_compact_out_record(*self, XCD_COMPACT_T_HEADER, buf, n))) goto err;
+
+    if(0 != (r = xcc_util_write_str(log_fd, XCD_COMPACT_TITLE))) goto err;
+    return 0;
+
+ err:
+    xcd_compact_free(self);
+    return r;
+}
+
+int xcd_compact_destroy(xcd_compact_t **self)
+{
+    int r;
+
+    if(NULL == self || NULL == *self) return 0;
+
+    r = xcd_compact_b64_flush(*self);
+    if(0 == r) r = xcc_util_write_str((*self)->log_fd, "\n");
+
+    xcd_compact_free(self);
+    return r;
+}
+
+int xcd_compact_write_text(xcd_compact_t *self, const char *text)
+{
+    return xcd_compact_out_record(self, XCD_COMPACT_T_TEXT, text, strlen(text));
+}
+
+int xcd_compact_write_thread(xcd_compact_t *self, pid_t pid, pid_t tid, const char *tname, const char *pname)
+{
+    uint8_t  buf[40];
+    size_t   n = 0;
+    uint64_t tname_id, pname_id;
+    int      r;
+
+    if(0 != (r = xcd_compact_get_str_id(self, tname, &tname_id))) return r;
+    if(0 != (r = xcd_compact_get_str_id(self, pname, &pname_id))) return r;
+
+    n += xcd_compact_put_varint(buf + n, (uint64_t)pid);
+    n += xcd_compact_put_varint(buf + n, (uint64_t)tid);
+    n += xcd_compact_put_varint(buf + n, tname_id);
+    n += xcd_compact_put_varint(buf + n, pname_id);
+    return xcd_compact_out_record(self, XCD_COMPACT_T_THREAD, buf, n);
+}
+
+int xcd_compact_write_regs(xcd_compact_t *self, xcd_regs_t *regs)
+{
+    uint8_t           buf[XCD_COMPACT_RECORD_MAX];
+    size_t            n = 0;
+    xcd_regs_label_t *labels;
+    size_t            labels_count;
+    size_t            i;
+
+    xcd_regs_get_labels(&labels, &labels_count);
+    for(i = 0; i < labels_count; i++)
+        n += xcd_compact_put_varint(buf + n, regs->r[labels[i].idx]);
+    return xcd_compact_out_record(self, XCD_COMPACT_T_REGS, buf, n);
+}
+
+int xcd_compact_write_mark(xcd_compact_t *self, uint8_t type)
+{
+    return xcd_compact_out_record(self, type, NULL, 0);
+}
+
+int xcd_compact_write_frame(xcd_compact_t *self, size_t num, uintptr_t rel_pc, const char *name,
+                            uintptr_t elf_start_offset, const char *func_name, size_t func_offset)
+{
+    uint8_t  buf[60];
+    size_t   n = 0;
+    uint64_t name_id, func_name_id;
+    int      r;
+
+    if(0 != (r = xcd_compact_get_str_id(self, name, &name_id))) return r;
+    if(0 != (r = xcd_compact_get_str_id(self, func_name, &func_name_id))) return r;
+
+    n += xcd_compact_put_varint(buf + n, num);
+    n += xcd_compact_put_varint(buf + n, rel_pc);
+    n += xcd_compact_put_varint(buf + n, name_id);
+    n += xcd_compact_put_varint(buf + n, elf_start_offset);
+    n += xcd_compact_put_varint(buf + n, func_name_id);
+    n += xcd_compact_put_varint(buf + n, func_offset);
+    return xcd_compact_out_record(self, XCD_COMPACT_T_FRAME, buf, n);
+}
+
+int xcd_compact_write_stack_word(xcd_compact_t *self, int label, uintptr_t addr, uintptr_t data,
+                                 const char *name, const char *func_name, size_t func_offset)
+{
+    uint8_t  buf[60];
+    size_t   n = 0;
+    uint64_t name_id, func_name_id;
+    int      r;
+
+    if(0 != (r = xcd_compact_get_str_id(self, name, &name_id))) return r;
+    if(0 != (r = xcd_compact_get_str_id(self, func_name, &func_name_id))) return r;
+
+    n += xcd_compact_put_varint(buf + n, (uint64_t)(label < 0 ? 0 : label + 1));
+    n += xcd_compact_put_varint(buf + n, addr);
+    n += xcd_compact_put_varint(buf + n, data);
+    n += xcd_compact_put_varint(buf + n, name_id);
+    n += xcd_compact_put_varint(buf + n, func_name_id);
+    n += xcd_compact_put_varint(buf + n, func_offset);
+    return xcd_compact_out_record(self, XCD_COMPACT_T_STACK_WORD, buf, n);
+}
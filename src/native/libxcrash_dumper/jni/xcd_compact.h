@@ -0,0 +1,72 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#ifndef XCD_COMPACT_H
+#define XCD_COMPACT_H 1
+
+#include <stdint.h>
+#include <sys/types.h>
+#include "xcd_regs.h"
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+//The compact format of the "other threads" section.
+//
+//The section is written as a title line, followed by base64 lines of a record stream, and an empty line.
+//Each record is: type (1 byte), payload length (varint), payload. Integers in payloads are unsigned LEB128
+//varints, strings in payloads are string IDs (varint, 0 means none) defined by a previous STR record.
+//Unknown record types should be skipped by the decoder. (TombstoneParser renders the classic text from it)
+#define XCD_COMPACT_TITLE          "compact other threads:\n"
+#define XCD_COMPACT_VERSION        1
+
+#define XCD_COMPACT_T_HEADER       1 //version, pointer size, registers names (rows split by '\n', names split by ' ')
+#define XCD_COMPACT_T_STR          2 //id, bytes
+#define XCD_COMPACT_T_TEXT         3 //bytes (written verbatim)
+#define XCD_COMPACT_T_THREAD       4 //pid, tid, tname, pname
+#define XCD_COMPACT_T_REGS         5 //values (in the order of the registers names)
+#define XCD_COMPACT_T_BACKTRACE    6 //(begin of backtrace)
+#define XCD_COMPACT_T_FRAME        7 //num, rel_pc, name, elf_start_offset, func_name, func_offset
+#define XCD_COMPACT_T_STACK        8 //(begin of stack)
+#define XCD_COMPACT_T_STACK_WORD   9 //label + 1 (0 means none), addr, data, name, func_name, func_offset
+#define XCD_COMPACT_T_STACK_GAP    10
+#define XCD_COMPACT_T_SECTION_END  11 //(end of backtrace or stack)
+
+typedef struct xcd_compact xcd_compact_t;
+
+int xcd_compact_create(xcd_compact_t **self, int log_fd);
+int xcd_compact_destroy(xcd_compact_t **self);
+
+int xcd_compact_write_text(xcd_compact_t *self, const char *text);
+int xcd_compact_write_thread(xcd_compact_t *self, pid_t pid, pid_t tid, const char *tname, const char *pname);
+int xcd_compact_write_regs(xcd_compact_t *self, xcd_regs_t *regs);
+int xcd_compact_write_mark(xcd_compact_t *self, uint8_t type);
+int xcd_compact_write_frame(xcd_compact_t *self, size_t num, uintptr_t rel_pc, const char *name,
+                            uintptr_t elf_start_offset, const char *func_name, size_t func_offset);
+int xcd_compact_write_stack_word(xcd_compact_t *self, int label, uintptr_t addr, uintptr_t data,
+                                 const char *name, const char *func_name, size_t func_offset);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
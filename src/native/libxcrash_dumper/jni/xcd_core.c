@@ -49,10 +49,19 @@
 #include "xcd_process.h"
 #include "xcd_sys.h"
 #include "xcd_util.h"
+#include "xcd_dedup.h"
+#include "xcd_cache.h"
+#include "xcd_elf_hash.h"
+#include "xcd_meminfo.h"
+#include "xcd_minidump.h"
+#include "xcd_bench.h"
 
 #pragma clang diagnostic push
 #pragma clang diagnostic ignored "-Wgnu-statement-expression"
 
+#define XCD_CORE_WRITE_BUF_SIZE       (128 * 1024)
+#define XCD_CORE_UNWIND_CACHE_TIMEOUT 120
+
 static int                    xcd_core_handled      = 0;
 static int                    xcd_core_log_fd       = -1;
 static xcc_util_build_prop_t  xcd_core_build_prop;
@@ -62,6 +71,10 @@ static char                  *xcd_core_log_pathname = NULL;
 static char                  *xcd_core_app_id       = NULL;
 static char                  *xcd_core_app_version  = NULL;
 static char                  *xcd_core_dump_all_threads_whitelist = NULL;
+static uint64_t               xcd_core_signature    = 0;
+static unsigned int           xcd_core_dup_count    = 1;
+static uint64_t               xcd_core_suspend_us   = 0;
+static char                   xcd_core_write_buf[XCD_CORE_WRITE_BUF_SIZE];
 
 static int xcd_core_read_stdin(const char *what, void *buf, size_t len)
 {
@@ -127,8 +140,13 @@ static int xcd_core_read_args()
                         "dump_elf_hash=%d, "
                         "dump_map=%d, "
                         "dump_fds=%d, "
+                        "meminfo_rollup=%d, "
                         "dump_all_threads=%d, "
                         "dump_all_threads_count_max=%d, "
+                        "dump_all_threads_workers=%d, "
+                        "dump_all_threads_compact=%d, "
+                        "dump_minidump=%d, "
+                        "dedup_window_sec=%u, "
                         "log_pathname_len=%zu, "
                         "app_id_len=%zu, "
                         "app_version_len=%zu, "
@@ -147,8 +165,13 @@ static int xcd_core_read_args()
                         xcd_core_spot.dump_elf_hash,
                         xcd_core_spot.dump_map,
                         xcd_core_spot.dump_fds,
+                        xcd_core_spot.meminfo_rollup,
                         xcd_core_spot.dump_all_threads,
                         xcd_core_spot.dump_all_threads_count_max,
+                        xcd_core_spot.dump_all_threads_workers,
+                        xcd_core_spot.dump_all_threads_compact,
+                        xcd_core_spot.dump_minidump,
+                        xcd_core_spot.dedup_window_sec,
                         xcd_core_spot.log_pathname_len,
                         xcd_core_spot.app_id_len,
                         xcd_core_spot.app_version_len,
@@ -163,6 +186,48 @@ static int xcd_core_read_args()
     return 0;
 }
 
+static void xcd_core_check_duplicate()
+{
+    xcd_core_signature = xcd_process_get_signature(xcd_core_proc);
+
+    if(0 != xcd_dedup_check(xcd_core_log_pathname, xcd_core_spot.dedup_window_sec,
+                            xcd_core_signature, xcd_core_spot.crash_time, &xcd_core_dup_count))
+    {
+        xcd_core_dup_count = 1;
+        return;
+    }
+    if(xcd_core_dup_count < 2) return;
+
+    //the first tombstone has been fully dumped, only record a reduced one for the duplicates
+    xcd_core_spot.logcat_system_lines = 0;
+    xcd_core_spot.logcat_events_lines = 0;
+    xcd_core_spot.logcat_main_lines = 0;
+    xcd_core_spot.dump_elf_hash = 0;
+    xcd_core_spot.dump_map = 0;
+    xcd_core_spot.dump_fds = 0;
+    xcd_core_spot.dump_all_threads = 0;
+    xcd_core_spot.dump_minidump = 0;
+}
+
+static void xcd_core_record_minidump(void)
+{
+    char   pathname[1024];
+    size_t len = strlen(xcd_core_log_pathname);
+    int    r;
+
+    //next to the tombstone: tombstone_xxx.native.xcrash -> tombstone_xxx.native.dmp
+    if(xcc_util_ends_with(xcd_core_log_pathname, XCC_UTIL_LOG_SUFFIX)) len -= strlen(XCC_UTIL_LOG_SUFFIX);
+    snprintf(pathname, sizeof(pathname), "%.*s%s", (int)len, xcd_core_log_pathname, XCD_MINIDUMP_SUFFIX);
+
+    if(0 != (r = xcd_process_record_minidump(xcd_core_proc, pathname)))
+        XCD_LOG_ERROR("CORE: record minidump failed, errno=%d", r);
+}
+
+static void xcd_core_flush(void)
+{
+    xcc_util_write_flush();
+}
+
 static void xcd_core_signal_handler(int sig, siginfo_t *si, void *uc)
 {
     char buf[2048] = "\0";
@@ -176,6 +241,9 @@ static void xcd_core_signal_handler(int sig, siginfo_t *si, void *uc)
     //restore the signal handler
     if(0 != xcc_signal_unregister()) goto end;
 
+    //flush the buffered output, and write the following info directly
+    xcc_util_write_set_buffer(-1, NULL, 0);
+
     if(xcd_core_log_fd >= 0)
     {
         //dump signal, code, backtrace
@@ -201,37 +269,71 @@ static void xcd_core_signal_handler(int sig, siginfo_t *si, void *uc)
 
 int main(int argc, char** argv)
 {
-    (void)argc;
-    (void)argv;
+    //build the unwind cache for the APP's libs, started in the background after xCrash inited
+    //(the process inherits the low priority of the starting thread)
+    if(4 == argc && 0 == strcmp(argv[1], XCC_UTIL_UNWIND_CACHE_ARG))
+    {
+        alarm(XCD_CORE_UNWIND_CACHE_TIMEOUT);
+        exit(0 == xcd_cache_build(argv[2], argv[3]) ? 0 : 1);
+    }
+
+    //build the ELF hash cache for the APP's libs, the same as above
+    if(5 == argc && 0 == strcmp(argv[1], XCC_UTIL_ELF_HASH_CACHE_ARG))
+    {
+        int mode = XCC_UTIL_ELF_HASH_NONE;
+        alarm(XCD_CORE_UNWIND_CACHE_TIMEOUT);
+        if(0 != xcc_util_atoi(argv[4], &mode)) exit(1);
+        exit(0 == xcd_elf_hash_cache_build(argv[2], argv[3], mode) ? 0 : 1);
+    }
     
-    //don't leave a zombie process
-    alarm(30);
+    //load build property
+    xcc_util_load_build_prop(&xcd_core_build_prop);
 
     //read args from stdin
+    //(a standby dumper is blocked here until a crash occurred, or the APP exited normally)
     if(0 != xcd_core_read_args()) exit(1);
+    XCD_BENCH_PHASE("read_args");
 
-    //load build property
-    xcc_util_load_build_prop(&xcd_core_build_prop);
+    //don't leave a zombie process
+    alarm(XCC_UTIL_MAX(30u, xcd_core_spot.dump_timeout_ms / 1000 + 1));
 
     //open log file
     if(0 > (xcd_core_log_fd = XCC_UTIL_TEMP_FAILURE_RETRY(open(xcd_core_log_pathname, O_WRONLY | O_CLOEXEC)))) exit(2);
 
+    //buffer the output to the log file, flushed when full, at section boundaries and at exit
+    xcc_util_write_set_buffer(xcd_core_log_fd, xcd_core_write_buf, sizeof(xcd_core_write_buf));
+    atexit(xcd_core_flush);
+
     //register signal handler for catching self-crashing
     xcc_signal_register(xcd_core_signal_handler);
 
+    //map the unwind tables from the cache files (if they exist)
+    if(xcd_core_spot.unwind_cache) xcd_cache_init(xcd_core_log_pathname);
+
+    //load the precomputed ELF hashes (if the cache file exists)
+    if(xcd_core_spot.elf_hash_cache && xcd_core_spot.dump_elf_hash) xcd_elf_hash_cache_init(xcd_core_log_pathname);
+
     //create process object
     if(0 != xcd_process_create(&xcd_core_proc,
                                xcd_core_spot.crash_pid,
                                xcd_core_spot.crash_tid,
                                &(xcd_core_spot.siginfo),
-                               &(xcd_core_spot.ucontext))) exit(3);
+                               &(xcd_core_spot.ucontext),
+                               xcd_core_spot.concurrent_crashes)) exit(3);
 
     //suspend all threads in the process
+    xcd_core_suspend_us = xcc_util_get_monotonic_us();
     xcd_process_suspend_threads(xcd_core_proc);
+    xcd_core_suspend_us = xcc_util_get_monotonic_us() - xcd_core_suspend_us;
+    XCD_BENCH_PHASE("suspend_threads");
 
     //load process info
     if(0 != xcd_process_load_info(xcd_core_proc)) exit(4);
 
+    //check if this is a duplicate of a recent crash
+    if(xcd_core_spot.dedup_window_sec > 0) xcd_core_check_duplicate();
+    XCD_BENCH_PHASE("load_info");
+
     //record system info
     if(0 != xcd_sys_record(xcd_core_log_fd,
                            xcd_core_spot.start_time,
@@ -240,6 +342,12 @@ int main(int argc, char** argv)
                            xcd_core_app_version,
                            &xcd_core_build_prop,
                            xcd_process_get_number_of_threads(xcd_core_proc))) exit(5);
+    if(0 != xcc_util_write_format(xcd_core_log_fd, "Threads suspend time: '%"PRIu64" us'\n", xcd_core_suspend_us)) exit(5);
+    if(xcd_core_dup_count > 1)
+        if(0 != xcc_util_write_format(xcd_core_log_fd, "Duplicate crash: 'count %u, signature %016"PRIx64"'\n",
+                                      xcd_core_dup_count, xcd_core_signature)) exit(5);
+    if(0 != xcc_util_write_flush()) exit(5);
+    XCD_BENCH_PHASE("system_info");
 
     //record process info
     if(0 != xcd_process_record(xcd_core_proc,
@@ -250,13 +358,25 @@ int main(int argc, char** argv)
                                xcd_core_spot.dump_elf_hash,
                                xcd_core_spot.dump_map,
                                xcd_core_spot.dump_fds,
+                               xcd_core_dup_count < 2 ? (xcd_core_spot.meminfo_rollup ? XCD_MEMINFO_MODE_ROLLUP : XCD_MEMINFO_MODE_FULL) : XCD_MEMINFO_MODE_NONE,
                                xcd_core_spot.dump_all_threads,
                                xcd_core_spot.dump_all_threads_count_max,
                                xcd_core_dump_all_threads_whitelist,
-                               xcd_core_build_prop.api_level)) exit(6);
+                               xcd_core_spot.dump_all_threads_workers,
+                               xcd_core_spot.dump_all_threads_compact,
+                               xcd_core_build_prop.api_level,
+                               xcd_core_spot.section_timeout_ms)) exit(6);
+
+    //record the minidump (after the tombstone, which is more important)
+    if(xcd_core_spot.dump_minidump)
+    {
+        xcd_core_record_minidump();
+        XCD_BENCH_PHASE("minidump");
+    }
 
     //resume all threads in the process
     xcd_process_resume_threads(xcd_core_proc);
+    XCD_BENCH_PHASE("resume_threads");
 
 #if XCD_CORE_DEBUG
     XCD_LOG_DEBUG("CORE: done");
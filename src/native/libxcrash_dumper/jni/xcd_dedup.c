@@ -0,0 +1,142 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#include <inttypes.h>
+#include <stdio.h>
+#include <string.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <errno.h>
+#include <sys/types.h>
+#include "xcc_errno.h"
+#include "xcc_util.h"
+#include "xcd_dedup.h"
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wgnu-statement-expression"
+
+//
+// The state file is shared with the Java crash handler (DedupManager.java),
+// all the fields are little-endian.
+//
+// +---------+---------+------------------------------+
+// | magic   | version | entries[XCD_DEDUP_ENTRIES]   |
+// | 4 bytes | 4 bytes | 32 bytes * XCD_DEDUP_ENTRIES |
+// +---------+---------+------------------------------+
+//
+#define XCD_DEDUP_MAGIC   0x44444358 //"XCDD"
+#define XCD_DEDUP_VERSION 1
+#define XCD_DEDUP_ENTRIES 16
+
+typedef struct
+{
+    uint64_t signature;
+    uint64_t first_time;
+    uint64_t last_time;
+    uint32_t count;
+    uint32_t reserved;
+} xcd_dedup_entry_t;
+
+typedef struct
+{
+    uint32_t          magic;
+    uint32_t          version;
+    xcd_dedup_entry_t entries[XCD_DEDUP_ENTRIES];
+} xcd_dedup_state_t;
+
+int xcd_dedup_check(const char *log_pathname, unsigned int window_sec,
+                    uint64_t signature, uint64_t crash_time, unsigned int *count)
+{
+    char               path[512];
+    const char        *p;
+    int                fd = -1;
+    struct flock       lock;
+    xcd_dedup_state_t  state;
+    xcd_dedup_entry_t *entry = NULL;
+    int                found = 0;
+    size_t             i;
+    int                r = 0;
+
+    *count = 1;
+
+    //the state file is saved in the log dir
+    if(NULL == (p = strrchr(log_pathname, '/'))) return XCC_ERRNO_INVAL;
+    snprintf(path, sizeof(path), "%.*s/%s", (int)(p - log_pathname), log_pathname, XCC_UTIL_DEDUP_FILENAME);
+
+    if(0 > (fd = XCC_UTIL_TEMP_FAILURE_RETRY(open(path, O_RDWR | O_CREAT | O_CLOEXEC, 0644)))) return XCC_ERRNO_SYS;
+
+    //never wait for the lock, a full dump is better than no dump
+    memset(&lock, 0, sizeof(lock));
+    lock.l_type = F_WRLCK;
+    lock.l_whence = SEEK_SET;
+    if(0 != fcntl(fd, F_SETLK, &lock))
+    {
+        r = XCC_ERRNO_SYS;
+        goto end;
+    }
+
+    //load state, reset it if it's a new or broken file
+    if((ssize_t)sizeof(state) != XCC_UTIL_TEMP_FAILURE_RETRY(pread(fd, &state, sizeof(state), 0)) ||
+       XCD_DEDUP_MAGIC != state.magic || XCD_DEDUP_VERSION != state.version)
+    {
+        memset(&state, 0, sizeof(state));
+        state.magic = XCD_DEDUP_MAGIC;
+        state.version = XCD_DEDUP_VERSION;
+    }
+
+    //find the entry with the same signature, or the least recently used one
+    for(i = 0; i < XCD_DEDUP_ENTRIES; i++)
+    {
+        if(state.entries[i].count > 0 && signature == state.entries[i].signature)
+        {
+            entry = &(state.entries[i]);
+            found = 1;
+            break;
+        }
+        if(NULL == entry || state.entries[i].last_time < entry->last_time)
+            entry = &(state.entries[i]);
+    }
+
+    if(found && crash_time >= entry->first_time && crash_time - entry->first_time <= (uint64_t)window_sec * 1000 * 1000)
+    {
+        //duplicate crash within the window
+        entry->count++;
+        entry->last_time = crash_time;
+        *count = entry->count;
+    }
+    else
+    {
+        //new crash, or the window has expired
+        entry->signature = signature;
+        entry->first_time = crash_time;
+        entry->last_time = crash_time;
+        entry->count = 1;
+    }
+
+    if((ssize_t)sizeof(state) != XCC_UTIL_TEMP_FAILURE_RETRY(pwrite(fd, &state, sizeof(state), 0)))
+        r = XCC_ERRNO_SYS;
+
+ end:
+    close(fd); //the lock will be released
+    return r;
+}
+
+#pragma clang diagnostic pop
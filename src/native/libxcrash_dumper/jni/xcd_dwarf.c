@@ -96,6 +96,47 @@ typedef struct
     xcd_dwarf_cie_t *cie;
 } xcd_dwarf_fde_t;
 
+//location rule type
+#define DW_LOC_INVALID        0
+#define DW_LOC_UNDEFINED      1
+#define DW_LOC_OFFSET         2
+#define DW_LOC_VAL_OFFSET     3
+#define DW_LOC_REGISTER       4
+#define DW_LOC_EXPRESSION     5
+#define DW_LOC_VAL_EXPRESSION 6
+
+//location rule
+#define XCD_DWARF_REG_NUM 0xFFFF
+typedef struct xcd_dwarf_loc_rule
+{
+    uint8_t  type;
+    uint64_t values[2];
+} xcd_dwarf_loc_rule_t;
+
+//location of the machine registers, cached for (FDE, PC)
+#define XCD_DWARF_LOC_CACHE_MAX 128
+typedef struct xcd_dwarf_loc_regs
+{
+    uint64_t             fde_offset;
+    uintptr_t            pc;
+    xcd_dwarf_loc_rule_t cfa_rule;
+    xcd_dwarf_loc_rule_t reg_rules[XCD_REGS_MACHINE_NUM];
+    RB_ENTRY(xcd_dwarf_loc_regs) link;
+    TAILQ_ENTRY(xcd_dwarf_loc_regs,) link_lru;
+} xcd_dwarf_loc_regs_t;
+static int xcd_dwarf_loc_regs_cmp(xcd_dwarf_loc_regs_t *a, xcd_dwarf_loc_regs_t *b)
+{
+    if(a->fde_offset != b->fde_offset) return (a->fde_offset > b->fde_offset ? 1 : -1);
+    if(a->pc != b->pc) return (a->pc > b->pc ? 1 : -1);
+    return 0;
+}
+typedef RB_HEAD(xcd_dwarf_loc_regs_tree, xcd_dwarf_loc_regs) xcd_dwarf_loc_regs_tree_t;
+typedef TAILQ_HEAD(xcd_dwarf_loc_regs_lru, xcd_dwarf_loc_regs,) xcd_dwarf_loc_regs_lru_t;
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wunused-function"
+RB_GENERATE_STATIC(xcd_dwarf_loc_regs_tree, xcd_dwarf_loc_regs, link, xcd_dwarf_loc_regs_cmp)
+#pragma clang diagnostic pop
+
 //DWARF object
 struct xcd_dwarf
 {
@@ -103,6 +144,9 @@ struct xcd_dwarf
     pid_t                     pid;
     uintptr_t                 load_bias;
     xcd_dwarf_cie_tree_t      cie_cache;
+    xcd_dwarf_loc_regs_tree_t loc_cache;
+    xcd_dwarf_loc_regs_lru_t  loc_cache_lru; //most recently used first
+    size_t                    loc_cache_cnt;
     
     xcd_memory_t             *memory;
     size_t                    memory_cur_offset;
@@ -121,24 +165,12 @@ struct xcd_dwarf
     size_t                    eh_frame_hdr_fde_count;
     uint8_t                   eh_frame_hdr_table_encoding;
     size_t                    eh_frame_hdr_table_entry_size;
-};
-
-//location rule type
-#define DW_LOC_INVALID        0
-#define DW_LOC_UNDEFINED      1
-#define DW_LOC_OFFSET         2
-#define DW_LOC_VAL_OFFSET     3
-#define DW_LOC_REGISTER       4
-#define DW_LOC_EXPRESSION     5
-#define DW_LOC_VAL_EXPRESSION 6
 
-//location rule
-#define XCD_DWARF_REG_NUM 0xFFFF
-typedef struct xcd_dwarf_loc_rule
-{
-    uint8_t  type;
-    uint64_t values[2];
-} xcd_dwarf_loc_rule_t;
+    //for XCD_DWARF_TYPE_DEBUG_FRAME and XCD_DWARF_TYPE_EH_FRAME mode only
+    xcd_dwarf_fde_range_t    *fde_ranges;
+    size_t                    fde_ranges_cnt;
+    int                       fde_ranges_loaded;
+};
 
 //location
 typedef struct
@@ -800,14 +832,14 @@ static xcd_dwarf_cie_t *xcd_dwarf_get_cie_from_offset(xcd_dwarf_t *self, size_t
 //////////////////////////////////////////////////////////////////////
 // get FDE
 
-static xcd_dwarf_fde_t *xcd_dwarf_get_fde_from_offset(xcd_dwarf_t *self, size_t *offset, uintptr_t pc)
+//read the FDE header at *offset, and point *offset to the next entry
+static int xcd_dwarf_read_fde_header(xcd_dwarf_t *self, size_t *offset, xcd_dwarf_cie_t **cie_ret,
+                                     uintptr_t *pc_start_ret, uintptr_t *pc_end_ret, uint64_t *cfa_instructions_end_ret)
 {
-    xcd_dwarf_fde_t *fde = NULL;
+    int              r = XCC_ERRNO_FORMAT;
     xcd_dwarf_cie_t *cie;
-    uint64_t         cfa_instructions_offset;
     uint64_t         cfa_instructions_end = self->entries_end;
     uintptr_t        pc_start;
-    uintptr_t        pc_end;
     size_t           cur_offset;
     size_t           cie_offset;
     uint32_t         v32;
@@ -864,15 +896,37 @@ static xcd_dwarf_fde_t *xcd_dwarf_get_fde_from_offset(xcd_dwarf_t *self, size_t
     if(0 != xcd_dwarf_read_encoded(self, &v64, cie->fde_address_encoding)) goto end;
 
     //get PC end
-    pc_end = pc_start + (uintptr_t)v64;
+    *cie_ret = cie;
+    *pc_start_ret = pc_start;
+    *pc_end_ret = pc_start + (uintptr_t)v64;
+    *cfa_instructions_end_ret = cfa_instructions_end;
+    r = 0;
+
+ end:
+    *offset = (size_t)cfa_instructions_end; //pointer to next entry
+    return r;
+}
+
+static xcd_dwarf_fde_t *xcd_dwarf_get_fde_from_offset(xcd_dwarf_t *self, size_t *offset, uintptr_t pc)
+{
+    xcd_dwarf_fde_t *fde = NULL;
+    xcd_dwarf_cie_t *cie;
+    uint64_t         cfa_instructions_offset;
+    uint64_t         cfa_instructions_end;
+    uintptr_t        pc_start;
+    uintptr_t        pc_end;
+    uint64_t         v64;
+
+    //get CIE and PC range
+    if(0 != xcd_dwarf_read_fde_header(self, offset, &cie, &pc_start, &pc_end, &cfa_instructions_end)) return NULL;
 
     //check current PC
-    if(pc < pc_start || pc >= pc_end) goto end;
+    if(pc < pc_start || pc >= pc_end) return NULL;
 
     if(cie->augmentation_string[0] == 'z')
     {
         //get augmentation data length
-        if(0 != xcd_dwarf_read_uleb128(self, &v64)) goto end;
+        if(0 != xcd_dwarf_read_uleb128(self, &v64)) return NULL;
 
         //skip augmentation data
         self->memory_cur_offset += (size_t)v64;
@@ -880,26 +934,125 @@ static xcd_dwarf_fde_t *xcd_dwarf_get_fde_from_offset(xcd_dwarf_t *self, size_t
 
     //get CFA instructions offset
     cfa_instructions_offset = self->memory_cur_offset;
-    if(cfa_instructions_offset > cfa_instructions_end) goto end;
+    if(cfa_instructions_offset > cfa_instructions_end) return NULL;
 
     //build FDE info object
-    if(NULL == (fde = malloc(sizeof(xcd_dwarf_fde_t)))) goto end;
+    if(NULL == (fde = malloc(sizeof(xcd_dwarf_fde_t)))) return NULL;
     fde->cfa_instructions_offset = cfa_instructions_offset;
     fde->cfa_instructions_end = cfa_instructions_end;
     fde->pc_start = pc_start;
     fde->pc_end = pc_end;
     fde->cie = cie;
 
- end:
-    *offset = (size_t)cfa_instructions_end; //pointer to next entry
     return fde;
 }
 
+static int xcd_dwarf_fde_range_cmp(const void *a, const void *b)
+{
+    const xcd_dwarf_fde_range_t *ra = (const xcd_dwarf_fde_range_t *)a;
+    const xcd_dwarf_fde_range_t *rb = (const xcd_dwarf_fde_range_t *)b;
+
+    if(ra->pc_start != rb->pc_start) return ra->pc_start < rb->pc_start ? -1 : 1;
+    if(ra->offset != rb->offset) return ra->offset < rb->offset ? -1 : 1; //keep the order in section
+    return 0;
+}
+
+//walk through all the entries once, save the PC range and offset of each FDE,
+//then the FDE lookup is a binary search instead of a linear walk
+static int xcd_dwarf_load_fde_ranges(xcd_dwarf_t *self)
+{
+    xcd_dwarf_fde_range_t *ranges = NULL, *tmp;
+    size_t                 ranges_cnt = 0, ranges_cap = 0;
+    xcd_dwarf_cie_t       *cie;
+    uint64_t               cfa_instructions_end;
+    uintptr_t              pc_start;
+    uintptr_t              pc_end;
+    uintptr_t              pc_end_max = 0;
+    size_t                 offset = self->entries_offset;
+    size_t                 cur_offset;
+    size_t                 i;
+
+    while(offset < self->entries_end)
+    {
+        cur_offset = offset;
+        if(0 != xcd_dwarf_read_fde_header(self, &offset, &cie, &pc_start, &pc_end, &cfa_instructions_end)) continue;
+        if(pc_start >= pc_end) continue;
+
+        if(ranges_cnt == ranges_cap)
+        {
+            ranges_cap = (0 == ranges_cap ? 256 : ranges_cap * 2);
+            if(NULL == (tmp = realloc(ranges, sizeof(xcd_dwarf_fde_range_t) * ranges_cap)))
+            {
+                if(NULL != ranges) free(ranges);
+                return XCC_ERRNO_NOMEM;
+            }
+            ranges = tmp;
+        }
+        ranges[ranges_cnt].pc_start = pc_start;
+        ranges[ranges_cnt].pc_end = pc_end;
+        ranges[ranges_cnt].offset = cur_offset;
+        ranges_cnt++;
+    }
+
+    if(0 == ranges_cnt) return XCC_ERRNO_NOTFND;
+    qsort(ranges, ranges_cnt, sizeof(xcd_dwarf_fde_range_t), xcd_dwarf_fde_range_cmp);
+    for(i = 0; i < ranges_cnt; i++)
+    {
+        if(ranges[i].pc_end > pc_end_max) pc_end_max = ranges[i].pc_end;
+        ranges[i].pc_end_max = pc_end_max;
+    }
+
+    self->fde_ranges = ranges;
+    self->fde_ranges_cnt = ranges_cnt;
+    return 0;
+}
+
+static xcd_dwarf_fde_t *xcd_dwarf_get_fde_from_ranges(xcd_dwarf_t *self, uintptr_t pc)
+{
+    xcd_dwarf_fde_range_t *range, *found = NULL;
+    size_t                 lo = 0, hi = self->fde_ranges_cnt, mid;
+    size_t                 offset;
+
+    //find the last range which starts at or before the PC
+    while(lo < hi)
+    {
+        mid = lo + (hi - lo) / 2;
+        if(self->fde_ranges[mid].pc_start <= pc)
+            lo = mid + 1;
+        else
+            hi = mid;
+    }
+
+    //FDEs may overlap, check backward until none of the previous ones can contain the PC
+    while(lo > 0)
+    {
+        range = &(self->fde_ranges[--lo]);
+        if(range->pc_end_max <= pc) break;
+        if(pc >= range->pc_end) continue;
+
+        //keep the first one in section order, same as the linear walk
+        if(NULL == found || range->offset < found->offset) found = range;
+    }
+    if(NULL == found) return NULL;
+
+    offset = found->offset;
+    return xcd_dwarf_get_fde_from_offset(self, &offset, pc);
+}
+
 static xcd_dwarf_fde_t *xcd_dwarf_get_fde_no_hdr(xcd_dwarf_t *self, uintptr_t pc)
 {
     xcd_dwarf_fde_t *fde = NULL;
     size_t           offset = self->entries_offset;
 
+    //build the sorted PC ranges the first time (if not loaded from the unwind cache), and search it with binary search
+    if(!self->fde_ranges_loaded)
+    {
+        self->fde_ranges_loaded = 1;
+        xcd_dwarf_load_fde_ranges(self);
+    }
+    if(NULL != self->fde_ranges) return xcd_dwarf_get_fde_from_ranges(self, pc);
+
+    //linear search if failed to build the ranges
     while(offset < self->entries_end)
     {
         if(NULL != (fde = xcd_dwarf_get_fde_from_offset(self, &offset, pc))) break;
@@ -1217,6 +1370,53 @@ static xcd_dwarf_loc_t *xcd_dwarf_get_loc(xcd_dwarf_t *self, xcd_dwarf_fde_t *fd
 }
 
 
+static xcd_dwarf_loc_regs_t *xcd_dwarf_get_loc_regs(xcd_dwarf_t *self, xcd_dwarf_fde_t *fde, uintptr_t pc, xcd_dwarf_loc_regs_t *buf)
+{
+    xcd_dwarf_loc_regs_t  key;
+    xcd_dwarf_loc_regs_t *loc_regs;
+    xcd_dwarf_loc_t      *loc;
+
+    //threads blocked in the same function share the same (FDE, PC)
+    key.fde_offset = fde->cfa_instructions_offset;
+    key.pc = pc;
+    if(NULL != (loc_regs = RB_FIND(xcd_dwarf_loc_regs_tree, &(self->loc_cache), &key)))
+    {
+        TAILQ_REMOVE(&(self->loc_cache_lru), loc_regs, link_lru);
+        TAILQ_INSERT_HEAD(&(self->loc_cache_lru), loc_regs, link_lru);
+        return loc_regs;
+    }
+
+    //run the CFA instructions
+    if(NULL == (loc = xcd_dwarf_get_loc(self, fde, pc))) return NULL;
+
+    //reuse the least recently used one if the cache is full
+    if(self->loc_cache_cnt >= XCD_DWARF_LOC_CACHE_MAX)
+    {
+        loc_regs = TAILQ_LAST(&(self->loc_cache_lru), xcd_dwarf_loc_regs_lru);
+        TAILQ_REMOVE(&(self->loc_cache_lru), loc_regs, link_lru);
+        RB_REMOVE(xcd_dwarf_loc_regs_tree, &(self->loc_cache), loc_regs);
+    }
+    else if(NULL != (loc_regs = malloc(sizeof(xcd_dwarf_loc_regs_t))))
+        self->loc_cache_cnt++;
+    else
+        loc_regs = buf; //not cached
+
+    //only the rules of the machine registers are used by eval
+    loc_regs->fde_offset = key.fde_offset;
+    loc_regs->pc = pc;
+    loc_regs->cfa_rule = loc->cfa_rule;
+    memcpy(loc_regs->reg_rules, loc->reg_rules, sizeof(loc_regs->reg_rules));
+    free(loc);
+
+    if(loc_regs != buf)
+    {
+        RB_INSERT(xcd_dwarf_loc_regs_tree, &(self->loc_cache), loc_regs);
+        TAILQ_INSERT_HEAD(&(self->loc_cache_lru), loc_regs, link_lru);
+    }
+    return loc_regs;
+}
+
+
 //////////////////////////////////////////////////////////////////////
 // eval
 
@@ -1520,7 +1720,7 @@ static int xcd_dwarf_eval_expression(xcd_dwarf_t *self, xcd_regs_t *regs, size_t
 }
 #pragma clang diagnostic pop
     
-static int xcd_dwarf_eval(xcd_dwarf_t *self, xcd_dwarf_fde_t *fde, xcd_dwarf_loc_t *loc, xcd_regs_t *regs, int *finished)
+static int xcd_dwarf_eval(xcd_dwarf_t *self, xcd_dwarf_fde_t *fde, xcd_dwarf_loc_regs_t *loc, xcd_regs_t *regs, int *finished)
 {
     int        r;
     size_t     i;
@@ -1669,6 +1869,8 @@ int xcd_dwarf_create(xcd_dwarf_t **self, xcd_memory_t *memory, pid_t pid, uintpt
     (*self)->pid = pid;
     (*self)->load_bias = load_bias;
     RB_INIT(&((*self)->cie_cache));
+    RB_INIT(&((*self)->loc_cache));
+    TAILQ_INIT(&((*self)->loc_cache_lru));
     (*self)->memory = memory;
     (*self)->memory_cur_offset = offset;
     (*self)->memory_pc_offset = (size_t)-1;
@@ -1692,14 +1894,45 @@ int xcd_dwarf_create(xcd_dwarf_t **self, xcd_memory_t *memory, pid_t pid, uintpt
     return r;
 }
 
+//////////////////////////////////////////////////////////////////////
+// FDE ranges (for the unwind cache)
+
+int xcd_dwarf_get_fde_ranges(xcd_dwarf_t *self, xcd_dwarf_fde_range_t **ranges, size_t *ranges_cnt)
+{
+    int r;
+    
+    if(XCD_DWARF_TYPE_EH_FRAME_HDR == self->type) return XCC_ERRNO_NOTSPT;
+
+    if(!self->fde_ranges_loaded)
+    {
+        self->fde_ranges_loaded = 1;
+        if(0 != (r = xcd_dwarf_load_fde_ranges(self))) return r;
+    }
+    if(NULL == self->fde_ranges) return XCC_ERRNO_NOTFND;
+
+    *ranges = self->fde_ranges;
+    *ranges_cnt = self->fde_ranges_cnt;
+    return 0;
+}
+
+void xcd_dwarf_set_fde_ranges(xcd_dwarf_t *self, xcd_dwarf_fde_range_t *ranges, size_t ranges_cnt)
+{
+    if(XCD_DWARF_TYPE_EH_FRAME_HDR == self->type || 0 == ranges_cnt) return;
+
+    self->fde_ranges = ranges;
+    self->fde_ranges_cnt = ranges_cnt;
+    self->fde_ranges_loaded = 1;
+}
+
 //////////////////////////////////////////////////////////////////////
 // get step
 
 int xcd_dwarf_step(xcd_dwarf_t *self, xcd_regs_t *regs, uintptr_t pc, int *finished)
 {
-    xcd_dwarf_fde_t *fde = NULL;
-    xcd_dwarf_loc_t *loc = NULL;
-    int              r   = XCC_ERRNO_NOTFND;
+    xcd_dwarf_fde_t      *fde = NULL;
+    xcd_dwarf_loc_regs_t *loc = NULL;
+    xcd_dwarf_loc_regs_t  loc_buf;
+    int                   r   = XCC_ERRNO_NOTFND;
 
     //find FDE & CIE from PC
     if(NULL == (fde = xcd_dwarf_get_fde(self, pc)))
@@ -1711,7 +1944,7 @@ int xcd_dwarf_step(xcd_dwarf_t *self, xcd_regs_t *regs, uintptr_t pc, int *finis
     }
     
     //find LOCATION in the FDE from PC
-    if(NULL == (loc = xcd_dwarf_get_loc(self, fde, pc)))
+    if(NULL == (loc = xcd_dwarf_get_loc_regs(self, fde, pc, &loc_buf)))
     {
 #if XCD_DWARF_DEBUG
         XCD_LOG_DEBUG("DWARF: get LOC failed, step_pc=%"PRIxPTR, pc);
@@ -1733,7 +1966,6 @@ int xcd_dwarf_step(xcd_dwarf_t *self, xcd_regs_t *regs, uintptr_t pc, int *finis
 
  end:
     if(NULL != fde) free(fde);
-    if(NULL != loc) free(loc);
     return r;
 }
 
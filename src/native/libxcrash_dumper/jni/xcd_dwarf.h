@@ -42,11 +42,23 @@ typedef enum
 
 typedef struct xcd_dwarf xcd_dwarf_t;
 
+//PC range of a FDE, sorted by pc_start
+typedef struct
+{
+    uintptr_t pc_start;
+    uintptr_t pc_end;
+    uintptr_t pc_end_max; //max pc_end of this one and all the previous ones
+    size_t    offset;
+} xcd_dwarf_fde_range_t;
+
 int xcd_dwarf_create(xcd_dwarf_t **self, xcd_memory_t *memory, pid_t pid, uintptr_t load_bias,
                      size_t offset, size_t size, xcd_dwarf_type_t type);
 
 int xcd_dwarf_step(xcd_dwarf_t *self, xcd_regs_t *regs, uintptr_t pc, int *finished);
 
+int xcd_dwarf_get_fde_ranges(xcd_dwarf_t *self, xcd_dwarf_fde_range_t **ranges, size_t *ranges_cnt);
+void xcd_dwarf_set_fde_ranges(xcd_dwarf_t *self, xcd_dwarf_fde_range_t *ranges, size_t ranges_cnt);
+
 
 #ifdef __cplusplus
 }
@@ -26,6 +26,7 @@
 #include <string.h>
 #include <stdlib.h>
 #include <unistd.h>
+#include <pthread.h>
 #include <link.h>
 #include <elf.h>
 #include <sys/types.h>
@@ -45,6 +46,7 @@ struct xcd_elf
     xcd_elf_interface_t *interface;
     xcd_elf_interface_t *gnu_interface;
     int                  gnu_interface_created;
+    pthread_mutex_t      lock; //the DWARF parser and the lazily loaded tables are not thread-safe
 };
 #pragma clang diagnostic pop
 
@@ -84,6 +86,7 @@ int xcd_elf_create(xcd_elf_t **self, pid_t pid, xcd_memory_t *memory)
     if(NULL == (*self = calloc(1, sizeof(xcd_elf_t)))) return XCC_ERRNO_NOMEM;
     (*self)->pid = pid;
     (*self)->memory = memory;
+    pthread_mutex_init(&((*self)->lock), NULL);
 
     //create ELF interface, save load bias
     if(0 != (r = xcd_elf_interface_create(&((*self)->interface), pid, memory, &((*self)->load_bias))))
@@ -105,7 +108,7 @@ xcd_memory_t *xcd_elf_get_memory(xcd_elf_t *self)
     return self->memory;
 }
 
-int xcd_elf_step(xcd_elf_t *self, uintptr_t rel_pc, uintptr_t step_pc, xcd_regs_t *regs, int *finished, int *sigreturn)
+static int xcd_elf_step_locked(xcd_elf_t *self, uintptr_t rel_pc, uintptr_t step_pc, xcd_regs_t *regs, int *finished, int *sigreturn)
 {
     *finished = 0;
     *sigreturn = 0;
@@ -146,7 +149,17 @@ int xcd_elf_step(xcd_elf_t *self, uintptr_t rel_pc, uintptr_t step_pc, xcd_regs_
     return XCC_ERRNO_MISSING;
 }
 
-int xcd_elf_get_function_info(xcd_elf_t *self, uintptr_t addr, char **name, size_t *name_offset)
+int xcd_elf_step(xcd_elf_t *self, uintptr_t rel_pc, uintptr_t step_pc, xcd_regs_t *regs, int *finished, int *sigreturn)
+{
+    int r;
+
+    pthread_mutex_lock(&(self->lock));
+    r = xcd_elf_step_locked(self, rel_pc, step_pc, regs, finished, sigreturn);
+    pthread_mutex_unlock(&(self->lock));
+    return r;
+}
+
+static int xcd_elf_get_function_info_locked(xcd_elf_t *self, uintptr_t addr, char **name, size_t *name_offset)
 {
     int r;
 
@@ -167,17 +180,52 @@ int xcd_elf_get_function_info(xcd_elf_t *self, uintptr_t addr, char **name, size
     return r;
 }
 
+int xcd_elf_get_function_info(xcd_elf_t *self, uintptr_t addr, char **name, size_t *name_offset)
+{
+    int r;
+
+    pthread_mutex_lock(&(self->lock));
+    r = xcd_elf_get_function_info_locked(self, addr, name, name_offset);
+    pthread_mutex_unlock(&(self->lock));
+    return r;
+}
+
 int xcd_elf_get_symbol_addr(xcd_elf_t *self, const char *name, uintptr_t *addr)
 {
-    return xcd_elf_interface_get_symbol_addr(self->interface, name, addr);
+    int r;
+
+    pthread_mutex_lock(&(self->lock));
+    r = xcd_elf_interface_get_symbol_addr(self->interface, name, addr);
+    pthread_mutex_unlock(&(self->lock));
+    return r;
 }
 
 int xcd_elf_get_build_id(xcd_elf_t *self, uint8_t *build_id, size_t build_id_len, size_t *build_id_len_ret)
 {
-    return xcd_elf_interface_get_build_id(self->interface, build_id, build_id_len, build_id_len_ret);
+    int r;
+
+    pthread_mutex_lock(&(self->lock));
+    r = xcd_elf_interface_get_build_id(self->interface, build_id, build_id_len, build_id_len_ret);
+    pthread_mutex_unlock(&(self->lock));
+    return r;
+}
+
+int xcd_elf_get_cache_tables(xcd_elf_t *self, xcd_cache_table_t *tables)
+{
+    return xcd_elf_interface_get_cache_tables(self->interface, tables);
+}
+
+void xcd_elf_set_cache_tables(xcd_elf_t *self, xcd_cache_table_t *tables)
+{
+    xcd_elf_interface_set_cache_tables(self->interface, tables);
 }
 
 char *xcd_elf_get_so_name(xcd_elf_t *self)
 {
-    return xcd_elf_interface_get_so_name(self->interface);
+    char *so_name;
+
+    pthread_mutex_lock(&(self->lock));
+    so_name = xcd_elf_interface_get_so_name(self->interface);
+    pthread_mutex_unlock(&(self->lock));
+    return so_name;
 }
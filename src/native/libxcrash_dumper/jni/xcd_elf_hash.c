@@ -0,0 +1,385 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#include <inttypes.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <errno.h>
+#include <dirent.h>
+#include <sys/types.h>
+#include <sys/stat.h>
+#include <sys/mman.h>
+#include "xcc_errno.h"
+#include "xcc_util.h"
+#include "xcd_elf_hash.h"
+#include "xcd_md5.h"
+#include "xcd_log.h"
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wgnu-statement-expression"
+
+//
+// The ELF hash cache file is built by the dumper in the background (xcd_elf_hash_cache_build),
+// and loaded by the dumper when crashed (xcd_elf_hash_cache_init). One line for each ELF:
+//
+// <hash name> <inode> <file size> <mtime sec>.<mtime nsec> <hash> <pathname>\n
+//
+#define XCD_ELF_HASH_CACHE_LINE_MAX 1280
+#define XCD_ELF_HASH_NAME_MAX       8
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wpadded"
+typedef struct
+{
+    char     name[XCD_ELF_HASH_NAME_MAX];
+    uint64_t inode;
+    uint64_t size;
+    int64_t  mtime_sec;
+    long     mtime_nsec;
+    char     hash[XCD_ELF_HASH_STR_LEN];
+    char    *pathname;
+} xcd_elf_hash_entry_t;
+#pragma clang diagnostic pop
+
+static xcd_elf_hash_entry_t *xcd_elf_hash_cache = NULL;
+static size_t                xcd_elf_hash_cache_cnt = 0;
+
+//////////////////////////////////////////////////////////////////////
+// XXH64 (https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md)
+
+#define XCD_ELF_HASH_XXH_PRIME64_1 0x9E3779B185EBCA87ULL
+#define XCD_ELF_HASH_XXH_PRIME64_2 0xC2B2AE3D27D4EB4FULL
+#define XCD_ELF_HASH_XXH_PRIME64_3 0x165667B19E3779F9ULL
+#define XCD_ELF_HASH_XXH_PRIME64_4 0x85EBCA77C2B2AE63ULL
+#define XCD_ELF_HASH_XXH_PRIME64_5 0x27D4EB2F165667C5ULL
+
+static inline uint64_t xcd_elf_hash_xxh_rotl(uint64_t x, int r)
+{
+    return (x << r) | (x >> (64 - r));
+}
+
+//all the ABIs supported by Android are little-endian
+static inline uint64_t xcd_elf_hash_xxh_read64(const uint8_t *p)
+{
+    uint64_t v;
+    memcpy(&v, p, sizeof(v));
+    return v;
+}
+
+static inline uint32_t xcd_elf_hash_xxh_read32(const uint8_t *p)
+{
+    uint32_t v;
+    memcpy(&v, p, sizeof(v));
+    return v;
+}
+
+static inline uint64_t xcd_elf_hash_xxh_round(uint64_t acc, uint64_t input)
+{
+    acc += input * XCD_ELF_HASH_XXH_PRIME64_2;
+    acc = xcd_elf_hash_xxh_rotl(acc, 31);
+    return acc * XCD_ELF_HASH_XXH_PRIME64_1;
+}
+
+static inline uint64_t xcd_elf_hash_xxh_merge_round(uint64_t acc, uint64_t val)
+{
+    acc ^= xcd_elf_hash_xxh_round(0, val);
+    return acc * XCD_ELF_HASH_XXH_PRIME64_1 + XCD_ELF_HASH_XXH_PRIME64_4;
+}
+
+static uint64_t xcd_elf_hash_xxh64(const uint8_t *p, size_t len)
+{
+    const uint8_t *end = p + len;
+    uint64_t       v1, v2, v3, v4, h;
+
+    if(len >= 32)
+    {
+        v1 = XCD_ELF_HASH_XXH_PRIME64_1 + XCD_ELF_HASH_XXH_PRIME64_2;
+        v2 = XCD_ELF_HASH_XXH_PRIME64_2;
+        v3 = 0;
+        v4 = 0 - XCD_ELF_HASH_XXH_PRIME64_1;
+        while(p + 32 <= end)
+        {
+            v1 = xcd_elf_hash_xxh_round(v1, xcd_elf_hash_xxh_read64(p));
+            v2 = xcd_elf_hash_xxh_round(v2, xcd_elf_hash_xxh_read64(p + 8));
+            v3 = xcd_elf_hash_xxh_round(v3, xcd_elf_hash_xxh_read64(p + 16));
+            v4 = xcd_elf_hash_xxh_round(v4, xcd_elf_hash_xxh_read64(p + 24));
+            p += 32;
+        }
+        h = xcd_elf_hash_xxh_rotl(v1, 1) + xcd_elf_hash_xxh_rotl(v2, 7) +
+            xcd_elf_hash_xxh_rotl(v3, 12) + xcd_elf_hash_xxh_rotl(v4, 18);
+        h = xcd_elf_hash_xxh_merge_round(h, v1);
+        h = xcd_elf_hash_xxh_merge_round(h, v2);
+        h = xcd_elf_hash_xxh_merge_round(h, v3);
+        h = xcd_elf_hash_xxh_merge_round(h, v4);
+    }
+    else
+    {
+        h = XCD_ELF_HASH_XXH_PRIME64_5;
+    }
+    h += (uint64_t)len;
+
+    while(p + 8 <= end)
+    {
+        h ^= xcd_elf_hash_xxh_round(0, xcd_elf_hash_xxh_read64(p));
+        h = xcd_elf_hash_xxh_rotl(h, 27) * XCD_ELF_HASH_XXH_PRIME64_1 + XCD_ELF_HASH_XXH_PRIME64_4;
+        p += 8;
+    }
+    if(p + 4 <= end)
+    {
+        h ^= (uint64_t)xcd_elf_hash_xxh_read32(p) * XCD_ELF_HASH_XXH_PRIME64_1;
+        h = xcd_elf_hash_xxh_rotl(h, 23) * XCD_ELF_HASH_XXH_PRIME64_2 + XCD_ELF_HASH_XXH_PRIME64_3;
+        p += 4;
+    }
+    while(p < end)
+    {
+        h ^= (uint64_t)(*p) * XCD_ELF_HASH_XXH_PRIME64_5;
+        h = xcd_elf_hash_xxh_rotl(h, 11) * XCD_ELF_HASH_XXH_PRIME64_1;
+        p++;
+    }
+
+    h ^= h >> 33;
+    h *= XCD_ELF_HASH_XXH_PRIME64_2;
+    h ^= h >> 29;
+    h *= XCD_ELF_HASH_XXH_PRIME64_3;
+    h ^= h >> 32;
+    return h;
+}
+
+//////////////////////////////////////////////////////////////////////
+// hash
+
+const char *xcd_elf_hash_get_name(int mode)
+{
+    switch(mode)
+    {
+    case XCC_UTIL_ELF_HASH_MD5:   return "MD5";
+    case XCC_UTIL_ELF_HASH_XXH64: return "XXH64";
+    default:                      return NULL;
+    }
+}
+
+int xcd_elf_hash_file(int fd, struct stat *st, int mode, char *buf, size_t len)
+{
+    uint8_t     *data;
+    uint8_t      md5[16];
+    xcd_MD5_CTX  ctx;
+    size_t       i;
+
+    if(len < XCD_ELF_HASH_STR_LEN || st->st_size <= 0) return XCC_ERRNO_INVAL;
+    if(NULL == xcd_elf_hash_get_name(mode)) return XCC_ERRNO_INVAL;
+
+    errno = 0;
+    if(MAP_FAILED == (data = (uint8_t *)mmap(NULL, (size_t)st->st_size, PROT_READ, MAP_PRIVATE, fd, 0))) return XCC_ERRNO_SYS;
+
+    if(XCC_UTIL_ELF_HASH_XXH64 == mode)
+    {
+        snprintf(buf, len, "%016"PRIx64, xcd_elf_hash_xxh64(data, (size_t)st->st_size));
+    }
+    else
+    {
+        xcd_MD5_Init(&ctx);
+        xcd_MD5_Update(&ctx, data, (unsigned long)st->st_size);
+        xcd_MD5_Final(md5, &ctx);
+        for(i = 0; i < sizeof(md5); i++)
+            snprintf(buf + i * 2, 3, "%02hhx", md5[i]);
+    }
+
+    munmap(data, (size_t)st->st_size);
+    return 0;
+}
+
+//////////////////////////////////////////////////////////////////////
+// cache file
+
+static int xcd_elf_hash_cache_load(const char *cache_pathname, xcd_elf_hash_entry_t **entries, size_t *entries_cnt)
+{
+    FILE                 *fp;
+    char                  line[XCD_ELF_HASH_CACHE_LINE_MAX];
+    xcd_elf_hash_entry_t  entry, *tmp;
+    size_t                cap = 0;
+    size_t                len;
+    int                   n;
+
+    *entries = NULL;
+    *entries_cnt = 0;
+
+    if(NULL == (fp = fopen(cache_pathname, "r"))) return XCC_ERRNO_SYS;
+    while(NULL != fgets(line, sizeof(line), fp))
+    {
+        len = strlen(line);
+        if(0 == len || '\n' != line[len - 1]) continue; //incomplete line
+        line[len - 1] = '\0';
+
+        n = 0;
+        if(6 != sscanf(line, "%7s %"SCNu64" %"SCNu64" %"SCNd64".%ld %32s %n",
+                       entry.name, &(entry.inode), &(entry.size), &(entry.mtime_sec), &(entry.mtime_nsec), entry.hash, &n)) continue;
+        if(0 == n || '/' != line[n]) continue;
+
+        if(*entries_cnt == cap)
+        {
+            cap = (0 == cap ? 16 : cap * 2);
+            if(NULL == (tmp = realloc(*entries, sizeof(xcd_elf_hash_entry_t) * cap))) break;
+            *entries = tmp;
+        }
+        if(NULL == (entry.pathname = strdup(line + n))) break;
+        (*entries)[(*entries_cnt)++] = entry;
+    }
+    fclose(fp);
+
+    return 0;
+}
+
+static xcd_elf_hash_entry_t *xcd_elf_hash_cache_find(xcd_elf_hash_entry_t *entries, size_t entries_cnt,
+                                                    const char *pathname, struct stat *st, const char *name)
+{
+    size_t i;
+
+    for(i = 0; i < entries_cnt; i++)
+    {
+        if(entries[i].inode == (uint64_t)st->st_ino &&
+           entries[i].size == (uint64_t)st->st_size &&
+           entries[i].mtime_sec == (int64_t)st->st_mtim.tv_sec &&
+           entries[i].mtime_nsec == st->st_mtim.tv_nsec &&
+           0 == strcmp(entries[i].name, name) &&
+           0 == strcmp(entries[i].pathname, pathname))
+            return &(entries[i]);
+    }
+    return NULL;
+}
+
+//////////////////////////////////////////////////////////////////////
+// build (in the background, after xCrash inited)
+
+int xcd_elf_hash_cache_build(const char *cache_pathname, const char *lib_dir, int mode)
+{
+    xcd_elf_hash_entry_t *old_entries = NULL, *entry;
+    size_t                old_entries_cnt = 0;
+    const char           *name;
+    char                  tmp_pathname[1024];
+    char                  lib_pathname[1024];
+    char                  hash[XCD_ELF_HASH_STR_LEN];
+    struct stat           st;
+    DIR                  *dir = NULL;
+    struct dirent        *ent;
+    int                   lib_fd, fd = -1;
+    int                   r = 0;
+    size_t                i;
+
+    if(NULL == (name = xcd_elf_hash_get_name(mode))) return XCC_ERRNO_INVAL;
+
+    //the hash of the unchanged libs will not be calculated again
+    xcd_elf_hash_cache_load(cache_pathname, &old_entries, &old_entries_cnt);
+
+    //write to a temp file, then rename it, the dumper will never see a partial file
+    snprintf(tmp_pathname, sizeof(tmp_pathname), "%s.%d.tmp", cache_pathname, getpid());
+    if(0 > (fd = XCC_UTIL_TEMP_FAILURE_RETRY(open(tmp_pathname, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0600))))
+    {
+        r = XCC_ERRNO_SYS;
+        goto end;
+    }
+
+    //the hash for each .so file in the APP's lib dir
+    if(NULL == (dir = opendir(lib_dir)))
+    {
+        r = XCC_ERRNO_SYS;
+        goto end;
+    }
+    while(NULL != (ent = readdir(dir)))
+    {
+        if(!xcc_util_ends_with(ent->d_name, ".so")) continue;
+        snprintf(lib_pathname, sizeof(lib_pathname), "%s/%s", lib_dir, ent->d_name);
+
+        if(0 > (lib_fd = XCC_UTIL_TEMP_FAILURE_RETRY(open(lib_pathname, O_RDONLY | O_CLOEXEC)))) continue;
+        if(0 != fstat(lib_fd, &st) || !S_ISREG(st.st_mode) || st.st_size <= 0)
+        {
+            close(lib_fd);
+            continue;
+        }
+        if(NULL != (entry = xcd_elf_hash_cache_find(old_entries, old_entries_cnt, lib_pathname, &st, name)))
+            strncpy(hash, entry->hash, sizeof(hash));
+        else if(0 != xcd_elf_hash_file(lib_fd, &st, mode, hash, sizeof(hash)))
+            hash[0] = '\0';
+        close(lib_fd);
+        if('\0' == hash[0]) continue;
+
+        if(0 != (r = xcc_util_write_format(fd, "%s %"PRIu64" %"PRIu64" %"PRId64".%ld %s %s\n",
+                                           name, (uint64_t)st.st_ino, (uint64_t)st.st_size,
+                                           (int64_t)st.st_mtim.tv_sec, (long)st.st_mtim.tv_nsec,
+                                           hash, lib_pathname))) goto end;
+    }
+
+    if(0 != fsync(fd))
+    {
+        r = XCC_ERRNO_SYS;
+        goto end;
+    }
+    close(fd);
+    fd = -1;
+    if(0 != rename(tmp_pathname, cache_pathname)) r = XCC_ERRNO_SYS;
+
+ end:
+    if(NULL != dir) closedir(dir);
+    if(fd >= 0) close(fd);
+    if(0 != r) unlink(tmp_pathname);
+    if(NULL != old_entries)
+    {
+        for(i = 0; i < old_entries_cnt; i++) free(old_entries[i].pathname);
+        free(old_entries);
+    }
+    return r;
+}
+
+//////////////////////////////////////////////////////////////////////
+// lookup (in the dumper, when crashed)
+
+void xcd_elf_hash_cache_init(const char *log_pathname)
+{
+    char        path[512];
+    const char *p;
+
+    //the cache file is in the log dir
+    if(NULL == (p = strrchr(log_pathname, '/'))) return;
+    snprintf(path, sizeof(path), "%.*s/%s", (int)(p - log_pathname), log_pathname, XCC_UTIL_ELF_HASH_CACHE_FILENAME);
+
+    xcd_elf_hash_cache_load(path, &xcd_elf_hash_cache, &xcd_elf_hash_cache_cnt);
+
+#if XCD_ELF_HASH_DEBUG
+    XCD_LOG_DEBUG("ELF_HASH: loaded %zu entries from %s", xcd_elf_hash_cache_cnt, path);
+#endif
+}
+
+int xcd_elf_hash_cache_lookup(const char *pathname, struct stat *st, int mode, char *buf, size_t len)
+{
+    xcd_elf_hash_entry_t *entry;
+    const char           *name;
+
+    if(NULL == (name = xcd_elf_hash_get_name(mode))) return XCC_ERRNO_INVAL;
+    if(NULL == (entry = xcd_elf_hash_cache_find(xcd_elf_hash_cache, xcd_elf_hash_cache_cnt, pathname, st, name))) return XCC_ERRNO_NOTFND;
+
+    strncpy(buf, entry->hash, len);
+    buf[len - 1] = '\0';
+    return 0;
+}
+
+#pragma clang diagnostic pop
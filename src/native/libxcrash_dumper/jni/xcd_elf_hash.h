@@ -0,0 +1,48 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#ifndef XCD_ELF_HASH_H
+#define XCD_ELF_HASH_H 1
+
+#include <stdint.h>
+#include <sys/types.h>
+#include <sys/stat.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+//hex string of the longest hash (MD5), with the terminating null byte
+#define XCD_ELF_HASH_STR_LEN 33
+
+const char *xcd_elf_hash_get_name(int mode);
+int xcd_elf_hash_file(int fd, struct stat *st, int mode, char *buf, size_t len);
+
+int xcd_elf_hash_cache_build(const char *cache_pathname, const char *lib_dir, int mode);
+
+void xcd_elf_hash_cache_init(const char *log_pathname);
+int xcd_elf_hash_cache_lookup(const char *pathname, struct stat *st, int mode, char *buf, size_t len);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
@@ -32,6 +32,7 @@
 #include "xcc_errno.h"
 #include "xcd_elf_interface.h"
 #include "xcd_dwarf.h"
+#include "xcd_cache.h"
 #include "xcd_arm_exidx.h"
 #include "xcd_memory.h"
 #include "xcd_log.h"
@@ -64,6 +65,21 @@ typedef struct xcd_elf_symbols
 #pragma clang diagnostic pop
 typedef TAILQ_HEAD(xcd_elf_symbols_queue, xcd_elf_symbols,) xcd_elf_symbols_queue_t;
 
+//STT_FUNC symbols sorted by start address
+#define XCD_ELF_INTERFACE_SYMS_READ_CNT 256
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wpadded"
+typedef struct xcd_elf_func
+{
+    uintptr_t start;
+    uintptr_t end;
+    uintptr_t max_end; //max end of this one and all the ones before it
+    size_t    order;   //order in the symbol tables
+    size_t    str_offset;
+    size_t    str_end;
+} xcd_elf_func_t;
+#pragma clang diagnostic pop
+
 #pragma clang diagnostic push
 #pragma clang diagnostic ignored "-Wpadded"
 typedef struct xcd_elf_strtab
@@ -90,6 +106,10 @@ struct xcd_elf_interface
 
     //symbols (.dynsym with .dynstr, .symtab with .strtab)
     xcd_elf_symbols_queue_t  symbolsq;
+    xcd_elf_func_t          *funcs;
+    size_t                   funcs_cnt;
+    int                      funcs_loaded;
+    int                      funcs_indexed;
 
     //string tables
     xcd_elf_strtab_queue_t   strtabq;
@@ -513,6 +533,127 @@ int xcd_elf_interface_arm_exidx_step(xcd_elf_interface_t *self, uintptr_t step_p
 }
 #endif
 
+static int xcd_elf_interface_func_cmp(const void *a, const void *b)
+{
+    const xcd_elf_func_t *func_a = (const xcd_elf_func_t *)a;
+    const xcd_elf_func_t *func_b = (const xcd_elf_func_t *)b;
+
+    if(func_a->start < func_b->start) return -1;
+    if(func_a->start > func_b->start) return 1;
+
+    //for the same start address, the first one in the symbol tables is at the end
+    if(func_a->order > func_b->order) return -1;
+    if(func_a->order < func_b->order) return 1;
+    return 0;
+}
+
+static int xcd_elf_interface_load_funcs(xcd_elf_interface_t *self)
+{
+    xcd_elf_symbols_t *symbols;
+    ElfW(Sym)         *syms = NULL;
+    xcd_elf_func_t    *funcs = NULL, *tmp;
+    size_t             funcs_cnt = 0, funcs_cap = 0;
+    size_t             order = 0;
+    size_t             offset, cnt, i;
+    uintptr_t          max_end = 0;
+    int                r = 0;
+
+    if(NULL == (syms = malloc(sizeof(ElfW(Sym)) * XCD_ELF_INTERFACE_SYMS_READ_CNT))) return XCC_ERRNO_NOMEM;
+
+    TAILQ_FOREACH(symbols, &(self->symbolsq), link)
+    {
+        if(sizeof(ElfW(Sym)) != symbols->sym_entry_size) continue;
+        
+        for(offset = symbols->sym_offset; offset < symbols->sym_end; offset += cnt * sizeof(ElfW(Sym)))
+        {
+            //read the symbols in a batch
+            cnt = (symbols->sym_end - offset) / sizeof(ElfW(Sym));
+            if(0 == cnt) break;
+            if(cnt > XCD_ELF_INTERFACE_SYMS_READ_CNT) cnt = XCD_ELF_INTERFACE_SYMS_READ_CNT;
+            if(0 != xcd_memory_read_fully(self->memory, offset, syms, sizeof(ElfW(Sym)) * cnt)) break;
+
+            for(i = 0; i < cnt; i++, order++)
+            {
+                if(syms[i].st_shndx == SHN_UNDEF || ELF_ST_TYPE(syms[i].st_info) != STT_FUNC) continue;
+                if(0 == syms[i].st_size) continue;
+                if(symbols->str_offset + syms[i].st_name >= symbols->str_end) continue;
+
+                if(funcs_cnt == funcs_cap)
+                {
+                    funcs_cap = (0 == funcs_cap ? 1024 : funcs_cap * 2);
+                    if(NULL == (tmp = realloc(funcs, sizeof(xcd_elf_func_t) * funcs_cap)))
+                    {
+                        r = XCC_ERRNO_NOMEM;
+                        goto end;
+                    }
+                    funcs = tmp;
+                }
+                funcs[funcs_cnt].start = (uintptr_t)syms[i].st_value;
+                funcs[funcs_cnt].end = (uintptr_t)(syms[i].st_value + syms[i].st_size);
+                funcs[funcs_cnt].order = order;
+                funcs[funcs_cnt].str_offset = symbols->str_offset + syms[i].st_name;
+                funcs[funcs_cnt].str_end = symbols->str_end;
+                funcs_cnt++;
+            }
+        }
+    }
+
+    if(funcs_cnt > 0)
+    {
+        qsort(funcs, funcs_cnt, sizeof(xcd_elf_func_t), xcd_elf_interface_func_cmp);
+        for(i = 0; i < funcs_cnt; i++)
+        {
+            if(funcs[i].end > max_end) max_end = funcs[i].end;
+            funcs[i].max_end = max_end;
+        }
+    }
+
+ end:
+    free(syms);
+    if(0 != r)
+    {
+        if(NULL != funcs) free(funcs);
+        return r;
+    }
+    self->funcs = funcs;
+    self->funcs_cnt = funcs_cnt;
+    return 0;
+}
+
+static int xcd_elf_interface_find_func(xcd_elf_interface_t *self, uintptr_t addr, char **name, size_t *name_offset)
+{
+    xcd_elf_func_t *func, *found = NULL;
+    size_t          lo = 0, hi = self->funcs_cnt, mid;
+    char            buf[512];
+
+    //find the last one which start <= addr
+    while(lo < hi)
+    {
+        mid = lo + (hi - lo) / 2;
+        if(self->funcs[mid].start <= addr)
+            lo = mid + 1;
+        else
+            hi = mid;
+    }
+
+    //functions may be nested or aliased, check backward until none of the previous ones can contain the addr
+    while(lo > 0)
+    {
+        func = &(self->funcs[--lo]);
+        if(func->max_end <= addr) break;
+        if(addr >= func->end) continue;
+
+        //keep the first one in the symbol tables
+        if(NULL == found || func->order < found->order) found = func;
+    }
+    if(NULL == found) return XCC_ERRNO_NOTFND;
+
+    if(0 != xcd_memory_read_string(self->memory, found->str_offset, buf, sizeof(buf), found->str_end - found->str_offset)) return XCC_ERRNO_NOTFND;
+    if(NULL == (*name = strdup(buf))) return XCC_ERRNO_NOMEM;
+    *name_offset = addr - found->start;
+    return 0;
+}
+
 int xcd_elf_interface_get_function_info(xcd_elf_interface_t *self, uintptr_t addr, char **name, size_t *name_offset)
 {
     xcd_elf_symbols_t *symbols;
@@ -523,6 +664,19 @@ int xcd_elf_interface_get_function_info(xcd_elf_interface_t *self, uintptr_t add
     ElfW(Sym)          sym;
     char               buf[512];
 
+    //build the sorted index the first time, and search it with binary search
+    if(!self->funcs_loaded)
+    {
+        self->funcs_loaded = 1;
+        if(0 == xcd_elf_interface_load_funcs(self)) self->funcs_indexed = 1;
+    }
+    if(self->funcs_indexed)
+    {
+        if(0 == xcd_elf_interface_find_func(self, addr, name, name_offset)) return 0;
+        goto not_found;
+    }
+
+    //linear search if failed to build the index
     TAILQ_FOREACH(symbols, &(self->symbolsq), link)
     {
         for(offset = symbols->sym_offset; offset < symbols->sym_end; offset += symbols->sym_entry_size)
@@ -546,11 +700,81 @@ int xcd_elf_interface_get_function_info(xcd_elf_interface_t *self, uintptr_t add
         }
     }
 
+ not_found:
     *name = NULL;
     *name_offset = 0;
     return XCC_ERRNO_NOTFND;
 }
 
+int xcd_elf_interface_get_cache_tables(xcd_elf_interface_t *self, xcd_cache_table_t *tables)
+{
+    xcd_dwarf_fde_range_t *ranges;
+    size_t                 ranges_cnt;
+
+    memset(tables, 0, sizeof(xcd_cache_table_t) * XCD_CACHE_TABLE_NUM);
+
+    //sorted function symbols
+    if(!self->funcs_loaded)
+    {
+        self->funcs_loaded = 1;
+        if(0 == xcd_elf_interface_load_funcs(self)) self->funcs_indexed = 1;
+    }
+    if(self->funcs_indexed)
+    {
+        tables[XCD_CACHE_TABLE_FUNCS].data = self->funcs;
+        tables[XCD_CACHE_TABLE_FUNCS].cnt = self->funcs_cnt;
+        tables[XCD_CACHE_TABLE_FUNCS].entry_size = sizeof(xcd_elf_func_t);
+    }
+
+    //sorted FDE PC ranges of .eh_frame (without .eh_frame_hdr)
+    if(NULL != self->dwarf_eh_frame && XCD_DWARF_TYPE_EH_FRAME == self->dwarf_eh_frame_type)
+    {
+        if(0 == xcd_dwarf_get_fde_ranges(self->dwarf_eh_frame, &ranges, &ranges_cnt))
+        {
+            tables[XCD_CACHE_TABLE_EH_FRAME].data = ranges;
+            tables[XCD_CACHE_TABLE_EH_FRAME].cnt = ranges_cnt;
+            tables[XCD_CACHE_TABLE_EH_FRAME].entry_size = sizeof(xcd_dwarf_fde_range_t);
+        }
+    }
+
+    //sorted FDE PC ranges of .debug_frame
+    if(NULL != self->dwarf_debug_frame)
+    {
+        if(0 == xcd_dwarf_get_fde_ranges(self->dwarf_debug_frame, &ranges, &ranges_cnt))
+        {
+            tables[XCD_CACHE_TABLE_DEBUG_FRAME].data = ranges;
+            tables[XCD_CACHE_TABLE_DEBUG_FRAME].cnt = ranges_cnt;
+            tables[XCD_CACHE_TABLE_DEBUG_FRAME].entry_size = sizeof(xcd_dwarf_fde_range_t);
+        }
+    }
+
+    return 0;
+}
+
+void xcd_elf_interface_set_cache_tables(xcd_elf_interface_t *self, xcd_cache_table_t *tables)
+{
+    xcd_cache_table_t *t;
+
+    //the tables are mapped from the cache file, and never be freed
+    t = &(tables[XCD_CACHE_TABLE_FUNCS]);
+    if(NULL != t->data && sizeof(xcd_elf_func_t) == t->entry_size && !self->funcs_loaded)
+    {
+        self->funcs = (xcd_elf_func_t *)t->data;
+        self->funcs_cnt = t->cnt;
+        self->funcs_loaded = 1;
+        self->funcs_indexed = 1;
+    }
+
+    t = &(tables[XCD_CACHE_TABLE_EH_FRAME]);
+    if(NULL != t->data && sizeof(xcd_dwarf_fde_range_t) == t->entry_size
+       && NULL != self->dwarf_eh_frame && XCD_DWARF_TYPE_EH_FRAME == self->dwarf_eh_frame_type)
+        xcd_dwarf_set_fde_ranges(self->dwarf_eh_frame, (xcd_dwarf_fde_range_t *)t->data, t->cnt);
+
+    t = &(tables[XCD_CACHE_TABLE_DEBUG_FRAME]);
+    if(NULL != t->data && sizeof(xcd_dwarf_fde_range_t) == t->entry_size && NULL != self->dwarf_debug_frame)
+        xcd_dwarf_set_fde_ranges(self->dwarf_debug_frame, (xcd_dwarf_fde_range_t *)t->data, t->cnt);
+}
+
 int xcd_elf_interface_get_symbol_addr(xcd_elf_interface_t *self, const char *name, uintptr_t *addr)
 {
     xcd_elf_symbols_t *symbols;
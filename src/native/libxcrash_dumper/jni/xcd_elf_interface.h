@@ -28,6 +28,7 @@
 #include <sys/types.h>
 #include "xcd_memory.h"
 #include "xcd_regs.h"
+#include "xcd_cache.h"
 
 #ifdef __cplusplus
 extern "C" {
@@ -50,6 +51,9 @@ int xcd_elf_interface_get_symbol_addr(xcd_elf_interface_t *self, const char *nam
 int xcd_elf_interface_get_build_id(xcd_elf_interface_t *self, uint8_t *build_id, size_t build_id_len, size_t *build_id_len_ret);
 char *xcd_elf_interface_get_so_name(xcd_elf_interface_t *self);
 
+int xcd_elf_interface_get_cache_tables(xcd_elf_interface_t *self, xcd_cache_table_t *tables);
+void xcd_elf_interface_set_cache_tables(xcd_elf_interface_t *self, xcd_cache_table_t *tables);
+
 #ifdef __cplusplus
 }
 #endif
@@ -35,13 +35,15 @@
 #include "xcc_errno.h"
 #include "xcc_util.h"
 #include "xcd_frames.h"
-#include "xcd_md5.h"
+#include "xcd_compact.h"
+#include "xcd_elf_hash.h"
 #include "xcd_util.h"
 #include "xcd_elf.h"
 #include "xcd_log.h"
 
 #define XCD_FRAMES_MAX         256
 #define XCD_FRAMES_STACK_WORDS 16
+#define XCD_FRAMES_SIGNATURE   8
 
 #pragma clang diagnostic push
 #pragma clang diagnostic ignored "-Wpadded"
@@ -246,7 +248,23 @@ int xcd_frames_create(xcd_frames_t **self, xcd_regs_t *regs, xcd_maps_t *maps, p
     return 0;
 }
 
-int xcd_frames_record_backtrace(xcd_frames_t *self, int log_fd)
+void xcd_frames_destroy(xcd_frames_t **self)
+{
+    xcd_frame_t *frame, *frame_tmp;
+
+    if(NULL == *self) return;
+
+    TAILQ_FOREACH_SAFE(frame, &((*self)->frames), link, frame_tmp)
+    {
+        TAILQ_REMOVE(&((*self)->frames), frame, link);
+        if(NULL != frame->func_name) free(frame->func_name);
+        free(frame);
+    }
+    free(*self);
+    *self = NULL;
+}
+
+static int xcd_frames_record_backtrace_to(xcd_frames_t *self, int log_fd, xcd_compact_t *compact)
 {
     xcd_frame_t *frame;
     xcd_elf_t   *elf;
@@ -259,7 +277,14 @@ int xcd_frames_record_backtrace(xcd_frames_t *self, int log_fd)
     char         func_buf[512];
     int          r;
 
-    if(0 != (r = xcc_util_write_str(log_fd, "backtrace:\n"))) return r;
+    if(NULL != compact)
+    {
+        if(0 != (r = xcd_compact_write_mark(compact, XCD_COMPACT_T_BACKTRACE))) return r;
+    }
+    else
+    {
+        if(0 != (r = xcc_util_write_str(log_fd, "backtrace:\n"))) return r;
+    }
     
     TAILQ_FOREACH(frame, &(self->frames), link)
     {
@@ -292,6 +317,15 @@ int xcd_frames_record_backtrace(xcd_frames_t *self, int log_fd)
             if(NULL == name) name = frame->map->name;
         }
 
+        //raw values and symbol references only
+        if(NULL != compact)
+        {
+            if(0 != (r = xcd_compact_write_frame(compact, frame->num, frame->rel_pc, name,
+                                                 NULL == frame->map ? 0 : frame->map->elf_start_offset,
+                                                 frame->func_name, frame->func_offset))) return r;
+            continue;
+        }
+
         //offset
         if(NULL != frame->map && 0 != frame->map->elf_start_offset)
         {
@@ -321,11 +355,28 @@ int xcd_frames_record_backtrace(xcd_frames_t *self, int log_fd)
                                            frame->num, frame->rel_pc, name, offset, func))) return r;
     }
 
-    if(0 != (r = xcc_util_write_str(log_fd, "\n"))) return r;
+    if(NULL != compact)
+    {
+        if(0 != (r = xcd_compact_write_mark(compact, XCD_COMPACT_T_SECTION_END))) return r;
+    }
+    else
+    {
+        if(0 != (r = xcc_util_write_str(log_fd, "\n"))) return r;
+    }
 
     return 0;
 }
 
+int xcd_frames_record_backtrace(xcd_frames_t *self, int log_fd)
+{
+    return xcd_frames_record_backtrace_to(self, log_fd, NULL);
+}
+
+int xcd_frames_record_backtrace_compact(xcd_frames_t *self, xcd_compact_t *compact)
+{
+    return xcd_frames_record_backtrace_to(self, -1, compact);
+}
+
 static int xcd_frames_record_buildid_line(xcd_frames_t *self, const char *name, xcd_map_t *map, int log_fd, int dump_elf_hash)
 {
     char    buf[1024];
@@ -389,7 +440,7 @@ static int xcd_frames_record_buildid_line(xcd_frames_t *self, const char *name,
         offset += (size_t)snprintf(buf + offset, sizeof(buf) - offset, ". LastModified: %s", "unknown");
     }
 
-    //append md5
+    //append hash (MD5 or XXH64)
     if(dump_elf_hash)
     {
         size_t name_len = strlen(name);
@@ -397,25 +448,19 @@ static int xcd_frames_record_buildid_line(xcd_frames_t *self, const char *name,
            && ((name_len > 3 && 0 == memcmp(name + name_len - 3, ".so", 3))
                || (name_len > 12 && 0 == memcmp(name, "/system/bin/", 12))))
         {
-            errno = 0;
-            uint8_t *data = (uint8_t *)mmap(NULL, (size_t)st.st_size, PROT_READ, MAP_PRIVATE, fd, 0);
-            if(data == MAP_FAILED)
+            //precomputed in the background if the ELF hash cache is enabled
+            char hash[XCD_ELF_HASH_STR_LEN];
+            if(0 != xcd_elf_hash_cache_lookup(name, &st, dump_elf_hash, hash, sizeof(hash)))
             {
-                error_from = "MMAP";
-                goto err;
+                errno = 0;
+                if(0 != xcd_elf_hash_file(fd, &st, dump_elf_hash, hash, sizeof(hash)))
+                {
+                    error_from = "MMAP";
+                    goto err;
+                }
             }
             
-            uint8_t md5[16];
-            xcd_MD5_CTX ctx;
-            xcd_MD5_Init(&ctx);
-            xcd_MD5_Update(&ctx, data, (unsigned long)st.st_size);
-            xcd_MD5_Final(md5, &ctx);
-            
-            munmap(data, (size_t)st.st_size);
-            
-            offset += (size_t)snprintf(buf + offset, sizeof(buf) - offset, "%s", ". MD5: ");
-            for(i = 0; i < sizeof(md5); i++)
-                offset += (size_t)snprintf(buf + offset, sizeof(buf) - offset, "%02hhx", md5[i]);
+            offset += (size_t)snprintf(buf + offset, sizeof(buf) - offset, ". %s: %s", xcd_elf_hash_get_name(dump_elf_hash), hash);
         }
     }
 
@@ -485,7 +530,7 @@ int xcd_frames_record_buildid(xcd_frames_t *self, int log_fd, int dump_elf_hash,
     return 0;
 }
 
-static int xcd_frames_record_stack_segment(xcd_frames_t *self, int log_fd,
+static int xcd_frames_record_stack_segment(xcd_frames_t *self, int log_fd, xcd_compact_t *compact,
                                            uintptr_t *sp, size_t words, int label)
 {
     uintptr_t  stack_data[XCD_FRAMES_STACK_WORDS];
@@ -493,6 +538,8 @@ static int xcd_frames_record_stack_segment(xcd_frames_t *self, int log_fd,
     size_t     i;
     char       line[512];
     size_t     line_len = 0;
+    char       name[512];
+    size_t     name_len;
     xcd_map_t *map;
     xcd_elf_t *elf;
     uintptr_t  rel_pc;
@@ -508,25 +555,15 @@ static int xcd_frames_record_stack_segment(xcd_frames_t *self, int log_fd,
     //print
     for(i = 0; i < words; i++)
     {
-        //num
-        if(i == 0 && label >= 0)
-            line_len = (size_t)snprintf(line, sizeof(line), "    #%02d  ", label);
-        else
-            line_len = (size_t)snprintf(line, sizeof(line), "         ");
-
-        //addr, data
-        line_len += (size_t)snprintf(line + line_len, sizeof(line) - line_len,
-                                     "%0"XCC_UTIL_FMT_ADDR"  %0"XCC_UTIL_FMT_ADDR, *sp, stack_data[i]);
-
         //file, func-name, func-offset
+        name[0] = '\0';
         map = NULL;
         func_name = NULL;
         func_offset = 0;
         if(NULL != (map = xcd_maps_find_map(self->maps, stack_data[i])) &&
            NULL != map->name && '\0' != map->name[0])
         {
-            line_len += (size_t)snprintf(line + line_len, sizeof(line) - line_len,
-                                         "  %s", map->name);
+            name_len = (size_t)snprintf(name, sizeof(name), "%s", map->name);
 
             if(NULL != (elf = xcd_map_get_elf(map, self->pid, (void *)self->maps)))
             {
@@ -535,16 +572,38 @@ static int xcd_frames_record_stack_segment(xcd_frames_t *self, int log_fd,
                     name_embedded = xcd_elf_get_so_name(elf);
                     if(NULL != name_embedded && strlen(name_embedded) > 0)
                     {
-                        line_len += (size_t)snprintf(line + line_len, sizeof(line) - line_len, "!%s", name_embedded);
+                        if(name_len < sizeof(name))
+                            snprintf(name + name_len, sizeof(name) - name_len, "!%s", name_embedded);
                     }
                 }
 
                 rel_pc = xcd_map_get_rel_pc(map, stack_data[i], self->pid, (void *)self->maps);
-                
-                func_name = NULL;
-                func_offset = 0;
                 xcd_elf_get_function_info(elf, rel_pc, &func_name, &func_offset);
+            }
+        }
 
+        if(NULL != compact)
+        {
+            //raw values and symbol references only
+            r = xcd_compact_write_stack_word(compact, (i == 0 ? label : -1), *sp, stack_data[i],
+                                             '\0' == name[0] ? NULL : name, func_name, func_offset);
+        }
+        else
+        {
+            //num
+            if(i == 0 && label >= 0)
+                line_len = (size_t)snprintf(line, sizeof(line), "    #%02d  ", label);
+            else
+                line_len = (size_t)snprintf(line, sizeof(line), "         ");
+
+            //addr, data
+            line_len += (size_t)snprintf(line + line_len, sizeof(line) - line_len,
+                                         "%0"XCC_UTIL_FMT_ADDR"  %0"XCC_UTIL_FMT_ADDR, *sp, stack_data[i]);
+
+            //file, func-name, func-offset
+            if('\0' != name[0])
+            {
+                line_len += (size_t)snprintf(line + line_len, sizeof(line) - line_len, "  %s", name);
                 if(NULL != func_name)
                 {
                     if(func_offset > 0)
@@ -555,11 +614,12 @@ static int xcd_frames_record_stack_segment(xcd_frames_t *self, int log_fd,
                                                      " (%s)", func_name);
                 }
             }
+
+            snprintf(line + line_len, sizeof(line) - line_len, "\n");
+            r = xcc_util_write_str(log_fd, line);
         }
         if(NULL != func_name) free(func_name);
-
-        snprintf(line + line_len, sizeof(line) - line_len, "\n");
-        if(0 != (r = xcc_util_write_str(log_fd, line))) return r;
+        if(0 != r) return r;
         
         *sp += sizeof(uintptr_t);
     }
@@ -567,7 +627,7 @@ static int xcd_frames_record_stack_segment(xcd_frames_t *self, int log_fd,
     return 0;
 }
 
-int xcd_frames_record_stack(xcd_frames_t *self, int log_fd)
+static int xcd_frames_record_stack_to(xcd_frames_t *self, int log_fd, xcd_compact_t *compact)
 {
     int          segment_recorded = 0;
     xcd_frame_t *frame, *next_frame;
@@ -576,7 +636,14 @@ int xcd_frames_record_stack(xcd_frames_t *self, int log_fd)
     size_t       words;
     int          r;
     
-    if(0 != (r = xcc_util_write_str(log_fd, "stack:\n"))) return r;
+    if(NULL != compact)
+    {
+        if(0 != (r = xcd_compact_write_mark(compact, XCD_COMPACT_T_STACK))) return r;
+    }
+    else
+    {
+        if(0 != (r = xcc_util_write_str(log_fd, "stack:\n"))) return r;
+    }
 
     TAILQ_FOREACH(frame, &(self->frames), link)
     {
@@ -593,12 +660,19 @@ int xcd_frames_record_stack(xcd_frames_t *self, int log_fd)
         {
             segment_recorded = 1;
             sp = frame->sp - XCD_FRAMES_STACK_WORDS * sizeof(uintptr_t);
-            xcd_frames_record_stack_segment(self, log_fd, &sp, XCD_FRAMES_STACK_WORDS, -1);
+            xcd_frames_record_stack_segment(self, log_fd, compact, &sp, XCD_FRAMES_STACK_WORDS, -1);
         }
 
         if(sp != frame->sp)
         {
-            if(0 != (r = xcc_util_write_str(log_fd, "         ........  ........\n"))) return r;
+            if(NULL != compact)
+            {
+                if(0 != (r = xcd_compact_write_mark(compact, XCD_COMPACT_T_STACK_GAP))) return r;
+            }
+            else
+            {
+                if(0 != (r = xcc_util_write_str(log_fd, "         ........  ........\n"))) return r;
+            }
             sp = frame->sp;
         }
 
@@ -606,7 +680,7 @@ int xcd_frames_record_stack(xcd_frames_t *self, int log_fd)
         if(NULL == next_frame || 0 == next_frame->sp || next_frame->sp < frame->sp)
         {
             //the last
-            xcd_frames_record_stack_segment(self, log_fd, &sp, XCD_FRAMES_STACK_WORDS, (int)frame->num);
+            xcd_frames_record_stack_segment(self, log_fd, compact, &sp, XCD_FRAMES_STACK_WORDS, (int)frame->num);
         }
         else
         {
@@ -617,12 +691,50 @@ int xcd_frames_record_stack(xcd_frames_t *self, int log_fd)
                 words = 1;
             else if(words > XCD_FRAMES_STACK_WORDS)
                 words = XCD_FRAMES_STACK_WORDS;
-            xcd_frames_record_stack_segment(self, log_fd, &sp, words, (int)frame->num);
+            xcd_frames_record_stack_segment(self, log_fd, compact, &sp, words, (int)frame->num);
         }
         
     }
 
-    if(0 != (r = xcc_util_write_str(log_fd, "\n"))) return r;
+    if(NULL != compact)
+    {
+        if(0 != (r = xcd_compact_write_mark(compact, XCD_COMPACT_T_SECTION_END))) return r;
+    }
+    else
+    {
+        if(0 != (r = xcc_util_write_str(log_fd, "\n"))) return r;
+    }
 
     return 0;
 }
+
+int xcd_frames_record_stack(xcd_frames_t *self, int log_fd)
+{
+    return xcd_frames_record_stack_to(self, log_fd, NULL);
+}
+
+int xcd_frames_record_stack_compact(xcd_frames_t *self, xcd_compact_t *compact)
+{
+    return xcd_frames_record_stack_to(self, -1, compact);
+}
+
+uint64_t xcd_frames_get_signature(xcd_frames_t *self, uint64_t hash)
+{
+    xcd_frame_t *frame;
+    uintptr_t    rel_pc;
+    size_t       i = 0;
+
+    //only the top frames, and only the parts which are not affected by ASLR
+    TAILQ_FOREACH(frame, &(self->frames), link)
+    {
+        if(i++ >= XCD_FRAMES_SIGNATURE) break;
+
+        if(NULL != frame->map && NULL != frame->map->name)
+            hash = xcd_util_hash(hash, frame->map->name, strlen(frame->map->name));
+
+        rel_pc = (NULL == frame->map ? 0 : frame->rel_pc);
+        hash = xcd_util_hash(hash, &rel_pc, sizeof(rel_pc));
+    }
+
+    return hash;
+}
@@ -28,6 +28,7 @@
 #include <sys/types.h>
 #include "xcd_regs.h"
 #include "xcd_maps.h"
+#include "xcd_compact.h"
 
 #ifdef __cplusplus
 extern "C" {
@@ -42,6 +43,11 @@ int xcd_frames_record_backtrace(xcd_frames_t *self, int log_fd);
 int xcd_frames_record_buildid(xcd_frames_t *self, int log_fd, int dump_elf_hash, uintptr_t fault_addr);
 int xcd_frames_record_stack(xcd_frames_t *self, int log_fd);
 
+int xcd_frames_record_backtrace_compact(xcd_frames_t *self, xcd_compact_t *compact);
+int xcd_frames_record_stack_compact(xcd_frames_t *self, xcd_compact_t *compact);
+
+uint64_t xcd_frames_get_signature(xcd_frames_t *self, uint64_t hash);
+
 #ifdef __cplusplus
 }
 #endif
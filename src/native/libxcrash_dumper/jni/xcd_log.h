@@ -51,6 +51,8 @@ extern "C" {
 #define XCD_FRAMES_DEBUG        0
 #define XCD_DWARF_DEBUG         0
 #define XCD_ARM_EXIDX_DEBUG     0
+#define XCD_CACHE_DEBUG         0
+#define XCD_ELF_HASH_DEBUG      0
 
 #ifdef __cplusplus
 }
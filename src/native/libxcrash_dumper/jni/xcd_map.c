@@ -28,15 +28,19 @@
 #include "xcc_errno.h"
 #include "xcc_util.h"
 #include "xcd_map.h"
+#include "xcd_maps.h"
+#include "xcd_cache.h"
 #include "xcd_util.h"
 #include "xcd_log.h"
 
 int xcd_map_init(xcd_map_t *self, uintptr_t start, uintptr_t end, size_t offset,
-                 const char * flags, const char *name)
+                 const char * flags, uint64_t dev, uint64_t inode, char *name)
 {
     self->start  = start;
     self->end    = end;
     self->offset = offset;
+    self->dev    = dev;
+    self->inode  = inode;
     
     self->flags  = PROT_NONE;
     if(flags[0] == 'r') self->flags |= PROT_READ;
@@ -52,7 +56,8 @@ int xcd_map_init(xcd_map_t *self, uintptr_t start, uintptr_t end, size_t offset,
         if(0 == strncmp(name, "/dev/", 5) && 0 != strncmp(name + 5, "ashmem/", 7))
             self->flags |= XCD_MAP_PORT_DEVICE;
         
-        if(NULL == (self->name = strdup(name))) return XCC_ERRNO_NOMEM;
+        //owned by the caller
+        self->name = name;
     }
 
     self->elf = NULL;
@@ -65,11 +70,10 @@ int xcd_map_init(xcd_map_t *self, uintptr_t start, uintptr_t end, size_t offset,
 
 void xcd_map_uninit(xcd_map_t *self)
 {
-    free(self->name);
     self->name = NULL;
 }
 
-xcd_elf_t *xcd_map_get_elf(xcd_map_t *self, pid_t pid, void *maps_obj)
+static xcd_elf_t *xcd_map_get_elf_locked(xcd_map_t *self, pid_t pid, void *maps_obj)
 {
     xcd_memory_t *memory = NULL;
     xcd_elf_t    *elf = NULL;
@@ -77,17 +81,38 @@ xcd_elf_t *xcd_map_get_elf(xcd_map_t *self, pid_t pid, void *maps_obj)
     if(NULL == self->elf && 0 == self->elf_loaded)
     {
         self->elf_loaded = 1;
+
+        //shared with the other maps of the same ELF file
+        if(NULL != (self->elf = xcd_maps_find_elf((xcd_maps_t *)maps_obj, self))) return self->elf;
         
         if(0 != xcd_memory_create(&memory, self, pid, maps_obj)) return NULL;
 
         if(0 != xcd_elf_create(&elf, pid, memory)) return NULL;
         
         self->elf = elf;
+
+        //only the ELF read from file can be shared, and use the unwind cache
+        if(xcd_memory_is_file(memory))
+        {
+            xcd_cache_attach(elf);
+            xcd_maps_add_elf((xcd_maps_t *)maps_obj, self, elf);
+        }
     }
 
     return self->elf;
 }
 
+xcd_elf_t *xcd_map_get_elf(xcd_map_t *self, pid_t pid, void *maps_obj)
+{
+    xcd_elf_t *elf;
+
+    //the threads may be unwound concurrently
+    xcd_maps_lock((xcd_maps_t *)maps_obj);
+    elf = xcd_map_get_elf_locked(self, pid, maps_obj);
+    xcd_maps_unlock((xcd_maps_t *)maps_obj);
+    return elf;
+}
+
 uintptr_t xcd_map_get_rel_pc(xcd_map_t *self, uintptr_t pc, pid_t pid, void *maps_obj)
 {
     xcd_elf_t *elf = xcd_map_get_elf(self, pid, maps_obj);
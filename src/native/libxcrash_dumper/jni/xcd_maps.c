@@ -22,9 +22,13 @@
 // Created by caikelun on 2019-03-07.
 
 #include <inttypes.h>
+#include <errno.h>
 #include <stdio.h>
 #include <string.h>
 #include <stdlib.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <pthread.h>
 #include <sys/mman.h>
 #include "queue.h"
 #include "xcc_errno.h"
@@ -32,8 +36,12 @@
 #include "xcd_maps.h"
 #include "xcd_map.h"
 #include "xcd_util.h"
+#include "xcd_arena.h"
 #include "xcd_log.h"
 
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wgnu-statement-expression"
+
 typedef struct xcd_maps_item
 {
     xcd_map_t map;
@@ -41,74 +49,262 @@ typedef struct xcd_maps_item
 } xcd_maps_item_t;
 typedef TAILQ_HEAD(xcd_maps_item_queue, xcd_maps_item,) xcd_maps_item_queue_t;
 
+#define XCD_MAPS_READ_BUF_SIZE    (64 * 1024)
+#define XCD_MAPS_ARENA_CHUNK_SIZE (64 * 1024)
+#define XCD_MAPS_NAME_BUCKETS     1024
+
 #pragma clang diagnostic push
 #pragma clang diagnostic ignored "-Wpadded"
+typedef struct xcd_maps_name
+{
+    struct xcd_maps_name *next;
+    uint64_t              hash;
+    size_t                len;
+    char                 *str;
+} xcd_maps_name_t;
+
+//ELF registry, keyed by (dev, inode, offset of the ELF in file)
+typedef struct xcd_maps_elf
+{
+    struct xcd_maps_elf  *next;
+    uint64_t              dev;
+    uint64_t              inode;
+    size_t                start_offset;
+    size_t                size;
+    xcd_elf_t            *elf;
+} xcd_maps_elf_t;
+
 struct xcd_maps
 {
     xcd_maps_item_queue_t maps;
     pid_t                 pid;
+
+    //all the items and interned names are allocated from the arena
+    xcd_arena_t          *arena;
+    xcd_maps_name_t     **names;
+    xcd_maps_elf_t       *elfs;
+
+    //sorted by start address, for binary search
+    xcd_maps_item_t     **index;
+    size_t                index_cnt;
+    xcd_maps_item_t      *last_hit;
+
+    //protects the ELF registry, the arena and the lazily loaded ELF of each map
+    pthread_mutex_t       lock;
 };
 #pragma clang diagnostic pop
 
-static int xcd_maps_parse_line(char *line, xcd_maps_item_t **mi)
+static int xcd_maps_index_cmp(const void *a, const void *b)
 {
-    uintptr_t  start;
-    uintptr_t  end;
-    char       flags[5];
-    size_t     offset;
-    int        pos;
-    char      *name;
+    const xcd_maps_item_t *mi_a = *((xcd_maps_item_t * const *)a);
+    const xcd_maps_item_t *mi_b = *((xcd_maps_item_t * const *)b);
 
-    *mi = NULL;
-    
-    //scan
-    if(sscanf(line, "%"SCNxPTR"-%"SCNxPTR" %4s %"SCNxPTR" %*x:%*x %*d%n", &start, &end, flags, &offset, &pos) != 4) return 0;
-    name = xcc_util_trim(line + pos);
+    if(mi_a->map.start < mi_b->map.start) return -1;
+    if(mi_a->map.start > mi_b->map.start) return 1;
+    return 0;
+}
+
+static void xcd_maps_build_index(xcd_maps_t *self)
+{
+    xcd_maps_item_t *mi;
+    size_t           cnt = 0;
+    int              sorted = 1;
+
+    TAILQ_FOREACH(mi, &(self->maps), link) cnt++;
+    if(0 == cnt) return;
+
+    //fall back to linear search if failed
+    if(NULL == (self->index = malloc(sizeof(xcd_maps_item_t *) * cnt))) return;
+
+    TAILQ_FOREACH(mi, &(self->maps), link)
+    {
+        if(self->index_cnt > 0 && mi->map.start < self->index[self->index_cnt - 1]->map.start) sorted = 0;
+        self->index[self->index_cnt++] = mi;
+    }
+
+    //the kernel always outputs the maps in address order, this is just in case
+    if(!sorted) qsort(self->index, self->index_cnt, sizeof(xcd_maps_item_t *), xcd_maps_index_cmp);
+}
+
+static char *xcd_maps_parse_hex(char *p, uintptr_t *value)
+{
+    char      *start = p;
+    uintptr_t  v = 0;
+
+    for(;; p++)
+    {
+        if(*p >= '0' && *p <= '9')
+            v = (v << 4) | (uintptr_t)(*p - '0');
+        else if(*p >= 'a' && *p <= 'f')
+            v = (v << 4) | (uintptr_t)(*p - 'a' + 10);
+        else if(*p >= 'A' && *p <= 'F')
+            v = (v << 4) | (uintptr_t)(*p - 'A' + 10);
+        else
+            break;
+    }
+    if(p == start) return NULL;
+
+    *value = v;
+    return p;
+}
+
+static char *xcd_maps_parse_dec(char *p, uintptr_t *value)
+{
+    char      *start = p;
+    uintptr_t  v = 0;
+
+    for(; *p >= '0' && *p <= '9'; p++)
+        v = v * 10 + (uintptr_t)(*p - '0');
+    if(p == start) return NULL;
+
+    *value = v;
+    return p;
+}
+
+static char *xcd_maps_intern_name(xcd_maps_t *self, const char *name, size_t len)
+{
+    xcd_maps_name_t *n;
+    uint64_t         hash = xcd_util_hash(XCD_UTIL_HASH_INIT, name, len);
+    size_t           bucket = (size_t)hash & (XCD_MAPS_NAME_BUCKETS - 1);
+
+    //find
+    for(n = self->names[bucket]; NULL != n; n = n->next)
+        if(n->hash == hash && n->len == len && 0 == memcmp(n->str, name, len))
+            return n->str;
+
+    //add
+    if(NULL == (n = xcd_arena_alloc(self->arena, sizeof(xcd_maps_name_t)))) return NULL;
+    if(NULL == (n->str = xcd_arena_strndup(self->arena, name, len))) return NULL;
+    n->hash = hash;
+    n->len = len;
+    n->next = self->names[bucket];
+    self->names[bucket] = n;
+    return n->str;
+}
+
+static int xcd_maps_parse_line(xcd_maps_t *self, char *line, char *line_end)
+{
+    uintptr_t        start;
+    uintptr_t        end;
+    uintptr_t        offset;
+    uintptr_t        dev_major;
+    uintptr_t        dev_minor;
+    uintptr_t        inode;
+    char            *flags;
+    char            *name = NULL;
+    size_t           name_len;
+    char            *p = line;
+    xcd_maps_item_t *mi;
+    int              r;
+
+    //format: start-end flags offset dev_major:dev_minor inode [name]
+    if(NULL == (p = xcd_maps_parse_hex(p, &start)) || '-' != *p++) return 0;
+    if(NULL == (p = xcd_maps_parse_hex(p, &end)) || ' ' != *p++) return 0;
+    if(line_end - p < 5 || ' ' != p[4]) return 0;
+    flags = p;
+    p += 5;
+    if(NULL == (p = xcd_maps_parse_hex(p, &offset)) || ' ' != *p++) return 0;
+    if(NULL == (p = xcd_maps_parse_hex(p, &dev_major)) || ':' != *p++) return 0;
+    if(NULL == (p = xcd_maps_parse_hex(p, &dev_minor)) || ' ' != *p++) return 0;
+    if(NULL == (p = xcd_maps_parse_dec(p, &inode))) return 0;
+
+    //name (trimmed)
+    while(' ' == *p || '\t' == *p) p++;
+    name_len = (size_t)(line_end - p);
+    while(name_len > 0 && (' ' == p[name_len - 1] || '\t' == p[name_len - 1] || '\r' == p[name_len - 1])) name_len--;
+    if(name_len > 0)
+        if(NULL == (name = xcd_maps_intern_name(self, p, name_len))) return XCC_ERRNO_NOMEM;
     
     //create map
-    if(NULL == (*mi = malloc(sizeof(xcd_maps_item_t)))) return XCC_ERRNO_NOMEM;
-    return xcd_map_init(&((*mi)->map), start, end, offset, flags, name);
+    if(NULL == (mi = xcd_arena_alloc(self->arena, sizeof(xcd_maps_item_t)))) return XCC_ERRNO_NOMEM;
+    if(0 != (r = xcd_map_init(&(mi->map), start, end, (size_t)offset, flags,
+                              ((uint64_t)dev_major << 32) | (uint64_t)dev_minor, (uint64_t)inode, name))) return r;
+    
+    TAILQ_INSERT_TAIL(&(self->maps), mi, link);
+    return 0;
 }
 
 int xcd_maps_create(xcd_maps_t **self, pid_t pid)
 {
-    char             buf[512];
-    FILE            *fp;
-    xcd_maps_item_t *mi;
-    int              r;
+    char             path[64];
+    char            *buf = NULL;
+    size_t           len = 0;
+    ssize_t          n;
+    char            *line, *nl;
+    int              fd = -1;
+    int              r = 0;
 
     if(NULL == (*self = malloc(sizeof(xcd_maps_t)))) return XCC_ERRNO_NOMEM;
     TAILQ_INIT(&((*self)->maps));
     (*self)->pid = pid;
+    (*self)->index = NULL;
+    (*self)->index_cnt = 0;
+    (*self)->last_hit = NULL;
+    (*self)->names = NULL;
+    (*self)->elfs = NULL;
+    pthread_mutex_init(&((*self)->lock), NULL);
+    if(0 != (r = xcd_arena_create(&((*self)->arena), XCD_MAPS_ARENA_CHUNK_SIZE))) return r;
+    if(NULL == ((*self)->names = xcd_arena_alloc((*self)->arena, sizeof(xcd_maps_name_t *) * XCD_MAPS_NAME_BUCKETS))) return XCC_ERRNO_NOMEM;
+    memset((*self)->names, 0, sizeof(xcd_maps_name_t *) * XCD_MAPS_NAME_BUCKETS);
 
-    snprintf(buf, sizeof(buf), "/proc/%d/maps", pid);
-    if(NULL == (fp = fopen(buf, "r"))) return XCC_ERRNO_SYS;
+    snprintf(path, sizeof(path), "/proc/%d/maps", pid);
+    if(0 > (fd = XCC_UTIL_TEMP_FAILURE_RETRY(open(path, O_RDONLY | O_CLOEXEC)))) return XCC_ERRNO_SYS;
+    if(NULL == (buf = malloc(XCD_MAPS_READ_BUF_SIZE)))
+    {
+        r = XCC_ERRNO_NOMEM;
+        goto end;
+    }
 
-    while(fgets(buf, sizeof(buf), fp))
+    //read in large chunks, and parse all the complete lines in each chunk
+    while(0 < (n = XCC_UTIL_TEMP_FAILURE_RETRY(read(fd, buf + len, XCD_MAPS_READ_BUF_SIZE - 1 - len))))
     {
-        if(0 != (r = xcd_maps_parse_line(buf, &mi)))
+        len += (size_t)n;
+
+        line = buf;
+        while(NULL != (nl = memchr(line, '\n', len - (size_t)(line - buf))))
         {
-            fclose(fp);
-            return r;
+            *nl = '\0';
+            if(0 != (r = xcd_maps_parse_line(*self, line, nl))) goto end;
+            line = nl + 1;
         }
-        
-        if(NULL != mi)
-            TAILQ_INSERT_TAIL(&((*self)->maps), mi, link);
+        len -= (size_t)(line - buf);
+        if(len > 0 && line != buf) memmove(buf, line, len);
+
+        //line too long (impossible)
+        if(XCD_MAPS_READ_BUF_SIZE - 1 == len) len = 0;
     }
-    
-    fclose(fp);
-    return 0;
+    if(n < 0)
+    {
+        r = XCC_ERRNO_SYS;
+        goto end;
+    }
+
+    //the last line without '\n'
+    if(len > 0)
+    {
+        buf[len] = '\0';
+        if(0 != (r = xcd_maps_parse_line(*self, buf, buf + len))) goto end;
+    }
+
+    xcd_maps_build_index(*self);
+
+ end:
+    if(NULL != buf) free(buf);
+    close(fd);
+    return r;
 }
 
 void xcd_maps_destroy(xcd_maps_t **self)
 {
-    xcd_maps_item_t *mi, *mi_tmp;
-    TAILQ_FOREACH_SAFE(mi, &((*self)->maps), link, mi_tmp)
-    {
-        TAILQ_REMOVE(&((*self)->maps), mi, link);
+    xcd_maps_item_t *mi;
+    TAILQ_FOREACH(mi, &((*self)->maps), link)
         xcd_map_uninit(&(mi->map));
-        free(mi);
-    }
+    
+    //free all the items and names at once
+    xcd_arena_destroy(&((*self)->arena));
+    if(NULL != (*self)->index) free((*self)->index);
+    pthread_mutex_destroy(&((*self)->lock));
+    free(*self);
 
     *self = NULL;
 }
@@ -116,12 +312,39 @@ void xcd_maps_destroy(xcd_maps_t **self)
 xcd_map_t *xcd_maps_find_map(xcd_maps_t *self, uintptr_t pc)
 {
     xcd_maps_item_t *mi;
+    size_t           lo, hi, mid;
 
-    TAILQ_FOREACH(mi, &(self->maps), link)
+    //consecutive frames are usually in the same map
+    if(NULL != (mi = __atomic_load_n(&(self->last_hit), __ATOMIC_RELAXED)))
         if(pc >= mi->map.start && pc < mi->map.end)
             return &(mi->map);
 
-    return NULL;
+    if(NULL == self->index)
+    {
+        TAILQ_FOREACH(mi, &(self->maps), link)
+            if(pc >= mi->map.start && pc < mi->map.end)
+                goto found;
+        return NULL;
+    }
+
+    //find the last map which start <= pc
+    lo = 0;
+    hi = self->index_cnt;
+    while(lo < hi)
+    {
+        mid = lo + (hi - lo) / 2;
+        if(self->index[mid]->map.start <= pc)
+            lo = mid + 1;
+        else
+            hi = mid;
+    }
+    if(0 == lo) return NULL;
+    mi = self->index[lo - 1];
+    if(pc >= mi->map.end) return NULL;
+
+ found:
+    __atomic_store_n(&(self->last_hit), mi, __ATOMIC_RELAXED);
+    return &(mi->map);
 }
 
 xcd_map_t *xcd_maps_get_prev_map(xcd_maps_t *self, xcd_map_t *cur_map)
@@ -134,6 +357,63 @@ xcd_map_t *xcd_maps_get_prev_map(xcd_maps_t *self, xcd_map_t *cur_map)
     return (NULL == prev_mi ? NULL : &(prev_mi->map));
 }
 
+xcd_map_t *xcd_maps_get_next_map(xcd_maps_t *self, xcd_map_t *cur_map)
+{
+    xcd_maps_item_t *cur_mi = (xcd_maps_item_t *)cur_map;
+    xcd_maps_item_t *next_mi = (NULL == cur_mi ? TAILQ_FIRST(&(self->maps)) : TAILQ_NEXT(cur_mi, link));
+
+    return (NULL == next_mi ? NULL : &(next_mi->map));
+}
+
+void xcd_maps_lock(xcd_maps_t *self)
+{
+    pthread_mutex_lock(&(self->lock));
+}
+
+void xcd_maps_unlock(xcd_maps_t *self)
+{
+    pthread_mutex_unlock(&(self->lock));
+}
+
+xcd_elf_t *xcd_maps_find_elf(xcd_maps_t *self, xcd_map_t *map)
+{
+    xcd_maps_elf_t *e;
+
+    if(0 == map->inode) return NULL;
+
+    //is this map inside an ELF which has already been loaded from the same file?
+    for(e = self->elfs; NULL != e; e = e->next)
+    {
+        if(e->dev == map->dev && e->inode == map->inode &&
+           map->offset >= e->start_offset && map->offset - e->start_offset < e->size)
+        {
+            map->elf_start_offset = e->start_offset;
+            map->elf_offset = map->offset - e->start_offset;
+            return e->elf;
+        }
+    }
+
+    return NULL;
+}
+
+void xcd_maps_add_elf(xcd_maps_t *self, xcd_map_t *map, xcd_elf_t *elf)
+{
+    xcd_maps_elf_t *e;
+    size_t          size;
+
+    if(0 == map->inode) return;
+    if(0 == (size = xcd_elf_get_max_size(xcd_elf_get_memory(elf)))) return;
+
+    if(NULL == (e = xcd_arena_alloc(self->arena, sizeof(xcd_maps_elf_t)))) return;
+    e->dev = map->dev;
+    e->inode = map->inode;
+    e->start_offset = map->elf_start_offset;
+    e->size = size;
+    e->elf = elf;
+    e->next = self->elfs;
+    self->elfs = e;
+}
+
 uintptr_t xcd_maps_find_pc(xcd_maps_t *self, const char *pathname, const char *symbol)
 {
     xcd_maps_item_t *mi;
@@ -244,3 +524,5 @@ int xcd_maps_record(xcd_maps_t *self, int log_fd)
 
     return 0;
 }
+
+#pragma clang diagnostic pop
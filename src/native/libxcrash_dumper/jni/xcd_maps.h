@@ -39,6 +39,13 @@ void xcd_maps_destroy(xcd_maps_t **self);
 
 xcd_map_t *xcd_maps_find_map(xcd_maps_t *self, uintptr_t pc);
 xcd_map_t *xcd_maps_get_prev_map(xcd_maps_t *self, xcd_map_t *cur_map);
+xcd_map_t *xcd_maps_get_next_map(xcd_maps_t *self, xcd_map_t *cur_map);
+
+void xcd_maps_lock(xcd_maps_t *self);
+void xcd_maps_unlock(xcd_maps_t *self);
+
+xcd_elf_t *xcd_maps_find_elf(xcd_maps_t *self, xcd_map_t *map);
+void xcd_maps_add_elf(xcd_maps_t *self, xcd_map_t *map, xcd_elf_t *elf);
 
 uintptr_t xcd_maps_find_pc(xcd_maps_t *self, const char *pathname, const char *symbol);
 
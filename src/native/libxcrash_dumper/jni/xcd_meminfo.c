@@ -496,7 +496,35 @@ static int xcd_meminfo_record_proc_status(int log_fd, pid_t pid)
     return r;
 }
 
-int xcd_meminfo_record(int log_fd, pid_t pid)
+static int xcd_meminfo_record_rollup(int log_fd, pid_t pid, FILE *fp)
+{
+    char  line[512];
+    char *p;
+    int   r = 0;
+
+    if(0 != (r = xcc_util_write_str(log_fd, "memory info:\n"))) goto end;
+    if(0 != (r = xcd_meminfo_record_sys(log_fd))) goto end;
+    if(0 != (r = xcd_meminfo_record_proc_status(log_fd, pid))) goto end;
+    if(0 != (r = xcc_util_write_str(log_fd, " Process Summary (From: /proc/PID/smaps_rollup)\n"))) goto end;
+    while(NULL != fgets(line, sizeof(line), fp))
+    {
+        //skip the header line of the rollup mapping
+        if(NULL != strstr(line, "[rollup]")) continue;
+
+        p = xcc_util_trim(line);
+        if(strlen(p) > 0)
+        {
+            if(0 != (r = xcc_util_write_format(log_fd, "  %s\n", p))) goto end;
+        }
+    }
+    if(0 != (r = xcc_util_write_str(log_fd, "-\n\n"))) goto end;
+
+ end:
+    fclose(fp);
+    return r;
+}
+
+int xcd_meminfo_record(int log_fd, pid_t pid, int mode)
 {
     char           path[64];
     FILE          *fp = NULL;
@@ -506,6 +534,15 @@ int xcd_meminfo_record(int log_fd, pid_t pid)
     size_t         i;
     int            r = 0;
 
+    if(XCD_MEMINFO_MODE_NONE == mode) return 0;
+
+    //the kernel sums up all the mappings without generating the text of each one (Linux 4.14+)
+    if(XCD_MEMINFO_MODE_ROLLUP == mode)
+    {
+        snprintf(path, sizeof(path), "/proc/%d/smaps_rollup", pid);
+        if(NULL != (fp = fopen(path, "r"))) return xcd_meminfo_record_rollup(log_fd, pid, fp);
+    }
+
     memset(stats, 0, sizeof(stats));
     memset(&total, 0, sizeof(total));
 
@@ -31,7 +31,11 @@
 extern "C" {
 #endif
 
-int xcd_meminfo_record(int log_fd, pid_t pid);
+#define XCD_MEMINFO_MODE_NONE   0
+#define XCD_MEMINFO_MODE_FULL   1 //per-heap breakdown from /proc/PID/smaps
+#define XCD_MEMINFO_MODE_ROLLUP 2 //summary from /proc/PID/smaps_rollup (fall back to FULL if not available)
+
+int xcd_meminfo_record(int log_fd, pid_t pid, int mode);
 
 #ifdef __cplusplus
 }
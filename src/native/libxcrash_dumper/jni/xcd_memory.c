@@ -84,6 +84,11 @@ void xcd_memory_destroy(xcd_memory_t **self)
     *self = NULL;
 }
 
+int xcd_memory_is_file(xcd_memory_t *self)
+{
+    return (&xcd_memory_file_handlers == self->handlers ? 1 : 0);
+}
+
 size_t xcd_memory_read(xcd_memory_t *self, uintptr_t addr, void *dst, size_t size)
 {
     return self->handlers->read(self->obj, addr, dst, size);
@@ -42,6 +42,7 @@ typedef struct
 int xcd_memory_create(xcd_memory_t **self, void *map_obj, pid_t pid, void *maps_obj);
 int xcd_memory_create_from_buf(xcd_memory_t **self, uint8_t *buf, size_t len);
 void xcd_memory_destroy(xcd_memory_t **self);
+int xcd_memory_is_file(xcd_memory_t *self);
 
 size_t xcd_memory_read(xcd_memory_t *self, uintptr_t addr, void *dst, size_t size);
 int xcd_memory_read_fully(xcd_memory_t *self, uintptr_t addr, void* dst, size_t size);
@@ -0,0 +1,553 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <time.h>
+#include <signal.h>
+#include <sys/types.h>
+#include <sys/mman.h>
+#include <sys/utsname.h>
+#include "xcc_errno.h"
+#include "xcc_util.h"
+#include "xcd_minidump.h"
+#include "xcd_map.h"
+#include "xcd_elf.h"
+#include "xcd_util.h"
+
+//All the integers are written in the native byte order, which is little-endian on all Android ABIs.
+
+#define XCD_MINIDUMP_SIGNATURE            0x504d444d //"MDMP"
+#define XCD_MINIDUMP_VERSION              0xa793
+#define XCD_MINIDUMP_CV_SIGNATURE         0x4c457042 //"BpEL"
+#define XCD_MINIDUMP_OS_ANDROID           0x8205
+
+#define XCD_MINIDUMP_STREAM_THREAD_LIST   3
+#define XCD_MINIDUMP_STREAM_MODULE_LIST   4
+#define XCD_MINIDUMP_STREAM_MEMORY_LIST   5
+#define XCD_MINIDUMP_STREAM_EXCEPTION     6
+#define XCD_MINIDUMP_STREAM_SYSTEM_INFO   7
+#define XCD_MINIDUMP_STREAM_LINUX_MAPS    0x47670009
+#define XCD_MINIDUMP_STREAMS_MAX          6
+
+#define XCD_MINIDUMP_HEADER_SIZE          32
+#define XCD_MINIDUMP_DIRECTORY_SIZE       12
+#define XCD_MINIDUMP_SYSTEM_INFO_SIZE     56
+#define XCD_MINIDUMP_THREAD_SIZE          48
+#define XCD_MINIDUMP_MEMORY_SIZE          16
+#define XCD_MINIDUMP_MODULE_SIZE          108
+#define XCD_MINIDUMP_EXCEPTION_SIZE       168
+
+#if defined(__arm__)
+#define XCD_MINIDUMP_CPU_ARCH             5
+#elif defined(__aarch64__)
+#define XCD_MINIDUMP_CPU_ARCH             12
+#elif defined(__i386__)
+#define XCD_MINIDUMP_CPU_ARCH             0
+#elif defined(__x86_64__)
+#define XCD_MINIDUMP_CPU_ARCH             9
+#endif
+
+#define XCD_MINIDUMP_STACK_RED_ZONE       128
+#define XCD_MINIDUMP_STACK_BYTES_MAX      (32 * 1024)
+#define XCD_MINIDUMP_PC_BYTES             256
+#define XCD_MINIDUMP_BUF_SIZE             4096
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wpadded"
+typedef struct
+{
+    uint8_t *data;
+    size_t   item_size;
+    size_t   cnt;
+    size_t   cap;
+} xcd_minidump_table_t;
+
+struct xcd_minidump
+{
+    int                   fd;
+    pid_t                 pid;
+    xcd_maps_t           *maps;
+    uint32_t              pos;
+    uint8_t               buf[XCD_MINIDUMP_BUF_SIZE];
+    size_t                buf_len;
+    xcd_minidump_table_t  threads;
+    xcd_minidump_table_t  memories;
+    xcd_minidump_table_t  modules;
+    uint8_t               exception[XCD_MINIDUMP_EXCEPTION_SIZE];
+    int                   exception_set;
+    uint8_t               directory[XCD_MINIDUMP_STREAMS_MAX * XCD_MINIDUMP_DIRECTORY_SIZE];
+    size_t                directory_cnt;
+};
+#pragma clang diagnostic pop
+
+static void xcd_minidump_put_u16(uint8_t *buf, size_t offset, uint16_t value)
+{
+    memcpy(buf + offset, &value, sizeof(value));
+}
+
+static void xcd_minidump_put_u32(uint8_t *buf, size_t offset, uint32_t value)
+{
+    memcpy(buf + offset, &value, sizeof(value));
+}
+
+static void xcd_minidump_put_u64(uint8_t *buf, size_t offset, uint64_t value)
+{
+    memcpy(buf + offset, &value, sizeof(value));
+}
+
+static int xcd_minidump_table_append(xcd_minidump_table_t *self, const uint8_t *item)
+{
+    uint8_t *data;
+    size_t   cap;
+
+    if(self->cnt == self->cap)
+    {
+        cap = (0 == self->cap ? 64 : self->cap * 2);
+        if(NULL == (data = realloc(self->data, cap * self->item_size))) return XCC_ERRNO_NOMEM;
+        self->data = data;
+        self->cap = cap;
+    }
+
+    memcpy(self->data + self->cnt * self->item_size, item, self->item_size);
+    self->cnt++;
+    return 0;
+}
+
+static int xcd_minidump_flush(xcd_minidump_t *self)
+{
+    int r;
+
+    if(0 == self->buf_len) return 0;
+
+    r = xcc_util_write(self->fd, (const char *)self->buf, self->buf_len);
+    self->buf_len = 0;
+    return r;
+}
+
+//write at the current position
+static int xcd_minidump_write_raw(xcd_minidump_t *self, const void *data, size_t len)
+{
+    int r;
+
+    if(len > UINT32_MAX - self->pos) return XCC_ERRNO_RANGE;
+
+    if(len > sizeof(self->buf) - self->buf_len)
+    {
+        if(0 != (r = xcd_minidump_flush(self))) return r;
+        if(len > sizeof(self->buf))
+        {
+            if(0 != (r = xcc_util_write(self->fd, data, len))) return r;
+            self->pos += (uint32_t)len;
+            return 0;
+        }
+    }
+
+    memcpy(self->buf + self->buf_len, data, len);
+    self->buf_len += len;
+    self->pos += (uint32_t)len;
+    return 0;
+}
+
+static int xcd_minidump_align(xcd_minidump_t *self)
+{
+    uint8_t zeros[8] = {0};
+
+    if(0 == (self->pos & 7)) return 0;
+    return xcd_minidump_write_raw(self, zeros, 8 - (self->pos & 7));
+}
+
+//write at the next 8 bytes aligned position, and return the location descriptor
+static int xcd_minidump_write(xcd_minidump_t *self, const void *data, size_t len, uint8_t *location)
+{
+    int r;
+
+    if(0 != (r = xcd_minidump_align(self))) return r;
+    if(NULL != location)
+    {
+        xcd_minidump_put_u32(location, 0, (uint32_t)len);
+        xcd_minidump_put_u32(location, 4, self->pos);
+    }
+    return xcd_minidump_write_raw(self, data, len);
+}
+
+//MDString: length in bytes, UTF-16LE chars and a terminator (the chars are widened from bytes)
+static int xcd_minidump_write_string(xcd_minidump_t *self, const char *str, uint32_t *rva)
+{
+    uint8_t  buf[4 + 2 * 512 + 2];
+    uint8_t  location[8];
+    size_t   len = strlen(str), i;
+    int      r;
+
+    if(len > 512) len = 512;
+
+    xcd_minidump_put_u32(buf, 0, (uint32_t)(len * 2));
+    for(i = 0; i < len; i++)
+        xcd_minidump_put_u16(buf, 4 + i * 2, (uint16_t)(uint8_t)str[i]);
+    xcd_minidump_put_u16(buf, 4 + len * 2, 0);
+
+    if(0 != (r = xcd_minidump_write(self, buf, 4 + len * 2 + 2, location))) return r;
+    memcpy(rva, location + 4, sizeof(uint32_t));
+    return 0;
+}
+
+static int xcd_minidump_add_stream(xcd_minidump_t *self, uint32_t type, const void *data, size_t len)
+{
+    uint8_t *entry = self->directory + self->directory_cnt * XCD_MINIDUMP_DIRECTORY_SIZE;
+    int      r;
+
+    if(self->directory_cnt >= XCD_MINIDUMP_STREAMS_MAX) return XCC_ERRNO_NOSPACE;
+
+    xcd_minidump_put_u32(entry, 0, type);
+    if(0 != (r = xcd_minidump_write(self, data, len, entry + 4))) return r;
+    self->directory_cnt++;
+    return 0;
+}
+
+//list stream: count and items
+static int xcd_minidump_add_list_stream(xcd_minidump_t *self, uint32_t type, xcd_minidump_table_t *table)
+{
+    uint8_t *entry = self->directory + self->directory_cnt * XCD_MINIDUMP_DIRECTORY_SIZE;
+    uint32_t cnt = (uint32_t)table->cnt;
+    int      r;
+
+    if(self->directory_cnt >= XCD_MINIDUMP_STREAMS_MAX) return XCC_ERRNO_NOSPACE;
+
+    xcd_minidump_put_u32(entry, 0, type);
+    if(0 != (r = xcd_minidump_write(self, &cnt, sizeof(cnt), entry + 4))) return r;
+    if(0 != (r = xcd_minidump_write_raw(self, table->data, table->cnt * table->item_size))) return r;
+    xcd_minidump_put_u32(entry, 4, (uint32_t)(sizeof(cnt) + table->cnt * table->item_size));
+    self->directory_cnt++;
+    return 0;
+}
+
+//read the memory of the target process and write it as a memory descriptor
+static int xcd_minidump_add_memory(xcd_minidump_t *self, uintptr_t start, size_t len, uint8_t *descriptor)
+{
+    uint8_t *buf;
+    int      r;
+
+    if(0 == len) return XCC_ERRNO_INVAL;
+    if(NULL == (buf = malloc(len))) return XCC_ERRNO_NOMEM;
+    if(0 == (len = xcd_util_ptrace_read(self->pid, start, buf, len)))
+    {
+        r = XCC_ERRNO_SYS;
+        goto end;
+    }
+
+    xcd_minidump_put_u64(descriptor, 0, (uint64_t)start);
+    if(0 != (r = xcd_minidump_write(self, buf, len, descriptor + 8))) goto end;
+    r = xcd_minidump_table_append(&(self->memories), descriptor);
+
+ end:
+    free(buf);
+    return r;
+}
+
+int xcd_minidump_create(xcd_minidump_t **self, const char *pathname, pid_t pid, xcd_maps_t *maps)
+{
+    uint8_t header[XCD_MINIDUMP_HEADER_SIZE] = {0};
+    int     r;
+
+    if(NULL == maps) return XCC_ERRNO_INVAL;
+    if(NULL == (*self = calloc(1, sizeof(xcd_minidump_t)))) return XCC_ERRNO_NOMEM;
+    (*self)->pid = pid;
+    (*self)->maps = maps;
+    (*self)->threads.item_size = XCD_MINIDUMP_THREAD_SIZE;
+    (*self)->memories.item_size = XCD_MINIDUMP_MEMORY_SIZE;
+    (*self)->modules.item_size = XCD_MINIDUMP_MODULE_SIZE;
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wgnu-statement-expression"
+    if(0 > ((*self)->fd = XCC_UTIL_TEMP_FAILURE_RETRY(open(pathname, O_CREAT | O_WRONLY | O_TRUNC | O_CLOEXEC, 0644))))
+#pragma clang diagnostic pop
+    {
+        free(*self);
+        *self = NULL;
+        return XCC_ERRNO_SYS;
+    }
+
+    //the header is rewritten at the end
+    if(0 != (r = xcd_minidump_write_raw(*self, header, sizeof(header))))
+    {
+        close((*self)->fd);
+        free(*self);
+        *self = NULL;
+        return r;
+    }
+    return 0;
+}
+
+static void xcd_minidump_get_stack_range(xcd_minidump_t *self, uintptr_t sp, uintptr_t *start, size_t *len)
+{
+    xcd_map_t *map;
+    uintptr_t  page_size = (uintptr_t)sysconf(_SC_PAGESIZE);
+
+    *start = 0;
+    *len = 0;
+    if(NULL == (map = xcd_maps_find_map(self->maps, sp))) return;
+
+    *start = (sp > XCD_MINIDUMP_STACK_RED_ZONE ? sp - XCD_MINIDUMP_STACK_RED_ZONE : 0) & ~(page_size - 1);
+    if(*start < map->start) *start = map->start;
+    *len = map->end - *start;
+    if(*len > XCD_MINIDUMP_STACK_BYTES_MAX) *len = XCD_MINIDUMP_STACK_BYTES_MAX;
+}
+
+int xcd_minidump_add_thread(xcd_minidump_t *self, pid_t tid, xcd_regs_t *regs)
+{
+    uint8_t   thread[XCD_MINIDUMP_THREAD_SIZE] = {0};
+    uint8_t   context[XCD_REGS_MINIDUMP_CONTEXT_MAX];
+    size_t    context_len;
+    uintptr_t stack_start;
+    size_t    stack_len;
+    int       r;
+
+    xcd_minidump_put_u32(thread, 0, (uint32_t)tid);
+
+    //stack (the thread is still recorded if the stack is unreadable)
+    xcd_minidump_get_stack_range(self, xcd_regs_get_sp(regs), &stack_start, &stack_len);
+    if(stack_len > 0) xcd_minidump_add_memory(self, stack_start, stack_len, thread + 24);
+
+    //context
+    if(0 == (context_len = xcd_regs_get_minidump_context(regs, context, sizeof(context)))) return XCC_ERRNO_INVAL;
+    if(0 != (r = xcd_minidump_write(self, context, context_len, thread + 40))) return r;
+
+    return xcd_minidump_table_append(&(self->threads), thread);
+}
+
+int xcd_minidump_set_exception(xcd_minidump_t *self, pid_t tid, siginfo_t *si, xcd_regs_t *regs)
+{
+    uint8_t    memory[XCD_MINIDUMP_MEMORY_SIZE];
+    uint8_t    context[XCD_REGS_MINIDUMP_CONTEXT_MAX];
+    size_t     context_len;
+    uintptr_t  pc = xcd_regs_get_pc(regs);
+    uintptr_t  start, end;
+    xcd_map_t *map;
+    int        r;
+
+    //the memory around the crash PC
+    if(NULL != (map = xcd_maps_find_map(self->maps, pc)))
+    {
+        start = (pc - map->start > XCD_MINIDUMP_PC_BYTES / 2 ? pc - XCD_MINIDUMP_PC_BYTES / 2 : map->start);
+        end = (map->end - start > XCD_MINIDUMP_PC_BYTES ? start + XCD_MINIDUMP_PC_BYTES : map->end);
+        xcd_minidump_add_memory(self, start, end - start, memory);
+    }
+
+    //context
+    if(0 == (context_len = xcd_regs_get_minidump_context(regs, context, sizeof(context)))) return XCC_ERRNO_INVAL;
+    if(0 != (r = xcd_minidump_write(self, context, context_len, self->exception + 160))) return r;
+
+    //MDRawExceptionStream
+    xcd_minidump_put_u32(self->exception, 0, (uint32_t)tid);
+    xcd_minidump_put_u32(self->exception, 8, (uint32_t)si->si_signo);
+    xcd_minidump_put_u32(self->exception, 12, (uint32_t)si->si_code);
+    xcd_minidump_put_u64(self->exception, 24, (uint64_t)(uintptr_t)si->si_addr);
+    self->exception_set = 1;
+    return 0;
+}
+
+static int xcd_minidump_add_system_info(xcd_minidump_t *self)
+{
+    uint8_t        info[XCD_MINIDUMP_SYSTEM_INFO_SIZE] = {0};
+    char           version[512];
+    struct utsname uts;
+    unsigned int   major = 0, minor = 0, build = 0;
+    long           cpus = sysconf(_SC_NPROCESSORS_CONF);
+    uint32_t       rva;
+    int            r;
+
+    //csd version: the kernel version
+    if(0 == uname(&uts))
+    {
+        sscanf(uts.release, "%u.%u.%u", &major, &minor, &build);
+        snprintf(version, sizeof(version), "%s %s %s %s", uts.sysname, uts.release, uts.version, uts.machine);
+    }
+    else
+    {
+        snprintf(version, sizeof(version), "%s", "unknown");
+    }
+    if(0 != (r = xcd_minidump_write_string(self, version, &rva))) return r;
+
+    xcd_minidump_put_u16(info, 0, XCD_MINIDUMP_CPU_ARCH);
+    info[6] = (uint8_t)(cpus > 0 ? (cpus > 255 ? 255 : cpus) : 1);
+    xcd_minidump_put_u32(info, 8, major);
+    xcd_minidump_put_u32(info, 12, minor);
+    xcd_minidump_put_u32(info, 16, build);
+    xcd_minidump_put_u32(info, 20, XCD_MINIDUMP_OS_ANDROID);
+    xcd_minidump_put_u32(info, 24, rva);
+
+    return xcd_minidump_add_stream(self, XCD_MINIDUMP_STREAM_SYSTEM_INFO, info, sizeof(info));
+}
+
+static int xcd_minidump_add_module(xcd_minidump_t *self, xcd_map_t *map)
+{
+    uint8_t     module[XCD_MINIDUMP_MODULE_SIZE] = {0};
+    uint8_t     cv[4 + 64];
+    size_t      cv_len = 0;
+    char        name_buf[512];
+    const char *name = map->name;
+    const char *soname;
+    xcd_elf_t  *elf;
+    xcd_map_t  *m;
+    uintptr_t   base, end;
+    uint32_t    rva;
+    int         r;
+
+    //build-ID and the soname of the libraries embedded in the APK
+    //(the ELF start offset is known after loading the ELF)
+    if(NULL != (elf = xcd_map_get_elf(map, self->pid, (void *)self->maps)))
+    {
+        if(0 == xcd_elf_get_build_id(elf, cv + 4, sizeof(cv) - 4, &cv_len) && cv_len > 0)
+        {
+            xcd_minidump_put_u32(cv, 0, XCD_MINIDUMP_CV_SIGNATURE);
+            cv_len += 4;
+        }
+        else
+        {
+            cv_len = 0;
+        }
+
+        if(0 != map->elf_start_offset && NULL != (soname = xcd_elf_get_so_name(elf)) && '\0' != soname[0])
+        {
+            snprintf(name_buf, sizeof(name_buf), "%s!%s", map->name, soname);
+            name = name_buf;
+        }
+    }
+
+    //the module range covers the adjacent maps of the same ELF
+    base = map->start;
+    m = map;
+    while(NULL != (m = xcd_maps_get_prev_map(self->maps, m)) && m->end == base && NULL != m->name
+          && 0 == strcmp(m->name, map->name) && m->offset >= map->elf_start_offset && m->offset < map->offset)
+        base = m->start;
+    end = map->end;
+    m = map;
+    while(NULL != (m = xcd_maps_get_next_map(self->maps, m)) && m->start == end && NULL != m->name
+          && 0 == strcmp(m->name, map->name) && m->offset > map->offset && !(m->flags & PROT_EXEC))
+        end = m->end;
+
+    if(0 != (r = xcd_minidump_write_string(self, name, &rva))) return r;
+    if(cv_len > 0)
+        if(0 != (r = xcd_minidump_write(self, cv, cv_len, module + 76))) return r;
+
+    xcd_minidump_put_u64(module, 0, (uint64_t)base);
+    xcd_minidump_put_u32(module, 8, (uint32_t)(end - base));
+    xcd_minidump_put_u32(module, 20, rva);
+
+    return xcd_minidump_table_append(&(self->modules), module);
+}
+
+static int xcd_minidump_add_module_list(xcd_minidump_t *self)
+{
+    xcd_map_t *map = NULL;
+
+    //one module for each executable map of a file
+    while(NULL != (map = xcd_maps_get_next_map(self->maps, map)))
+    {
+        if(!(map->flags & PROT_EXEC) || (map->flags & XCD_MAP_PORT_DEVICE)) continue;
+        if(NULL == map->name || '/' != map->name[0]) continue;
+
+        xcd_minidump_add_module(self, map);
+    }
+
+    return xcd_minidump_add_list_stream(self, XCD_MINIDUMP_STREAM_MODULE_LIST, &(self->modules));
+}
+
+static int xcd_minidump_add_linux_maps(xcd_minidump_t *self)
+{
+    uint8_t *entry = self->directory + self->directory_cnt * XCD_MINIDUMP_DIRECTORY_SIZE;
+    char     buf[1024];
+    char     path[64];
+    ssize_t  n;
+    uint32_t start;
+    int      fd;
+    int      r = 0;
+
+    if(self->directory_cnt >= XCD_MINIDUMP_STREAMS_MAX) return XCC_ERRNO_NOSPACE;
+
+    snprintf(path, sizeof(path), "/proc/%d/maps", self->pid);
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wgnu-statement-expression"
+    if(0 > (fd = XCC_UTIL_TEMP_FAILURE_RETRY(open(path, O_RDONLY | O_CLOEXEC)))) return XCC_ERRNO_SYS;
+    if(0 != (r = xcd_minidump_align(self))) goto end;
+    start = self->pos;
+    while(0 < (n = XCC_UTIL_TEMP_FAILURE_RETRY(read(fd, buf, sizeof(buf)))))
+        if(0 != (r = xcd_minidump_write_raw(self, buf, (size_t)n))) goto end;
+#pragma clang diagnostic pop
+
+    xcd_minidump_put_u32(entry, 0, XCD_MINIDUMP_STREAM_LINUX_MAPS);
+    xcd_minidump_put_u32(entry, 4, self->pos - start);
+    xcd_minidump_put_u32(entry, 8, start);
+    self->directory_cnt++;
+
+ end:
+    close(fd);
+    return r;
+}
+
+int xcd_minidump_destroy(xcd_minidump_t **self)
+{
+    uint8_t header[XCD_MINIDUMP_HEADER_SIZE] = {0};
+    uint8_t location[8];
+    int     r;
+
+    if(NULL == self || NULL == *self) return XCC_ERRNO_INVAL;
+
+    //streams (a failed stream is left out of the directory)
+    xcd_minidump_add_system_info(*self);
+    xcd_minidump_add_list_stream(*self, XCD_MINIDUMP_STREAM_THREAD_LIST, &((*self)->threads));
+    xcd_minidump_add_module_list(*self);
+    xcd_minidump_add_list_stream(*self, XCD_MINIDUMP_STREAM_MEMORY_LIST, &((*self)->memories));
+    if((*self)->exception_set)
+        xcd_minidump_add_stream(*self, XCD_MINIDUMP_STREAM_EXCEPTION, (*self)->exception, sizeof((*self)->exception));
+    xcd_minidump_add_linux_maps(*self);
+
+    //directory
+    if(0 != (r = xcd_minidump_write(*self, (*self)->directory,
+                                    (*self)->directory_cnt * XCD_MINIDUMP_DIRECTORY_SIZE, location))) goto end;
+    if(0 != (r = xcd_minidump_flush(*self))) goto end;
+
+    //header
+    xcd_minidump_put_u32(header, 0, XCD_MINIDUMP_SIGNATURE);
+    xcd_minidump_put_u32(header, 4, XCD_MINIDUMP_VERSION);
+    xcd_minidump_put_u32(header, 8, (uint32_t)((*self)->directory_cnt));
+    memcpy(header + 12, location + 4, 4);
+    xcd_minidump_put_u32(header, 20, (uint32_t)time(NULL));
+    if(0 != lseek((*self)->fd, 0, SEEK_SET))
+    {
+        r = XCC_ERRNO_SYS;
+        goto end;
+    }
+    r = xcc_util_write((*self)->fd, (const char *)header, sizeof(header));
+
+ end:
+    close((*self)->fd);
+    free((*self)->threads.data);
+    free((*self)->memories.data);
+    free((*self)->modules.data);
+    free(*self);
+    *self = NULL;
+    return r;
+}
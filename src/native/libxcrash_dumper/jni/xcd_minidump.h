@@ -0,0 +1,53 @@
+// Copyright (c) 2019-present, iQIYI, Inc. All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+
+#ifndef XCD_MINIDUMP_H
+#define XCD_MINIDUMP_H 1
+
+#include <stdint.h>
+#include <signal.h>
+#include <sys/types.h>
+#include "xcd_regs.h"
+#include "xcd_maps.h"
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+//Writer of a Breakpad/Crashpad compatible minidump.
+//
+//Streams: system info, thread list, memory list (thread stacks and the memory around the crash PC),
+//module list (with the GNU build-ID as the CodeView record), exception and the linux maps.
+#define XCD_MINIDUMP_SUFFIX ".native.dmp"
+
+typedef struct xcd_minidump xcd_minidump_t;
+
+int xcd_minidump_create(xcd_minidump_t **self, const char *pathname, pid_t pid, xcd_maps_t *maps);
+int xcd_minidump_destroy(xcd_minidump_t **self);
+
+int xcd_minidump_add_thread(xcd_minidump_t *self, pid_t tid, xcd_regs_t *regs);
+int xcd_minidump_set_exception(xcd_minidump_t *self, pid_t tid, siginfo_t *si, xcd_regs_t *regs);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
@@ -24,6 +24,7 @@
 #include <inttypes.h>
 #include <unistd.h>
 #include <stdlib.h>
+#include <stddef.h>
 #include <stdio.h>
 #include <fcntl.h>
 #include <time.h>
@@ -32,6 +33,11 @@
 #include <string.h>
 #include <regex.h>
 #include <ctype.h>
+#include <errno.h>
+#include <signal.h>
+#include <poll.h>
+#include <pthread.h>
+#include <stdarg.h>
 #include <sys/mman.h>
 #include <sys/types.h>
 #include <sys/stat.h>
@@ -41,6 +47,7 @@
 #include "queue.h"
 #include "xcc_errno.h"
 #include "xcc_util.h"
+#include "xcc_spot.h"
 #include "xcc_b64.h"
 #include "xcd_log.h"
 #include "xcd_process.h"
@@ -50,6 +57,9 @@
 #include "xcd_util.h"
 #include "xcd_sys.h"
 #include "xcd_meminfo.h"
+#include "xcd_compact.h"
+#include "xcd_minidump.h"
+#include "xcd_bench.h"
 
 #if defined(__LP64__)
 #define XCD_PROCESS_LIBC_PATHNAME "/system/lib64/libc.so"
@@ -57,10 +67,14 @@
 #define XCD_PROCESS_LIBC_PATHNAME "/system/lib/libc.so"
 #endif
 #define XCD_PROCESS_ABORT_MSG_PTR "__abort_message_ptr"
+#define XCD_PROCESS_LOGCAT_PATHNAME "/system/bin/logcat"
+#define XCD_PROCESS_SECTION_TIMEOUT "    (section time budget exceeded)\n"
+#define XCD_PROCESS_UNWIND_WORKERS_MAX 8
 
 typedef struct xcd_thread_info
 {
-    xcd_thread_t t;
+    xcd_thread_t      t;
+    xcc_spot_crash_t *crash; //a concurrent crash of this thread, or NULL
     TAILQ_ENTRY(xcd_thread_info,) link;
 } xcd_thread_info_t;
 typedef TAILQ_HEAD(xcd_thread_info_queue, xcd_thread_info,) xcd_thread_info_queue_t;
@@ -77,6 +91,9 @@ struct xcd_process
     xcd_thread_info_queue_t  thds;
     size_t                   nthds;
     xcd_maps_t              *maps;
+    uintptr_t                crashes_addr;
+    xcc_spot_crashes_t      *crashes;
+    size_t                   crashes_cnt;
 };
 #pragma clang diagnostic pop
 
@@ -98,6 +115,7 @@ static int xcd_process_load_threads(xcd_process_t *self)
         
         if(NULL == (thd = malloc(sizeof(xcd_thread_info_t)))) return XCC_ERRNO_NOMEM;
         xcd_thread_init(&(thd->t), self->pid, tid);
+        thd->crash = NULL;
         
         TAILQ_INSERT_TAIL(&(self->thds), thd, link);
         self->nthds++;
@@ -107,18 +125,22 @@ static int xcd_process_load_threads(xcd_process_t *self)
     return 0;
 }
 
-int xcd_process_create(xcd_process_t **self, pid_t pid, pid_t crash_tid, siginfo_t *si, ucontext_t *uc)
+int xcd_process_create(xcd_process_t **self, pid_t pid, pid_t crash_tid, siginfo_t *si, ucontext_t *uc,
+                       uintptr_t concurrent_crashes)
 {
     int                r;
     xcd_thread_info_t *thd;
     
     if(NULL == (*self = malloc(sizeof(xcd_process_t)))) return XCC_ERRNO_NOMEM;
-    (*self)->pid       = pid;
-    (*self)->pname     = NULL;
-    (*self)->crash_tid = crash_tid;
-    (*self)->si        = si;
-    (*self)->uc        = uc;
-    (*self)->nthds     = 0;
+    (*self)->pid          = pid;
+    (*self)->pname        = NULL;
+    (*self)->crash_tid    = crash_tid;
+    (*self)->si           = si;
+    (*self)->uc           = uc;
+    (*self)->nthds        = 0;
+    (*self)->crashes_addr = concurrent_crashes;
+    (*self)->crashes      = NULL;
+    (*self)->crashes_cnt  = 0;
     TAILQ_INIT(&((*self)->thds));
 
     if(0 != (r = xcd_process_load_threads(*self)))
@@ -146,8 +168,22 @@ size_t xcd_process_get_number_of_threads(xcd_process_t *self)
 void xcd_process_suspend_threads(xcd_process_t *self)
 {
     xcd_thread_info_t *thd;
+    int                seize = 1;
+
+    //seize and interrupt all the threads first, then collect all the stops,
+    //so the signal round trips of the threads are overlapped
+    TAILQ_FOREACH(thd, &(self->thds), link)
+    {
+        if(seize && 0 != xcd_thread_seize(&(thd->t)))
+        {
+            XCD_LOG_WARN("PROCESS: ptrace SEIZE not supported, fall back to ATTACH");
+            seize = 0;
+        }
+        if(!seize) xcd_thread_attach(&(thd->t));
+    }
+
     TAILQ_FOREACH(thd, &(self->thds), link)
-        xcd_thread_suspend(&(thd->t));
+        xcd_thread_wait_stop(&(thd->t));
 }
 
 void xcd_process_resume_threads(xcd_process_t *self)
@@ -157,6 +193,49 @@ void xcd_process_resume_threads(xcd_process_t *self)
         xcd_thread_resume(&(thd->t));
 }
 
+//The concurrent crashes are recorded by the signal handler of the crashed process. All the threads
+//have been suspended, so a crash being recorded now is ignored (it is not ready).
+static void xcd_process_load_concurrent_crashes(xcd_process_t *self)
+{
+    xcd_thread_info_t *thd;
+    size_t             count, i;
+    int                r;
+
+    if(0 == self->crashes_addr) return;
+
+    if(0 != (r = xcd_util_ptrace_read_fully(self->pid, self->crashes_addr, &count, sizeof(count))))
+    {
+        XCD_LOG_ERROR("PROCESS: read concurrent crashes failed, errno=%d", r);
+        return;
+    }
+    if(0 == count) return;
+    if(count > XCC_SPOT_CONCURRENT_CRASHES_MAX) count = XCC_SPOT_CONCURRENT_CRASHES_MAX;
+
+    if(NULL == (self->crashes = calloc(1, sizeof(xcc_spot_crashes_t)))) return;
+    if(0 != (r = xcd_util_ptrace_read_fully(self->pid, self->crashes_addr, self->crashes,
+                                            offsetof(xcc_spot_crashes_t, crashes) + sizeof(xcc_spot_crash_t) * count)))
+    {
+        XCD_LOG_ERROR("PROCESS: read concurrent crashes failed, errno=%d", r);
+        free(self->crashes);
+        self->crashes = NULL;
+        return;
+    }
+
+    for(i = 0; i < count; i++)
+    {
+        if(!self->crashes->crashes[i].ready || self->crashes->crashes[i].tid == self->crash_tid) continue;
+        TAILQ_FOREACH(thd, &(self->thds), link)
+        {
+            if(thd->t.tid == self->crashes->crashes[i].tid && NULL == thd->crash)
+            {
+                thd->crash = &(self->crashes->crashes[i]);
+                self->crashes_cnt++;
+                break;
+            }
+        }
+    }
+}
+
 int xcd_process_load_info(xcd_process_t *self)
 {
     int                r;
@@ -167,16 +246,20 @@ int xcd_process_load_info(xcd_process_t *self)
        NULL == (self->pname = strdup(buf)))
         self->pname = "<unknown>";
 
+    xcd_process_load_concurrent_crashes(self);
+
     TAILQ_FOREACH(thd, &(self->thds), link)
     {
         //load thread info
         xcd_thread_load_info(&(thd->t));
         
-        //load thread regs
-        if(thd->t.tid != self->crash_tid)
-            xcd_thread_load_regs(&(thd->t));
-        else
+        //load thread regs (the threads crashed are unwound from where they crashed, not from the signal handler)
+        if(thd->t.tid == self->crash_tid)
             xcd_thread_load_regs_from_ucontext(&(thd->t), self->uc);
+        else if(NULL != thd->crash)
+            xcd_thread_load_regs_from_ucontext(&(thd->t), &(thd->crash->ucontext));
+        else
+            xcd_thread_load_regs(&(thd->t));
     }
 
     //load maps
@@ -186,14 +269,35 @@ int xcd_process_load_info(xcd_process_t *self)
     return 0;
 }
 
-static int xcd_process_record_signal_info(xcd_process_t *self, int log_fd)
+uint64_t xcd_process_get_signature(xcd_process_t *self)
+{
+    xcd_thread_info_t *thd;
+    uint64_t           hash = XCD_UTIL_HASH_INIT;
+
+    hash = xcd_util_hash(hash, &(self->si->si_signo), sizeof(self->si->si_signo));
+    hash = xcd_util_hash(hash, &(self->si->si_code), sizeof(self->si->si_code));
+
+    TAILQ_FOREACH(thd, &(self->thds), link)
+    {
+        if(thd->t.tid == self->crash_tid)
+        {
+            if(0 == xcd_thread_load_frames(&(thd->t), self->maps))
+                hash = xcd_thread_get_signature(&(thd->t), hash);
+            break;
+        }
+    }
+
+    return hash;
+}
+
+static void xcd_process_get_signal_info(xcd_process_t *self, siginfo_t *si, char *buf, size_t len)
 {
     //fault addr
     char addr_desc[64];
-    if(xcc_util_signal_has_si_addr(self->si))
+    if(xcc_util_signal_has_si_addr(si))
     {
-        void *addr = self->si->si_addr;
-        if (self->si->si_signo == SIGILL)
+        void *addr = si->si_addr;
+        if (si->si_signo == SIGILL)
         {
             uint32_t instruction = 0;
             xcd_util_ptrace_read(self->pid, (uintptr_t)addr, &instruction, sizeof(instruction));
@@ -211,15 +315,23 @@ static int xcd_process_record_signal_info(xcd_process_t *self, int log_fd)
 
     //from
     char sender_desc[64] = "";
-    if(xcc_util_signal_has_sender(self->si, self->pid))
+    if(xcc_util_signal_has_sender(si, self->pid))
     {
-        snprintf(sender_desc, sizeof(sender_desc), " from pid %d, uid %d", self->si->si_pid, self->si->si_uid);
+        snprintf(sender_desc, sizeof(sender_desc), " from pid %d, uid %d", si->si_pid, si->si_uid);
     }
 
-    return xcc_util_write_format(log_fd, "signal %d (%s), code %d (%s%s), fault addr %s\n",
-                                 self->si->si_signo, xcc_util_get_signame(self->si),
-                                 self->si->si_code, xcc_util_get_sigcodename(self->si),
-                                 sender_desc, addr_desc);
+    snprintf(buf, len, "signal %d (%s), code %d (%s%s), fault addr %s",
+             si->si_signo, xcc_util_get_signame(si),
+             si->si_code, xcc_util_get_sigcodename(si),
+             sender_desc, addr_desc);
+}
+
+static int xcd_process_record_signal_info(xcd_process_t *self, int log_fd)
+{
+    char buf[192];
+
+    xcd_process_get_signal_info(self, self->si, buf, sizeof(buf));
+    return xcc_util_write_format(log_fd, "%s\n", buf);
 }
 
 static int xcd_process_record_abort_message(xcd_process_t *self, int log_fd)
@@ -282,7 +394,17 @@ static int xcd_process_record_abort_message(xcd_process_t *self, int log_fd)
     return xcc_util_write_format(log_fd, "Abort message: '%s'\n", msg);
 }
 
-static int xcd_process_record_fds(xcd_process_t *self, int log_fd)
+static uint64_t xcd_process_get_section_deadline(unsigned int section_timeout_ms)
+{
+    return (0 == section_timeout_ms ? 0 : xcc_util_get_monotonic_ms() + section_timeout_ms);
+}
+
+static int xcd_process_check_section_timeout(uint64_t deadline)
+{
+    return (0 != deadline && xcc_util_get_monotonic_ms() >= deadline) ? 1 : 0;
+}
+
+static int xcd_process_record_fds(xcd_process_t *self, int log_fd, uint64_t deadline)
 {
     char             buf[128];
     char             path[512];
@@ -291,6 +413,7 @@ static int xcd_process_record_fds(xcd_process_t *self, int log_fd)
     int              fd;
     ssize_t          len;
     size_t           total = 0;
+    int              timedout = 0;
     int              r = 0;
 
     if(0 != (r = xcc_util_write_str(log_fd, "open files:\n"))) return r;
@@ -309,7 +432,14 @@ static int xcd_process_record_fds(xcd_process_t *self, int log_fd)
 
         //count
         total++;
-        if(total > 1024) continue;
+        if(total > 1024 || timedout) continue;
+
+        //check time budget
+        if(xcd_process_check_section_timeout(deadline))
+        {
+            timedout = 1;
+            continue;
+        }
 
         //read link of the path
         snprintf(buf, sizeof(buf), "/proc/%d/fd/%d", self->pid, fd);
@@ -324,7 +454,9 @@ static int xcd_process_record_fds(xcd_process_t *self, int log_fd)
     }
 
  end:
-    if(total > 1024)
+    if(timedout)
+        if(0 != (r = xcc_util_write_str(log_fd, XCD_PROCESS_SECTION_TIMEOUT))) goto clean;
+    if(total > 1024 && !timedout)
         if(0 != (r = xcc_util_write_str(log_fd, "    ......\n"))) goto clean;
     if(0 != (r = xcc_util_write_format(log_fd, "    (number of FDs: %zu)\n\n", total))) goto clean;
     
@@ -333,17 +465,74 @@ static int xcd_process_record_fds(xcd_process_t *self, int log_fd)
     return r;
 }
 
+static int xcd_process_exec_logcat(const char *buffer, unsigned int lines, char priority, pid_t pid, int *fd)
+{
+    char   lines_str[16];
+    char   pid_str[16];
+    char   filter[8];
+    int    pipefd[2];
+    pid_t  logcat_pid;
+
+    snprintf(lines_str, sizeof(lines_str), "%u", lines);
+    snprintf(pid_str, sizeof(pid_str), "%d", pid);
+    snprintf(filter, sizeof(filter), "*:%c", priority);
+
+    if(0 != pipe2(pipefd, O_CLOEXEC)) return -1;
+    
+    if(-1 == (logcat_pid = fork()))
+    {
+        close(pipefd[0]);
+        close(pipefd[1]);
+        return -1;
+    }
+    else if(0 == logcat_pid)
+    {
+        //child process ...
+        if(STDOUT_FILENO != dup2(pipefd[1], STDOUT_FILENO)) _exit(127);
+        if(pid > 0)
+            execl(XCD_PROCESS_LOGCAT_PATHNAME, "logcat", "-b", buffer, "-d", "-v", "threadtime", "-t", lines_str, "--pid", pid_str, filter, NULL);
+        else
+            execl(XCD_PROCESS_LOGCAT_PATHNAME, "logcat", "-b", buffer, "-d", "-v", "threadtime", "-t", lines_str, filter, NULL);
+        _exit(127);
+    }
+
+    //parent process ...
+    close(pipefd[1]);
+    *fd = pipefd[0];
+    return logcat_pid;
+}
+
+static int xcd_process_write_logcat_line(int log_fd, char *line, size_t len, const char *pid_label)
+{
+    char c = line[len];
+    int  match;
+
+    if(NULL == pid_label) return xcc_util_write(log_fd, line, len);
+
+    line[len] = '\0';
+    match = (NULL != strstr(line, pid_label) ? 1 : 0);
+    line[len] = c;
+    
+    return match ? xcc_util_write(log_fd, line, len) : 0;
+}
+
 static int xcd_process_record_logcat_buffer(xcd_process_t *self, int log_fd,
                                             const char *buffer, unsigned int lines, char priority,
-                                            int api_level)
+                                            int api_level, uint64_t deadline, int *timedout)
 {
-    FILE *fp;
-    char  cmd[128];
-    char  buf[1025];
-    int   with_pid;
-    char  pid_filter[64] = "";
-    char  pid_label[32] = "";
-    int   r = 0;
+    struct pollfd  pfd;
+    pid_t          logcat_pid;
+    int            fd = -1;
+    int            status;
+    uint64_t       now;
+    char           buf[1025];
+    size_t         len = 0;
+    ssize_t        n;
+    char          *line, *nl;
+    int            with_pid;
+    char           pid_filter[64] = "";
+    char           pid_label[32] = "";
+    int            r = 0;
 
     //Since Android 7.0 Nougat (API level 24), logcat has --pid filter option.
     with_pid = (api_level >= 24 ? 1 : 0);
@@ -360,20 +549,64 @@ static int xcd_process_record_logcat_buffer(xcd_process_t *self, int log_fd,
         snprintf(pid_label, sizeof(pid_label), " %d ", self->pid);
     }
     
-    snprintf(cmd, sizeof(cmd), "/system/bin/logcat -b %s -d -v threadtime -t %u %s*:%c",
-             buffer, lines, pid_filter, priority);
+    if(0 != (r = xcc_util_write_format(log_fd, "--------- tail end of log %s ("XCD_PROCESS_LOGCAT_PATHNAME" -b %s -d -v threadtime -t %u %s*:%c)\n",
+                                       buffer, buffer, lines, pid_filter, priority))) return r;
 
-    if(0 != (r = xcc_util_write_format(log_fd, "--------- tail end of log %s (%s)\n", buffer, cmd))) return r;
+    if(*timedout) return 0;
+    
+    //read the output of logcat directly from a pipe,
+    //so the logcat process can be killed when the section time budget is exceeded
+    if(0 > (logcat_pid = xcd_process_exec_logcat(buffer, lines, priority, with_pid ? self->pid : 0, &fd))) return 0;
 
-    if(NULL != (fp = popen(cmd, "r")))
+    pfd.fd = fd;
+    pfd.events = POLLIN;
+    while(1)
     {
-        buf[sizeof(buf) - 1] = '\0';
-        while(NULL != fgets(buf, sizeof(buf) - 1, fp))
-            if(with_pid || NULL != strstr(buf, pid_label))
-                if(0 != (r = xcc_util_write_str(log_fd, buf))) break;
-        pclose(fp);
+        //wait for data (treat a poll() failure as a timeout, never fall through to a blocking read)
+        if(0 != deadline)
+        {
+            now = xcc_util_get_monotonic_ms();
+            if(now >= deadline || 0 >= XCC_UTIL_TEMP_FAILURE_RETRY(poll(&pfd, 1, (int)(deadline - now))))
+            {
+                *timedout = 1;
+                break;
+            }
+        }
+
+        //read
+        if(0 >= (n = XCC_UTIL_TEMP_FAILURE_RETRY(read(fd, buf + len, sizeof(buf) - 1 - len)))) break;
+        len += (size_t)n;
+
+        //write all complete lines
+        line = buf;
+        while(NULL != (nl = memchr(line, '\n', len - (size_t)(line - buf))))
+        {
+            if(0 != (r = xcd_process_write_logcat_line(log_fd, line, (size_t)(nl - line + 1), with_pid ? NULL : pid_label))) goto end;
+            line = nl + 1;
+        }
+        len -= (size_t)(line - buf);
+        if(len > 0 && line != buf) memmove(buf, line, len);
+
+        //line too long
+        if(len == sizeof(buf) - 1)
+        {
+            if(0 != (r = xcd_process_write_logcat_line(log_fd, buf, len, with_pid ? NULL : pid_label))) goto end;
+            len = 0;
+        }
     }
     
+    //the last line without '\n'
+    if(len > 0 && !(*timedout))
+        r = xcd_process_write_logcat_line(log_fd, buf, len, with_pid ? NULL : pid_label);
+
+ end:
+    close(fd);
+    if(*timedout)
+    {
+        kill(logcat_pid, SIGKILL);
+        if(0 == r) r = xcc_util_write_str(log_fd, XCD_PROCESS_SECTION_TIMEOUT);
+    }
+    XCC_UTIL_TEMP_FAILURE_RETRY(waitpid(logcat_pid, &status, 0));
     return r;
 }
 
@@ -381,8 +614,10 @@ static int xcd_process_record_logcat(xcd_process_t *self, int log_fd,
                                      unsigned int logcat_system_lines,
                                      unsigned int logcat_events_lines,
                                      unsigned int logcat_main_lines,
-                                     int api_level)
+                                     int api_level,
+                                     uint64_t deadline)
 {
+    int timedout = 0;
     int r;
     
     if(0 == logcat_system_lines && 0 == logcat_events_lines && 0 == logcat_main_lines) return 0;
@@ -390,13 +625,13 @@ static int xcd_process_record_logcat(xcd_process_t *self, int log_fd,
     if(0 != (r = xcc_util_write_str(log_fd, "logcat:\n"))) return r;
 
     if(logcat_main_lines > 0)
-        if(0 != (r = xcd_process_record_logcat_buffer(self, log_fd, "main", logcat_main_lines, 'D', api_level))) return r;
+        if(0 != (r = xcd_process_record_logcat_buffer(self, log_fd, "main", logcat_main_lines, 'D', api_level, deadline, &timedout))) return r;
     
     if(logcat_system_lines > 0)
-        if(0 != (r = xcd_process_record_logcat_buffer(self, log_fd, "system", logcat_system_lines, 'W', api_level))) return r;
+        if(0 != (r = xcd_process_record_logcat_buffer(self, log_fd, "system", logcat_system_lines, 'W', api_level, deadline, &timedout))) return r;
 
     if(logcat_events_lines > 0)
-        if(0 != (r = xcd_process_record_logcat_buffer(self, log_fd, "events", logcat_events_lines, 'I', api_level))) return r;
+        if(0 != (r = xcd_process_record_logcat_buffer(self, log_fd, "events", logcat_events_lines, 'I', api_level, deadline, &timedout))) return r;
 
     if(0 != (r = xcc_util_write_str(log_fd, "\n"))) return r;
 
@@ -456,6 +691,162 @@ static int xcd_process_if_need_dump(char *tname, regex_t *re, size_t re_cnt)
     return 0;
 }
 
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wpadded"
+typedef struct
+{
+    xcd_thread_t **thds;
+    uint8_t       *redo;
+    size_t         thds_cnt;
+    size_t         next;
+    xcd_maps_t    *maps;
+    uint64_t       deadline;
+} xcd_process_unwind_task_t;
+#pragma clang diagnostic pop
+
+static void *xcd_process_unwind_worker(void *arg)
+{
+    xcd_process_unwind_task_t *task = (xcd_process_unwind_task_t *)arg;
+    size_t                     i;
+
+    while((i = __atomic_fetch_add(&(task->next), 1, __ATOMIC_RELAXED)) < task->thds_cnt)
+    {
+        //the threads not reached will be ignored by the time budget when recording
+        if(xcd_process_check_section_timeout(task->deadline)) break;
+
+        xcd_thread_load_frames(task->thds[i], task->maps);
+
+        //the memory reader fell back to PTRACE_PEEKTEXT, which fails in the non-tracer threads
+        if(!xcd_util_can_read_from_any_thread())
+        {
+            task->redo[i] = 1;
+            break;
+        }
+    }
+
+    return NULL;
+}
+
+//Unwind the threads which will be dumped on multiple cores, and then record them in
+//the original order on the tracer thread. The registers have already been loaded by
+//ptrace in xcd_process_load_info(), the workers only read the memory of the target
+//process, which requires process_vm_readv() or /proc/PID/mem. If the reader falls back
+//to ptrace during the unwinding, the affected threads are unwound again when recording.
+static void xcd_process_load_frames_parallel(xcd_process_t *self, int workers, regex_t *re, size_t re_cnt,
+                                             int dump_all_threads_count_max, uint64_t deadline)
+{
+    xcd_process_unwind_task_t task;
+    xcd_thread_info_t        *thd;
+    pthread_t                 tids[XCD_PROCESS_UNWIND_WORKERS_MAX];
+    int                       tids_cnt = 0;
+    long                      ncpu;
+    size_t                    i, redo_cnt = 0;
+
+    if(NULL == self->maps || !xcd_util_can_read_from_any_thread()) return;
+
+    if(workers > XCD_PROCESS_UNWIND_WORKERS_MAX) workers = XCD_PROCESS_UNWIND_WORKERS_MAX;
+    if((ncpu = sysconf(_SC_NPROCESSORS_ONLN)) > 0 && workers > ncpu) workers = (int)ncpu;
+    if(workers < 2) return;
+
+    //select the threads with the same rules as recording
+    if(NULL == (task.thds = malloc(sizeof(xcd_thread_t *) * self->nthds))) return;
+    if(NULL == (task.redo = calloc(self->nthds, sizeof(uint8_t))))
+    {
+        free(task.thds);
+        return;
+    }
+    task.thds_cnt = 0;
+    task.next = 0;
+    task.maps = self->maps;
+    task.deadline = deadline;
+    TAILQ_FOREACH(thd, &(self->thds), link)
+    {
+        if(thd->t.tid == self->crash_tid) continue;
+        if(NULL != re && re_cnt > 0 && !xcd_process_if_need_dump(thd->t.tname, re, re_cnt)) continue;
+        if(dump_all_threads_count_max > 0 && task.thds_cnt >= (size_t)dump_all_threads_count_max) break;
+        task.thds[task.thds_cnt++] = &(thd->t);
+    }
+    if((size_t)workers > task.thds_cnt) workers = (int)task.thds_cnt;
+
+    //the current thread is one of the workers
+    while(tids_cnt < workers - 1)
+    {
+        if(0 != pthread_create(&(tids[tids_cnt]), NULL, xcd_process_unwind_worker, &task)) break;
+        tids_cnt++;
+    }
+    xcd_process_unwind_worker(&task);
+    while(tids_cnt > 0)
+        pthread_join(tids[--tids_cnt], NULL);
+
+    //drop the frames which may be truncated by the failed reads, they will be loaded again on the tracer thread
+    for(i = 0; i < task.thds_cnt; i++)
+    {
+        if(task.redo[i])
+        {
+            xcd_frames_destroy(&(task.thds[i]->frames));
+            redo_cnt++;
+        }
+    }
+
+    XCD_LOG_DEBUG("PROCESS: unwound %zu threads in parallel, %zu to redo", task.thds_cnt, redo_cnt);
+    free(task.redo);
+    free(task.thds);
+}
+
+//the text of the other threads section goes into the record stream in compact mode
+static int xcd_process_write_format(int log_fd, xcd_compact_t *compact, const char *format, ...)
+{
+    va_list ap;
+    char    buf[256];
+    int     len;
+
+    va_start(ap, format);
+    
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wformat-nonliteral"
+    len = vsnprintf(buf, sizeof(buf), format, ap);
+#pragma clang diagnostic pop
+    
+    va_end(ap);
+    
+    if(len <= 0) return 0;
+
+    return NULL != compact ? xcd_compact_write_text(compact, buf) : xcc_util_write_str(log_fd, buf);
+}
+
+static int xcd_process_record_concurrent_crashes(xcd_process_t *self, int log_fd, xcd_compact_t *compact, int *crashed)
+{
+    xcd_thread_info_t *thd;
+    char               buf[192];
+    int                r;
+
+    TAILQ_FOREACH(thd, &(self->thds), link)
+    {
+        if(NULL == thd->crash) continue;
+
+        xcd_process_get_signal_info(self, &(thd->crash->siginfo), buf, sizeof(buf));
+        if(0 != (r = xcd_process_write_format(log_fd, compact, XCC_UTIL_THREAD_SEP))) return r;
+        if(0 != (r = xcd_process_write_format(log_fd, compact, "concurrent crash: %s\n", buf))) return r;
+        if(NULL != compact)
+        {
+            if(0 != (r = xcd_thread_record_compact(&(thd->t), compact, self->pname, self->maps))) return r;
+        }
+        else
+        {
+            if(0 != (r = xcd_thread_record_info(&(thd->t), log_fd, self->pname))) return r;
+            if(0 != (r = xcd_thread_record_regs(&(thd->t), log_fd))) return r;
+            if(0 == xcd_thread_load_frames(&(thd->t), self->maps))
+            {
+                if(0 != (r = xcd_thread_record_backtrace(&(thd->t), log_fd))) return r;
+                if(0 != (r = xcd_thread_record_stack(&(thd->t), log_fd))) return r;
+            }
+        }
+        (*crashed)++;
+    }
+
+    return 0;
+}
+
 int xcd_process_record(xcd_process_t *self,
                        int log_fd,
                        unsigned int logcat_system_lines,
@@ -464,10 +855,14 @@ int xcd_process_record(xcd_process_t *self,
                        int dump_elf_hash,
                        int dump_map,
                        int dump_fds,
+                       int meminfo_mode,
                        int dump_all_threads,
                        int dump_all_threads_count_max,
                        char *dump_all_threads_whitelist,
-                       int api_level)
+                       int dump_all_threads_workers,
+                       int dump_all_threads_compact,
+                       int api_level,
+                       unsigned int section_timeout_ms)
 {
     int                r = 0;
     xcd_thread_info_t *thd;
@@ -476,6 +871,10 @@ int xcd_process_record(xcd_process_t *self,
     int                thd_dumped = 0;
     int                thd_matched_regex = 0;
     int                thd_ignored_by_limit = 0;
+    int                thd_ignored_by_timeout = 0;
+    int                thd_crashed = 0;
+    uint64_t           deadline;
+    xcd_compact_t     *compact = NULL;
     
     TAILQ_FOREACH(thd, &(self->thds), link)
     {
@@ -492,22 +891,48 @@ int xcd_process_record(xcd_process_t *self,
                 if(0 != (r = xcd_thread_record_stack(&(thd->t), log_fd))) return r;
                 if(0 != (r = xcd_thread_record_memory(&(thd->t), log_fd))) return r;
             }
+            if(0 != (r = xcc_util_write_flush())) return r;
+            XCD_BENCH_PHASE("crashed_thread");
             if(dump_map) if(0 != (r = xcd_maps_record(self->maps, log_fd))) return r;
-            if(0 != (r = xcd_process_record_logcat(self, log_fd, logcat_system_lines, logcat_events_lines, logcat_main_lines, api_level))) return r;
-            if(dump_fds) if(0 != (r = xcd_process_record_fds(self, log_fd))) return r;
-            if(0 != (r = xcd_meminfo_record(log_fd, self->pid))) return r;
+            if(0 != (r = xcc_util_write_flush())) return r;
+            XCD_BENCH_PHASE("memory_map");
+            if(0 != (r = xcd_process_record_logcat(self, log_fd, logcat_system_lines, logcat_events_lines, logcat_main_lines, api_level,
+                                                   xcd_process_get_section_deadline(section_timeout_ms)))) return r;
+            if(0 != (r = xcc_util_write_flush())) return r;
+            XCD_BENCH_PHASE("logcat");
+            if(dump_fds) if(0 != (r = xcd_process_record_fds(self, log_fd, xcd_process_get_section_deadline(section_timeout_ms)))) return r;
+            if(0 != (r = xcc_util_write_flush())) return r;
+            XCD_BENCH_PHASE("open_files");
+            if(0 != (r = xcd_meminfo_record(log_fd, self->pid, meminfo_mode))) return r;
+            if(0 != (r = xcc_util_write_flush())) return r;
+            XCD_BENCH_PHASE("memory_info");
 
             break;
         }
     }
-    if(!dump_all_threads) return 0;
+    if(!dump_all_threads && 0 == self->crashes_cnt) return 0;
+
+    //raw values and symbol references instead of the formatted text
+    if(dump_all_threads_compact && self->nthds > 1)
+        if(0 != xcd_compact_create(&compact, log_fd)) XCD_LOG_WARN("PROCESS: create compact failed, fall back to the text format");
+
+    //the concurrent crashes go first, regardless of the whitelist, the count limit and the time budget
+    if(0 != (r = xcd_process_record_concurrent_crashes(self, log_fd, compact, &thd_crashed))) goto end;
+    if(!dump_all_threads) goto end;
 
     //parse thread name whitelist regex
     re = xcd_process_build_whitelist_regex(dump_all_threads_whitelist, &re_cnt);
 
+    //time budget for all the other threads
+    deadline = xcd_process_get_section_deadline(section_timeout_ms);
+
+    //the frames loaded here will not be loaded again
+    if(dump_all_threads_workers > 1)
+        xcd_process_load_frames_parallel(self, dump_all_threads_workers, re, re_cnt, dump_all_threads_count_max, deadline);
+
     TAILQ_FOREACH(thd, &(self->thds), link)
     {
-        if(thd->t.tid != self->crash_tid)
+        if(thd->t.tid != self->crash_tid && NULL == thd->crash)
         {
             //check regex for thread name
             if(NULL != re && re_cnt > 0 && !xcd_process_if_need_dump(thd->t.tname, re, re_cnt))
@@ -523,13 +948,27 @@ int xcd_process_record(xcd_process_t *self,
                 continue;
             }
 
-            if(0 != (r = xcc_util_write_str(log_fd, XCC_UTIL_THREAD_SEP))) goto end;
-            if(0 != (r = xcd_thread_record_info(&(thd->t), log_fd, self->pname))) goto end;
-            if(0 != (r = xcd_thread_record_regs(&(thd->t), log_fd))) goto end;
-            if(0 == xcd_thread_load_frames(&(thd->t), self->maps))
+            //check time budget
+            if(thd_ignored_by_timeout > 0 || xcd_process_check_section_timeout(deadline))
+            {
+                thd_ignored_by_timeout++;
+                continue;
+            }
+
+            if(0 != (r = xcd_process_write_format(log_fd, compact, XCC_UTIL_THREAD_SEP))) goto end;
+            if(NULL != compact)
+            {
+                if(0 != (r = xcd_thread_record_compact(&(thd->t), compact, self->pname, self->maps))) goto end;
+            }
+            else
             {
-                if(0 != (r = xcd_thread_record_backtrace(&(thd->t), log_fd))) goto end;
-                if(0 != (r = xcd_thread_record_stack(&(thd->t), log_fd))) goto end;
+                if(0 != (r = xcd_thread_record_info(&(thd->t), log_fd, self->pname))) goto end;
+                if(0 != (r = xcd_thread_record_regs(&(thd->t), log_fd))) goto end;
+                if(0 == xcd_thread_load_frames(&(thd->t), self->maps))
+                {
+                    if(0 != (r = xcd_thread_record_backtrace(&(thd->t), log_fd))) goto end;
+                    if(0 != (r = xcd_thread_record_stack(&(thd->t), log_fd))) goto end;
+                }
             }
             thd_dumped++;
         }
@@ -538,19 +977,60 @@ int xcd_process_record(xcd_process_t *self,
  end:
     if(self->nthds > 1)
     {
-        if(0 == thd_dumped)
-            if(0 != (r = xcc_util_write_str(log_fd, XCC_UTIL_THREAD_SEP))) goto ret;
+        if(0 == thd_dumped && 0 == thd_crashed)
+            if(0 != (r = xcd_process_write_format(log_fd, compact, XCC_UTIL_THREAD_SEP))) goto ret;
 
-        if(0 != (r = xcc_util_write_format(log_fd, "total threads (exclude the crashed thread): %zu\n", self->nthds - 1))) goto ret;
+        if(0 != (r = xcd_process_write_format(log_fd, compact, "total threads (exclude the crashed thread): %zu\n", self->nthds - 1))) goto ret;
         if(NULL != re && re_cnt > 0)
-            if(0 != (r = xcc_util_write_format(log_fd, "threads matched whitelist: %d\n", thd_matched_regex))) goto ret;
+            if(0 != (r = xcd_process_write_format(log_fd, compact, "threads matched whitelist: %d\n", thd_matched_regex))) goto ret;
         if(dump_all_threads_count_max > 0)
-            if(0 != (r = xcc_util_write_format(log_fd, "threads ignored by max count limit: %d\n", thd_ignored_by_limit))) goto ret;
-        if(0 != (r = xcc_util_write_format(log_fd, "dumped threads: %zu\n", thd_dumped))) goto ret;
+            if(0 != (r = xcd_process_write_format(log_fd, compact, "threads ignored by max count limit: %d\n", thd_ignored_by_limit))) goto ret;
+        if(thd_ignored_by_timeout > 0)
+            if(0 != (r = xcd_process_write_format(log_fd, compact, "threads ignored by time budget: %d\n", thd_ignored_by_timeout))) goto ret;
+        if(self->crashes_cnt > 0)
+            if(0 != (r = xcd_process_write_format(log_fd, compact, "concurrent crashes: %d\n", thd_crashed))) goto ret;
+        if(NULL != self->crashes && self->crashes->count > XCC_SPOT_CONCURRENT_CRASHES_MAX)
+            if(0 != (r = xcd_process_write_format(log_fd, compact, "concurrent crashes not recorded: %zu\n",
+                                                  self->crashes->count - XCC_SPOT_CONCURRENT_CRASHES_MAX))) goto ret;
+        if(0 != (r = xcd_process_write_format(log_fd, compact, "dumped threads: %d\n", thd_dumped + thd_crashed))) goto ret;
         
-        if(0 != (r = xcc_util_write_str(log_fd, XCC_UTIL_THREAD_END))) goto ret;
+        if(0 != (r = xcd_process_write_format(log_fd, compact, XCC_UTIL_THREAD_END))) goto ret;
     }
     
  ret:
+    if(NULL != compact)
+    {
+        if(0 == r)
+            r = xcd_compact_destroy(&compact);
+        else
+            xcd_compact_destroy(&compact);
+    }
+    if(0 == r) r = xcc_util_write_flush();
+    XCD_BENCH_PHASE("other_threads");
     return r;
 }
+
+int xcd_process_record_minidump(xcd_process_t *self, const char *pathname)
+{
+    xcd_minidump_t    *minidump;
+    xcd_thread_info_t *thd;
+    int                r;
+
+    if(NULL == self->maps) return XCC_ERRNO_STATE;
+
+    if(0 != (r = xcd_minidump_create(&minidump, pathname, self->pid, self->maps))) return r;
+
+    TAILQ_FOREACH(thd, &(self->thds), link)
+    {
+        //a thread without registers can not be described
+        if(XCD_THREAD_STATUS_OK != thd->t.status) continue;
+
+        if(0 != (r = xcd_minidump_add_thread(minidump, thd->t.tid, &(thd->t.regs))))
+            XCD_LOG_ERROR("PROCESS: minidump add thread %d failed, errno=%d", thd->t.tid, r);
+        if(thd->t.tid == self->crash_tid)
+            if(0 != (r = xcd_minidump_set_exception(minidump, thd->t.tid, self->si, &(thd->t.regs))))
+                XCD_LOG_ERROR("PROCESS: minidump set exception failed, errno=%d", r);
+    }
+
+    return xcd_minidump_destroy(&minidump);
+}
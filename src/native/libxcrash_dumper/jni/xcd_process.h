@@ -33,7 +33,8 @@ extern "C" {
 
 typedef struct xcd_process xcd_process_t;
 
-int xcd_process_create(xcd_process_t **self, pid_t pid, pid_t crash_tid, siginfo_t *si, ucontext_t *uc);
+int xcd_process_create(xcd_process_t **self, pid_t pid, pid_t crash_tid, siginfo_t *si, ucontext_t *uc,
+                       uintptr_t concurrent_crashes);
 size_t xcd_process_get_number_of_threads(xcd_process_t *self);
 
 void xcd_process_suspend_threads(xcd_process_t *self);
@@ -41,6 +42,8 @@ void xcd_process_resume_threads(xcd_process_t *self);
 
 int xcd_process_load_info(xcd_process_t *self);
 
+uint64_t xcd_process_get_signature(xcd_process_t *self);
+
 int xcd_process_record(xcd_process_t *self,
                        int log_fd,
                        unsigned int logcat_system_lines,
@@ -49,10 +52,16 @@ int xcd_process_record(xcd_process_t *self,
                        int dump_elf_hash,
                        int dump_map,
                        int dump_fds,
+                       int meminfo_mode,
                        int dump_all_threads,
                        int dump_all_threads_count_max,
                        char *dump_all_threads_whitelist,
-                       int api_level);
+                       int dump_all_threads_workers,
+                       int dump_all_threads_compact,
+                       int api_level,
+                       unsigned int section_timeout_ms);
+
+int xcd_process_record_minidump(xcd_process_t *self, const char *pathname);
 
 #ifdef __cplusplus
 }
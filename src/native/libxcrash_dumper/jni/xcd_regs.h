@@ -47,6 +47,9 @@ extern "C" {
 #define XCD_REGS_MACHINE_NUM 17
 #endif
 
+//the size of the largest minidump context (MDRawContextAMD64)
+#define XCD_REGS_MINIDUMP_CONTEXT_MAX 1232
+
 #pragma clang diagnostic push
 #pragma clang diagnostic ignored "-Wpadded"
 typedef struct {
@@ -69,11 +72,13 @@ typedef struct {
 #pragma clang diagnostic pop
 
 void xcd_regs_get_labels(xcd_regs_label_t **labels, size_t *labels_count);
+void xcd_regs_get_record_rows(size_t **rows, size_t *rows_count);
 
 void xcd_regs_load_from_ucontext(xcd_regs_t *self, ucontext_t *uc);
 void xcd_regs_load_from_ptregs(xcd_regs_t *self, uintptr_t *regs, size_t regs_len);
 
 int xcd_regs_record(xcd_regs_t *self, int log_fd);
+size_t xcd_regs_get_minidump_context(xcd_regs_t *self, uint8_t *buf, size_t buf_len);
 
 int xcd_regs_try_step_sigreturn(xcd_regs_t *self, uintptr_t rel_pc, xcd_memory_t *memory, pid_t pid);
 
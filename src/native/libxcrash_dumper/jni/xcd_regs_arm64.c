@@ -111,6 +111,15 @@ void xcd_regs_get_labels(xcd_regs_label_t **labels, size_t *labels_count)
     *labels_count = sizeof(xcd_regs_labels) / sizeof(xcd_regs_label_t);
 }
 
+//number of registers in each line of xcd_regs_record()
+static size_t xcd_regs_record_rows[] = {4, 4, 4, 4, 4, 4, 4, 2, 3};
+
+void xcd_regs_get_record_rows(size_t **rows, size_t *rows_count)
+{
+    *rows = xcd_regs_record_rows;
+    *rows_count = sizeof(xcd_regs_record_rows) / sizeof(size_t);
+}
+
 uintptr_t xcd_regs_get_pc(xcd_regs_t *self)
 {
     return self->r[XCD_REGS_PC];
@@ -197,6 +206,23 @@ int xcd_regs_record(xcd_regs_t *self, int log_fd)
                                  self->r[XCD_REGS_SP],  self->r[XCD_REGS_LR],  self->r[XCD_REGS_PC]);
 }
 
+//MDRawContextARM64 with CONTEXT_INTEGER
+#define XCD_REGS_MINIDUMP_CONTEXT_SIZE  912
+#define XCD_REGS_MINIDUMP_CONTEXT_FLAGS 0x00400002
+
+size_t xcd_regs_get_minidump_context(xcd_regs_t *self, uint8_t *buf, size_t buf_len)
+{
+    uint32_t flags = XCD_REGS_MINIDUMP_CONTEXT_FLAGS;
+
+    if(buf_len < XCD_REGS_MINIDUMP_CONTEXT_SIZE) return 0;
+
+    //iregs[33] is x0 - x28, fp, lr, sp, pc
+    memset(buf, 0, XCD_REGS_MINIDUMP_CONTEXT_SIZE);
+    memcpy(buf, &flags, sizeof(flags));
+    memcpy(buf + 8, &(self->r), sizeof(uint64_t) * XCD_REGS_MACHINE_NUM);
+    return XCD_REGS_MINIDUMP_CONTEXT_SIZE;
+}
+
 int xcd_regs_try_step_sigreturn(xcd_regs_t *self, uintptr_t rel_pc, xcd_memory_t *memory, pid_t pid)
 {
     uint64_t  data;
@@ -26,6 +26,7 @@ typedef int make_iso_compilers_happy;
 #ifdef __i386__
 
 #include <stdio.h>
+#include <string.h>
 #include <ucontext.h>
 #include <sys/ptrace.h>
 #include "xcc_errno.h"
@@ -73,6 +74,15 @@ void xcd_regs_get_labels(xcd_regs_label_t **labels, size_t *labels_count)
     *labels_count = sizeof(xcd_regs_labels) / sizeof(xcd_regs_label_t);
 }
 
+//number of registers in each line of xcd_regs_record()
+static size_t xcd_regs_record_rows[] = {4, 2, 3};
+
+void xcd_regs_get_record_rows(size_t **rows, size_t *rows_count)
+{
+    *rows = xcd_regs_record_rows;
+    *rows_count = sizeof(xcd_regs_record_rows) / sizeof(size_t);
+}
+
 uintptr_t xcd_regs_get_pc(xcd_regs_t *self)
 {
     return self->r[XCD_REGS_PC];
@@ -134,6 +144,35 @@ int xcd_regs_record(xcd_regs_t *self, int log_fd)
                                  self->r[XCD_REGS_EBP], self->r[XCD_REGS_ESP], self->r[XCD_REGS_EIP]);
 }
 
+//MDRawContextX86 with CONTEXT_CONTROL and CONTEXT_INTEGER
+#define XCD_REGS_MINIDUMP_CONTEXT_SIZE  716
+#define XCD_REGS_MINIDUMP_CONTEXT_FLAGS 0x00010003
+
+//in the order of edi ... eip in MDRawContextX86
+static uint8_t xcd_regs_minidump_context_idx[] = {
+    XCD_REGS_EDI, XCD_REGS_ESI, XCD_REGS_EBX, XCD_REGS_EDX, XCD_REGS_ECX, XCD_REGS_EAX, XCD_REGS_EBP, XCD_REGS_EIP
+};
+
+size_t xcd_regs_get_minidump_context(xcd_regs_t *self, uint8_t *buf, size_t buf_len)
+{
+    uint32_t flags = XCD_REGS_MINIDUMP_CONTEXT_FLAGS;
+    uint32_t value;
+    size_t   i;
+
+    if(buf_len < XCD_REGS_MINIDUMP_CONTEXT_SIZE) return 0;
+
+    memset(buf, 0, XCD_REGS_MINIDUMP_CONTEXT_SIZE);
+    memcpy(buf, &flags, sizeof(flags));
+    for(i = 0; i < sizeof(xcd_regs_minidump_context_idx); i++)
+    {
+        value = self->r[xcd_regs_minidump_context_idx[i]];
+        memcpy(buf + 156 + i * sizeof(value), &value, sizeof(value));
+    }
+    value = self->r[XCD_REGS_ESP];
+    memcpy(buf + 196, &value, sizeof(value));
+    return XCD_REGS_MINIDUMP_CONTEXT_SIZE;
+}
+
 int xcd_regs_try_step_sigreturn(xcd_regs_t *self, uintptr_t rel_pc, xcd_memory_t *memory, pid_t pid)
 {
     uint64_t data;
@@ -26,6 +26,7 @@ typedef int make_iso_compilers_happy;
 #ifdef __x86_64__
 
 #include <stdio.h>
+#include <string.h>
 #include <ucontext.h>
 #include <sys/ptrace.h>
 #include "xcc_errno.h"
@@ -82,6 +83,15 @@ void xcd_regs_get_labels(xcd_regs_label_t **labels, size_t *labels_count)
     *labels_count = sizeof(xcd_regs_labels) / sizeof(xcd_regs_label_t);
 }
 
+//number of registers in each line of xcd_regs_record()
+static size_t xcd_regs_record_rows[] = {4, 4, 4, 2, 3};
+
+void xcd_regs_get_record_rows(size_t **rows, size_t *rows_count)
+{
+    *rows = xcd_regs_record_rows;
+    *rows_count = sizeof(xcd_regs_record_rows) / sizeof(size_t);
+}
+
 uintptr_t xcd_regs_get_pc(xcd_regs_t *self)
 {
     return self->r[XCD_REGS_PC];
@@ -163,6 +173,35 @@ int xcd_regs_record(xcd_regs_t *self, int log_fd)
                                  self->r[XCD_REGS_RBP], self->r[XCD_REGS_RSP], self->r[XCD_REGS_RIP]);
 }
 
+//MDRawContextAMD64 with CONTEXT_CONTROL and CONTEXT_INTEGER
+#define XCD_REGS_MINIDUMP_CONTEXT_SIZE  1232
+#define XCD_REGS_MINIDUMP_CONTEXT_FLAGS 0x00100003
+
+//in the order of rax ... rip in MDRawContextAMD64
+static uint8_t xcd_regs_minidump_context_idx[] = {
+    XCD_REGS_RAX, XCD_REGS_RCX, XCD_REGS_RDX, XCD_REGS_RBX, XCD_REGS_RSP, XCD_REGS_RBP, XCD_REGS_RSI, XCD_REGS_RDI,
+    XCD_REGS_R8,  XCD_REGS_R9,  XCD_REGS_R10, XCD_REGS_R11, XCD_REGS_R12, XCD_REGS_R13, XCD_REGS_R14, XCD_REGS_R15,
+    XCD_REGS_RIP
+};
+
+size_t xcd_regs_get_minidump_context(xcd_regs_t *self, uint8_t *buf, size_t buf_len)
+{
+    uint32_t flags = XCD_REGS_MINIDUMP_CONTEXT_FLAGS;
+    uint64_t value;
+    size_t   i;
+
+    if(buf_len < XCD_REGS_MINIDUMP_CONTEXT_SIZE) return 0;
+
+    memset(buf, 0, XCD_REGS_MINIDUMP_CONTEXT_SIZE);
+    memcpy(buf + 48, &flags, sizeof(flags));
+    for(i = 0; i < sizeof(xcd_regs_minidump_context_idx); i++)
+    {
+        value = self->r[xcd_regs_minidump_context_idx[i]];
+        memcpy(buf + 120 + i * sizeof(value), &value, sizeof(value));
+    }
+    return XCD_REGS_MINIDUMP_CONTEXT_SIZE;
+}
+
 int xcd_regs_try_step_sigreturn(xcd_regs_t *self, uintptr_t rel_pc, xcd_memory_t *memory, pid_t pid)
 {
     uint64_t data = 0;
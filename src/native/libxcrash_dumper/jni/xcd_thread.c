@@ -30,6 +30,7 @@
 #include <ucontext.h>
 #include <dirent.h>
 #include <string.h>
+#include <errno.h>
 #include <sys/mman.h>
 #include <sys/types.h>
 #include <sys/stat.h>
@@ -40,6 +41,7 @@
 #include "xcc_util.h"
 #include "xcd_thread.h"
 #include "xcd_frames.h"
+#include "xcd_compact.h"
 #include "xcd_regs.h"
 #include "xcd_util.h"
 #include "xcd_log.h"
@@ -54,7 +56,7 @@ void xcd_thread_init(xcd_thread_t *self, pid_t pid, pid_t tid)
     memset(&(self->regs), 0, sizeof(self->regs));
 }
 
-void xcd_thread_suspend(xcd_thread_t *self)
+void xcd_thread_attach(xcd_thread_t *self)
 {
     if(0 != ptrace(PTRACE_ATTACH, self->tid, NULL, NULL))
     {
@@ -63,6 +65,38 @@ void xcd_thread_suspend(xcd_thread_t *self)
 #endif
         self->status = XCD_THREAD_STATUS_ATTACH;
     }
+}
+
+int xcd_thread_seize(xcd_thread_t *self)
+{
+    //PTRACE_SEIZE does not send SIGSTOP, the thread is stopped by PTRACE_INTERRUPT
+    if(0 != ptrace(PTRACE_SEIZE, self->tid, NULL, NULL))
+    {
+#if XCD_THREAD_DEBUG
+        XCD_LOG_WARN("THREAD: ptrace SEIZE failed, errno=%d", errno);
+#endif
+        //not supported by the kernel (before Linux 3.4)
+        if(EIO == errno || EINVAL == errno) return XCC_ERRNO_NOTSPT;
+
+        self->status = XCD_THREAD_STATUS_ATTACH;
+        return 0;
+    }
+
+    if(0 != ptrace(PTRACE_INTERRUPT, self->tid, NULL, NULL))
+    {
+#if XCD_THREAD_DEBUG
+        XCD_LOG_WARN("THREAD: ptrace INTERRUPT failed, errno=%d", errno);
+#endif
+        ptrace(PTRACE_DETACH, self->tid, NULL, NULL);
+        self->status = XCD_THREAD_STATUS_ATTACH;
+    }
+
+    return 0;
+}
+
+void xcd_thread_wait_stop(xcd_thread_t *self)
+{
+    if(XCD_THREAD_STATUS_ATTACH == self->status) return;
 
     errno = 0;
     while(waitpid(self->tid, NULL, __WALL) < 0)
@@ -74,6 +108,7 @@ void xcd_thread_suspend(xcd_thread_t *self)
             XCD_LOG_ERROR("THREAD: waitpid for ptrace ATTACH failed, errno=%d", errno);
 #endif
             self->status = XCD_THREAD_STATUS_ATTACH_WAIT;
+            break;
         }
         errno = 0;
     }
@@ -129,6 +164,9 @@ int xcd_thread_load_frames(xcd_thread_t *self, xcd_maps_t *maps)
 #if XCD_THREAD_DEBUG
     XCD_LOG_DEBUG("THREAD: load frames, tid=%d, tname=%s", self->tid, self->tname);
 #endif
+    //already loaded
+    if(NULL != self->frames) return 0;
+    
     return xcd_frames_create(&(self->frames), &(self->regs), maps, self->pid);
 }
 
@@ -166,6 +204,21 @@ int xcd_thread_record_stack(xcd_thread_t *self, int log_fd)
     return xcd_frames_record_stack(self->frames, log_fd);
 }
 
+int xcd_thread_record_compact(xcd_thread_t *self, xcd_compact_t *compact, const char *pname, xcd_maps_t *maps)
+{
+    int r;
+
+    if(0 != (r = xcd_compact_write_thread(compact, self->pid, self->tid, self->tname, pname))) return r;
+    if(XCD_THREAD_STATUS_OK != self->status) return XCC_ERRNO_STATE;
+    if(0 != (r = xcd_compact_write_regs(compact, &(self->regs)))) return r;
+    if(0 == xcd_thread_load_frames(self, maps))
+    {
+        if(0 != (r = xcd_frames_record_backtrace_compact(self->frames, compact))) return r;
+        if(0 != (r = xcd_frames_record_stack_compact(self->frames, compact))) return r;
+    }
+    return 0;
+}
+
 #define XCD_THREAD_MEMORY_BYTES_TO_DUMP 256
 #define XCD_THREAD_MEMORY_BYTES_PER_LINE 16
 
@@ -296,3 +349,10 @@ int xcd_thread_record_memory(xcd_thread_t *self, int log_fd)
 
     return 0;
 }
+
+uint64_t xcd_thread_get_signature(xcd_thread_t *self, uint64_t hash)
+{
+    if(XCD_THREAD_STATUS_OK != self->status || NULL == self->frames) return hash;
+
+    return xcd_frames_get_signature(self->frames, hash);
+}
@@ -28,6 +28,7 @@
 #include <sys/types.h>
 #include "xcd_regs.h"
 #include "xcd_frames.h"
+#include "xcd_compact.h"
 
 #ifdef __cplusplus
 extern "C" {
@@ -57,7 +58,9 @@ typedef struct xcd_thread
 
 void xcd_thread_init(xcd_thread_t *self, pid_t pid, pid_t tid);
 
-void xcd_thread_suspend(xcd_thread_t *self);
+void xcd_thread_attach(xcd_thread_t *self);
+int xcd_thread_seize(xcd_thread_t *self);
+void xcd_thread_wait_stop(xcd_thread_t *self);
 void xcd_thread_resume(xcd_thread_t *self);
 
 void xcd_thread_load_info(xcd_thread_t *self);
@@ -71,6 +74,9 @@ int xcd_thread_record_backtrace(xcd_thread_t *self, int log_fd);
 int xcd_thread_record_buildid(xcd_thread_t *self, int log_fd, int dump_elf_hash, uintptr_t fault_addr);
 int xcd_thread_record_stack(xcd_thread_t *self, int log_fd);
 int xcd_thread_record_memory(xcd_thread_t *self, int log_fd);
+int xcd_thread_record_compact(xcd_thread_t *self, xcd_compact_t *compact, const char *pname, xcd_maps_t *maps);
+
+uint64_t xcd_thread_get_signature(xcd_thread_t *self, uint64_t hash);
 
 #ifdef __cplusplus
 }
@@ -22,6 +22,7 @@
 // Created by caikelun on 2019-03-07.
 
 #include <fcntl.h>
+#include <stdio.h>
 #include <stdlib.h>
 #include <errno.h>
 #include <unistd.h>
@@ -29,9 +30,12 @@
 #include <string.h>
 #include <signal.h>
 #include <inttypes.h>
+#include <pthread.h>
 #include <sys/ptrace.h>
 #include <sys/types.h>
 #include <sys/stat.h>
+#include <sys/uio.h>
+#include <sys/syscall.h>
 #include "xcc_errno.h"
 #include "xcc_util.h"
 #include "xcd_util.h"
@@ -45,6 +49,191 @@
 #include "XzCrc64.h"
 #pragma clang diagnostic pop
 
+//remote memory reading mode
+#define XCD_UTIL_READ_MODE_VM_READV  0 //process_vm_readv()
+#define XCD_UTIL_READ_MODE_PROC_MEM  1 //pread() on /proc/<PID>/mem
+#define XCD_UTIL_READ_MODE_PTRACE    2 //ptrace(PTRACE_PEEKTEXT) only
+
+//page cache for remote memory reading
+#define XCD_UTIL_PAGE_SIZE      4096
+#define XCD_UTIL_PAGE_CACHE_CNT 64
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wpadded"
+typedef struct
+{
+    pid_t     pid;
+    uintptr_t addr;
+    uint64_t  last_used;
+    uint8_t   data[XCD_UTIL_PAGE_SIZE];
+} xcd_util_page_t;
+#pragma clang diagnostic pop
+
+//the page cache is shared by the unwinding workers, the lock is never held during a syscall
+static pthread_mutex_t xcd_util_lock = PTHREAD_MUTEX_INITIALIZER;
+static int             xcd_util_read_mode = XCD_UTIL_READ_MODE_VM_READV;
+static int             xcd_util_mem_fd = -1;
+static pid_t           xcd_util_mem_fd_pid = 0;
+static xcd_util_page_t xcd_util_pages[XCD_UTIL_PAGE_CACHE_CNT];
+static uint64_t        xcd_util_pages_clock = 0;
+
+static int xcd_util_get_read_mode(void)
+{
+    return __atomic_load_n(&xcd_util_read_mode, __ATOMIC_ACQUIRE);
+}
+
+static void xcd_util_set_read_mode(int mode)
+{
+    __atomic_store_n(&xcd_util_read_mode, mode, __ATOMIC_RELEASE);
+}
+
+static int xcd_util_get_mem_fd(pid_t pid)
+{
+    char path[64];
+    int  fd;
+
+    pthread_mutex_lock(&xcd_util_lock);
+    if(xcd_util_mem_fd < 0 || xcd_util_mem_fd_pid != pid)
+    {
+        if(xcd_util_mem_fd >= 0) close(xcd_util_mem_fd);
+        snprintf(path, sizeof(path), "/proc/%d/mem", pid);
+        xcd_util_mem_fd = XCC_UTIL_TEMP_FAILURE_RETRY(open(path, O_RDONLY | O_CLOEXEC));
+        xcd_util_mem_fd_pid = pid;
+    }
+    fd = xcd_util_mem_fd;
+    pthread_mutex_unlock(&xcd_util_lock);
+    return fd;
+}
+
+//returns -1 if the bulk reading is not permitted
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wgnu-statement-expression"
+static ssize_t xcd_util_bulk_read(pid_t pid, uintptr_t addr, void *dst, size_t bytes)
+{
+    struct iovec local_iov = {.iov_base = dst, .iov_len = bytes};
+    struct iovec remote_iov = {.iov_base = (void *)addr, .iov_len = bytes};
+    ssize_t      r;
+    int          fd;
+
+    if(XCD_UTIL_READ_MODE_VM_READV == xcd_util_get_read_mode())
+    {
+        //process_vm_readv() is not available in bionic before API level 23
+        errno = 0;
+        if(0 <= (r = (ssize_t)syscall(__NR_process_vm_readv, pid, &local_iov, 1, &remote_iov, 1, 0))) return r;
+        if(EFAULT == errno) return 0;
+
+        //ENOSYS, EPERM, ...
+        XCD_LOG_DEBUG("UTIL: process_vm_readv failed, errno:%d", errno);
+        xcd_util_set_read_mode(XCD_UTIL_READ_MODE_PROC_MEM);
+    }
+
+    if(XCD_UTIL_READ_MODE_PROC_MEM == xcd_util_get_read_mode())
+    {
+        if(0 <= (fd = xcd_util_get_mem_fd(pid)))
+        {
+            if(0 <= (r = XCC_UTIL_TEMP_FAILURE_RETRY(pread64(fd, dst, bytes, (off64_t)addr)))) return r;
+            if(EIO == errno || EFAULT == errno) return 0;
+        }
+
+        XCD_LOG_DEBUG("UTIL: read /proc/%d/mem failed, errno:%d", pid, errno);
+        xcd_util_set_read_mode(XCD_UTIL_READ_MODE_PTRACE);
+    }
+
+    return -1;
+}
+#pragma clang diagnostic pop
+
+//copy from the cached page, returns 0 if not cached
+static int xcd_util_read_page(pid_t pid, uintptr_t addr, size_t offset, void *dst, size_t len)
+{
+    xcd_util_page_t *page;
+    size_t           i;
+    int              found = 0;
+
+    pthread_mutex_lock(&xcd_util_lock);
+    for(i = 0; i < XCD_UTIL_PAGE_CACHE_CNT; i++)
+    {
+        page = &(xcd_util_pages[i]);
+        if(0 != page->last_used && page->pid == pid && page->addr == addr)
+        {
+            page->last_used = ++xcd_util_pages_clock;
+            memcpy(dst, page->data + offset, len);
+            found = 1;
+            break;
+        }
+    }
+    pthread_mutex_unlock(&xcd_util_lock);
+    return found;
+}
+
+//replace the least recently used page
+static void xcd_util_save_page(pid_t pid, uintptr_t addr, const uint8_t *data)
+{
+    xcd_util_page_t *page, *victim = NULL;
+    size_t           i;
+
+    pthread_mutex_lock(&xcd_util_lock);
+    for(i = 0; i < XCD_UTIL_PAGE_CACHE_CNT; i++)
+    {
+        page = &(xcd_util_pages[i]);
+        if(0 != page->last_used && page->pid == pid && page->addr == addr) goto end; //saved by another worker
+        if(NULL == victim || page->last_used < victim->last_used) victim = page;
+    }
+    memcpy(victim->data, data, XCD_UTIL_PAGE_SIZE);
+    victim->pid = pid;
+    victim->addr = addr;
+    victim->last_used = ++xcd_util_pages_clock;
+
+ end:
+    pthread_mutex_unlock(&xcd_util_lock);
+}
+
+//the target process is stopped, so the cached pages will not be changed
+static size_t xcd_util_cached_read(pid_t pid, uintptr_t addr, void *dst, size_t bytes)
+{
+    uint8_t          data[XCD_UTIL_PAGE_SIZE];
+    uintptr_t        page_addr;
+    size_t           offset, len, bytes_read = 0;
+    ssize_t          r;
+
+    if(XCD_UTIL_READ_MODE_PTRACE == xcd_util_get_read_mode()) return 0;
+
+    //large block, read it directly
+    if(bytes > XCD_UTIL_PAGE_SIZE)
+    {
+        r = xcd_util_bulk_read(pid, addr, dst, bytes);
+        return (r > 0 ? (size_t)r : 0);
+    }
+    
+    while(bytes_read < bytes)
+    {
+        page_addr = (addr + bytes_read) & ~((uintptr_t)XCD_UTIL_PAGE_SIZE - 1);
+        offset = (size_t)(addr + bytes_read - page_addr);
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wgnu-statement-expression"
+        len = XCC_UTIL_MIN(XCD_UTIL_PAGE_SIZE - offset, bytes - bytes_read);
+#pragma clang diagnostic pop
+
+        if(!xcd_util_read_page(pid, page_addr, offset, (uint8_t *)dst + bytes_read, len))
+        {
+            //load to cache
+            if(XCD_UTIL_PAGE_SIZE != xcd_util_bulk_read(pid, page_addr, data, XCD_UTIL_PAGE_SIZE)) break;
+            xcd_util_save_page(pid, page_addr, data);
+            memcpy((uint8_t *)dst + bytes_read, data + offset, len);
+        }
+        bytes_read += len;
+    }
+    
+    return bytes_read;
+}
+
+int xcd_util_can_read_from_any_thread(void)
+{
+    //PTRACE_PEEKTEXT only works in the tracer thread
+    return XCD_UTIL_READ_MODE_PTRACE != xcd_util_get_read_mode();
+}
+
 int xcd_util_ptrace_read_long(pid_t pid, uintptr_t addr, long *value)
 {
     // ptrace() returns -1 and sets errno when the operation fails.
@@ -66,7 +255,13 @@ size_t xcd_util_ptrace_read(pid_t pid, uintptr_t addr, void *dst, size_t bytes)
     uintptr_t max_size;
     if(__builtin_add_overflow(addr, bytes, &max_size)) return 0;
 
-    size_t bytes_read = 0;
+    // Try the bulk reading first, fall back to PTRACE_PEEKTEXT for the rest.
+    size_t bytes_read = xcd_util_cached_read(pid, addr, dst, bytes);
+    if(bytes_read == bytes) return bytes_read;
+    addr += bytes_read;
+    dst = (void *)((uintptr_t)dst + bytes_read);
+    bytes -= bytes_read;
+
     long   data;
     size_t align_bytes = addr & (sizeof(long) - 1);
     if(align_bytes != 0)
@@ -126,7 +321,13 @@ static void xcd_util_xz_free(ISzAllocPtr p, void* address)
     free(address);
 }
 
-static int xcd_util_xz_crc_gen = 0;
+static pthread_once_t xcd_util_xz_crc_once = PTHREAD_ONCE_INIT;
+static void xcd_util_xz_crc_gen(void)
+{
+    CrcGenerateTable();
+    Crc64GenerateTable();
+}
+
 int xcd_util_xz_decompress(uint8_t* src, size_t src_size, uint8_t** dst, size_t* dst_size)
 {
     size_t       src_offset = 0;
@@ -137,14 +338,8 @@ int xcd_util_xz_decompress(uint8_t* src, size_t src_size, uint8_t** dst, size_t*
     CXzUnpacker  state;
     ECoderStatus status;
 
-    if(!xcd_util_xz_crc_gen)
-    {
-        //call these initialization functions only once
-        xcd_util_xz_crc_gen = 1;
-        
-        CrcGenerateTable();
-        Crc64GenerateTable();
-    }
+    //call these initialization functions only once
+    pthread_once(&xcd_util_xz_crc_once, xcd_util_xz_crc_gen);
 
     XzUnpacker_Construct(&state, &alloc);
     
@@ -186,3 +381,17 @@ int xcd_util_xz_decompress(uint8_t* src, size_t src_size, uint8_t** dst, size_t*
     
     return 0;
 }
+
+//FNV-1a
+uint64_t xcd_util_hash(uint64_t hash, const void *buf, size_t len)
+{
+    const uint8_t *p = (const uint8_t *)buf;
+    size_t         i;
+
+    for(i = 0; i < len; i++)
+    {
+        hash ^= p[i];
+        hash *= 0x100000001b3ULL;
+    }
+    return hash;
+}
@@ -36,9 +36,13 @@ extern "C" {
 int xcd_util_ptrace_read_long(pid_t pid, uintptr_t addr, long *value);
 size_t xcd_util_ptrace_read(pid_t pid, uintptr_t addr, void *dst, size_t bytes);
 int xcd_util_ptrace_read_fully(pid_t pid, uintptr_t addr, void *dst, size_t bytes);
+int xcd_util_can_read_from_any_thread(void);
 
 int xcd_util_xz_decompress(uint8_t* src, size_t src_size, uint8_t** dst, size_t* dst_size);
 
+#define XCD_UTIL_HASH_INIT 0xcbf29ce484222325ULL
+uint64_t xcd_util_hash(uint64_t hash, const void *buf, size_t len);
+
 #ifdef __cplusplus
 }
 #endif